@@ -0,0 +1,1329 @@
+package jrtr;
+
+import java.util.Arrays;
+
+import javax.vecmath.Matrix4f;
+
+import jrtr.glrenderer.GLUploader;
+import jrtr.glrenderer.GLVertexData;
+
+/**
+ * Adaptive Loop subdivision (see {@link LoopSubdivision}) of a triangle
+ * mesh. Triangles are split only where the subdivision surface deviates
+ * from them by more than a threshold on the screen, or where their edges
+ * look longer than a threshold. Close-ups thus look smooth, while flat,
+ * distant and invisible parts keep few triangles, and the total number of
+ * triangles stays below a budget.
+ * <p>
+ * The refinement is a forest of quadtrees, one per triangle of the base
+ * mesh: face f of level l has the children 4f to 4f+3 on level l+1,
+ * numbered like the faces of {@link LoopSubdivision}. Neighbouring leaves
+ * differ by at most one level. A leaf next to a split neighbour has a
+ * vertex in the middle of that edge, and is drawn as two triangles to
+ * close the crack (red-green refinement). A leaf with two or more split
+ * neighbours is split as well.
+ * <p>
+ * Only the faces that are split are stored. The connectivity of each level
+ * follows from the base mesh, and positions and attributes are computed on
+ * demand from the vertices around them and cached. All vertices are placed
+ * at their limit positions on the subdivision surface, with the normals of
+ * the limit surface, so vertices shared by leaves on different levels
+ * match exactly. Attributes other than the position and normal are
+ * interpolated linearly, like in {@link LoopSubdivision}.
+ * <p>
+ * Call {@link #update(Camera, Frustum, Matrix4f)} when the camera moves.
+ * It starts from the previous refinement, merges faces that no longer need
+ * their children and splits faces that need more detail. Faces are merged
+ * by one level per update. The vertex data is kept and only the triangles
+ * of the leaves that changed, and their vertices, are rewritten.
+ */
+public class AdaptiveSubdivision {
+
+	/**
+	 * The deepest level supported. Ids of half-edges on each level need to
+	 * fit into the lower bits of a key.
+	 */
+	public static final int MAX_LEVEL = 12;
+
+	/**
+	 * Split faces are merged again when their error drops below this
+	 * fraction of the threshold, so faces close to the threshold do not
+	 * switch in every update.
+	 */
+	private static final float MERGE_FACTOR = 0.5f;
+
+	/**
+	 * The caches are cleared when they hold more entries than this times
+	 * the number of triangles, so they do not grow without bounds as the
+	 * camera moves around.
+	 */
+	private static final int CACHE_FACTOR = 32;
+
+	// Keys hold the level in the upper bits and a face, half-edge, vertex
+	// or wedge id below. Vertices and wedges of the base mesh are on level
+	// 0. The ones made on level l are identified by a half-edge of level
+	// l-1 they are made from.
+	private static final int LEVEL_SHIFT = 56;
+	private static final long ID_MASK = (1L << LEVEL_SHIFT) - 1;
+
+	private final HalfEdgeMesh base;
+	private final RenderContext renderContext;
+	private int maxLevel;
+	private float screenError;
+	private float edgeLength;
+	private int maxTriangles;
+
+	// The faces that are split, by key. Merged faces keep the value 0.
+	private LongIntHashMap split;
+	private int nTriangles;
+	private boolean changed;
+
+	// The vertex data, and whether it is behind the refinement. Each leaf
+	// has a slot of two triangles, the second one degenerate unless the
+	// leaf has a vertex in the middle of an edge. The leaves map to their
+	// slot, shifted left by two, plus one plus the edge with that vertex.
+	// Each wedge used by the leaves has a vertex, which is freed when no
+	// triangle refers to it anymore.
+	private VertexData vertexData;
+	private boolean stale;
+	private boolean grown;
+	private float[][] elements;
+	private int[] indices;
+	private LongIntHashMap leafSlots;
+	private long[] slotLeaves;
+	private boolean[] keep;
+	private int nSlots;
+	private IntArrayList freeSlots;
+	private LongIntHashMap vertexSlots;
+	private long[] vertexWedges;
+	private int[] references;
+	private int nVertices;
+	private IntArrayList freeVertices;
+	private IntArrayList unreferenced;
+
+	// The positions of the vertices on each level, their limit positions
+	// and normals, the attributes of the wedges except for the normal, and
+	// the bounds of the faces
+	private FloatCache[] positions;
+	private FloatCache limits;
+	private FloatCache attributes;
+	private FloatCache bounds;
+	private int attributeSize;
+
+	// Scratch space
+	private LongArrayList stack;
+	private LongArrayList closure;
+	private LongArrayList created;
+	private FloatArrayList ring;
+
+	/**
+	 * @param mesh
+	 * 		the base mesh, which is not changed
+	 * @param renderContext
+	 * 		used to make the vertex data
+	 */
+	public AdaptiveSubdivision(HalfEdgeMesh mesh, RenderContext renderContext)
+	{
+		this.base = mesh;
+		this.renderContext = renderContext;
+		maxLevel = 6;
+		screenError = 0.001f;
+		edgeLength = 0;
+		maxTriangles = 500000;
+
+		positions = new FloatCache[MAX_LEVEL+1];
+		for(int l=0; l<=MAX_LEVEL; l++)
+			positions[l] = new FloatCache(3);
+		limits = new FloatCache(6);
+		for(VertexData.Semantic s : VertexData.Semantic.values())
+		{
+			if(s != VertexData.Semantic.NORMAL && base.attributes[s.ordinal()] != null)
+				attributeSize += base.components[s.ordinal()];
+		}
+		attributes = new FloatCache(attributeSize);
+		bounds = new FloatCache(6);
+		stack = new LongArrayList();
+		closure = new LongArrayList();
+		created = new LongArrayList();
+		ring = new FloatArrayList();
+
+		elements = new float[VertexData.Semantic.values().length][];
+		indices = new int[0];
+		leafSlots = new LongIntHashMap();
+		slotLeaves = new long[0];
+		keep = new boolean[0];
+		freeSlots = new IntArrayList();
+		vertexSlots = new LongIntHashMap();
+		vertexWedges = new long[0];
+		references = new int[0];
+		freeVertices = new IntArrayList();
+		unreferenced = new IntArrayList();
+		reset();
+	}
+
+	/**
+	 * @param vertexData
+	 * 		the base mesh, see {@link HalfEdgeMesh#HalfEdgeMesh(VertexData)}
+	 */
+	public AdaptiveSubdivision(VertexData vertexData, RenderContext renderContext)
+	{
+		this(new HalfEdgeMesh(vertexData), renderContext);
+	}
+
+	/**
+	 * Go back to the base mesh.
+	 */
+	public void reset()
+	{
+		split = new LongIntHashMap();
+		nTriangles = base.getNumberOfFaces();
+		stale = true;
+	}
+
+	public int getMaxLevel()
+	{
+		return maxLevel;
+	}
+
+	/**
+	 * Set how often triangles of the base mesh may be subdivided, at most
+	 * {@link #MAX_LEVEL} times. Lowering the level goes back to the base
+	 * mesh.
+	 */
+	public void setMaxLevel(int maxLevel)
+	{
+		maxLevel = Math.max(0, Math.min(maxLevel, MAX_LEVEL));
+		if(maxLevel < this.maxLevel)
+			reset();
+		this.maxLevel = maxLevel;
+	}
+
+	public float getScreenError()
+	{
+		return screenError;
+	}
+
+	/**
+	 * Set how far the subdivision surface may deviate from a triangle before
+	 * the triangle is split.
+	 *
+	 * @param screenError
+	 * 		the deviation as a fraction of the height of the viewport, 0.001
+	 * 		by default
+	 */
+	public void setScreenError(float screenError)
+	{
+		this.screenError = screenError;
+	}
+
+	public float getMaxEdgeLength()
+	{
+		return edgeLength;
+	}
+
+	/**
+	 * Split triangles whose edges look longer than a threshold as well,
+	 * even where the surface is flat.
+	 *
+	 * @param edgeLength
+	 * 		the length as a fraction of the height of the viewport, or 0 to
+	 * 		split by the deviation only, which is the default
+	 */
+	public void setMaxEdgeLength(float edgeLength)
+	{
+		this.edgeLength = edgeLength;
+	}
+
+	public int getMaxTriangles()
+	{
+		return maxTriangles;
+	}
+
+	/**
+	 * Set the budget of triangles. Faces with the largest errors are split
+	 * first, and no faces are split beyond the budget, except for the few
+	 * needed to keep the mesh free of cracks.
+	 */
+	public void setMaxTriangles(int maxTriangles)
+	{
+		this.maxTriangles = maxTriangles;
+	}
+
+	/**
+	 * @return the number of leaves of the refinement, without the triangles
+	 * 		added to close cracks
+	 */
+	public int getNumberOfTriangles()
+	{
+		return nTriangles;
+	}
+
+	/**
+	 * Refine the mesh for the view of a camera.
+	 *
+	 * @param transformation
+	 * 		the transformation of the shape of the mesh
+	 * @return whether the refinement changed, and {@link #getVertexData()}
+	 * 		updates the vertex data
+	 */
+	public boolean update(Camera camera, Frustum frustum, Matrix4f transformation)
+	{
+		Matrix4f modelview = new Matrix4f(camera.getCameraMatrix());
+		modelview.mul(transformation);
+		return update(modelview, frustum.getProjectionMatrix());
+	}
+
+	/**
+	 * Refine the mesh for a view.
+	 *
+	 * @param modelview
+	 * 		the transformation from object to camera space
+	 * @param projection
+	 * 		the projection matrix
+	 * @return whether the refinement changed
+	 */
+	public boolean update(Matrix4f modelview, Matrix4f projection)
+	{
+		long cached = limits.size() + attributes.size() + bounds.size();
+		for(FloatCache c : positions)
+			cached += c.size();
+		if(cached > (long)CACHE_FACTOR * Math.max(nTriangles, base.getNumberOfFaces()))
+			clearCaches();
+
+		View view = new View(modelview, projection);
+		changed = false;
+		LongArrayList leaves = new LongArrayList();
+		LongArrayList parents = new LongArrayList();
+		collect(leaves, parents);
+
+		// Merge first, so the budget is available for splitting
+		for(int i=0; i<parents.size(); i++)
+		{
+			long k = parents.get(i);
+			if(error(k, view) < MERGE_FACTOR && canMerge(level(k), id(k)))
+			{
+				split.put(k, 0);
+				nTriangles -= 3;
+				changed = true;
+			}
+		}
+
+		// Split the faces with the largest errors first. The children of
+		// the split faces are candidates in the next pass.
+		LongArrayList candidates = leaves;
+		for(int pass=0; pass<=maxLevel && candidates.size() > 0; pass++)
+		{
+			long[] order = new long[candidates.size()];
+			int n = 0;
+			for(int i=0; i<candidates.size(); i++)
+			{
+				long k = candidates.get(i);
+				if(level(k) >= maxLevel)
+					continue;
+				float e = error(k, view);
+				if(e > 1)
+					order[n++] = (long)Float.floatToIntBits(e) << 32 | i;
+			}
+			Arrays.sort(order, 0, n);
+
+			created.clear();
+			for(int i=n-1; i>=0 && nTriangles + 3 <= maxTriangles; i--)
+			{
+				long k = candidates.get((int)order[i]);
+				if(isSplit(k) || !isPresent(level(k), id(k)))
+					continue;
+				splitFace(level(k), id(k));
+				while(closure.size() > 0)
+				{
+					long g = closure.removeLast();
+					if(!isSplit(g) && isPresent(level(g), id(g)) && hanging(level(g), id(g)) >= 2)
+						splitFace(level(g), id(g));
+				}
+			}
+			candidates = new LongArrayList(created.size());
+			candidates.addAll(created);
+		}
+
+		if(changed)
+			stale = true;
+		return changed;
+	}
+
+	/**
+	 * The vertex data is updated in place, where leaves changed since the
+	 * last call. When it runs out of room, it is replaced by vertex data
+	 * with more room, and the OpenGL buffers of the old vertex data are
+	 * deleted on the rendering thread. Use the vertex data returned by the
+	 * last call.
+	 *
+	 * @return the refined mesh with positions and normals of the limit
+	 * 		surface, and the other elements of the base mesh
+	 */
+	public VertexData getVertexData()
+	{
+		if(stale)
+		{
+			updateVertexData();
+			stale = false;
+		}
+		return vertexData;
+	}
+
+	/**
+	 * Remove the leaves that were merged or split, or whose vertex in the
+	 * middle of an edge changed, from the vertex data, and add the new
+	 * leaves.
+	 */
+	private void updateVertexData()
+	{
+		LongArrayList leaves = new LongArrayList(nTriangles);
+		collect(leaves, new LongArrayList());
+
+		IntArrayList added = new IntArrayList();
+		Arrays.fill(keep, 0, nSlots, false);
+		for(int i=0; i<leaves.size(); i++)
+		{
+			long k = leaves.get(i);
+			int hanging = hangingEdge(level(k), id(k));
+			int slot = leafSlots.get(k);
+			if(slot != LongIntHashMap.MISSING && (slot & 3) == hanging+1)
+				keep[slot >> 2] = true;
+			else
+				added.add(i, hanging);
+		}
+		for(int s=0; s<nSlots; s++)
+		{
+			if(slotLeaves[s] != -1 && !keep[s])
+				removeLeaf(s);
+		}
+		for(int i=0; i<added.size(); i+=2)
+			addLeaf(leaves.get(added.get(i)), added.get(i+1));
+
+		// Vertices the new leaves did not take up again are freed
+		for(int i=0; i<unreferenced.size(); i++)
+		{
+			int v = unreferenced.get(i);
+			if(references[v] > 0)
+				continue;
+			vertexSlots.remove(vertexWedges[v]);
+			freeVertices.add(v);
+		}
+		unreferenced.clear();
+
+		if(vertexData == null || grown)
+		{
+			VertexData old = vertexData;
+			makeVertexData();
+			if(old != null)
+				dispose(old);
+			grown = false;
+		}
+	}
+
+	/**
+	 * @return the edge of a leaf with a split neighbour, or -1
+	 */
+	private int hangingEdge(int l, long f)
+	{
+		int hanging = -1;
+		for(int j=0; j<3; j++)
+		{
+			long t = twin(l, 3*f+j);
+			if(t != -1 && isSplit(key(l, t/3)))
+				hanging = j;
+		}
+		return hanging;
+	}
+
+	/**
+	 * Write the triangles of a leaf into a free slot. A leaf with a split
+	 * neighbour is drawn as two triangles, split at the vertex in the middle
+	 * of the edge.
+	 */
+	private void addLeaf(long k, int hanging)
+	{
+		int s = freeSlots.size() > 0 ? freeSlots.removeLast() : nSlots++;
+		if(s == slotLeaves.length)
+			growSlots();
+		slotLeaves[s] = k;
+		leafSlots.put(k, s << 2 | hanging+1);
+
+		int l = level(k);
+		long f = id(k);
+		int o = 6*s;
+		if(hanging == -1)
+		{
+			for(int j=0; j<3; j++)
+			{
+				indices[o+j] = vertex(wedge(l, 3*f+j));
+				indices[o+3+j] = 0;
+			}
+		}
+		else
+		{
+			int a = vertex(wedge(l, 3*f+hanging));
+			int b = vertex(wedge(l, 3*f+(hanging+1)%3));
+			int c = vertex(wedge(l, 3*f+(hanging+2)%3));
+			int m = vertex(key(l+1, wedgeEdge(l, 3*f+hanging)));
+			// Both triangles refer to c and m
+			references[c]++;
+			references[m]++;
+			indices[o] = a;
+			indices[o+1] = m;
+			indices[o+2] = c;
+			indices[o+3] = m;
+			indices[o+4] = b;
+			indices[o+5] = c;
+		}
+		if(vertexData != null)
+			vertexData.markIndicesDirty(o, 6);
+	}
+
+	/**
+	 * Make the triangles of a leaf degenerate, and free its slot.
+	 */
+	private void removeLeaf(int s)
+	{
+		int n = (leafSlots.remove(slotLeaves[s]) & 3) == 0 ? 3 : 6;
+		for(int j=0; j<n; j++)
+		{
+			int v = indices[6*s+j];
+			if(--references[v] == 0)
+				unreferenced.add(v);
+		}
+		Arrays.fill(indices, 6*s, 6*s+6, 0);
+		if(vertexData != null)
+			vertexData.markIndicesDirty(6*s, 6);
+		slotLeaves[s] = -1;
+		freeSlots.add(s);
+	}
+
+	/**
+	 * @return the vertex of a wedge, with one more reference. A wedge that
+	 * 		has no vertex gets a free one.
+	 */
+	private int vertex(long w)
+	{
+		int v = vertexSlots.get(w);
+		if(v == LongIntHashMap.MISSING)
+		{
+			v = freeVertices.size() > 0 ? freeVertices.removeLast() : nVertices++;
+			if(v == vertexWedges.length)
+				growVertices();
+			vertexSlots.put(w, v);
+			vertexWedges[v] = w;
+			writeVertex(v, w);
+		}
+		references[v]++;
+		return v;
+	}
+
+	/**
+	 * Write the limit position and normal, and the other attributes, of a
+	 * wedge.
+	 */
+	private void writeVertex(int v, long w)
+	{
+		int o = limit(vertexOfWedge(w));
+		System.arraycopy(limits.array(), o, elements[VertexData.Semantic.POSITION.ordinal()], 3*v, 3);
+		System.arraycopy(limits.array(), o+3, elements[VertexData.Semantic.NORMAL.ordinal()], 3*v, 3);
+		if(vertexData != null)
+		{
+			vertexData.markDirty(VertexData.Semantic.POSITION, v, 1);
+			vertexData.markDirty(VertexData.Semantic.NORMAL, v, 1);
+		}
+		if(attributeSize == 0)
+			return;
+		o = attribute(w);
+		for(VertexData.Semantic s : VertexData.Semantic.values())
+		{
+			float[] src = base.attributes[s.ordinal()];
+			if(s == VertexData.Semantic.NORMAL || src == null)
+				continue;
+			int k = base.components[s.ordinal()];
+			System.arraycopy(attributes.array(), o, elements[s.ordinal()], k*v, k);
+			o += k;
+			if(vertexData != null)
+				vertexData.markDirty(s, v, 1);
+		}
+	}
+
+	/**
+	 * Make room for half as many more leaves. The vertex data is replaced
+	 * once the update is done.
+	 */
+	private void growSlots()
+	{
+		int n = Math.max(slotLeaves.length + slotLeaves.length/2, nTriangles + 16);
+		indices = Arrays.copyOf(indices, 6*n);
+		keep = Arrays.copyOf(keep, n);
+		int old = slotLeaves.length;
+		slotLeaves = Arrays.copyOf(slotLeaves, n);
+		Arrays.fill(slotLeaves, old, n, -1);
+		grown = true;
+	}
+
+	/**
+	 * Make room for half as many more vertices.
+	 */
+	private void growVertices()
+	{
+		int n = Math.max(vertexWedges.length + vertexWedges.length/2, nTriangles + 16);
+		vertexWedges = Arrays.copyOf(vertexWedges, n);
+		references = Arrays.copyOf(references, n);
+		for(VertexData.Semantic s : VertexData.Semantic.values())
+		{
+			int k = components(s);
+			float[] e = elements[s.ordinal()];
+			if(k > 0)
+				elements[s.ordinal()] = e != null ? Arrays.copyOf(e, k*n) : new float[k*n];
+		}
+		grown = true;
+	}
+
+	/**
+	 * @return the number of components of an element of the vertex data,
+	 * 		or 0 if it has none
+	 */
+	private int components(VertexData.Semantic s)
+	{
+		if(s == VertexData.Semantic.POSITION || s == VertexData.Semantic.NORMAL)
+			return 3;
+		return base.attributes[s.ordinal()] != null ? base.components[s.ordinal()] : 0;
+	}
+
+	/**
+	 * Make vertex data for the current capacity, with the positions and
+	 * normals of the limit surface, and the other elements of the base
+	 * mesh.
+	 */
+	private void makeVertexData()
+	{
+		if(vertexWedges.length == 0)
+			growVertices();
+		int n = vertexWedges.length;
+		vertexData = renderContext.makeVertexData(n);
+		for(VertexData.Semantic s : VertexData.Semantic.values())
+		{
+			if(elements[s.ordinal()] != null)
+				vertexData.addElement(elements[s.ordinal()], s, components(s));
+		}
+		vertexData.addIndices(indices);
+	}
+
+	/**
+	 * Delete the OpenGL buffers of replaced vertex data. This runs on the
+	 * rendering thread, before the next frame.
+	 */
+	private void dispose(VertexData old)
+	{
+		if(!(old instanceof GLVertexData) || !(renderContext instanceof GLUploader))
+			return;
+		final GLVertexData data = (GLVertexData)old;
+		((GLUploader)renderContext).getUploadQueue().enqueue(0, new Runnable() {
+			public void run()
+			{
+				if(data.getVAO() == null)
+					return;
+				data.getVAO().dispose();
+				data.setVAO(null);
+			}
+		});
+	}
+
+	/**
+	 * Collect the leaves, and the split faces whose children are all
+	 * leaves.
+	 */
+	private void collect(LongArrayList leaves, LongArrayList parents)
+	{
+		stack.clear();
+		for(int f=base.getNumberOfFaces()-1; f>=0; f--)
+			stack.add(key(0, f));
+		while(stack.size() > 0)
+		{
+			long k = stack.removeLast();
+			if(!isSplit(k))
+			{
+				leaves.add(k);
+				continue;
+			}
+			int l = level(k);
+			long f = id(k);
+			boolean leafChildren = true;
+			for(int c=3; c>=0; c--)
+			{
+				long child = key(l+1, 4*f+c);
+				stack.add(child);
+				leafChildren &= !isSplit(child);
+			}
+			if(leafChildren)
+				parents.add(k);
+		}
+	}
+
+	/**
+	 * Split a leaf into four. Neighbours one level coarser are split first,
+	 * so neighbouring leaves keep differing by at most one level. The
+	 * neighbours on the same level are put on the closure stack, since
+	 * they may now need to be split as well.
+	 */
+	private void splitFace(int l, long f)
+	{
+		for(int i=0; i<3; i++)
+		{
+			long t = twin(l, 3*f+i);
+			if(t != -1 && !isPresent(l, t/3))
+				splitFace(l-1, t/3/4);
+		}
+		if(isSplit(key(l, f)))
+			return;
+		split.put(key(l, f), 1);
+		nTriangles += 3;
+		changed = true;
+		for(int c=0; c<4; c++)
+			created.add(key(l+1, 4*f+c));
+		for(int i=0; i<3; i++)
+		{
+			long t = twin(l, 3*f+i);
+			if(t != -1)
+				closure.add(key(l, t/3));
+		}
+	}
+
+	/**
+	 * @return the number of split neighbours of a face
+	 */
+	private int hanging(int l, long f)
+	{
+		int n = 0;
+		for(int i=0; i<3; i++)
+		{
+			long t = twin(l, 3*f+i);
+			if(t != -1 && isSplit(key(l, t/3)))
+				n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Whether a split face whose children are leaves can become a leaf
+	 * again: no leaf two levels finer may be next to it, and it may have
+	 * only one split neighbour.
+	 */
+	private boolean canMerge(int l, long f)
+	{
+		int n = 0;
+		for(int i=0; i<3; i++)
+		{
+			long t = twin(l, 3*f+i);
+			if(t == -1 || !isSplit(key(l, t/3)))
+				continue;
+			n++;
+			if(isSplit(key(l+1, child(t, 0, 0)/3)) || isSplit(key(l+1, child(t, 1, 2)/3)))
+				return false;
+		}
+		return n <= 1;
+	}
+
+	private boolean isSplit(long key)
+	{
+		return split.get(key) == 1;
+	}
+
+	/**
+	 * @return whether a face is a leaf or split
+	 */
+	private boolean isPresent(int l, long f)
+	{
+		return l == 0 || isSplit(key(l-1, f/4));
+	}
+
+	/**
+	 * The error of a face: how much larger than the thresholds the
+	 * deviation of its children, or the length of its edges, is on the
+	 * screen. Faces outside the view frustum have no error.
+	 */
+	private float error(long k, View view)
+	{
+		int o = bounds(level(k), id(k));
+		float[] b = bounds.array();
+		float cx = b[o], cy = b[o+1], cz = b[o+2], r = b[o+3];
+		float[] planes = view.planes;
+		for(int p=0; p<6; p++)
+		{
+			if(planes[p*4]*cx + planes[p*4+1]*cy + planes[p*4+2]*cz + planes[p*4+3] < -r)
+				return 0;
+		}
+		float dx = cx-view.x, dy = cy-view.y, dz = cz-view.z;
+		float distance = (float)Math.sqrt(dx*dx + dy*dy + dz*dz) - r;
+		if(distance <= 0)
+			return Float.MAX_VALUE;
+		float size = view.scale / distance;
+		float e = b[o+4] * size / screenError;
+		if(edgeLength > 0)
+			e = Math.max(e, b[o+5] * size / edgeLength);
+		return e;
+	}
+
+	/**
+	 * The bounds of a face from the limit positions of its corners: a
+	 * sphere around it, the largest distance of the limit positions of the
+	 * vertices its children add from the middle of its edges, and the
+	 * length of its longest edge.
+	 *
+	 * @return the offset of the center, radius, deviation and edge length
+	 */
+	private int bounds(int l, long f)
+	{
+		int o = bounds.get(key(l, f));
+		if(o != -1)
+			return o;
+		float[] c = new float[9];
+		for(int i=0; i<3; i++)
+		{
+			int v = limit(vertex(l, 3*f+i));
+			System.arraycopy(limits.array(), v, c, 3*i, 3);
+		}
+		float cx = (c[0]+c[3]+c[6])/3, cy = (c[1]+c[4]+c[7])/3, cz = (c[2]+c[5]+c[8])/3;
+		float radius = 0, deviation = 0, edge = 0;
+		for(int i=0; i<3; i++)
+		{
+			int a = 3*i, b = 3*((i+1)%3);
+			radius = Math.max(radius, distance(c, a, cx, cy, cz));
+			edge = Math.max(edge, distance(c, a, c[b], c[b+1], c[b+2]));
+			if(l < MAX_LEVEL)
+			{
+				int m = limit(key(l+1, edge(l, 3*f+i)));
+				float[] p = limits.array();
+				deviation = Math.max(deviation, distance(p, m, (c[a]+c[b])/2, (c[a+1]+c[b+1])/2, (c[a+2]+c[b+2])/2));
+			}
+		}
+		o = bounds.add(key(l, f));
+		float[] b = bounds.array();
+		b[o] = cx;
+		b[o+1] = cy;
+		b[o+2] = cz;
+		b[o+3] = radius + deviation;
+		b[o+4] = deviation;
+		b[o+5] = edge;
+		return o;
+	}
+
+	private static float distance(float[] p, int o, float x, float y, float z)
+	{
+		float dx = p[o]-x, dy = p[o+1]-y, dz = p[o+2]-z;
+		return (float)Math.sqrt(dx*dx + dy*dy + dz*dz);
+	}
+
+	/**
+	 * The position of a vertex on a level, by the rules of
+	 * {@link LoopSubdivision}.
+	 *
+	 * @return the offset of the position in the cache of the level
+	 */
+	private int position(int l, long v)
+	{
+		FloatCache cache = positions[l];
+		int o = cache.get(v);
+		if(o != -1)
+			return o;
+
+		float x, y, z;
+		if(l == 0)
+		{
+			int i = 3*(int)id(v);
+			x = base.positions[i];
+			y = base.positions[i+1];
+			z = base.positions[i+2];
+		}
+		else if(level(v) == l)
+		{
+			// An edge point, from the ends of its edge and the opposite
+			// vertices
+			long e = id(v);
+			long t = twin(l-1, e);
+			int a = position(l-1, vertex(l-1, e));
+			int b = position(l-1, vertex(l-1, next(e)));
+			if(t == -1)
+			{
+				float[] p = positions[l-1].array();
+				x = (p[a] + p[b]) / 2;
+				y = (p[a+1] + p[b+1]) / 2;
+				z = (p[a+2] + p[b+2]) / 2;
+			}
+			else
+			{
+				int c = position(l-1, vertex(l-1, prev(e)));
+				int d = position(l-1, vertex(l-1, prev(t)));
+				float[] p = positions[l-1].array();
+				x = 3f/8 * (p[a] + p[b]) + 1f/8 * (p[c] + p[d]);
+				y = 3f/8 * (p[a+1] + p[b+1]) + 1f/8 * (p[c+1] + p[d+1]);
+				z = 3f/8 * (p[a+2] + p[b+2]) + 1f/8 * (p[c+2] + p[d+2]);
+			}
+		}
+		else
+		{
+			// A vertex point, from the vertex and its neighbours on the
+			// level above. The ring is collected last, since computing
+			// positions may collect other rings.
+			int self = position(l-1, v);
+			int n = ring(l-1, v);
+			float[] r = ring.array();
+			float[] p = positions[l-1].array();
+			float w, beta;
+			float sx = 0, sy = 0, sz = 0;
+			if(n < 0)
+			{
+				n = -n;
+				w = 3f/4;
+				beta = 1f/8;
+				sx = r[0] + r[3*n-3];
+				sy = r[1] + r[3*n-2];
+				sz = r[2] + r[3*n-1];
+			}
+			else
+			{
+				beta = n == 3 ? 3f/16 : 3f/(8*n);
+				w = 1 - n*beta;
+				for(int i=0; i<n; i++)
+				{
+					sx += r[3*i];
+					sy += r[3*i+1];
+					sz += r[3*i+2];
+				}
+			}
+			x = w*p[self] + beta*sx;
+			y = w*p[self+1] + beta*sy;
+			z = w*p[self+2] + beta*sz;
+		}
+		o = cache.add(v);
+		float[] p = cache.array();
+		p[o] = x;
+		p[o+1] = y;
+		p[o+2] = z;
+		return o;
+	}
+
+	/**
+	 * The limit position and normal of a vertex, from its neighbours on
+	 * the level it was made on. Interior vertices use the limit and tangent
+	 * masks of the Loop surface. Border vertices lie on the limit of the
+	 * cubic B-spline of the border, with the average normal of their
+	 * triangles.
+	 *
+	 * @return the offset of the position and normal
+	 */
+	private int limit(long v)
+	{
+		int o = limits.get(v);
+		if(o != -1)
+			return o;
+
+		int l = level(v);
+		int self = position(l, v);
+		int n = ring(l, v);
+		float[] r = ring.array();
+		float[] p = positions[l].array();
+		float vx = p[self], vy = p[self+1], vz = p[self+2];
+		float x, y, z, nx = 0, ny = 0, nz = 0;
+		if(n < 0)
+		{
+			n = -n;
+			int last = 3*n-3;
+			x = 2f/3*vx + 1f/6*(r[0] + r[last]);
+			y = 2f/3*vy + 1f/6*(r[1] + r[last+1]);
+			z = 2f/3*vz + 1f/6*(r[2] + r[last+2]);
+			for(int i=0; i+1<n; i++)
+			{
+				float ax = r[3*i]-vx, ay = r[3*i+1]-vy, az = r[3*i+2]-vz;
+				float bx = r[3*i+3]-vx, by = r[3*i+4]-vy, bz = r[3*i+5]-vz;
+				nx += ay*bz - az*by;
+				ny += az*bx - ax*bz;
+				nz += ax*by - ay*bx;
+			}
+		}
+		else if(n == 0)
+		{
+			x = vx;
+			y = vy;
+			z = vz;
+		}
+		else
+		{
+			// Warren's weights have the limit weight 1/(3/(8 beta) + n)
+			// for each neighbour
+			float beta = n == 3 ? 3f/16 : 3f/(8*n);
+			float chi = 1 / (3 / (8*beta) + n);
+			float sx = 0, sy = 0, sz = 0;
+			float t1x = 0, t1y = 0, t1z = 0, t2x = 0, t2y = 0, t2z = 0;
+			for(int i=0; i<n; i++)
+			{
+				float px = r[3*i], py = r[3*i+1], pz = r[3*i+2];
+				sx += px;
+				sy += py;
+				sz += pz;
+				float cos = (float)Math.cos(2*Math.PI*i/n), sin = (float)Math.sin(2*Math.PI*i/n);
+				t1x += cos*px;
+				t1y += cos*py;
+				t1z += cos*pz;
+				t2x += sin*px;
+				t2y += sin*py;
+				t2z += sin*pz;
+			}
+			x = (1 - n*chi)*vx + chi*sx;
+			y = (1 - n*chi)*vy + chi*sy;
+			z = (1 - n*chi)*vz + chi*sz;
+			nx = t1y*t2z - t1z*t2y;
+			ny = t1z*t2x - t1x*t2z;
+			nz = t1x*t2y - t1y*t2x;
+		}
+		float length = (float)Math.sqrt(nx*nx + ny*ny + nz*nz);
+		if(length > 0)
+		{
+			nx /= length;
+			ny /= length;
+			nz /= length;
+		}
+
+		o = limits.add(v);
+		float[] b = limits.array();
+		b[o] = x;
+		b[o+1] = y;
+		b[o+2] = z;
+		b[o+3] = nx;
+		b[o+4] = ny;
+		b[o+5] = nz;
+		return o;
+	}
+
+	/**
+	 * Collect the positions of the neighbours of a vertex on a level into
+	 * {@link #ring}, counterclockwise. For border vertices, the first and
+	 * last neighbours are on the border.
+	 *
+	 * @return the number of neighbours, negative for border vertices
+	 */
+	private int ring(int l, long v)
+	{
+		long h = outgoing(l, v);
+		if(h == -1)
+			return 0;
+		// Collect the vertices first, since computing their positions may
+		// use the ring of other vertices
+		LongArrayList neighbours = new LongArrayList(8);
+		long g = h;
+		boolean border = false;
+		do {
+			neighbours.add(vertex(l, next(g)));
+			long t = twin(l, prev(g));
+			if(t == -1)
+			{
+				neighbours.add(vertex(l, prev(g)));
+				border = true;
+				break;
+			}
+			g = t;
+		} while(g != h);
+
+		float[] r = new float[3*neighbours.size()];
+		for(int i=0; i<neighbours.size(); i++)
+		{
+			int o = position(l, neighbours.get(i));
+			System.arraycopy(positions[l].array(), o, r, 3*i, 3);
+		}
+		ring.clear();
+		for(float f : r)
+			ring.add(f);
+		return border ? -neighbours.size() : neighbours.size();
+	}
+
+	/**
+	 * @return a half-edge starting at a vertex on a level, the one on the
+	 * 		border for border vertices, or -1
+	 */
+	private long outgoing(int l, long v)
+	{
+		int c = level(v);
+		long h = c == 0 ? base.outgoing((int)id(v)) : child(id(v), 1, 2);
+		if(h == -1)
+			return -1;
+		for(int j=c; j<l; j++)
+			h = child(h, 0, 0);
+		return h;
+	}
+
+	/**
+	 * The twin of a half-edge on a level, from the twins of its parent
+	 * like in {@link LoopSubdivision}.
+	 */
+	private long twin(int l, long h)
+	{
+		if(l == 0)
+			return base.twin[(int)h];
+		long p = h/12;
+		int k = (int)(h/3 % 4), i = (int)(h % 3);
+		if(k == 3)
+			return 3*(4*p + (i+1)%3) + 1;
+		if(i == 1)
+			return 3*(4*p+3) + (k+2)%3;
+		long t = twin(l-1, i == 0 ? 3*p+k : prev(3*p+k));
+		if(t == -1)
+			return -1;
+		return i == 0 ? child(t, 1, 2) : child(t, 0, 0);
+	}
+
+	/**
+	 * The vertex a half-edge on a level starts at.
+	 */
+	private long vertex(int l, long h)
+	{
+		for(; l>0; l--)
+		{
+			long p = h/12;
+			int k = (int)(h/3 % 4), i = (int)(h % 3);
+			if(k == 3)
+				return key(l, edge(l-1, 3*p+i));
+			if(i == 1)
+				return key(l, edge(l-1, 3*p+k));
+			if(i == 2)
+				return key(l, edge(l-1, prev(3*p+k)));
+			h = 3*p+k;
+		}
+		return key(0, base.vertex((int)h));
+	}
+
+	/**
+	 * The wedge of the corner a half-edge on a level starts at.
+	 */
+	private long wedge(int l, long h)
+	{
+		for(; l>0; l--)
+		{
+			long p = h/12;
+			int k = (int)(h/3 % 4), i = (int)(h % 3);
+			if(k == 3)
+				return key(l, wedgeEdge(l-1, 3*p+i));
+			if(i == 1)
+				return key(l, wedgeEdge(l-1, 3*p+k));
+			if(i == 2)
+				return key(l, wedgeEdge(l-1, prev(3*p+k)));
+			h = 3*p+k;
+		}
+		return key(0, base.wedge[(int)h]);
+	}
+
+	/**
+	 * @return the half-edge that identifies the edge of a half-edge
+	 */
+	private long edge(int l, long h)
+	{
+		long t = twin(l, h);
+		return t == -1 || h < t ? h : t;
+	}
+
+	/**
+	 * @return the half-edge that identifies the wedge of the edge point of
+	 * 		a half-edge, which differs on the two sides of a seam
+	 */
+	private long wedgeEdge(int l, long h)
+	{
+		long t = twin(l, h);
+		return t == -1 || h < t || isSeam(l, h) ? h : t;
+	}
+
+	/**
+	 * Whether the attributes differ on the two sides of an edge. Halves of
+	 * seams are seams, and the edges inside faces are not.
+	 */
+	private boolean isSeam(int l, long h)
+	{
+		for(; l>0; l--)
+		{
+			long p = h/12;
+			int k = (int)(h/3 % 4), i = (int)(h % 3);
+			if(k == 3 || i == 1)
+				return false;
+			h = i == 0 ? 3*p+k : prev(3*p+k);
+		}
+		return base.isSeam((int)h);
+	}
+
+	/**
+	 * @return the vertex of a wedge
+	 */
+	private long vertexOfWedge(long w)
+	{
+		int l = level(w);
+		if(l == 0)
+			return key(0, base.wedgeVertex[(int)id(w)]);
+		return key(l, edge(l-1, id(w)));
+	}
+
+	/**
+	 * The attributes of a wedge, except for the normal, in the order of
+	 * their semantics. Wedges of edge points get the average of the wedges
+	 * at the ends of their half-edge.
+	 *
+	 * @return the offset of the attributes
+	 */
+	private int attribute(long w)
+	{
+		int o = attributes.get(w);
+		if(o != -1)
+			return o;
+		int l = level(w);
+		if(l == 0)
+		{
+			o = attributes.add(w);
+			float[] a = attributes.array();
+			int wi = (int)id(w);
+			int offset = o;
+			for(VertexData.Semantic s : VertexData.Semantic.values())
+			{
+				float[] src = base.attributes[s.ordinal()];
+				if(s == VertexData.Semantic.NORMAL || src == null)
+					continue;
+				int k = base.components[s.ordinal()];
+				System.arraycopy(src, wi*k, a, offset, k);
+				offset += k;
+			}
+			return o;
+		}
+		long e = id(w);
+		int a = attribute(wedge(l-1, e));
+		int b = attribute(wedge(l-1, next(e)));
+		o = attributes.add(w);
+		float[] v = attributes.array();
+		for(int j=0; j<attributeSize; j++)
+			v[o+j] = (v[a+j] + v[b+j]) / 2;
+		return o;
+	}
+
+	private void clearCaches()
+	{
+		for(FloatCache c : positions)
+			c.clear();
+		limits.clear();
+		attributes.clear();
+		bounds.clear();
+	}
+
+	private static long key(int level, long id)
+	{
+		return (long)level << LEVEL_SHIFT | id;
+	}
+
+	private static int level(long key)
+	{
+		return (int)(key >>> LEVEL_SHIFT);
+	}
+
+	private static long id(long key)
+	{
+		return key & ID_MASK;
+	}
+
+	private static long next(long h)
+	{
+		return h % 3 == 2 ? h-2 : h+1;
+	}
+
+	private static long prev(long h)
+	{
+		return h % 3 == 0 ? h+2 : h-1;
+	}
+
+	/**
+	 * The child half-edge at position i of the corner triangle at the start
+	 * of half-edge h, or of the next corner triangle if next is 1, see
+	 * {@link LoopSubdivision}.
+	 */
+	private static long child(long h, int next, int i)
+	{
+		long f = h/3;
+		int k = (int)((h%3 + next)%3);
+		return 3*(4*f+k) + i;
+	}
+
+	/**
+	 * The view a refinement is made for, in object space.
+	 */
+	private static class View {
+
+		final float[] planes;
+		final float x, y, z;
+		// Half of the projection scale, so lengths at unit distance are
+		// fractions of the height of the viewport
+		final float scale;
+
+		View(Matrix4f modelview, Matrix4f projection)
+		{
+			planes = Frustum.planes(projection, modelview);
+			Matrix4f inverse = new Matrix4f(modelview);
+			inverse.invert();
+			x = inverse.m03;
+			y = inverse.m13;
+			z = inverse.m23;
+			scale = projection.m11 / 2;
+		}
+	}
+
+	/**
+	 * A fixed number of floats per key, computed when first needed.
+	 */
+	private static class FloatCache {
+
+		private final int stride;
+		private final LongIntHashMap offsets;
+		private final FloatArrayList values;
+
+		FloatCache(int stride)
+		{
+			this.stride = stride;
+			offsets = new LongIntHashMap();
+			values = new FloatArrayList();
+		}
+
+		/**
+		 * @return the offset of the values of the key, or -1
+		 */
+		int get(long key)
+		{
+			return offsets.get(key);
+		}
+
+		/**
+		 * Make room for the values of a key.
+		 *
+		 * @return the offset of the values in {@link #array()}
+		 */
+		int add(long key)
+		{
+			int o = values.size();
+			for(int j=0; j<stride; j++)
+				values.add(0);
+			offsets.put(key, o);
+			return o;
+		}
+
+		/**
+		 * The values, the array is replaced when values are added.
+		 */
+		float[] array()
+		{
+			return values.array();
+		}
+
+		int size()
+		{
+			return offsets.size();
+		}
+
+		void clear()
+		{
+			offsets.clear();
+			values.clear();
+		}
+	}
+}
@@ -0,0 +1,551 @@
+package jrtr;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import javax.vecmath.Matrix4f;
+
+/**
+ * A scene manager that keeps the shapes in a bounding volume hierarchy
+ * over their bounding boxes in world space, and only returns the shapes
+ * whose boxes intersect the view frustum. The traversal skips subtrees
+ * outside the frustum at once, and stops testing planes that a subtree is
+ * completely inside of, so its cost grows with the number of visible
+ * shapes rather than with the size of the scene.
+ * <p>
+ * The hierarchy is built top-down with the surface area heuristic, which
+ * splits the shapes at the boundary of a bin of their centers that
+ * minimizes the expected cost of traversing the two halves. When shapes
+ * move, {@link #update(Shape)} refits the boxes on the path from a shape
+ * to the root, and {@link #refit()} updates the boxes of all shapes and
+ * nodes. The boxes of the shapes come from
+ * {@link Shape#getWorldBoundingBox()}, which computes them again only for
+ * shapes that moved. Refitting keeps the tree, which gets worse as the
+ * shapes move away from where they were; it is built again when the cost
+ * of the refitted tree has grown by half. Adding or removing shapes builds
+ * the tree again at the next traversal.
+ * <p>
+ * Shapes whose bounds are unknown (see {@link VertexData#getBoundingBox()})
+ * are always returned. Levels of detail are picked like by
+ * {@link SimpleSceneManager}.
+ */
+public class BvhSceneManager implements SceneManagerInterface {
+
+	/**
+	 * The number of bins of the surface area heuristic, and the most
+	 * shapes in a leaf.
+	 */
+	private static final int BINS = 16;
+	private static final int LEAF = 4;
+
+	/**
+	 * The cost of traversing a node relative to testing a shape.
+	 */
+	private static final float TRAVERSAL = 1;
+
+	/**
+	 * The growth of the cost of the tree by refitting after which it is
+	 * built again.
+	 */
+	private static final float REBUILD = 1.5f;
+
+	private ArrayList<Shape> shapes;
+	private IdentityHashMap<Shape, Integer> index;
+	private LinkedList<Light> lights;
+	private Camera camera;
+	private Frustum frustum;
+	private float lodThreshold;
+
+	// Per shape: the bounding box in world coordinates (min, max), and its
+	// leaf. The box of shapes without bounds is empty, and they are listed
+	// separately.
+	private float[] bounds;
+	private int[] leafOf;
+	private boolean[] unbounded;
+	private int[] unboundedShapes;
+
+	// Per node: its box, the first shape in order and the number of shapes
+	// for leaves, or the first of its two children and 0, and its parent
+	private float[] nodeBounds;
+	private int[] first;
+	private int[] count;
+	private int[] parent;
+	private int nodes;
+	private int[] order;
+	private boolean built;
+	private float builtCost;
+
+	// Scratch space for refitting
+	private float[] oldBox;
+
+	public BvhSceneManager()
+	{
+		shapes = new ArrayList<Shape>();
+		index = new IdentityHashMap<Shape, Integer>();
+		lights = new LinkedList<Light>();
+		camera = new Camera();
+		frustum = new Frustum();
+		lodThreshold = 0.5f;
+		oldBox = new float[6];
+	}
+
+	public Camera getCamera()
+	{
+		return camera;
+	}
+
+	public Frustum getFrustum()
+	{
+		return frustum;
+	}
+
+	public void addShape(Shape shape)
+	{
+		index.put(shape, shapes.size());
+		shapes.add(shape);
+		built = false;
+	}
+
+	public void removeShape(Shape shape)
+	{
+		Integer i = index.remove(shape);
+		if(i == null)
+			return;
+		// Move the last shape into the gap
+		Shape last = shapes.remove(shapes.size()-1);
+		if(last != shape)
+		{
+			shapes.set(i, last);
+			index.put(last, i);
+		}
+		built = false;
+	}
+
+	public void addLight(Light light)
+	{
+		lights.add(light);
+	}
+
+	public Iterator<Light> lightIterator()
+	{
+		return lights.iterator();
+	}
+
+	/**
+	 * @see SimpleSceneManager#setLodThreshold(float)
+	 */
+	public void setLodThreshold(float lodThreshold)
+	{
+		this.lodThreshold = lodThreshold;
+	}
+
+	public float getLodThreshold()
+	{
+		return lodThreshold;
+	}
+
+	/**
+	 * Update the bounds of a shape after its transformation or vertex data
+	 * changed, and the boxes of the nodes above it.
+	 */
+	public void update(Shape shape)
+	{
+		Integer i = index.get(shape);
+		if(i == null || !built)
+			return;
+		computeBounds(i);
+		if(!built || unbounded[i])
+			return;
+		for(int node=leafOf[i]; node != -1; node=parent[node])
+		{
+			if(!fitNode(node))
+				break;
+		}
+	}
+
+	/**
+	 * Update the bounds of all shapes, and refit the boxes of all nodes. If that made the tree much
+	 * worse, it is built again at the next traversal.
+	 */
+	public void refit()
+	{
+		if(!built)
+			return;
+		for(int i=0; i<shapes.size() && built; i++)
+			computeBounds(i);
+		if(!built)
+			return;
+		// Children come after their parents
+		for(int node=nodes-1; node>=0; node--)
+			fitNode(node);
+		if(nodes > 0 && cost() > REBUILD * builtCost)
+			built = false;
+	}
+
+	/**
+	 * @return an iterator over the shapes whose bounds intersect the view
+	 * 		frustum
+	 */
+	public SceneManagerIterator iterator()
+	{
+		if(!built)
+			build();
+		return new BvhSceneManagerItr(Frustum.planes(frustum.getProjectionMatrix(), camera.getCameraMatrix()));
+	}
+
+	/**
+	 * Build the hierarchy over the current bounds of all shapes.
+	 */
+	private void build()
+	{
+		int n = shapes.size();
+		bounds = new float[6*n];
+		leafOf = new int[n];
+		unbounded = new boolean[n];
+		IntArrayList items = new IntArrayList(n);
+		IntArrayList others = new IntArrayList();
+		for(int i=0; i<n; i++)
+		{
+			computeBounds(i);
+			leafOf[i] = -1;
+			if(!unbounded[i])
+				items.add(i);
+			else
+				others.add(i);
+		}
+		order = items.toArray();
+		unboundedShapes = others.toArray();
+		nodeBounds = new float[6*Math.max(1, 2*order.length-1)];
+		first = new int[Math.max(1, 2*order.length-1)];
+		count = new int[first.length];
+		parent = new int[first.length];
+		nodes = 0;
+		if(order.length > 0)
+		{
+			nodes = 1;
+			parent[0] = -1;
+			split(0, 0, order.length);
+		}
+		builtCost = cost();
+		built = true;
+	}
+
+	/**
+	 * Split the shapes order[start], ..., order[end-1] of a node, and its
+	 * children, until leaves are cheaper than splitting.
+	 */
+	private void split(int root, int rootStart, int rootEnd)
+	{
+		IntArrayList stack = new IntArrayList();
+		stack.add(root, rootStart, rootEnd);
+		float[] binBounds = new float[6*BINS];
+		int[] binCount = new int[BINS];
+		float[] rightArea = new float[BINS];
+		float[] box = new float[6];
+		while(stack.size() > 0)
+		{
+			int end = stack.removeLast(), start = stack.removeLast(), node = stack.removeLast();
+			first[node] = start;
+			count[node] = end - start;
+			empty(nodeBounds, node);
+			float[] centers = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+			for(int i=start; i<end; i++)
+			{
+				int s = order[i];
+				include(nodeBounds, node, bounds, s);
+				for(int j=0; j<3; j++)
+				{
+					float c = (bounds[6*s+j] + bounds[6*s+3+j]) / 2;
+					centers[j] = Math.min(centers[j], c);
+					centers[3+j] = Math.max(centers[3+j], c);
+				}
+			}
+			if(end - start == 1)
+			{
+				leafOf[order[start]] = node;
+				continue;
+			}
+
+			// Bin the centers along the longest axis of their bounds, and
+			// find the cheapest boundary between bins
+			int axis = 0;
+			for(int j=1; j<3; j++)
+			{
+				if(centers[3+j]-centers[j] > centers[3+axis]-centers[axis])
+					axis = j;
+			}
+			float low = centers[axis], extent = centers[3+axis] - low;
+			int best = -1;
+			float bestCost = (end - start) * area(nodeBounds, node);
+			if(extent > 0)
+			{
+				for(int b=0; b<BINS; b++)
+				{
+					empty(binBounds, b);
+					binCount[b] = 0;
+				}
+				for(int i=start; i<end; i++)
+				{
+					int s = order[i], b = bin(s, axis, low, extent);
+					binCount[b]++;
+					include(binBounds, b, bounds, s);
+				}
+				empty(box, 0);
+				for(int b=BINS-1; b>0; b--)
+				{
+					include(box, 0, binBounds, b);
+					rightArea[b] = area(box, 0);
+				}
+				empty(box, 0);
+				int left = 0;
+				for(int b=0; b<BINS-1; b++)
+				{
+					include(box, 0, binBounds, b);
+					left += binCount[b];
+					float cost = TRAVERSAL * area(nodeBounds, node) + left * area(box, 0) + (end - start - left) * rightArea[b+1];
+					if(left > 0 && left < end - start && cost < bestCost)
+					{
+						best = b;
+						bestCost = cost;
+					}
+				}
+			}
+
+			int mid;
+			if(best != -1)
+			{
+				mid = start;
+				for(int i=start; i<end; i++)
+				{
+					int s = order[i];
+					if(bin(s, axis, low, extent) <= best)
+					{
+						order[i] = order[mid];
+						order[mid++] = s;
+					}
+				}
+			}
+			else if(end - start > LEAF)
+			{
+				// The centers are at one point, or splitting does not pay
+				// off but the leaf would be too large: split in the middle
+				mid = (start + end) / 2;
+			}
+			else
+			{
+				for(int i=start; i<end; i++)
+					leafOf[order[i]] = node;
+				continue;
+			}
+			int child = nodes;
+			nodes += 2;
+			first[node] = child;
+			count[node] = 0;
+			parent[child] = parent[child+1] = node;
+			stack.add(child, start, mid);
+			stack.add(child+1, mid, end);
+		}
+	}
+
+	private int bin(int s, int axis, float low, float extent)
+	{
+		float c = (bounds[6*s+axis] + bounds[6*s+3+axis]) / 2;
+		return Math.min(BINS-1, (int)((c - low) / extent * BINS));
+	}
+
+	/**
+	 * Set the box of a node to the union of its children or shapes.
+	 *
+	 * @return whether the box changed
+	 */
+	private boolean fitNode(int node)
+	{
+		float[] old = oldBox;
+		System.arraycopy(nodeBounds, 6*node, old, 0, 6);
+		empty(nodeBounds, node);
+		if(count[node] == 0)
+		{
+			include(nodeBounds, node, nodeBounds, first[node]);
+			include(nodeBounds, node, nodeBounds, first[node]+1);
+		}
+		else
+		{
+			for(int i=first[node]; i<first[node]+count[node]; i++)
+				include(nodeBounds, node, bounds, order[i]);
+		}
+		for(int j=0; j<6; j++)
+		{
+			if(old[j] != nodeBounds[6*node+j])
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The expected cost of traversing the tree for a random ray, relative
+	 * to the root: the areas of the nodes, and of the leaves times their
+	 * shapes, over the area of the root.
+	 */
+	private float cost()
+	{
+		if(nodes == 0)
+			return 0;
+		float sum = 0;
+		for(int node=0; node<nodes; node++)
+			sum += area(nodeBounds, node) * (count[node] == 0 ? TRAVERSAL : count[node]);
+		float root = area(nodeBounds, 0);
+		return root > 0 ? sum / root : 0;
+	}
+
+	/**
+	 * Copy the bounding box of a shape in world coordinates. If a shape
+	 * gained or lost its bounds, the tree is built again at the next
+	 * traversal.
+	 */
+	private void computeBounds(int i)
+	{
+		float[] box = shapes.get(i).getWorldBoundingBox();
+		if(built && unbounded[i] != (box == null))
+			built = false;
+		unbounded[i] = box == null;
+		if(box == null)
+			empty(bounds, i);
+		else
+			System.arraycopy(box, 0, bounds, 6*i, 6);
+	}
+
+	private static void empty(float[] boxes, int i)
+	{
+		for(int j=0; j<3; j++)
+		{
+			boxes[6*i+j] = Float.MAX_VALUE;
+			boxes[6*i+3+j] = -Float.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Grow box i of an array to include box k of another.
+	 */
+	private static void include(float[] boxes, int i, float[] other, int k)
+	{
+		for(int j=0; j<3; j++)
+		{
+			boxes[6*i+j] = Math.min(boxes[6*i+j], other[6*k+j]);
+			boxes[6*i+3+j] = Math.max(boxes[6*i+3+j], other[6*k+3+j]);
+		}
+	}
+
+	private static float area(float[] boxes, int i)
+	{
+		float dx = boxes[6*i+3]-boxes[6*i], dy = boxes[6*i+4]-boxes[6*i+1], dz = boxes[6*i+5]-boxes[6*i+2];
+		if(dx < 0 || dy < 0 || dz < 0)
+			return 0;
+		return 2*(dx*dy + dy*dz + dz*dx);
+	}
+
+	/**
+	 * Test a box against the planes whose bits are set in a mask.
+	 *
+	 * @return the planes the box is not completely inside of, or -1 if it
+	 * 		is outside of one
+	 */
+	private static int cull(float[] planes, float[] boxes, int i, int mask)
+	{
+		for(int p=0; p<6; p++)
+		{
+			if((mask & 1<<p) == 0)
+				continue;
+			float a = planes[4*p], b = planes[4*p+1], c = planes[4*p+2], d = planes[4*p+3];
+			// The corners farthest along and against the normal
+			float far = d + a*boxes[6*i+(a > 0 ? 3 : 0)] + b*boxes[6*i+(b > 0 ? 4 : 1)] + c*boxes[6*i+(c > 0 ? 5 : 2)];
+			if(far < 0)
+				return -1;
+			float near = d + a*boxes[6*i+(a > 0 ? 0 : 3)] + b*boxes[6*i+(b > 0 ? 1 : 4)] + c*boxes[6*i+(c > 0 ? 2 : 5)];
+			if(near >= 0)
+				mask &= ~(1<<p);
+		}
+		return mask;
+	}
+
+	private class BvhSceneManagerItr implements SceneManagerIterator {
+
+		public BvhSceneManagerItr(float[] planes)
+		{
+			this.planes = planes;
+			stack = new IntArrayList();
+			if(nodes > 0)
+				stack.add(0, 0x3F);
+			unboundedShape = 0;
+			leaf = leafEnd = 0;
+			advance();
+		}
+
+		public boolean hasNext()
+		{
+			return next != -1;
+		}
+
+		public RenderItem next()
+		{
+			Shape shape = shapes.get(next);
+			advance();
+			Matrix4f t = shape.getTransformation();
+			return new RenderItem(shape, t, SimpleSceneManager.selectLevelOfDetail(shape, t, camera, frustum, lodThreshold));
+		}
+
+		/**
+		 * Find the next shape to return: the shapes without bounds, then
+		 * the visible shapes of the visible leaves.
+		 */
+		private void advance()
+		{
+			if(unboundedShape < unboundedShapes.length)
+			{
+				next = unboundedShapes[unboundedShape++];
+				return;
+			}
+			while(true)
+			{
+				for(; leaf<leafEnd; leaf++)
+				{
+					int s = order[leaf];
+					if(leafMask == 0 || cull(planes, bounds, s, leafMask) != -1)
+					{
+						next = s;
+						leaf++;
+						return;
+					}
+				}
+				if(stack.size() == 0)
+				{
+					next = -1;
+					return;
+				}
+				int mask = stack.removeLast(), node = stack.removeLast();
+				mask = cull(planes, nodeBounds, node, mask);
+				if(mask == -1)
+					continue;
+				if(count[node] == 0)
+				{
+					stack.add(first[node]+1, mask);
+					stack.add(first[node], mask);
+				}
+				else
+				{
+					leaf = first[node];
+					leafEnd = leaf + count[node];
+					leafMask = mask;
+				}
+			}
+		}
+
+		private float[] planes;
+		// Pairs of nodes and the planes they are not known to be inside of
+		private IntArrayList stack;
+		private int unboundedShape;
+		private int leaf, leafEnd, leafMask;
+		private int next;
+	}
+}
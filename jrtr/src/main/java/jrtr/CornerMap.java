@@ -0,0 +1,100 @@
+package jrtr;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from (position, texture coordinate, normal)
+ * index triples to output vertex numbers. Used by {@link ObjReader} to merge
+ * face corners that reference the same attributes into a single vertex.
+ * Keys and values are stored in primitive arrays, so no objects are
+ * allocated per corner.
+ */
+class CornerMap {
+
+	private int[] keys;		// Three ints per slot
+	private int[] values;	// -1 marks an empty slot
+	private int size;
+	private int mask;
+
+	/**
+	 * @param expected
+	 * 		the expected number of distinct triples
+	 */
+	CornerMap(int expected)
+	{
+		int capacity = Integer.highestOneBit(Math.max(expected, 8)*2 - 1) << 1;
+		allocate(capacity);
+	}
+
+	/**
+	 * Return the value of a triple. If the triple is not in the map yet, it
+	 * is inserted with the next free vertex number, i.e., the number of 
+	 * triples inserted before it.
+	 * 
+	 * @return the vertex number of the triple
+	 */
+	int getOrAdd(int v, int t, int n)
+	{
+		int slot = hash(v, t, n) & mask;
+		while(values[slot] != -1)
+		{
+			int k = slot*3;
+			if(keys[k] == v && keys[k+1] == t && keys[k+2] == n)
+				return values[slot];
+			slot = (slot + 1) & mask;
+		}
+		int value = size;
+		put(slot, v, t, n, value);
+		size++;
+		if(size*4 > values.length*3)
+			rehash();
+		return value;
+	}
+
+	/**
+	 * @return the number of distinct triples
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	private void put(int slot, int v, int t, int n, int value)
+	{
+		keys[slot*3] = v;
+		keys[slot*3+1] = t;
+		keys[slot*3+2] = n;
+		values[slot] = value;
+	}
+
+	private void rehash()
+	{
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(oldValues.length*2);
+		for(int i=0; i<oldValues.length; i++)
+		{
+			if(oldValues[i] == -1)
+				continue;
+			int v = oldKeys[i*3], t = oldKeys[i*3+1], n = oldKeys[i*3+2];
+			int slot = hash(v, t, n) & mask;
+			while(values[slot] != -1)
+				slot = (slot + 1) & mask;
+			put(slot, v, t, n, oldValues[i]);
+		}
+	}
+
+	private void allocate(int capacity)
+	{
+		keys = new int[capacity*3];
+		values = new int[capacity];
+		Arrays.fill(values, -1);
+		mask = capacity - 1;
+	}
+
+	private static int hash(int v, int t, int n)
+	{
+		int h = v*0x9E3779B1 + t*0x85EBCA77 + n*0xC2B2AE3D;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,156 @@
+package jrtr;
+
+/**
+ * The sorted, disjoint ranges <code>[start, end)</code> of vertices or
+ * indices that changed since vertex data was last uploaded, see
+ * {@link VertexData#markDirty(VertexData.Semantic, int, int)}. Ranges closer
+ * than a small gap are merged, since uploading the few values between them
+ * costs less than another upload call. If there are too many ranges, the
+ * two closest ones are merged.
+ */
+class DirtyRanges {
+
+	/**
+	 * Ranges at most this far apart are merged.
+	 */
+	static final int GAP = 64;
+
+	/**
+	 * The most ranges kept.
+	 */
+	static final int MAX_RANGES = 64;
+
+	// Start and end of each range
+	private final IntArrayList ranges = new IntArrayList(8);
+
+	/**
+	 * Add the range <code>[first, end)</code>, merging it with the ranges
+	 * it overlaps or is close to.
+	 */
+	void add(int first, int end)
+	{
+		if(first >= end)
+			return;
+		int n = ranges.size()/2;
+		// The first range that ends at or after first - GAP
+		int lo = 0, hi = n;
+		while(lo < hi)
+		{
+			int mid = (lo+hi) >>> 1;
+			if(ranges.get(2*mid+1) < first - GAP)
+				lo = mid+1;
+			else
+				hi = mid;
+		}
+		// The ranges lo..k-1 start at or before end + GAP and are merged
+		int k = lo;
+		while(k < n && ranges.get(2*k) <= end + GAP)
+			k++;
+		if(k > lo)
+		{
+			first = Math.min(first, ranges.get(2*lo));
+			end = Math.max(end, ranges.get(2*k-1));
+		}
+		replace(lo, k, first, end);
+		if(ranges.size()/2 > MAX_RANGES)
+			mergeClosest();
+	}
+
+	/**
+	 * @return the number of ranges
+	 */
+	int size()
+	{
+		return ranges.size()/2;
+	}
+
+	boolean isEmpty()
+	{
+		return ranges.size() == 0;
+	}
+
+	int start(int i)
+	{
+		return ranges.get(2*i);
+	}
+
+	int end(int i)
+	{
+		return ranges.get(2*i+1);
+	}
+
+	/**
+	 * @return the start of the first range, or 0 if there are none
+	 */
+	int min()
+	{
+		return isEmpty() ? 0 : ranges.get(0);
+	}
+
+	/**
+	 * @return the end of the last range, or 0 if there are none
+	 */
+	int max()
+	{
+		return isEmpty() ? 0 : ranges.get(ranges.size()-1);
+	}
+
+	/**
+	 * @return the ranges as pairs of start and end
+	 */
+	int[] toArray()
+	{
+		return ranges.toArray();
+	}
+
+	void clear()
+	{
+		ranges.clear();
+	}
+
+	/**
+	 * Replace the ranges lo..k-1 by one range.
+	 */
+	private void replace(int lo, int k, int first, int end)
+	{
+		int n = ranges.size()/2;
+		if(k == lo)
+		{
+			// Insert: grow by one range and shift the rest up
+			ranges.add(0, 0);
+			for(int i=n; i>lo; i--)
+			{
+				ranges.set(2*i, ranges.get(2*i-2));
+				ranges.set(2*i+1, ranges.get(2*i-1));
+			}
+		}
+		else if(k > lo+1)
+		{
+			// Remove the ranges lo+1..k-1
+			int removed = k-lo-1;
+			for(int i=lo+1; i+removed<n; i++)
+			{
+				ranges.set(2*i, ranges.get(2*(i+removed)));
+				ranges.set(2*i+1, ranges.get(2*(i+removed)+1));
+			}
+			for(int i=0; i<2*removed; i++)
+				ranges.removeLast();
+		}
+		ranges.set(2*lo, first);
+		ranges.set(2*lo+1, end);
+	}
+
+	/**
+	 * Merge the two neighbouring ranges with the smallest gap.
+	 */
+	private void mergeClosest()
+	{
+		int n = ranges.size()/2, best = 0;
+		for(int i=1; i+1<n; i++)
+		{
+			if(ranges.get(2*i+2) - ranges.get(2*i+1) < ranges.get(2*best+2) - ranges.get(2*best+1))
+				best = i;
+		}
+		replace(best, best+2, ranges.get(2*best), ranges.get(2*best+3));
+	}
+}
@@ -0,0 +1,109 @@
+package jrtr;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of primitive floats. Used by the mesh loaders to collect
+ * vertex attributes without boxing each value or allocating an array per
+ * vertex.
+ */
+public class FloatArrayList {
+
+	private float[] data;
+	private int size;
+
+	public FloatArrayList()
+	{
+		this(16);
+	}
+
+	/**
+	 * @param capacity
+	 * 		the initial number of floats that can be stored without growing
+	 */
+	public FloatArrayList(int capacity)
+	{
+		data = new float[Math.max(capacity, 1)];
+		size = 0;
+	}
+
+	public void add(float f)
+	{
+		if(size == data.length)
+			grow(size + 1);
+		data[size++] = f;
+	}
+
+	public void add(float f0, float f1)
+	{
+		if(size + 2 > data.length)
+			grow(size + 2);
+		data[size] = f0;
+		data[size+1] = f1;
+		size += 2;
+	}
+
+	public void add(float f0, float f1, float f2)
+	{
+		if(size + 3 > data.length)
+			grow(size + 3);
+		data[size] = f0;
+		data[size+1] = f1;
+		data[size+2] = f2;
+		size += 3;
+	}
+
+	/**
+	 * Append all values of another list.
+	 */
+	public void addAll(FloatArrayList other)
+	{
+		if(size + other.size > data.length)
+			grow(size + other.size);
+		System.arraycopy(other.data, 0, data, size, other.size);
+		size += other.size;
+	}
+
+	public float get(int i)
+	{
+		return data[i];
+	}
+
+	public void set(int i, float f)
+	{
+		data[i] = f;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public void clear()
+	{
+		size = 0;
+	}
+
+	/**
+	 * Direct access to the backing array. Only the first {@link #size()}
+	 * entries are valid, and the array is replaced when the list grows.
+	 */
+	public float[] array()
+	{
+		return data;
+	}
+
+	/**
+	 * @return a copy of the stored values, trimmed to {@link #size()}
+	 */
+	public float[] toArray()
+	{
+		return Arrays.copyOf(data, size);
+	}
+
+	private void grow(int minCapacity)
+	{
+		int capacity = Math.max(data.length + (data.length >> 1), minCapacity);
+		data = Arrays.copyOf(data, capacity);
+	}
+}
@@ -44,4 +44,39 @@ public class Frustum {
 	{
 		this.projectionMatrix = m;
 	}
+	
+	/**
+	 * Compute the planes of a frustum in object space (Gribb and Hartmann),
+	 * from the rows of the combined matrix. Points inside the frustum are
+	 * on the positive side of all six planes.
+	 * 
+	 * @param projection the projection matrix
+	 * @param modelview the transformation from object to camera space
+	 * @return the coefficients a, b, c, d of the planes ax + by + cz + d = 0,
+	 * 		with normals of unit length, so ax + by + cz + d is the distance
+	 * 		of a point to the plane
+	 */
+	public static float[] planes(Matrix4f projection, Matrix4f modelview)
+	{
+		Matrix4f m = new Matrix4f(projection);
+		m.mul(modelview);
+		float[] planes = {
+			m.m30+m.m00, m.m31+m.m01, m.m32+m.m02, m.m33+m.m03,
+			m.m30-m.m00, m.m31-m.m01, m.m32-m.m02, m.m33-m.m03,
+			m.m30+m.m10, m.m31+m.m11, m.m32+m.m12, m.m33+m.m13,
+			m.m30-m.m10, m.m31-m.m11, m.m32-m.m12, m.m33-m.m13,
+			m.m30+m.m20, m.m31+m.m21, m.m32+m.m22, m.m33+m.m23,
+			m.m30-m.m20, m.m31-m.m21, m.m32-m.m22, m.m33-m.m23};
+		for(int p=0; p<6; p++)
+		{
+			float length = (float)Math.sqrt(planes[p*4]*planes[p*4] + planes[p*4+1]*planes[p*4+1]
+					+ planes[p*4+2]*planes[p*4+2]);
+			if(length > 0)
+			{
+				for(int j=0; j<4; j++)
+					planes[p*4+j] /= length;
+			}
+		}
+		return planes;
+	}
 }
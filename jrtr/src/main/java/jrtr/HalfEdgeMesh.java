@@ -0,0 +1,423 @@
+package jrtr;
+
+import java.util.Arrays;
+
+/**
+ * A triangle mesh in a compact half-edge structure, stored as arrays of
+ * primitives instead of an object per vertex, edge and face like
+ * {@link MeshData}.
+ * <p>
+ * Face f consists of the half-edges 3f, 3f+1 and 3f+2 in counterclockwise
+ * order, so the next half-edge and the face of a half-edge are computed
+ * from its number and need no arrays. Per half-edge, the mesh stores its
+ * twin (the half-edge in the opposite direction, or -1 on a border) and the
+ * wedge of the corner it starts at, which also gives the vertex it starts
+ * at. Per vertex, it stores the position and one outgoing half-edge, which
+ * lets {@link #rotate(int)} walk around the vertex in constant time per
+ * step.
+ * <p>
+ * Vertices of {@link VertexData} at the same position are welded into one
+ * vertex, so the mesh stays connected across seams in the texture
+ * coordinates or normals. The attributes other than the position are kept
+ * per wedge: a wedge is a vertex of the vertex data, and the corners of
+ * the triangles around a vertex reference one wedge on each side of a
+ * seam. Unlike {@link MeshData}, the mesh may have borders. Edges shared
+ * by more than two triangles are treated as borders.
+ */
+public class HalfEdgeMesh {
+
+	// The arrays may be longer than the counts, see ensureCapacity
+
+	// Per half-edge
+	int[] twin;
+	int[] wedge;
+	int nHalfEdges;
+
+	// Per vertex: positions (x, y, z) and an outgoing half-edge. Border
+	// vertices keep the outgoing half-edge without a twin, from which
+	// rotate visits all triangles around the vertex.
+	float[] positions;
+	int[] vertexHalfEdge;
+	int nVertices;
+
+	// Per wedge: its vertex, and the attributes by semantic ordinal, or null
+	int[] wedgeVertex;
+	float[][] attributes;
+	int[] components;
+	int nWedges;
+
+	/**
+	 * An empty mesh, whose arrays are filled in by the operations that make
+	 * new meshes, like {@link LoopSubdivision}.
+	 */
+	HalfEdgeMesh()
+	{
+		attributes = new float[VertexData.Semantic.values().length][];
+		components = new int[VertexData.Semantic.values().length];
+	}
+
+	/**
+	 * Build a half-edge mesh from indexed vertex data. Triangles that are
+	 * degenerate after welding are left out.
+	 *
+	 * @param vertexData
+	 * 		the mesh, it needs float positions and indices. All other
+	 * 		elements need to be in float format as well.
+	 */
+	public HalfEdgeMesh(VertexData vertexData)
+	{
+		this();
+		VertexData.VertexElement position = vertexData.getElement(VertexData.Semantic.POSITION);
+		int[] indices = vertexData.toIndexArray();
+		float[] p = position != null ? position.toFloatArray() : null;
+		if(p == null || indices == null)
+			throw new IllegalArgumentException("Vertex data needs float positions and indices to build a half-edge mesh");
+		int k = position.getNumberOfComponents();
+		int n = vertexData.getNumberOfVertices();
+
+		nWedges = n;
+		wedgeVertex = new int[n];
+		nVertices = NormalGenerator.weld(p, k, n, wedgeVertex);
+		positions = new float[nVertices*3];
+		for(int w=0; w<n; w++)
+			System.arraycopy(p, w*k, positions, wedgeVertex[w]*3, 3);
+		for(VertexData.VertexElement e : vertexData.getElements())
+		{
+			if(e.getSemantic() == VertexData.Semantic.POSITION)
+				continue;
+			float[] data = e.toFloatArray();
+			if(data == null)
+				throw new IllegalArgumentException("Cannot build a half-edge mesh from compact vertex elements, build it before quantizing");
+			// Copy arrays of the vertex data, the mesh may change them
+			attributes[e.getSemantic().ordinal()] = data == e.getData() ? data.clone() : data;
+			components[e.getSemantic().ordinal()] = e.getNumberOfComponents();
+		}
+
+		IntArrayList corners = new IntArrayList(indices.length);
+		for(int i=0; i+2<indices.length; i+=3)
+		{
+			int a = wedgeVertex[indices[i]], b = wedgeVertex[indices[i+1]], c = wedgeVertex[indices[i+2]];
+			if(a != b && b != c && c != a)
+				corners.add(indices[i], indices[i+1], indices[i+2]);
+		}
+		nHalfEdges = corners.size();
+		wedge = corners.toArray();
+		twin = new int[nHalfEdges];
+		vertexHalfEdge = new int[nVertices];
+		link();
+	}
+
+	/**
+	 * Find the twins of all half-edges and an outgoing half-edge of each
+	 * vertex.
+	 */
+	void link()
+	{
+		// Map each directed edge to its half-edge. A directed edge that
+		// occurs twice is not manifold, or the triangles are not oriented
+		// consistently; such edges get no twin.
+		LongIntHashMap directed = new LongIntHashMap(nHalfEdges);
+		for(int h=0; h<nHalfEdges; h++)
+		{
+			long key = key(vertex(h), target(h));
+			if(directed.putIfAbsent(key, h) != LongIntHashMap.MISSING)
+				directed.put(key, -2);
+		}
+		Arrays.fill(vertexHalfEdge, 0, nVertices, -1);
+		for(int h=0; h<nHalfEdges; h++)
+		{
+			int a = vertex(h), b = target(h);
+			int g = directed.get(key(b, a));
+			twin[h] = g >= 0 && directed.get(key(a, b)) == h ? g : -1;
+		}
+		for(int h=0; h<nHalfEdges; h++)
+		{
+			int v = vertex(h);
+			if(vertexHalfEdge[v] == -1 || twin[h] == -1)
+				vertexHalfEdge[v] = h;
+		}
+	}
+
+	/**
+	 * Make room for more half-edges, vertices and wedges, for operations
+	 * that add them to the mesh like {@link MeshEditor}. Arrays grow by at
+	 * least half their size, so adding elements one at a time takes
+	 * amortized constant time.
+	 *
+	 * @return whether any array was replaced
+	 */
+	boolean ensureCapacity(int halfEdges, int vertices, int wedges)
+	{
+		boolean grown = false;
+		if(halfEdges > twin.length)
+		{
+			int capacity = Math.max(halfEdges, twin.length + twin.length/2);
+			capacity += (3 - capacity%3) % 3;
+			twin = Arrays.copyOf(twin, capacity);
+			wedge = Arrays.copyOf(wedge, capacity);
+			grown = true;
+		}
+		if(vertices > vertexHalfEdge.length)
+		{
+			int capacity = Math.max(vertices, vertexHalfEdge.length + vertexHalfEdge.length/2);
+			positions = Arrays.copyOf(positions, 3*capacity);
+			vertexHalfEdge = Arrays.copyOf(vertexHalfEdge, capacity);
+			grown = true;
+		}
+		if(wedges > wedgeVertex.length)
+		{
+			int capacity = Math.max(wedges, wedgeVertex.length + wedgeVertex.length/2);
+			wedgeVertex = Arrays.copyOf(wedgeVertex, capacity);
+			for(int s=0; s<attributes.length; s++)
+			{
+				if(attributes[s] != null)
+					attributes[s] = Arrays.copyOf(attributes[s], capacity*components[s]);
+			}
+			grown = true;
+		}
+		return grown;
+	}
+
+	/**
+	 * Make indexed vertex data with one vertex per wedge.
+	 *
+	 * @param renderContext
+	 * 		used to make the vertex data
+	 */
+	public VertexData toVertexData(RenderContext renderContext)
+	{
+		VertexData vertexData = renderContext.makeVertexData(nWedges);
+		float[] p = new float[nWedges*3];
+		for(int w=0; w<nWedges; w++)
+			System.arraycopy(positions, wedgeVertex[w]*3, p, w*3, 3);
+		vertexData.addElement(p, VertexData.Semantic.POSITION, 3);
+		for(VertexData.Semantic s : VertexData.Semantic.values())
+		{
+			float[] a = attributes[s.ordinal()];
+			if(a != null)
+				vertexData.addElement(Arrays.copyOf(a, nWedges*components[s.ordinal()]), s, components[s.ordinal()]);
+		}
+		vertexData.addIndices(Arrays.copyOf(wedge, nHalfEdges));
+		return vertexData;
+	}
+
+	public int getNumberOfVertices()
+	{
+		return nVertices;
+	}
+
+	public int getNumberOfFaces()
+	{
+		return nHalfEdges/3;
+	}
+
+	public int getNumberOfHalfEdges()
+	{
+		return nHalfEdges;
+	}
+
+	public int getNumberOfWedges()
+	{
+		return nWedges;
+	}
+
+	/**
+	 * @return the next half-edge of the same face, counterclockwise
+	 */
+	public static int next(int h)
+	{
+		return h % 3 == 2 ? h-2 : h+1;
+	}
+
+	/**
+	 * @return the previous half-edge of the same face
+	 */
+	public static int prev(int h)
+	{
+		return h % 3 == 0 ? h+2 : h-1;
+	}
+
+	public static int face(int h)
+	{
+		return h/3;
+	}
+
+	/**
+	 * @return the half-edge in the opposite direction, or -1 if the
+	 * 		half-edge is on a border
+	 */
+	public int twin(int h)
+	{
+		return twin[h];
+	}
+
+	/**
+	 * @return the vertex the half-edge starts at
+	 */
+	public int vertex(int h)
+	{
+		return wedgeVertex[wedge[h]];
+	}
+
+	/**
+	 * @return the vertex the half-edge points to
+	 */
+	public int target(int h)
+	{
+		return wedgeVertex[wedge[next(h)]];
+	}
+
+	/**
+	 * @return the wedge of the corner at the start of the half-edge
+	 */
+	public int wedge(int h)
+	{
+		return wedge[h];
+	}
+
+	/**
+	 * @return the vertex of a wedge
+	 */
+	public int wedgeVertex(int w)
+	{
+		return wedgeVertex[w];
+	}
+
+	/**
+	 * @return a half-edge starting at the vertex, the one on the border for
+	 * 		border vertices, or -1 for isolated vertices
+	 */
+	public int outgoing(int v)
+	{
+		return vertexHalfEdge[v];
+	}
+
+	/**
+	 * Step counterclockwise around the start vertex of a half-edge. Starting
+	 * at {@link #outgoing(int)}, this visits each half-edge starting at the
+	 * vertex once.
+	 *
+	 * @return the next half-edge starting at the same vertex, or -1 at a
+	 * 		border
+	 */
+	public int rotate(int h)
+	{
+		return twin[prev(h)];
+	}
+
+	public boolean isBorder(int h)
+	{
+		return twin[h] == -1;
+	}
+
+	/**
+	 * @return whether the wedges at the ends of an edge differ on its two
+	 * 		sides, so attributes like texture coordinates are discontinuous
+	 * 		across it. Borders are not seams.
+	 */
+	public boolean isSeam(int h)
+	{
+		int t = twin[h];
+		return t != -1 && (wedge[h] != wedge[next(t)] || wedge[next(h)] != wedge[t]);
+	}
+
+	public boolean isBorderVertex(int v)
+	{
+		int h = vertexHalfEdge[v];
+		return h != -1 && twin[h] == -1;
+	}
+
+	/**
+	 * @return the number of edges at a vertex
+	 */
+	public int valence(int v)
+	{
+		int h = vertexHalfEdge[v];
+		if(h == -1)
+			return 0;
+		int valence = 0;
+		int g = h;
+		do {
+			valence++;
+			g = rotate(g);
+		} while(g != -1 && g != h);
+		// The incoming border edge has no outgoing half-edge of its own
+		return g == -1 ? valence+1 : valence;
+	}
+
+	/**
+	 * Collect the neighbours of a vertex in counterclockwise order. For
+	 * border vertices, the first and last neighbours are on the border.
+	 *
+	 * @param ring
+	 * 		receives the neighbours, it needs room for {@link #valence(int)}
+	 * 		vertices
+	 * @return the number of neighbours
+	 */
+	public int oneRing(int v, int[] ring)
+	{
+		int h = vertexHalfEdge[v];
+		if(h == -1)
+			return 0;
+		int n = 0;
+		int g = h;
+		do {
+			ring[n++] = target(g);
+			if(twin[prev(g)] == -1)
+			{
+				ring[n++] = vertex(prev(g));
+				break;
+			}
+			g = rotate(g);
+		} while(g != h);
+		return n;
+	}
+
+	/**
+	 * Direct access to the positions, three floats per vertex.
+	 */
+	public float[] getPositions()
+	{
+		return positions;
+	}
+
+	/**
+	 * Direct access to an attribute, {@link #getNumberOfComponents} floats
+	 * per wedge.
+	 *
+	 * @return the attribute, or null if the mesh does not have it
+	 */
+	public float[] getAttribute(VertexData.Semantic s)
+	{
+		return attributes[s.ordinal()];
+	}
+
+	public int getNumberOfComponents(VertexData.Semantic s)
+	{
+		return s == VertexData.Semantic.POSITION ? 3 : components[s.ordinal()];
+	}
+
+	/**
+	 * @return the number of bytes of the arrays of the mesh
+	 */
+	public long getSizeInBytes()
+	{
+		long size = 4L*(twin.length + wedge.length)
+				+ 4L*(positions.length + vertexHalfEdge.length)
+				+ 4L*wedgeVertex.length;
+		for(float[] a : attributes)
+		{
+			if(a != null)
+				size += 4L*a.length;
+		}
+		return size;
+	}
+
+	/**
+	 * The key of the directed edge from a to b.
+	 */
+	private static long key(int a, int b)
+	{
+		return (long)a << 32 | (b & 0xFFFFFFFFL);
+	}
+}
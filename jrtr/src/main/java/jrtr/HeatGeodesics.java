@@ -0,0 +1,237 @@
+package jrtr;
+
+import java.util.Arrays;
+
+/**
+ * Geodesic distances on triangle meshes by the heat method ("Geodesics in
+ * Heat", Crane et al. 2013): heat flows from the sources for a short time,
+ * the normalized directions of its flow give the directions of the
+ * distance, and a Poisson equation integrates them to the distance.
+ * <p>
+ * The two linear systems, the heat equation with the mass matrix and the
+ * cotangent Laplacian, and the Poisson equation with the Laplacian, only
+ * depend on the mesh. Both are factored once when the object is made, see
+ * {@link SparseCholesky}, and sharing one nonzero pattern, so each query
+ * takes two sparse triangular solve pairs and a few linear passes over the
+ * mesh. Queries may run on several threads at once.
+ * <p>
+ * The distances are per vertex of the {@link HalfEdgeMesh}, see
+ * {@link MeshAnalysis}. Borders get the natural (Neumann) boundary
+ * conditions, which bends the distances near borders a little.
+ */
+public class HeatGeodesics {
+
+	/**
+	 * The regularization added to the diagonals, relative to their mean,
+	 * which makes the Laplacian definite without noticeably changing the
+	 * distances.
+	 */
+	private static final double SHIFT = 1e-8;
+
+	private final HalfEdgeMesh mesh;
+	private final double[] cot;
+
+	// The connected component of each vertex, by one of its vertices
+	private final int[] component;
+
+	private final SparseCholesky heat;
+	private final SparseCholesky poisson;
+
+	/**
+	 * Factor the systems for a mesh, with the time step of heat flow set to
+	 * the square of the mean edge length.
+	 */
+	public HeatGeodesics(HalfEdgeMesh mesh)
+	{
+		this(mesh, 1);
+	}
+
+	/**
+	 * @param timeFactor
+	 * 		the time step of heat flow in squared mean edge lengths. Larger
+	 * 		steps give smoother distances.
+	 */
+	public HeatGeodesics(HalfEdgeMesh mesh, float timeFactor)
+	{
+		this.mesh = mesh;
+		HalfEdgeMesh m = mesh;
+		int n = m.nVertices;
+		cot = MeshAnalysis.cotangents(m);
+		double[] area = MeshAnalysis.areas(m, cot);
+
+		// The cotangent Laplacian by columns: the diagonal, then one entry
+		// per edge at each of its ends. Edges shared by more than two
+		// triangles have several half-edges, whose entries are summed.
+		int[] columnStarts = new int[n+1];
+		int edges = 0;
+		double length = 0;
+		float[] p = m.positions;
+		for(int h=0; h<m.nHalfEdges; h++)
+		{
+			int t = m.twin[h];
+			if(t != -1 && t < h)
+				continue;
+			columnStarts[m.vertex(h)+1]++;
+			columnStarts[m.target(h)+1]++;
+			int a = 3*m.vertex(h), b = 3*m.target(h);
+			double dx = p[b]-p[a], dy = p[b+1]-p[a+1], dz = p[b+2]-p[a+2];
+			length += Math.sqrt(dx*dx + dy*dy + dz*dz);
+			edges++;
+		}
+		for(int v=0; v<n; v++)
+			columnStarts[v+1] += columnStarts[v] + 1;
+		int[] rows = new int[columnStarts[n]];
+		double[] laplacian = new double[columnStarts[n]];
+		int[] next = new int[n];
+		for(int v=0; v<n; v++)
+		{
+			rows[columnStarts[v]] = v;
+			next[v] = columnStarts[v] + 1;
+		}
+		component = new int[n];
+		for(int v=0; v<n; v++)
+			component[v] = v;
+		for(int h=0; h<m.nHalfEdges; h++)
+		{
+			int t = m.twin[h];
+			if(t != -1 && t < h)
+				continue;
+			int a = m.vertex(h), b = m.target(h);
+			double w = (cot[h] + (t != -1 ? cot[t] : 0)) / 2;
+			rows[next[a]] = b;
+			laplacian[next[a]++] = -w;
+			rows[next[b]] = a;
+			laplacian[next[b]++] = -w;
+			laplacian[columnStarts[a]] += w;
+			laplacian[columnStarts[b]] += w;
+			union(a, b);
+		}
+		for(int v=0; v<n; v++)
+			component[v] = find(v);
+
+		double diagonal = 0;
+		for(int v=0; v<n; v++)
+			diagonal += laplacian[columnStarts[v]];
+		double shift = n > 0 ? Math.max(SHIFT * diagonal / n, Double.MIN_NORMAL) : 0;
+		double time = edges > 0 ? timeFactor * (length/edges) * (length/edges) : 1;
+		double[] values = new double[laplacian.length];
+		for(int i=0; i<values.length; i++)
+			values[i] = time * laplacian[i];
+		for(int v=0; v<n; v++)
+		{
+			values[columnStarts[v]] += area[v] + shift;
+			laplacian[columnStarts[v]] += shift;
+		}
+		heat = new SparseCholesky(n, columnStarts, rows, values);
+		poisson = new SparseCholesky(heat, laplacian);
+	}
+
+	/**
+	 * @return the nonzeros of the factorizations, which take about 8 bytes
+	 * 		each since the columns of a supernode share their row indices
+	 */
+	public long getNumberOfNonzeros()
+	{
+		return 2L*heat.getNumberOfNonzeros();
+	}
+
+	/**
+	 * Approximate the geodesic distance of each vertex to the nearest
+	 * source.
+	 *
+	 * @param sources
+	 * 		vertices of the mesh
+	 * @return the distances, infinite for vertices that are not connected
+	 * 		to a source
+	 */
+	public float[] distance(int... sources)
+	{
+		final HalfEdgeMesh m = mesh;
+		final float[] p = m.positions;
+		int n = m.nVertices;
+
+		// Heat flow from the sources
+		final double[] u = new double[n];
+		for(int s : sources)
+			u[s] = 1;
+		heat.solve(u, u);
+
+		// The normalized negative gradient of the heat in each triangle,
+		// and its divergence, as contributions of the half-edges to their
+		// ends
+		final double[] flux = new double[m.nHalfEdges];
+		Parallel.forRange(m.nHalfEdges/3, new Parallel.Range() {
+			public void run(int start, int end)
+			{
+				double[] e = new double[9];
+				for(int f=start; f<end; f++)
+				{
+					int h = 3*f;
+					int a = 3*m.vertex(h), b = 3*m.vertex(h+1), c = 3*m.vertex(h+2);
+					for(int j=0; j<3; j++)
+					{
+						e[j] = p[b+j] - p[a+j];
+						e[3+j] = p[c+j] - p[b+j];
+						e[6+j] = p[a+j] - p[c+j];
+					}
+					double nx = e[1]*e[5] - e[2]*e[4], ny = e[2]*e[3] - e[0]*e[5], nz = e[0]*e[4] - e[1]*e[3];
+					// The gradient is the sum of (normal x edge) times the
+					// heat at the opposite corner, up to a positive factor
+					double gx = 0, gy = 0, gz = 0;
+					for(int i=0; i<3; i++)
+					{
+						double ui = u[m.vertex(HalfEdgeMesh.prev(h+i))];
+						gx += ui * (ny*e[3*i+2] - nz*e[3*i+1]);
+						gy += ui * (nz*e[3*i] - nx*e[3*i+2]);
+						gz += ui * (nx*e[3*i+1] - ny*e[3*i]);
+					}
+					double g = Math.sqrt(gx*gx + gy*gy + gz*gz);
+					for(int i=0; i<3; i++)
+					{
+						double dot = g > 0 ? -(gx*e[3*i] + gy*e[3*i+1] + gz*e[3*i+2]) / g : 0;
+						flux[h+i] = cot[h+i] * dot / 2;
+					}
+				}
+			}
+		});
+		double[] phi = new double[n];
+		for(int h=0; h<m.nHalfEdges; h++)
+		{
+			phi[m.vertex(h)] -= flux[h];
+			phi[m.target(h)] += flux[h];
+		}
+
+		// The distance whose gradient fits the directions best, shifted to
+		// 0 at the nearest point of each connected component
+		poisson.solve(phi, phi);
+		boolean[] reached = new boolean[n];
+		for(int s : sources)
+			reached[component[s]] = true;
+		double[] min = new double[n];
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		for(int v=0; v<n; v++)
+			min[component[v]] = Math.min(min[component[v]], phi[v]);
+		float[] distance = new float[n];
+		for(int v=0; v<n; v++)
+			distance[v] = reached[component[v]] ? (float)(phi[v] - min[component[v]]) : Float.POSITIVE_INFINITY;
+		return distance;
+	}
+
+	private int find(int v)
+	{
+		while(component[v] != v)
+		{
+			component[v] = component[component[v]];
+			v = component[v];
+		}
+		return v;
+	}
+
+	private void union(int a, int b)
+	{
+		a = find(a);
+		b = find(b);
+		if(a != b)
+			component[Math.max(a, b)] = Math.min(a, b);
+	}
+}
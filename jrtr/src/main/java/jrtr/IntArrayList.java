@@ -0,0 +1,116 @@
+package jrtr;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of primitive ints. Used by the mesh loaders to collect
+ * face indices without boxing each value into an {@link Integer}.
+ */
+public class IntArrayList {
+
+	private int[] data;
+	private int size;
+
+	public IntArrayList()
+	{
+		this(16);
+	}
+
+	/**
+	 * @param capacity
+	 * 		the initial number of ints that can be stored without growing
+	 */
+	public IntArrayList(int capacity)
+	{
+		data = new int[Math.max(capacity, 1)];
+		size = 0;
+	}
+
+	public void add(int f)
+	{
+		if(size == data.length)
+			grow(size + 1);
+		data[size++] = f;
+	}
+
+	public void add(int f0, int f1)
+	{
+		if(size + 2 > data.length)
+			grow(size + 2);
+		data[size] = f0;
+		data[size+1] = f1;
+		size += 2;
+	}
+
+	public void add(int f0, int f1, int f2)
+	{
+		if(size + 3 > data.length)
+			grow(size + 3);
+		data[size] = f0;
+		data[size+1] = f1;
+		data[size+2] = f2;
+		size += 3;
+	}
+
+	/**
+	 * Append all values of another list.
+	 */
+	public void addAll(IntArrayList other)
+	{
+		if(size + other.size > data.length)
+			grow(size + other.size);
+		System.arraycopy(other.data, 0, data, size, other.size);
+		size += other.size;
+	}
+
+	public int get(int i)
+	{
+		return data[i];
+	}
+
+	public void set(int i, int f)
+	{
+		data[i] = f;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public void clear()
+	{
+		size = 0;
+	}
+
+	/**
+	 * Remove the last value and return it.
+	 */
+	public int removeLast()
+	{
+		return data[--size];
+	}
+
+	/**
+	 * Direct access to the backing array. Only the first {@link #size()}
+	 * entries are valid, and the array is replaced when the list grows.
+	 */
+	public int[] array()
+	{
+		return data;
+	}
+
+	/**
+	 * @return a copy of the stored values, trimmed to {@link #size()}
+	 */
+	public int[] toArray()
+	{
+		return Arrays.copyOf(data, size);
+	}
+
+	private void grow(int minCapacity)
+	{
+		int capacity = Math.max(data.length + (data.length >> 1), minCapacity);
+		data = Arrays.copyOf(data, capacity);
+	}
+}
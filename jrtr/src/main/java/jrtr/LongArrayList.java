@@ -0,0 +1,116 @@
+package jrtr;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of primitive longs, like {@link IntArrayList}. Used to
+ * collect packed keys without boxing each value into a {@link Long}.
+ */
+public class LongArrayList {
+
+	private long[] data;
+	private int size;
+
+	public LongArrayList()
+	{
+		this(16);
+	}
+
+	/**
+	 * @param capacity
+	 * 		the initial number of longs that can be stored without growing
+	 */
+	public LongArrayList(int capacity)
+	{
+		data = new long[Math.max(capacity, 1)];
+		size = 0;
+	}
+
+	public void add(long f)
+	{
+		if(size == data.length)
+			grow(size + 1);
+		data[size++] = f;
+	}
+
+	public void add(long f0, long f1)
+	{
+		if(size + 2 > data.length)
+			grow(size + 2);
+		data[size] = f0;
+		data[size+1] = f1;
+		size += 2;
+	}
+
+	public void add(long f0, long f1, long f2)
+	{
+		if(size + 3 > data.length)
+			grow(size + 3);
+		data[size] = f0;
+		data[size+1] = f1;
+		data[size+2] = f2;
+		size += 3;
+	}
+
+	/**
+	 * Append all values of another list.
+	 */
+	public void addAll(LongArrayList other)
+	{
+		if(size + other.size > data.length)
+			grow(size + other.size);
+		System.arraycopy(other.data, 0, data, size, other.size);
+		size += other.size;
+	}
+
+	public long get(int i)
+	{
+		return data[i];
+	}
+
+	public void set(int i, long f)
+	{
+		data[i] = f;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public void clear()
+	{
+		size = 0;
+	}
+
+	/**
+	 * Remove the last value and return it.
+	 */
+	public long removeLast()
+	{
+		return data[--size];
+	}
+
+	/**
+	 * Direct access to the backing array. Only the first {@link #size()}
+	 * entries are valid, and the array is replaced when the list grows.
+	 */
+	public long[] array()
+	{
+		return data;
+	}
+
+	/**
+	 * @return a copy of the stored values, trimmed to {@link #size()}
+	 */
+	public long[] toArray()
+	{
+		return Arrays.copyOf(data, size);
+	}
+
+	private void grow(int minCapacity)
+	{
+		int capacity = Math.max(data.length + (data.length >> 1), minCapacity);
+		data = Arrays.copyOf(data, capacity);
+	}
+}
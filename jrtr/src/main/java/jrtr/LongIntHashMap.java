@@ -0,0 +1,191 @@
+package jrtr;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive longs to primitive ints, with open addressing
+ * and linear probing. Used to look up mesh elements by a pair of vertex
+ * indices packed into a long, without boxing the keys and values or
+ * allocating an entry per mapping.
+ * <p>
+ * Each key is stored next to its value in one array, so a lookup usually
+ * touches a single cache line.
+ */
+public class LongIntHashMap {
+
+	/**
+	 * The value {@link #get(long)} returns for keys that are not in the map.
+	 */
+	public static final int MISSING = -1;
+
+	/**
+	 * Marks the slots that are in use in the upper half of the value
+	 * entries, so any key and any value can be stored.
+	 */
+	private static final long USED = 1L << 32;
+
+	// Key at 2*slot, value with the USED bit at 2*slot+1, 0 for empty slots
+	private long[] table;
+	private int size;
+	private int mask;
+
+	public LongIntHashMap()
+	{
+		this(16);
+	}
+
+	/**
+	 * @param expected
+	 * 		the number of mappings that can be stored without growing
+	 */
+	public LongIntHashMap(int expected)
+	{
+		allocate(Integer.highestOneBit(Math.max(2, expected*2-1)) << 1);
+	}
+
+	/**
+	 * @return the value for the key, or {@link #MISSING}
+	 */
+	public int get(long key)
+	{
+		int slot = find(key);
+		return table[2*slot+1] != 0 ? (int)table[2*slot+1] : MISSING;
+	}
+
+	public boolean containsKey(long key)
+	{
+		return table[2*find(key)+1] != 0;
+	}
+
+	/**
+	 * Map the key to the value, replacing any value it had.
+	 */
+	public void put(long key, int value)
+	{
+		int slot = find(key);
+		if(table[2*slot+1] != 0)
+		{
+			table[2*slot+1] = USED | (value & 0xFFFFFFFFL);
+			return;
+		}
+		insert(slot, key, value);
+	}
+
+	/**
+	 * Map the key to the value if it has no value yet. This looks up the
+	 * key only once, unlike {@link #get(long)} followed by
+	 * {@link #put(long, int)}.
+	 *
+	 * @return the value the key already had, or {@link #MISSING} if the
+	 * 		value was stored
+	 */
+	public int putIfAbsent(long key, int value)
+	{
+		int slot = find(key);
+		if(table[2*slot+1] != 0)
+			return (int)table[2*slot+1];
+		insert(slot, key, value);
+		return MISSING;
+	}
+
+	/**
+	 * Remove the mapping of the key. The entries after it in its probe
+	 * sequence move back into the gap, so lookups need no markers for
+	 * removed entries.
+	 *
+	 * @return the value the key had, or {@link #MISSING}
+	 */
+	public int remove(long key)
+	{
+		int gap = find(key);
+		if(table[2*gap+1] == 0)
+			return MISSING;
+		int value = (int)table[2*gap+1];
+		for(int slot=(gap+1) & mask; table[2*slot+1] != 0; slot=(slot+1) & mask)
+		{
+			// The entry can fill the gap if its probe sequence starts at or
+			// before the gap
+			int home = hash(table[2*slot]) & mask;
+			if(((slot-home) & mask) >= ((slot-gap) & mask))
+			{
+				table[2*gap] = table[2*slot];
+				table[2*gap+1] = table[2*slot+1];
+				gap = slot;
+			}
+		}
+		table[2*gap] = 0;
+		table[2*gap+1] = 0;
+		size--;
+		return value;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public void clear()
+	{
+		Arrays.fill(table, 0);
+		size = 0;
+	}
+
+	/**
+	 * Pack an unordered pair of ints into a key, for example the vertex
+	 * indices of an edge, so both orders give the same key.
+	 */
+	public static long pairKey(int a, int b)
+	{
+		return a < b ? (long)a << 32 | (b & 0xFFFFFFFFL) : (long)b << 32 | (a & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return the slot of the key, or the empty slot where it belongs
+	 */
+	private int find(long key)
+	{
+		int slot = hash(key) & mask;
+		while(table[2*slot+1] != 0 && table[2*slot] != key)
+			slot = (slot+1) & mask;
+		return slot;
+	}
+
+	private void insert(int slot, long key, int value)
+	{
+		table[2*slot] = key;
+		table[2*slot+1] = USED | (value & 0xFFFFFFFFL);
+		// Keep the table at most half full, so probe sequences stay short
+		if(++size*2 > mask+1)
+			rehash(2*(mask+1));
+	}
+
+	private void rehash(int capacity)
+	{
+		long[] old = table;
+		allocate(capacity);
+		for(int i=0; i<old.length; i+=2)
+		{
+			if(old[i+1] == 0)
+				continue;
+			int slot = find(old[i]);
+			table[2*slot] = old[i];
+			table[2*slot+1] = old[i+1];
+		}
+	}
+
+	private void allocate(int capacity)
+	{
+		table = new long[2*capacity];
+		mask = capacity-1;
+	}
+
+	/**
+	 * Mix the bits of the key, since packed index pairs differ mostly in
+	 * their low bits.
+	 */
+	private static int hash(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,249 @@
+package jrtr;
+
+/**
+ * Loop subdivision of triangle meshes ("Smooth Subdivision Surfaces Based
+ * on Triangles", Loop 1987). Each level splits every triangle into four,
+ * with a new vertex on each edge, and moves the old vertices, so the mesh
+ * converges to a smooth surface:
+ * <ul>
+ * <li>an edge point is 3/8 of each end of its edge plus 1/8 of each of the
+ * two opposite vertices, or the midpoint of a border edge,
+ * <li>a vertex of valence n keeps 1 - n*beta of its position and gets beta
+ * of each neighbour, with Warren's beta = 3/(8n) for n &gt; 3 and 3/16 for
+ * n = 3; a border vertex keeps 3/4 and gets 1/8 of its two border
+ * neighbours, so borders converge to cubic B-splines.
+ * </ul>
+ * Attributes other than the position are interpolated linearly, so
+ * texture coordinates and colors keep their layout. Seams of the
+ * attributes stay sharp, while the surface stays smooth across them.
+ * Normals are interpolated as well; generate them again (see
+ * {@link NormalGenerator}) for the normals of the smooth surface.
+ * <p>
+ * The edge points, vertex points and new triangles are computed in
+ * parallel loops over primitive arrays. The connectivity of the new mesh
+ * follows from the old one, so no edges need to be looked up.
+ */
+public class LoopSubdivision {
+
+	/**
+	 * Subdivide a mesh several times.
+	 *
+	 * @return the subdivided mesh, or the given mesh for 0 levels
+	 */
+	public static HalfEdgeMesh subdivide(HalfEdgeMesh mesh, int levels)
+	{
+		for(int i=0; i<levels; i++)
+			mesh = subdivide(mesh);
+		return mesh;
+	}
+
+	/**
+	 * Subdivide indexed vertex data several times.
+	 *
+	 * @param vertexData
+	 * 		the mesh, it needs float positions and indices, and all other
+	 * 		elements in float format
+	 * @return new vertex data with all elements of the given vertex data
+	 */
+	public static VertexData subdivide(VertexData vertexData, int levels, RenderContext renderContext)
+	{
+		return subdivide(new HalfEdgeMesh(vertexData), levels).toVertexData(renderContext);
+	}
+
+	/**
+	 * Subdivide a mesh once.
+	 */
+	public static HalfEdgeMesh subdivide(final HalfEdgeMesh m)
+	{
+		final int nh = m.nHalfEdges;
+		final int nv = m.nVertices;
+
+		// Number the edges. Border half-edges, and the first half-edge of
+		// each pair, own their edge. The edge point of each side of an edge
+		// gets a wedge, which is shared unless the edge is a seam.
+		final int[] edge = new int[nh];
+		final int[] edgeWedge = new int[nh];
+		int ne = 0;
+		int nw = m.nWedges;
+		for(int h=0; h<nh; h++)
+		{
+			int t = m.twin[h];
+			if(t != -1 && t < h)
+				continue;
+			edge[h] = ne++;
+			edgeWedge[h] = nw++;
+			if(t != -1)
+			{
+				edge[t] = edge[h];
+				edgeWedge[t] = m.isSeam(h) ? nw++ : edgeWedge[h];
+			}
+		}
+
+		final HalfEdgeMesh r = new HalfEdgeMesh();
+		r.nVertices = nv + ne;
+		r.nHalfEdges = 4*nh;
+		r.nWedges = nw;
+		r.positions = new float[r.nVertices*3];
+		r.vertexHalfEdge = new int[r.nVertices];
+		r.twin = new int[r.nHalfEdges];
+		r.wedge = new int[r.nHalfEdges];
+		r.wedgeVertex = new int[nw];
+		System.arraycopy(m.wedgeVertex, 0, r.wedgeVertex, 0, m.nWedges);
+		for(int s=0; s<m.attributes.length; s++)
+		{
+			if(m.attributes[s] == null)
+				continue;
+			r.components[s] = m.components[s];
+			r.attributes[s] = new float[nw*m.components[s]];
+			System.arraycopy(m.attributes[s], 0, r.attributes[s], 0, m.nWedges*m.components[s]);
+		}
+
+		// Edge points, with the attributes of their wedges
+		Parallel.forRange(nh, new Parallel.Range() {
+			public void run(int start, int end)
+			{
+				float[] p = m.positions;
+				for(int h=start; h<end; h++)
+				{
+					int t = m.twin[h];
+					if(t != -1 && t < h)
+						continue;
+					int a = m.vertex(h)*3, b = m.target(h)*3;
+					int e = nv + edge[h];
+					for(int j=0; j<3; j++)
+					{
+						if(t == -1)
+							r.positions[e*3+j] = (p[a+j] + p[b+j]) / 2;
+						else
+						{
+							int c = m.vertex(HalfEdgeMesh.prev(h))*3, d = m.vertex(HalfEdgeMesh.prev(t))*3;
+							r.positions[e*3+j] = 3f/8 * (p[a+j] + p[b+j]) + 1f/8 * (p[c+j] + p[d+j]);
+						}
+					}
+					// The second half of the edge starts at the edge point, and
+					// is on the border if the edge is
+					r.vertexHalfEdge[e] = child(h, 1, 2);
+					setEdgeWedge(m, r, h, e, edgeWedge[h]);
+					if(t != -1 && edgeWedge[t] != edgeWedge[h])
+						setEdgeWedge(m, r, t, e, edgeWedge[t]);
+				}
+			}
+		});
+
+		// Vertex points
+		Parallel.forRange(nv, new Parallel.Range() {
+			public void run(int start, int end)
+			{
+				float[] p = m.positions;
+				for(int v=start; v<end; v++)
+				{
+					int h = m.vertexHalfEdge[v];
+					if(h == -1)
+					{
+						System.arraycopy(p, v*3, r.positions, v*3, 3);
+						r.vertexHalfEdge[v] = -1;
+						continue;
+					}
+					r.vertexHalfEdge[v] = child(h, 0, 0);
+
+					float sx = 0, sy = 0, sz = 0;
+					int n = 0;
+					int g = h;
+					int last = -1;
+					do {
+						int u = m.target(g)*3;
+						sx += p[u]; sy += p[u+1]; sz += p[u+2];
+						n++;
+						last = g;
+						g = m.rotate(g);
+					} while(g != -1 && g != h);
+
+					float w, beta;
+					if(g == -1)
+					{
+						// Only the two border neighbours count
+						int a = m.target(h)*3, b = m.vertex(HalfEdgeMesh.prev(last))*3;
+						sx = p[a] + p[b]; sy = p[a+1] + p[b+1]; sz = p[a+2] + p[b+2];
+						w = 3f/4;
+						beta = 1f/8;
+					}
+					else
+					{
+						beta = n == 3 ? 3f/16 : 3f/(8*n);
+						w = 1 - n*beta;
+					}
+					r.positions[v*3] = w*p[v*3] + beta*sx;
+					r.positions[v*3+1] = w*p[v*3+1] + beta*sy;
+					r.positions[v*3+2] = w*p[v*3+2] + beta*sz;
+				}
+			}
+		});
+
+		// Split each triangle into three corner triangles and a center
+		// triangle. Corner triangle k of face f is face 4f+k, with the
+		// half-edges from vertex k to the edge point of edge k, across to the
+		// edge point of edge k-1, and back to vertex k. The center triangle
+		// 4f+3 runs through the edge points of edges 0, 1 and 2.
+		Parallel.forRange(nh/3, new Parallel.Range() {
+			public void run(int start, int end)
+			{
+				for(int f=start; f<end; f++)
+				{
+					for(int k=0; k<3; k++)
+					{
+						int h = 3*f+k;
+						int hp = HalfEdgeMesh.prev(h);
+						int c = child(h, 0, 0);
+						r.wedge[c] = m.wedge[h];
+						r.wedge[c+1] = edgeWedge[h];
+						r.wedge[c+2] = edgeWedge[hp];
+
+						// The halves of an edge are twins with the halves of
+						// its twin in the opposite order
+						int t = m.twin[h];
+						r.twin[c] = t == -1 ? -1 : child(t, 1, 2);
+						r.twin[c+1] = 3*(4*f+3) + (k+2)%3;
+						int tp = m.twin[hp];
+						r.twin[c+2] = tp == -1 ? -1 : child(tp, 0, 0);
+
+						int center = 3*(4*f+3) + k;
+						r.wedge[center] = edgeWedge[h];
+						r.twin[center] = 3*(4*f+(k+1)%3) + 1;
+					}
+				}
+			}
+		});
+		return r;
+	}
+
+	/**
+	 * The child half-edge at position i of the corner triangle at the start
+	 * of half-edge h, or of the next corner triangle if next is 1. The first
+	 * half of h is child(h, 0, 0), its second half child(h, 1, 2).
+	 */
+	private static int child(int h, int next, int i)
+	{
+		int f = h/3, k = (h%3 + next)%3;
+		return 3*(4*f+k) + i;
+	}
+
+	/**
+	 * Interpolate the attributes of the wedge of an edge point from the
+	 * corners at the ends of a half-edge.
+	 */
+	private static void setEdgeWedge(HalfEdgeMesh m, HalfEdgeMesh r, int h, int e, int w)
+	{
+		r.wedgeVertex[w] = e;
+		int a = m.wedge[h], b = m.wedge[HalfEdgeMesh.next(h)];
+		for(int s=0; s<m.attributes.length; s++)
+		{
+			float[] src = m.attributes[s];
+			if(src == null)
+				continue;
+			int k = m.components[s];
+			float[] dst = r.attributes[s];
+			for(int j=0; j<k; j++)
+				dst[w*k+j] = (src[a*k+j] + src[b*k+j]) / 2;
+		}
+	}
+}
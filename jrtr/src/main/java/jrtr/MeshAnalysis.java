@@ -0,0 +1,190 @@
+package jrtr;
+
+/**
+ * Discrete differential geometry of triangle meshes: the area, Gaussian
+ * curvature and mean curvature at each vertex of a {@link HalfEdgeMesh}
+ * ("Discrete Differential-Geometry Operators for Triangulated
+ * 2-Manifolds", Meyer et al. 2002). The results are per vertex of the
+ * mesh; {@link HalfEdgeMesh#wedgeVertex(int)} maps the vertices of the
+ * vertex data to them. For a {@link MeshData}, build the half-edge mesh
+ * from its vertex data.
+ * <p>
+ * The per-triangle quantities are computed in parallel loops into arrays
+ * per half-edge, and summed per vertex in one pass over the half-edges, so
+ * no two threads write to the same vertex.
+ */
+public class MeshAnalysis {
+
+	/**
+	 * The mixed Voronoi area of each vertex: the part of its triangles
+	 * closer to it than to the other corners, or a half or a quarter of
+	 * obtuse triangles. The areas add up to the area of the mesh.
+	 */
+	public static float[] vertexAreas(HalfEdgeMesh m)
+	{
+		return toFloat(areas(m, cotangents(m)));
+	}
+
+	/**
+	 * The Gaussian curvature at each vertex: the angle defect, 2 pi minus
+	 * the angles of the triangles at the vertex, or pi minus them on a
+	 * border, divided by the area of the vertex.
+	 */
+	public static float[] gaussianCurvature(final HalfEdgeMesh m)
+	{
+		final float[] p = m.positions;
+		final double[] angle = new double[m.nHalfEdges];
+		Parallel.forRange(m.nHalfEdges, new Parallel.Range() {
+			public void run(int start, int end)
+			{
+				for(int h=start; h<end; h++)
+				{
+					int a = 3*m.vertex(h), b = 3*m.target(h), c = 3*m.vertex(HalfEdgeMesh.prev(h));
+					double ux = p[b]-p[a], uy = p[b+1]-p[a+1], uz = p[b+2]-p[a+2];
+					double vx = p[c]-p[a], vy = p[c+1]-p[a+1], vz = p[c+2]-p[a+2];
+					double cx = uy*vz - uz*vy, cy = uz*vx - ux*vz, cz = ux*vy - uy*vx;
+					angle[h] = Math.atan2(Math.sqrt(cx*cx + cy*cy + cz*cz), ux*vx + uy*vy + uz*vz);
+				}
+			}
+		});
+		double[] area = areas(m, cotangents(m));
+		double[] defect = new double[m.nVertices];
+		boolean[] border = borderVertices(m);
+		for(int v=0; v<m.nVertices; v++)
+			defect[v] = border[v] ? Math.PI : 2*Math.PI;
+		for(int h=0; h<m.nHalfEdges; h++)
+			defect[m.vertex(h)] -= angle[h];
+		float[] k = new float[m.nVertices];
+		for(int v=0; v<m.nVertices; v++)
+			k[v] = area[v] > 0 ? (float)(defect[v] / area[v]) : 0;
+		return k;
+	}
+
+	/**
+	 * The mean curvature at each vertex, half the length of the cotangent
+	 * Laplacian of the positions. It is positive where the surface bends
+	 * away from its normal, like on a sphere, and negative where it bends
+	 * towards it. On borders it is not meaningful.
+	 */
+	public static float[] meanCurvature(final HalfEdgeMesh m)
+	{
+		final float[] p = m.positions;
+		double[] cot = cotangents(m);
+		double[] area = areas(m, cot);
+
+		// Each half-edge contributes cot(opposite angle) * (a - b) to its
+		// start a and the negative to its end b. The normals are the sums
+		// of the triangle normals weighted by area.
+		double[] laplacian = new double[3*m.nVertices];
+		double[] normal = new double[3*m.nVertices];
+		for(int h=0; h<m.nHalfEdges; h++)
+		{
+			int a = m.vertex(h), b = m.target(h), c = m.vertex(HalfEdgeMesh.prev(h));
+			for(int j=0; j<3; j++)
+			{
+				double d = cot[h] * (p[3*a+j] - p[3*b+j]);
+				laplacian[3*a+j] += d;
+				laplacian[3*b+j] -= d;
+			}
+			double ux = p[3*b]-p[3*a], uy = p[3*b+1]-p[3*a+1], uz = p[3*b+2]-p[3*a+2];
+			double vx = p[3*c]-p[3*a], vy = p[3*c+1]-p[3*a+1], vz = p[3*c+2]-p[3*a+2];
+			normal[3*a] += uy*vz - uz*vy;
+			normal[3*a+1] += uz*vx - ux*vz;
+			normal[3*a+2] += ux*vy - uy*vx;
+		}
+		float[] curvature = new float[m.nVertices];
+		for(int v=0; v<m.nVertices; v++)
+		{
+			if(area[v] == 0)
+				continue;
+			double x = laplacian[3*v], y = laplacian[3*v+1], z = laplacian[3*v+2];
+			double length = Math.sqrt(x*x + y*y + z*z);
+			double sign = x*normal[3*v] + y*normal[3*v+1] + z*normal[3*v+2] < 0 ? -1 : 1;
+			curvature[v] = (float)(sign * length / (4*area[v]));
+		}
+		return curvature;
+	}
+
+	/**
+	 * The cotangent of the angle opposite each half-edge, in its triangle,
+	 * or 0 for degenerate triangles.
+	 */
+	static double[] cotangents(final HalfEdgeMesh m)
+	{
+		final float[] p = m.positions;
+		final double[] cot = new double[m.nHalfEdges];
+		Parallel.forRange(m.nHalfEdges, new Parallel.Range() {
+			public void run(int start, int end)
+			{
+				for(int h=start; h<end; h++)
+				{
+					int a = 3*m.vertex(h), b = 3*m.target(h), c = 3*m.vertex(HalfEdgeMesh.prev(h));
+					double ux = p[a]-p[c], uy = p[a+1]-p[c+1], uz = p[a+2]-p[c+2];
+					double vx = p[b]-p[c], vy = p[b+1]-p[c+1], vz = p[b+2]-p[c+2];
+					double cx = uy*vz - uz*vy, cy = uz*vx - ux*vz, cz = ux*vy - uy*vx;
+					double sin = Math.sqrt(cx*cx + cy*cy + cz*cz);
+					cot[h] = sin > 0 ? (ux*vx + uy*vy + uz*vz) / sin : 0;
+				}
+			}
+		});
+		return cot;
+	}
+
+	/**
+	 * The mixed Voronoi areas, see {@link #vertexAreas(HalfEdgeMesh)}.
+	 */
+	static double[] areas(final HalfEdgeMesh m, final double[] cot)
+	{
+		final float[] p = m.positions;
+		// The area of the triangle of each half-edge at its start vertex
+		final double[] corner = new double[m.nHalfEdges];
+		Parallel.forRange(m.nHalfEdges, new Parallel.Range() {
+			public void run(int start, int end)
+			{
+				for(int h=start; h<end; h++)
+				{
+					int n = HalfEdgeMesh.next(h), q = HalfEdgeMesh.prev(h);
+					int a = 3*m.vertex(h), b = 3*m.target(h), c = 3*m.vertex(q);
+					double ux = p[b]-p[a], uy = p[b+1]-p[a+1], uz = p[b+2]-p[a+2];
+					double vx = p[c]-p[a], vy = p[c+1]-p[a+1], vz = p[c+2]-p[a+2];
+					double cx = uy*vz - uz*vy, cy = uz*vx - ux*vz, cz = ux*vy - uy*vx;
+					double area = Math.sqrt(cx*cx + cy*cy + cz*cz) / 2;
+					// Negative cotangents are obtuse angles: the angle at a
+					// is opposite to the next half-edge
+					if(cot[n] < 0)
+						corner[h] = area / 2;
+					else if(cot[h] < 0 || cot[q] < 0)
+						corner[h] = area / 4;
+					else
+						corner[h] = ((ux*ux + uy*uy + uz*uz)*cot[h] + (vx*vx + vy*vy + vz*vz)*cot[q]) / 8;
+				}
+			}
+		});
+		double[] area = new double[m.nVertices];
+		for(int h=0; h<m.nHalfEdges; h++)
+			area[m.vertex(h)] += corner[h];
+		return area;
+	}
+
+	/**
+	 * @return for each vertex, whether it is at a border half-edge
+	 */
+	static boolean[] borderVertices(HalfEdgeMesh m)
+	{
+		boolean[] border = new boolean[m.nVertices];
+		for(int h=0; h<m.nHalfEdges; h++)
+		{
+			if(m.twin[h] == -1)
+				border[m.vertex(h)] = border[m.target(h)] = true;
+		}
+		return border;
+	}
+
+	private static float[] toFloat(double[] d)
+	{
+		float[] f = new float[d.length];
+		for(int i=0; i<d.length; i++)
+			f[i] = (float)d[i];
+		return f;
+	}
+}
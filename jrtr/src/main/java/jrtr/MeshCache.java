@@ -0,0 +1,438 @@
+package jrtr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * A binary cache for meshes loaded from .obj files. The first time a mesh is
+ * read, it is imported with {@link ObjReader#readIndexed(String, float,
+ * RenderContext)} and the final vertex arrays are written to a sidecar file
+ * next to the .obj file. Later reads memory-map the sidecar instead of
+ * parsing the text file. Each scale has its own sidecar (e.g.,
+ * <code>bunny.obj.4.0.mesh</code>), so applications that load a mesh at
+ * different scales do not rebuild each other's cache.
+ * <p>
+ * The sidecar starts with a versioned header that stores the size,
+ * modification time and a CRC32 checksum of the source file, the scale
+ * the mesh was normalized with, and whether it was optimized (see
+ * {@link ObjReader#setOptimizeMeshes(boolean)}). The checksum is only computed when the
+ * modification time changed, so touching the source file does not rebuild
+ * the cache, and an unchanged file is not read at all. The header is
+ * followed by the bounds of the mesh and the positions, normals, texture
+ * coordinates and indices as little-endian arrays, which become the vertex
+ * data without copying and can be passed to <code>glBufferData</code>
+ * directly.
+ */
+public class MeshCache {
+
+	/**
+	 * The file name extension appended to the .obj file name.
+	 */
+	public static final String EXTENSION = ".mesh";
+
+	private static final int MAGIC = 0x4D52544A;	// "JTRM" in little-endian
+	private static final int VERSION = 5;
+
+	private static final int FLAG_NORMALS = 1;
+	private static final int FLAG_TEXCOORDS = 2;
+	/**
+	 * The mesh was reordered by {@link MeshOptimizer}, see
+	 * {@link ObjReader#setOptimizeMeshes(boolean)}.
+	 */
+	private static final int FLAG_OPTIMIZED = 4;
+
+	/**
+	 * Size of the header in bytes: magic, version, flags, number of
+	 * vertices, number of indices, scale, source size, source modification
+	 * time, source checksum, and six floats for the bounds. This keeps the
+	 * arrays 8-byte aligned.
+	 */
+	private static final int HEADER_SIZE = 4*6 + 8*3 + 4*6;
+
+	private static final int BOUNDS_OFFSET = 48;
+
+	/**
+	 * Read a mesh through the cache. If the cache file is missing or out of
+	 * date, the .obj file is imported and the cache is (re)written.
+	 *
+	 * @param fileName
+	 * 			the .obj file to read
+	 * @param scale
+	 * 			scales the object to fit into a cube of the given size
+	 * @return vertex data containing the loaded mesh. Its elements and
+	 * 		indices are read-only views into the cache file.
+	 * @throws IOException
+	 */
+	public static VertexData read(String fileName, float scale, RenderContext renderContext)
+			throws IOException
+	{
+		return load(fileName, scale, renderContext).toVertexData(renderContext);
+	}
+
+	/**
+	 * Load the cached arrays of a mesh, rebuilding the cache if necessary.
+	 * The returned mesh holds views into the memory-mapped cache file.
+	 *
+	 * @param fileName
+	 * 			the .obj file to read
+	 * @param scale
+	 * 			scales the object to fit into a cube of the given size
+	 * @param renderContext
+	 * 			used to make the vertex data when the cache needs to be rebuilt
+	 * @throws IOException
+	 */
+	public static Mesh load(String fileName, float scale, RenderContext renderContext)
+			throws IOException
+	{
+		File cacheFile = getCacheFile(fileName, scale);
+		File source = new File(fileName);
+		long sourceSize = source.length();
+		long modified = source.lastModified();
+		boolean optimized = ObjReader.getOptimizeMeshes();
+
+		// Only check the header before mapping, a mapped file could not be
+		// replaced on some platforms
+		ByteBuffer header = readHeader(cacheFile);
+		if(header != null && header.getFloat(20) == scale && header.getLong(24) == sourceSize
+				&& ((header.getInt(8) & FLAG_OPTIMIZED) != 0) == optimized)
+		{
+			if(header.getLong(32) == modified)
+			{
+				Mesh mesh = parse(map(cacheFile, header));
+				if(mesh != null)
+					return mesh;
+			}
+			else if(header.getLong(40) == checksum(fileName))
+			{
+				// The file was only touched. Store the new time, so the
+				// checksum is not computed again next time.
+				ByteBuffer b = map(cacheFile, header);
+				Mesh mesh = parse(b);
+				if(mesh != null)
+				{
+					ByteBuffer copy = ByteBuffer.allocateDirect(b.limit()).order(ByteOrder.LITTLE_ENDIAN);
+					copy.put(b.duplicate());
+					copy.putLong(32, modified);
+					copy.rewind();
+					try {
+						write(cacheFile, copy);
+					} catch(IOException e) {
+						System.err.println("Could not update mesh cache '" + cacheFile + "': " + e.getMessage());
+					}
+					return mesh;
+				}
+			}
+		}
+
+		VertexData vertexData = ObjReader.readIndexed(fileName, scale, renderContext);
+		ByteBuffer data = encode(vertexData, scale, optimized, sourceSize, modified, checksum(fileName));
+		try {
+			write(cacheFile, data);
+			Mesh mesh = parse(map(cacheFile, data));
+			if(mesh != null)
+				return mesh;
+		} catch(IOException e) {
+			// For example, another thread has the old cache file mapped
+			System.err.println("Could not write mesh cache '" + cacheFile + "': " + e.getMessage());
+		}
+		// Another loader replaced the cache file in between, or it could
+		// not be written. Use the arrays in memory.
+		return parse(data);
+	}
+
+	/**
+	 * @return the sidecar file of an .obj file for a scale
+	 */
+	public static File getCacheFile(String fileName, float scale)
+	{
+		return new File(fileName + "." + scale + EXTENSION);
+	}
+
+	/**
+	 * Encode vertex data in the format of a cache file.
+	 *
+	 * @return a direct buffer with the contents of the file
+	 */
+	static ByteBuffer encode(VertexData vertexData, float scale, boolean optimized, long sourceSize,
+			long sourceModified, long sourceChecksum) throws IOException
+	{
+		float[] positions = vertexData.toFloatArray(VertexData.Semantic.POSITION);
+		float[] normals = vertexData.toFloatArray(VertexData.Semantic.NORMAL);
+		float[] texCoords = vertexData.toFloatArray(VertexData.Semantic.TEXCOORD);
+		int[] indices = vertexData.toIndexArray();
+		int n = vertexData.getNumberOfVertices();
+		int flags = (normals != null ? FLAG_NORMALS : 0) | (texCoords != null ? FLAG_TEXCOORDS : 0)
+				| (optimized ? FLAG_OPTIMIZED : 0);
+
+		// Bounds of the normalized positions
+		float[] bounds = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE,
+				-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+		for(int i=0; i<n; i++)
+		{
+			for(int j=0; j<3; j++)
+			{
+				float p = positions[i*3+j];
+				if(p < bounds[j]) bounds[j] = p;
+				if(p > bounds[3+j]) bounds[3+j] = p;
+			}
+		}
+
+		long size = HEADER_SIZE + 4L*(n*3 + (normals != null ? n*3 : 0)
+				+ (texCoords != null ? n*2 : 0) + indices.length);
+		if(size > Integer.MAX_VALUE)
+			throw new IOException("Mesh too large for the cache: " + size + " bytes");
+
+		ByteBuffer b = ByteBuffer.allocateDirect((int)size).order(ByteOrder.LITTLE_ENDIAN);
+		b.putInt(MAGIC).putInt(VERSION).putInt(flags).putInt(n).putInt(indices.length);
+		b.putFloat(scale).putLong(sourceSize).putLong(sourceModified).putLong(sourceChecksum);
+		for(float f : bounds)
+			b.putFloat(f);
+		b.asFloatBuffer().put(positions);
+		b.position(b.position() + positions.length*4);
+		if(normals != null)
+		{
+			b.asFloatBuffer().put(normals);
+			b.position(b.position() + normals.length*4);
+		}
+		if(texCoords != null)
+		{
+			b.asFloatBuffer().put(texCoords);
+			b.position(b.position() + texCoords.length*4);
+		}
+		b.asIntBuffer().put(indices);
+		b.rewind();
+		return b;
+	}
+
+	/**
+	 * Write an encoded mesh to a cache file. The data is written to a
+	 * temporary file of its own first, which then replaces the cache file
+	 * in one step, so neither readers nor other writers of the same file
+	 * see a partial file.
+	 */
+	static void write(File cacheFile, ByteBuffer data) throws IOException
+	{
+		File directory = cacheFile.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile(cacheFile.getName(), ".tmp", directory);
+		try {
+			RandomAccessFile file = new RandomAccessFile(tmp, "rw");
+			try {
+				FileChannel channel = file.getChannel();
+				ByteBuffer b = data.duplicate();
+				while(b.hasRemaining())
+					channel.write(b);
+			} finally {
+				file.close();
+			}
+			Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Read the header of a cache file.
+	 *
+	 * @return the header, or null if the file is missing, too short, or of
+	 * 		another version
+	 */
+	static ByteBuffer readHeader(File cacheFile) throws IOException
+	{
+		if(!cacheFile.exists() || cacheFile.length() < HEADER_SIZE)
+			return null;
+		ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			while(b.hasRemaining() && channel.read(b) >= 0);
+		} finally {
+			file.close();
+		}
+		if(b.hasRemaining() || b.getInt(0) != MAGIC || b.getInt(4) != VERSION)
+			return null;
+		return b;
+	}
+
+	/**
+	 * Memory-map a cache file.
+	 *
+	 * @param header
+	 * 		the header that was checked, which the mapped file must still
+	 * 		have, since another loader may have replaced the file
+	 * @return the mapped file, or null if it changed
+	 */
+	static ByteBuffer map(File cacheFile, ByteBuffer header) throws IOException
+	{
+		ByteBuffer b = ObjParser.map(cacheFile.getPath()).order(ByteOrder.LITTLE_ENDIAN);
+		if(b.limit() < HEADER_SIZE)
+			return null;
+		for(int i=0; i<HEADER_SIZE; i++)
+		{
+			if(b.get(i) != header.get(i))
+				return null;
+		}
+		return b;
+	}
+
+	/**
+	 * Make a mesh from the contents of a cache file whose header was
+	 * checked.
+	 *
+	 * @return the mesh, or null if the contents are null or their size does
+	 * 		not match the header
+	 */
+	static Mesh parse(ByteBuffer b)
+	{
+		if(b == null)
+			return null;
+		Mesh mesh = new Mesh();
+		int flags = b.getInt(8);
+		int n = b.getInt(12);
+		int nIndices = b.getInt(16);
+		mesh.bounds = new float[6];
+		for(int i=0; i<6; i++)
+			mesh.bounds[i] = b.getFloat(BOUNDS_OFFSET + i*4);
+
+		long expected = HEADER_SIZE + 4L*(n*3 + ((flags & FLAG_NORMALS) != 0 ? n*3 : 0)
+				+ ((flags & FLAG_TEXCOORDS) != 0 ? n*2 : 0) + nIndices);
+		if(b.limit() != expected)
+			return null;
+
+		mesh.numberOfVertices = n;
+		int offset = HEADER_SIZE;
+		mesh.positions = view(b, offset, n*3*4);
+		offset += n*3*4;
+		if((flags & FLAG_NORMALS) != 0)
+		{
+			mesh.normals = view(b, offset, n*3*4);
+			offset += n*3*4;
+		}
+		if((flags & FLAG_TEXCOORDS) != 0)
+		{
+			mesh.texCoords = view(b, offset, n*2*4);
+			offset += n*2*4;
+		}
+		mesh.indices = view(b, offset, nIndices*4);
+		return mesh;
+	}
+
+	/**
+	 * @return a little-endian view of a range of bytes
+	 */
+	private static ByteBuffer view(ByteBuffer b, int offset, int length)
+	{
+		ByteBuffer d = b.duplicate();
+		d.position(offset);
+		d.limit(offset + length);
+		return d.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Compute the CRC32 checksum of a file.
+	 */
+	static long checksum(String fileName) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		ByteBuffer b = ObjParser.map(fileName);
+		byte[] chunk = new byte[1 << 16];
+		while(b.hasRemaining())
+		{
+			int length = Math.min(chunk.length, b.remaining());
+			b.get(chunk, 0, length);
+			crc.update(chunk, 0, length);
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * The arrays of a cached mesh. All buffers are zero-copy views into the
+	 * memory-mapped cache file.
+	 */
+	public static class Mesh {
+
+		private int numberOfVertices;
+		private ByteBuffer positions, normals, texCoords;
+		private ByteBuffer indices;
+		private float[] bounds;
+
+		public int getNumberOfVertices()
+		{
+			return numberOfVertices;
+		}
+
+		public FloatBuffer getPositions()
+		{
+			return positions.asFloatBuffer();
+		}
+
+		/**
+		 * @return the normals, or null if the mesh has none
+		 */
+		public FloatBuffer getNormals()
+		{
+			return normals != null ? normals.asFloatBuffer() : null;
+		}
+
+		/**
+		 * @return the texture coordinates, or null if the mesh has none
+		 */
+		public FloatBuffer getTexCoords()
+		{
+			return texCoords != null ? texCoords.asFloatBuffer() : null;
+		}
+
+		public IntBuffer getIndices()
+		{
+			return indices.asIntBuffer();
+		}
+
+		/**
+		 * @return the bounds of the positions as {xMin, yMin, zMin, xMax, yMax, zMax}
+		 */
+		public float[] getBounds()
+		{
+			return bounds.clone();
+		}
+
+		/**
+		 * Make vertex data from the arrays. On little-endian platforms the
+		 * elements and indices of the vertex data are the mapped arrays
+		 * themselves, otherwise they are copied off-heap in native byte
+		 * order. The bounds from the cache become the bounding box of the
+		 * vertex data, so it is not computed again.
+		 */
+		public VertexData toVertexData(RenderContext renderContext)
+		{
+			VertexData vertexData = renderContext.makeVertexData(numberOfVertices);
+			addElement(vertexData, positions, VertexData.Semantic.POSITION, 3);
+			if(bounds != null && numberOfVertices > 0)
+				vertexData.setBoundingBox(bounds);
+			if(normals != null)
+				addElement(vertexData, normals, VertexData.Semantic.NORMAL, 3);
+			if(texCoords != null)
+				addElement(vertexData, texCoords, VertexData.Semantic.TEXCOORD, 2);
+			if(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN)
+				vertexData.addIndices(indices.asIntBuffer());
+			else
+				vertexData.allocateIndices(indices.capacity()/4).put(indices.asIntBuffer());
+			return vertexData;
+		}
+
+		private static void addElement(VertexData vertexData, ByteBuffer b, VertexData.Semantic s, int i)
+		{
+			if(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN)
+				vertexData.addElement(b.duplicate().order(ByteOrder.LITTLE_ENDIAN), s, i, VertexData.Format.FLOAT);
+			else
+				vertexData.allocateElement(s, i).put(b.asFloatBuffer());
+		}
+	}
+}
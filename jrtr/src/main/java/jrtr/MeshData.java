@@ -1,10 +1,8 @@
 package jrtr;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.ListIterator;
 
 import javax.vecmath.Vector2f;
 import javax.vecmath.Vector3f;
@@ -13,7 +11,9 @@ import jrtr.glrenderer.GLVertexData;
 
 /**
  * This class represents a geometric object that is stored in a mesh structure.
- * Each vertix knows its adjacent vertices, edges and faces
+ * Each vertix knows its adjacent vertices, edges and faces. The mesh is an
+ * object graph with an object per vertex, edge and face; for large meshes,
+ * or meshes with borders, use the more compact {@link HalfEdgeMesh}.
  * 
  * @author CGG\indermühle
  * 
@@ -27,28 +27,16 @@ public class MeshData {
 	private List<Vertex> vertexTable;
 	protected List<Edge> edgeTable;
 	private List<Face> faceTable;
+	// Maps the vertex indices of each edge (see LongIntHashMap.pairKey) to
+	// its position in edgeTable
+	private LongIntHashMap edgeIndex;
+	private boolean offHeap;
 
 	public MeshData(VertexData data, RenderContext r) {
 		renderContext = r;
 		this.createMesh(data);
 	}
 
-	/**
-	 * Helper-Function for the Loop subdivision. 
-	 * Should be always called after a subdivision so that the Winged Edge Structure and the VertexData are updated!
-	 * @param vertexList List of all vertices, does not need to have edges, the edges are assigned later to vertices
-	 * @param i Index-List, defines how the vertices are combined into a triangle mesh
-	 */
-	private void createMesh(List<Vertex> vertexList, int[] i) {
-		// used by loop subdivision
-		for (Vertex v : vertexList)
-			v.edge = null;
-		vertexTable = vertexList;
-		edgeTable = new ArrayList<Edge>(i.length / 2);
-		faceTable = new ArrayList<Face>();
-		this.createMeshStructure(i, i.length / 3);
-	}
-
 	/**
 	 * Constructs a winged edge structure from a vertex data.
 	 * The mesh has to fulfill two requirements:
@@ -57,9 +45,19 @@ public class MeshData {
 	 * @param data the VertexData
 	 */
 	public void createMesh(VertexData data) {
-		
-		int nedges = data.getIndices().length / 2;
-		int nfaces = data.getIndices().length / 3;
+		offHeap = data.isOffHeap();
+		createTables(data);
+		this.createVertexData();
+	}
+
+	/**
+	 * Builds the tables of vertices, edges and faces from a vertex data,
+	 * without making new vertex data
+	 */
+	private void createTables(VertexData data) {
+		int[] indices = data.toIndexArray();
+		int nedges = indices.length / 2;
+		int nfaces = indices.length / 3;
 		
 		// initializes the tables for vertices, edges and faces, creates a
 		// Vertex object for each vertex and adds it to vertexTable
@@ -67,21 +65,10 @@ public class MeshData {
 		edgeTable = new ArrayList<Edge>(nedges); 
 		faceTable = new ArrayList<Face>(nfaces); 
 		
-		LinkedList<VertexData.VertexElement> vertexElements = data.getElements();
-		ListIterator<VertexData.VertexElement> itr = vertexElements.listIterator(0);
-		
-		float[] v = null , c = null, n = null, t = null;
-		while(itr.hasNext()){
-			VertexData.VertexElement e = itr.next();
-			if(e.getSemantic() == VertexData.Semantic.POSITION)
-				v = e.getData();
-			if(e.getSemantic() == VertexData.Semantic.COLOR)
-				c = e.getData();
-			if(e.getSemantic() == VertexData.Semantic.NORMAL)
-				n = e.getData();
-			if(e.getSemantic() == VertexData.Semantic.TEXCOORD)
-				t = e.getData();
-		}	
+		float[] v = data.toFloatArray(VertexData.Semantic.POSITION);
+		float[] c = data.toFloatArray(VertexData.Semantic.COLOR);
+		float[] n = data.toFloatArray(VertexData.Semantic.NORMAL);
+		float[] t = data.toFloatArray(VertexData.Semantic.TEXCOORD);
 		  
 		for (int k = 0; k < data.getNumberOfVertices(); k++) {
 			Vertex vert = new Vertex(new Vector3f(v[3 * k], v[3 * k + 1], v[3 * k + 2]));
@@ -94,21 +81,44 @@ public class MeshData {
 			vertexTable.add(vert);
 		}
 		
-		this.createMeshStructure(data.getIndices(), nfaces);
+		this.createMeshStructure(indices, nfaces);
+	}
+
+	/**
+	 * Rebuilds the tables from the vertex data if {@link #loop(int)} dropped
+	 * them. Every method that reads the tables calls this first.
+	 */
+	private void ensureTables() {
+		if (faceTable == null)
+			createTables(vertexData);
 	}
 
+	/**
+	 * Builds the edges and faces from the index list. Edges are looked up by
+	 * their vertices in a hash map, so this takes linear time in the number
+	 * of faces.
+	 */
 	private void createMeshStructure(int[] i, int p) {
+		edgeIndex = new LongIntHashMap(p * 3 / 2);
 		int offset = 0;
+		// list containing all edges of the current face, reused for all
+		// faces since the edges only keep references to each other
+		List<Edge> list = new ArrayList<MeshData.Edge>(3);
 		// loop for each face
 		for (int k = 0; k < p; k++) {
-			// list containing all edges of the face. If an edge doesn't already
-			// exist in edgeTable, a new one is created. The edges describe the
-			// face in counterclockwise order
-			List<Edge> list = new ArrayList<MeshData.Edge>();
+			// If an edge doesn't already exist in edgeTable, a new one is
+			// created and added. The edges describe the face in
+			// counterclockwise order
+			list.clear();
 			for (int j = 0; j < 3; j++) {
-				Edge e = findEdge(i[offset + j], i[offset + (j + 1) % 3]);
-				if (e == null) {
-					e = new Edge(i[offset + j], i[offset + (j + 1) % 3]);
+				int v1 = i[offset + j], v2 = i[offset + (j + 1) % 3];
+				int id = edgeIndex.putIfAbsent(LongIntHashMap.pairKey(v1, v2), edgeTable.size());
+				Edge e;
+				if (id == LongIntHashMap.MISSING) {
+					e = new Edge(v1, v2);
+					edgeTable.add(e);
+				} else {
+					e = edgeTable.get(id);
 				}
 				list.add(e);
 			}
@@ -126,20 +136,17 @@ public class MeshData {
 				if (vertexTable.get(list.get(j).v1).edge == null)
 					vertexTable.get(list.get(j).v1).edge = list.get(j);
 			}
-			for (Edge e : list) {
-				if (!edgeTable.contains(e))
-					edgeTable.add(e);
-			}
 			faceTable.add(f);
 		}
-		this.createVertexData();
 	}
 
 	/**
 	 * Converts the mesh structure into a vertexData and stores it as
-	 * this.vertexData
+	 * this.vertexData. The vertex data is stored off-heap if the vertex data
+	 * the mesh was made from was.
 	 */
 	private void createVertexData() {
+		ensureTables();
 		float[] pos = new float[3 * vertexTable.size()];
 		float[] col = new float[3 * vertexTable.size()];
 		float[] nrm = new float[3 * vertexTable.size()];
@@ -166,23 +173,26 @@ public class MeshData {
 		}
 
 		VertexData data = renderContext.makeVertexData(vertexTable.size());
-		data.addElement(pos, VertexData.Semantic.POSITION, 3);
-		data.addElement(col, VertexData.Semantic.COLOR, 3);
-		data.addElement(nrm, VertexData.Semantic.NORMAL, 3);
-		data.addElement(tex, VertexData.Semantic.TEXCOORD, 2);
+		data.addElement(pos, VertexData.Semantic.POSITION, 3, offHeap);
+		data.addElement(col, VertexData.Semantic.COLOR, 3, offHeap);
+		data.addElement(nrm, VertexData.Semantic.NORMAL, 3, offHeap);
+		data.addElement(tex, VertexData.Semantic.TEXCOORD, 2, offHeap);
 		
-		List<Integer> index = new ArrayList<Integer>();
-		p = 0;
+		IntArrayList index = new IntArrayList(3 * faceTable.size());
 		for (Face f : faceTable) {
-			List<Integer> verts = this.findVertices(f);
-			index.addAll(verts);
-			p++;
-		}
-		int i[] = new int[index.size()];
-		for (int k = 0; k < index.size(); k++) {
-			i[k] = index.get(k);
+			// walks around the face like findVertices(f), without
+			// allocating lists
+			Edge e = f.edge;
+			do {
+				index.add(e.getStartVertex(f));
+				e = e.getNextEdge(f);
+			} while (e != f.edge);
 		}
-		data.addIndices(i);
+		int i[] = index.toArray();
+		if (offHeap)
+			data.allocateIndices(i.length).put(i);
+		else
+			data.addIndices(i);
 		this.vertexData = data;
 
 	//	vertexData.addElement(getFaceNormals(), VertexData.Semantic.NORMAL, 3); 
@@ -193,11 +203,13 @@ public class MeshData {
 	 * (DEPRECATED)
 	 * Creates a list of faceNormals that can be used in a vertexData. For each
 	 * vertex in a face, the x, y and z coordinates of the face normal is added
-	 * to the array
+	 * to the array. Use {@link NormalGenerator} to compute smooth vertex
+	 * normals instead.
 	 * 
 	 * @return array containing face normals
 	 */
 	public float[] getFaceNormals() {
+		ensureTables();
 		HashMap<Vertex, ArrayList<Vector3f>> vertexFaceNormals = new HashMap<Vertex, ArrayList<Vector3f>>();
 		for (Face f : faceTable) {
 			Vector3f v = new Vector3f();
@@ -254,11 +266,9 @@ public class MeshData {
 	 * @return the edge that conntects the two vertices or null
 	 */
 	private Edge findEdge(int i1, int i2) {
-		for (Edge e : edgeTable) {
-			if (e.connects(i1, i2))
-				return e;
-		}
-		return null;
+		ensureTables();
+		int e = edgeIndex.get(LongIntHashMap.pairKey(i1, i2));
+		return e == LongIntHashMap.MISSING ? null : edgeTable.get(e);
 	}
 
 	/**
@@ -269,6 +279,7 @@ public class MeshData {
 	 * @return all edges the vertex belongs to
 	 */
 	private List<Edge> findEdges(Vertex v) {
+		ensureTables();
 		List<Edge> edges = new ArrayList<MeshData.Edge>();
 		Edge e = v.edge;
 		edges.add(e);
@@ -294,6 +305,7 @@ public class MeshData {
 	 * @return all directly connected vertices
 	 */
 	private List<Vertex> findVertices(Vertex v) {
+		ensureTables();
 		List<Edge> edges = findEdges(v);
 		List<Vertex> list = new ArrayList<Vertex>(edges.size());
 		int i = vertexTable.indexOf(v);
@@ -315,6 +327,7 @@ public class MeshData {
 	 * @return all edges of the face in counterclockwise order
 	 */
 	private List<Edge> findEdges(Face f) {
+		ensureTables();
 		List<Edge> list = new ArrayList<Edge>();
 		Edge e = f.edge;
 		do {
@@ -335,6 +348,7 @@ public class MeshData {
 	 * @return the vertices in counterclockwise order
 	 */
 	private List<Integer> findVertices(Face f) {
+		ensureTables();
 		List<Integer> vertices = new ArrayList<Integer>();
 		List<Edge> edges = this.findEdges(f);
 
@@ -368,8 +382,36 @@ public class MeshData {
 	 * consists of triangles
 	 */
 	public void loop() {
-		//TODO: this is the part you should implement :-)
+		loop(1);
+	}
 
+	/**
+	 * Subdivide with the Loop-algorithm several times, see
+	 * {@link LoopSubdivision}. The subdivision works on a
+	 * {@link HalfEdgeMesh} of the vertex data and makes the new vertex data
+	 * directly. The winged edge structure is rebuilt from the new vertex data
+	 * only when it is used again.
+	 * 
+	 * @param levels
+	 *            the number of times to subdivide, each level has four times
+	 *            the triangles of the previous one
+	 */
+	public void loop(int levels) {
+		HalfEdgeMesh mesh = LoopSubdivision.subdivide(new HalfEdgeMesh(vertexData), levels);
+		VertexData data = mesh.toVertexData(renderContext);
+		if (offHeap) {
+			// moves the new vertex data off-heap like the old one
+			VertexData moved = renderContext.makeVertexData(data.getNumberOfVertices());
+			for (VertexData.VertexElement e : data.getElements())
+				moved.addElement(e.getData(), e.getSemantic(), e.getNumberOfComponents(), true);
+			int[] i = data.getIndices();
+			moved.allocateIndices(i.length).put(i);
+			data = moved;
+		}
+		vertexData = data;
+		vertexTable = null;
+		edgeTable = null;
+		faceTable = null;
 	}
 	
 	
@@ -425,18 +467,20 @@ public class MeshData {
 		}
 
 		public Edge getNextEdge(Face f) {
-			List<Edge> list = getEdges(f);
-			int v;
-			if (isFrontface(f))
-				v = v2;
-			else
-				v = v1;
-			if (list.size() < 2)
+			Edge a, b;
+			if (f.equals(f1)) {
+				a = edges[0];
+				b = edges[1];
+			} else if (f.equals(f2)) {
+				a = edges[2];
+				b = edges[3];
+			} else
 				return null;
-			else if (list.get(0).getStartVertex(f) == v)
-				return list.get(0);
-			else if (list.get(1).getStartVertex(f) == v)
-				return list.get(1);
+			int v = getEndVertex(f);
+			if (a != null && a.getStartVertex(f) == v)
+				return a;
+			else if (b != null && b.getStartVertex(f) == v)
+				return b;
 			else
 				return null;
 		}
@@ -455,6 +499,7 @@ public class MeshData {
 		}
 
 		public List<Edge> getEdges(Vertex v) {
+			ensureTables();
 			int i = vertexTable.indexOf(v);
 			List<Edge> e = new ArrayList<MeshData.Edge>(2);
 			for (Edge g : edges) {
@@ -0,0 +1,785 @@
+package jrtr;
+
+import java.util.Arrays;
+
+/**
+ * Local edits of a triangle mesh: moving vertices, and splitting, flipping
+ * and collapsing edges. Each edit changes the connectivity of a
+ * {@link HalfEdgeMesh} in time proportional to the valences of the few
+ * vertices involved, independent of the size of the mesh, and writes only
+ * the changed vertices and triangles into the vertex data for rendering.
+ * They are marked dirty (see
+ * {@link VertexData#markDirty(VertexData.Semantic, int, int)}), so only
+ * they are uploaded again.
+ * <p>
+ * The vertex data has one vertex per wedge and three indices per face of
+ * the mesh, with room for more, so the vertices and triangles that edits
+ * add fit in without a new upload. The triangles of the spare room are
+ * degenerate. When the room runs out, the mesh and the vertex data grow by
+ * half, and {@link #getVertexData()} returns new vertex data. Faces removed
+ * by collapses stay as degenerate triangles, which splits reuse, until
+ * {@link #compact()} removes them.
+ * <p>
+ * If the mesh has normals, the edits recompute the normals of the vertices
+ * whose triangles changed, as area-weighted averages of the normals of the
+ * triangles. Creases in the normals at these vertices are smoothed out.
+ * <p>
+ * Fans of triangles that touch the others only at a vertex get a vertex of
+ * their own when the editor is made, so each edit reaches all triangles at
+ * a vertex by rotating around it.
+ */
+public class MeshEditor {
+
+	private final HalfEdgeMesh mesh;
+	private final RenderContext renderContext;
+	private final boolean hasNormals;
+
+	// The vertex data and its arrays, elements by semantic ordinal
+	private VertexData vertexData;
+	private float[][] elements;
+	private int[] indices;
+	private boolean grown;
+
+	// Faces removed by collapses, reused by splits
+	private IntArrayList freeFaces;
+
+	// The vertices and faces changed by the current edit
+	private IntArrayList changedVertices;
+	private IntArrayList changedFaces;
+
+	// Reused by the edits, so they do not allocate
+	private IntArrayList scratch;
+	private IntArrayList neighbours;
+
+	/**
+	 * @param mesh
+	 * 		the mesh to edit, which the editor changes
+	 * @param renderContext
+	 * 		used to make the vertex data
+	 */
+	public MeshEditor(HalfEdgeMesh mesh, RenderContext renderContext)
+	{
+		this.mesh = mesh;
+		this.renderContext = renderContext;
+		int normal = VertexData.Semantic.NORMAL.ordinal();
+		hasNormals = mesh.attributes[normal] != null && mesh.components[normal] == 3;
+		freeFaces = new IntArrayList();
+		changedVertices = new IntArrayList();
+		changedFaces = new IntArrayList();
+		scratch = new IntArrayList();
+		neighbours = new IntArrayList();
+		separateFans();
+		// Room for half as many elements again
+		mesh.ensureCapacity(mesh.nHalfEdges+3, mesh.nVertices+1, mesh.nWedges+1);
+		makeVertexData();
+	}
+
+	/**
+	 * @param vertexData
+	 * 		the mesh to edit, see {@link HalfEdgeMesh#HalfEdgeMesh(VertexData)}
+	 */
+	public MeshEditor(VertexData vertexData, RenderContext renderContext)
+	{
+		this(new HalfEdgeMesh(vertexData), renderContext);
+	}
+
+	/**
+	 * The edited mesh. Faces removed by collapses are in it as degenerate
+	 * triangles without twins until {@link #compact()}, see
+	 * {@link #isDeleted(int)}.
+	 */
+	public HalfEdgeMesh getMesh()
+	{
+		return mesh;
+	}
+
+	/**
+	 * The vertex data of the mesh. Draw the vertex data returned after the
+	 * last edit, since it is replaced when the mesh grows.
+	 */
+	public VertexData getVertexData()
+	{
+		return vertexData;
+	}
+
+	/**
+	 * @return whether a face was removed by a collapse
+	 */
+	public boolean isDeleted(int face)
+	{
+		return mesh.wedge[3*face] == mesh.wedge[3*face+1];
+	}
+
+	/**
+	 * Move a vertex.
+	 */
+	public void moveVertex(int v, float x, float y, float z)
+	{
+		mesh.positions[3*v] = x;
+		mesh.positions[3*v+1] = y;
+		mesh.positions[3*v+2] = z;
+		changedVertices.add(v);
+		if(hasNormals)
+			addNeighbours(v, changedVertices);
+		commit();
+	}
+
+	/**
+	 * Split an edge at its middle, and the one or two triangles at the edge
+	 * in two. The attributes of the new vertex are interpolated on each side
+	 * of the edge.
+	 *
+	 * @param h
+	 * 		a half-edge of the edge
+	 * @return the new vertex
+	 */
+	public int splitEdge(int h)
+	{
+		reserve(6, 1, 2);
+		HalfEdgeMesh m = mesh;
+		int t = m.twin[h], n = HalfEdgeMesh.next(h), p = HalfEdgeMesh.prev(h);
+		int a = m.vertex(h), b = m.target(h);
+		int v = m.nVertices++;
+		for(int j=0; j<3; j++)
+			m.positions[3*v+j] = (m.positions[3*a+j] + m.positions[3*b+j]) / 2;
+		int wf = addWedge(v, m.wedge[h], m.wedge[n]);
+		int wg = t == -1 ? -1 : m.isSeam(h) ? addWedge(v, m.wedge[HalfEdgeMesh.next(t)], m.wedge[t]) : wf;
+
+		// The face of h keeps a and c, the new face q gets the half from the
+		// new vertex to b
+		int wb = m.wedge[n];
+		int q = 3*addFace();
+		m.wedge[n] = wf;
+		m.wedge[q] = wf;
+		m.wedge[q+1] = wb;
+		m.wedge[q+2] = m.wedge[p];
+		setTwin(q+1, m.twin[n]);
+		setTwin(n, q+2);
+		if(m.vertexHalfEdge[b] == n)
+			m.vertexHalfEdge[b] = q+1;
+		m.vertexHalfEdge[v] = q;
+		m.twin[q] = -1;
+		changedFaces.add(HalfEdgeMesh.face(h), q/3);
+		changedVertices.add(v);
+
+		if(t != -1)
+		{
+			// The same on the other side, where the new face r gets the half
+			// from the new vertex to a
+			int nt = HalfEdgeMesh.next(t), pt = HalfEdgeMesh.prev(t);
+			int wa = m.wedge[nt];
+			int r = 3*addFace();
+			m.wedge[nt] = wg;
+			m.wedge[r] = wg;
+			m.wedge[r+1] = wa;
+			m.wedge[r+2] = m.wedge[pt];
+			setTwin(r+1, m.twin[nt]);
+			setTwin(nt, r+2);
+			if(m.vertexHalfEdge[a] == nt)
+				m.vertexHalfEdge[a] = r+1;
+			setTwin(h, r);
+			setTwin(t, q);
+			changedFaces.add(HalfEdgeMesh.face(t), r/3);
+			if(hasNormals)
+				changedVertices.add(m.vertex(pt));
+		}
+		if(hasNormals)
+			changedVertices.add(a, b, m.vertex(p));
+		commit();
+		return v;
+	}
+
+	/**
+	 * Replace an edge by the other diagonal of the two triangles at it.
+	 * Borders and seams are not flipped, and neither are edges whose
+	 * flipped edge exists already or which would leave a vertex with too
+	 * few neighbours.
+	 *
+	 * @param h
+	 * 		a half-edge of the edge
+	 * @return whether the edge was flipped
+	 */
+	public boolean flipEdge(int h)
+	{
+		HalfEdgeMesh m = mesh;
+		int t = m.twin[h];
+		if(t == -1 || m.isSeam(h))
+			return false;
+		int n = HalfEdgeMesh.next(h), p = HalfEdgeMesh.prev(h);
+		int nt = HalfEdgeMesh.next(t), pt = HalfEdgeMesh.prev(t);
+		int a = m.vertex(h), b = m.target(h), c = m.vertex(p), d = m.vertex(pt);
+		if(c == d || tooFewNeighbours(a) || tooFewNeighbours(b) || isNeighbour(c, d))
+			return false;
+
+		// The triangles (a, b, c) and (b, a, d) become (d, c, a) and
+		// (c, d, b), in the same half-edges
+		int wc = m.wedge[p], wd = m.wedge[pt], wa = m.wedge[h], wb = m.wedge[t];
+		int tn = m.twin[n], tp = m.twin[p], tnt = m.twin[nt], tpt = m.twin[pt];
+		m.wedge[h] = wd;
+		m.wedge[n] = wc;
+		m.wedge[p] = wa;
+		m.wedge[t] = wc;
+		m.wedge[nt] = wd;
+		m.wedge[pt] = wb;
+		setTwin(h, t);
+		setTwin(n, tp);
+		setTwin(p, tnt);
+		setTwin(nt, tpt);
+		setTwin(pt, tn);
+
+		// The edges that moved to other half-edges keep their twins, so
+		// outgoing half-edges on borders stay on borders
+		if(m.vertexHalfEdge[a] == h || m.vertexHalfEdge[a] == nt)
+			m.vertexHalfEdge[a] = p;
+		if(m.vertexHalfEdge[b] == t || m.vertexHalfEdge[b] == n)
+			m.vertexHalfEdge[b] = pt;
+		if(m.vertexHalfEdge[c] == p)
+			m.vertexHalfEdge[c] = n;
+		if(m.vertexHalfEdge[d] == pt)
+			m.vertexHalfEdge[d] = nt;
+
+		changedFaces.add(HalfEdgeMesh.face(h), HalfEdgeMesh.face(t));
+		if(hasNormals)
+		{
+			changedVertices.add(a, b);
+			changedVertices.add(c, d);
+		}
+		commit();
+		return true;
+	}
+
+	/**
+	 * Collapse an edge into the vertex it points to, which moves to the
+	 * middle of the edge. The one or two triangles at the edge are removed.
+	 * The corners at the edge are merged on each side, with the average of
+	 * their attributes.
+	 * Edges are not collapsed if that would change the topology of the
+	 * mesh: the ends may have no common neighbours except the opposite
+	 * vertices of the triangles, an interior edge may not connect two
+	 * border vertices, and the opposite vertices keep enough neighbours.
+	 *
+	 * @param h
+	 * 		the half-edge from the vertex that is removed to the one that
+	 * 		is kept
+	 * @return the kept vertex, or -1 if the edge was not collapsed
+	 */
+	public int collapseEdge(int h)
+	{
+		HalfEdgeMesh m = mesh;
+		int t = m.twin[h], n = HalfEdgeMesh.next(h), p = HalfEdgeMesh.prev(h);
+		int a = m.vertex(h), b = m.target(h), c = m.vertex(p);
+		int nt = -1, pt = -1, d = -1;
+		if(t != -1)
+		{
+			nt = HalfEdgeMesh.next(t);
+			pt = HalfEdgeMesh.prev(t);
+			d = m.vertex(pt);
+			if(c == d || m.isBorderVertex(a) && m.isBorderVertex(b))
+				return -1;
+		}
+		// A border edge at vertices that are not border vertices joins
+		// triangles that only touch at the vertex, which are not collapsed
+		else if(!m.isBorderVertex(a) || !m.isBorderVertex(b))
+			return -1;
+		if(tooFewNeighbours(c) || d != -1 && tooFewNeighbours(d))
+			return -1;
+		neighbours.clear();
+		addNeighbours(a, neighbours);
+		scratch.clear();
+		addNeighbours(b, scratch);
+		for(int i=0; i<scratch.size(); i++)
+		{
+			int x = scratch.get(i);
+			if(x != c && x != d && contains(neighbours, x))
+				return -1;
+		}
+
+		// The corners of a become corners of b. The corners of a next to
+		// the edge join the wedge of b on the same side, so the edge does
+		// not leave a seam behind.
+		scratch.clear();
+		addWedges(a, scratch);
+		for(int i=0; i<scratch.size(); i++)
+			m.wedgeVertex[scratch.get(i)] = b;
+		mergeWedge(m.wedge[n], m.wedge[h]);
+		if(t != -1)
+			mergeWedge(m.wedge[t], m.wedge[nt]);
+		// The corners of a between the removed triangles lie counterclockwise
+		// from h, and join b's wedges up to the first seam from either end
+		int wa = m.wedge[h], wb = m.wedge[n];
+		for(int x=m.rotate(h); x != -1 && x != nt && m.wedge[x] == wa; x=m.rotate(x))
+			setWedge(x, wb);
+		if(t != -1)
+		{
+			wa = m.wedge[nt];
+			wb = m.wedge[t];
+			for(int x=m.twin[nt]; x != -1 && HalfEdgeMesh.next(x) != h && m.wedge[HalfEdgeMesh.next(x)] == wa; x=m.twin[HalfEdgeMesh.next(x)])
+				setWedge(HalfEdgeMesh.next(x), wb);
+		}
+		for(int j=0; j<3; j++)
+			m.positions[3*b+j] = (m.positions[3*a+j] + m.positions[3*b+j]) / 2;
+
+		// The two remaining edges of each removed triangle become twins
+		int f = HalfEdgeMesh.face(h), g = t != -1 ? HalfEdgeMesh.face(t) : -1;
+		int tn = m.twin[n], tp = m.twin[p];
+		int tnt = t != -1 ? m.twin[nt] : -1, tpt = t != -1 ? m.twin[pt] : -1;
+		setTwin(tn, tp);
+		if(tn == -1)
+			setTwin(tp, -1);
+		if(t != -1)
+		{
+			setTwin(tnt, tpt);
+			if(tnt == -1)
+				setTwin(tpt, -1);
+		}
+
+		m.vertexHalfEdge[b] = outgoing(f, g, m.vertexHalfEdge[b], m.vertexHalfEdge[a], tp, tpt);
+		m.vertexHalfEdge[a] = -1;
+		m.vertexHalfEdge[c] = outgoing(f, g, m.vertexHalfEdge[c], tn, tp != -1 ? HalfEdgeMesh.next(tp) : -1, -1);
+		if(d != -1)
+			m.vertexHalfEdge[d] = outgoing(f, g, m.vertexHalfEdge[d], tnt, tpt != -1 ? HalfEdgeMesh.next(tpt) : -1, -1);
+
+		removeFace(f);
+		if(g != -1)
+			removeFace(g);
+		changedVertices.add(b);
+		if(hasNormals)
+			addNeighbours(b, changedVertices);
+		commit();
+		return b;
+	}
+
+	/**
+	 * Remove the faces deleted by collapses, and the vertices and wedges no
+	 * longer used, and make new vertex data. This renumbers the faces,
+	 * vertices and wedges in their order.
+	 */
+	public void compact()
+	{
+		HalfEdgeMesh m = mesh;
+		int nh = 0;
+		for(int f=0; f<m.nHalfEdges/3; f++)
+		{
+			if(isDeleted(f))
+				continue;
+			System.arraycopy(m.wedge, 3*f, m.wedge, nh, 3);
+			nh += 3;
+		}
+
+		int[] wedgeMap = new int[m.nWedges];
+		int[] vertexMap = new int[m.nVertices];
+		Arrays.fill(wedgeMap, -1);
+		Arrays.fill(vertexMap, -1);
+		for(int h=0; h<nh; h++)
+			wedgeMap[m.wedge[h]] = 0;
+		int nw = 0, nv = 0;
+		for(int w=0; w<m.nWedges; w++)
+		{
+			if(wedgeMap[w] == -1)
+				continue;
+			wedgeMap[w] = nw;
+			vertexMap[m.wedgeVertex[w]] = 0;
+			m.wedgeVertex[nw] = m.wedgeVertex[w];
+			for(int s=0; s<m.attributes.length; s++)
+			{
+				int k = m.components[s];
+				if(m.attributes[s] != null)
+					System.arraycopy(m.attributes[s], w*k, m.attributes[s], nw*k, k);
+			}
+			nw++;
+		}
+		for(int v=0; v<m.nVertices; v++)
+		{
+			if(vertexMap[v] == -1)
+				continue;
+			vertexMap[v] = nv;
+			System.arraycopy(m.positions, 3*v, m.positions, 3*nv, 3);
+			nv++;
+		}
+		for(int w=0; w<nw; w++)
+			m.wedgeVertex[w] = vertexMap[m.wedgeVertex[w]];
+		for(int h=0; h<nh; h++)
+			m.wedge[h] = wedgeMap[m.wedge[h]];
+		m.nHalfEdges = nh;
+		m.nVertices = nv;
+		m.nWedges = nw;
+		m.link();
+		freeFaces.clear();
+		makeVertexData();
+	}
+
+	/**
+	 * Give each fan of triangles that only touches the others at a vertex a
+	 * vertex of its own, at the same position, so the edits reach all
+	 * triangles at a vertex by rotating around it.
+	 */
+	private void separateFans()
+	{
+		HalfEdgeMesh m = mesh;
+		boolean[] visited = new boolean[m.nHalfEdges];
+		for(int v=0; v<m.nVertices; v++)
+		{
+			int h = m.vertexHalfEdge[v];
+			int g = h;
+			while(g != -1)
+			{
+				visited[g] = true;
+				g = m.rotate(g);
+				if(g == h)
+					break;
+			}
+		}
+		IntArrayList fan = new IntArrayList();
+		IntArrayList wedges = new IntArrayList();
+		for(int h=0; h<m.nHalfEdges; h++)
+		{
+			if(visited[h])
+				continue;
+			// Turn clockwise to the border of the fan, if it has one, and
+			// collect the fan counterclockwise from there
+			int start = h;
+			while(m.twin[start] != -1 && HalfEdgeMesh.next(m.twin[start]) != h)
+				start = HalfEdgeMesh.next(m.twin[start]);
+			fan.clear();
+			int g = start;
+			do {
+				fan.add(g);
+				visited[g] = true;
+				g = m.rotate(g);
+			} while(g != -1 && g != start);
+
+			// The corners of the fan get copies of their wedges, since the
+			// wedges may be shared with the other fans
+			m.ensureCapacity(m.nHalfEdges, m.nVertices+1, m.nWedges+fan.size());
+			int v = m.vertex(start), u = m.nVertices++;
+			System.arraycopy(m.positions, 3*v, m.positions, 3*u, 3);
+			m.vertexHalfEdge[u] = start;
+			wedges.clear();
+			for(int i=0; i<fan.size(); i++)
+			{
+				int c = fan.get(i), w = m.wedge[c], copy = -1;
+				for(int j=0; j<wedges.size() && copy == -1; j+=2)
+				{
+					if(wedges.get(j) == w)
+						copy = wedges.get(j+1);
+				}
+				if(copy == -1)
+				{
+					copy = addWedge(u, w, w);
+					wedges.add(w, copy);
+				}
+				m.wedge[c] = copy;
+			}
+		}
+	}
+
+	/**
+	 * Make room for the elements an edit adds.
+	 */
+	private void reserve(int halfEdges, int vertices, int wedges)
+	{
+		if(mesh.ensureCapacity(mesh.nHalfEdges+halfEdges, mesh.nVertices+vertices, mesh.nWedges+wedges))
+			grown = true;
+	}
+
+	/**
+	 * Update the normals of the changed vertices, and write the changed
+	 * vertices and faces into the vertex data, or make new vertex data if
+	 * the mesh grew.
+	 */
+	private void commit()
+	{
+		if(hasNormals)
+		{
+			for(int i=0; i<changedVertices.size(); i++)
+				updateNormal(changedVertices.get(i));
+		}
+		if(grown)
+		{
+			makeVertexData();
+			grown = false;
+		}
+		else
+		{
+			for(int i=0; i<changedVertices.size(); i++)
+			{
+				scratch.clear();
+				addWedges(changedVertices.get(i), scratch);
+				for(int j=0; j<scratch.size(); j++)
+					writeWedge(scratch.get(j));
+			}
+			for(int i=0; i<changedFaces.size(); i++)
+			{
+				int f = changedFaces.get(i);
+				System.arraycopy(mesh.wedge, 3*f, indices, 3*f, 3);
+				vertexData.markIndicesDirty(3*f, 3);
+			}
+		}
+		changedVertices.clear();
+		changedFaces.clear();
+	}
+
+	/**
+	 * Make vertex data with room for the capacity of the mesh.
+	 */
+	private void makeVertexData()
+	{
+		HalfEdgeMesh m = mesh;
+		int n = m.wedgeVertex.length;
+		vertexData = renderContext.makeVertexData(n);
+		elements = new float[VertexData.Semantic.values().length][];
+		float[] p = new float[3*n];
+		for(int w=0; w<m.nWedges; w++)
+			System.arraycopy(m.positions, 3*m.wedgeVertex[w], p, 3*w, 3);
+		vertexData.addElement(p, VertexData.Semantic.POSITION, 3);
+		elements[VertexData.Semantic.POSITION.ordinal()] = p;
+		for(VertexData.Semantic s : VertexData.Semantic.values())
+		{
+			float[] a = m.attributes[s.ordinal()];
+			if(a == null)
+				continue;
+			int k = m.components[s.ordinal()];
+			elements[s.ordinal()] = Arrays.copyOf(a, n*k);
+			vertexData.addElement(elements[s.ordinal()], s, k);
+		}
+		indices = new int[m.wedge.length];
+		System.arraycopy(m.wedge, 0, indices, 0, m.nHalfEdges);
+		vertexData.addIndices(indices);
+	}
+
+	/**
+	 * Write the position and attributes of a wedge into the vertex data.
+	 */
+	private void writeWedge(int w)
+	{
+		System.arraycopy(mesh.positions, 3*mesh.wedgeVertex[w], elements[VertexData.Semantic.POSITION.ordinal()], 3*w, 3);
+		vertexData.markDirty(VertexData.Semantic.POSITION, w, 1);
+		for(VertexData.Semantic s : VertexData.Semantic.values())
+		{
+			float[] a = mesh.attributes[s.ordinal()];
+			if(a == null)
+				continue;
+			int k = mesh.components[s.ordinal()];
+			System.arraycopy(a, k*w, elements[s.ordinal()], k*w, k);
+			vertexData.markDirty(s, w, 1);
+		}
+	}
+
+	/**
+	 * Set the normal of all wedges of a vertex to the area-weighted normal
+	 * of its triangles.
+	 */
+	private void updateNormal(int v)
+	{
+		HalfEdgeMesh m = mesh;
+		int h = m.vertexHalfEdge[v];
+		if(h == -1)
+			return;
+		float[] p = m.positions;
+		float nx = 0, ny = 0, nz = 0;
+		int g = h;
+		do {
+			int b = 3*m.target(g), c = 3*m.vertex(HalfEdgeMesh.prev(g));
+			float ux = p[b]-p[3*v], uy = p[b+1]-p[3*v+1], uz = p[b+2]-p[3*v+2];
+			float wx = p[c]-p[3*v], wy = p[c+1]-p[3*v+1], wz = p[c+2]-p[3*v+2];
+			nx += uy*wz - uz*wy;
+			ny += uz*wx - ux*wz;
+			nz += ux*wy - uy*wx;
+			g = m.rotate(g);
+		} while(g != -1 && g != h);
+		float length = (float)Math.sqrt(nx*nx + ny*ny + nz*nz);
+		if(length > 0)
+		{
+			nx /= length;
+			ny /= length;
+			nz /= length;
+		}
+		float[] normals = m.attributes[VertexData.Semantic.NORMAL.ordinal()];
+		scratch.clear();
+		addWedges(v, scratch);
+		for(int i=0; i<scratch.size(); i++)
+		{
+			int w = scratch.get(i);
+			normals[3*w] = nx;
+			normals[3*w+1] = ny;
+			normals[3*w+2] = nz;
+		}
+	}
+
+	/**
+	 * @return a new wedge of a vertex, with the average of the attributes
+	 * 		of two wedges
+	 */
+	private int addWedge(int v, int w0, int w1)
+	{
+		HalfEdgeMesh m = mesh;
+		int w = m.nWedges++;
+		m.wedgeVertex[w] = v;
+		for(int s=0; s<m.attributes.length; s++)
+		{
+			float[] a = m.attributes[s];
+			int k = m.components[s];
+			for(int j=0; a != null && j<k; j++)
+				a[w*k+j] = (a[w0*k+j] + a[w1*k+j]) / 2;
+		}
+		return w;
+	}
+
+	/**
+	 * Give a wedge the average of its attributes and those of a wedge that
+	 * it replaces.
+	 */
+	private void mergeWedge(int w, int removed)
+	{
+		HalfEdgeMesh m = mesh;
+		if(w == removed)
+			return;
+		for(int s=0; s<m.attributes.length; s++)
+		{
+			float[] a = m.attributes[s];
+			int k = m.components[s];
+			for(int j=0; a != null && j<k; j++)
+				a[w*k+j] = (a[w*k+j] + a[removed*k+j]) / 2;
+		}
+	}
+
+	/**
+	 * Give the corner of a half-edge another wedge.
+	 */
+	private void setWedge(int h, int w)
+	{
+		mesh.wedge[h] = w;
+		changedFaces.add(HalfEdgeMesh.face(h));
+	}
+
+	/**
+	 * @return a free face, reused from a collapse or added at the end
+	 */
+	private int addFace()
+	{
+		if(freeFaces.size() > 0)
+			return freeFaces.removeLast();
+		int f = mesh.nHalfEdges/3;
+		mesh.nHalfEdges += 3;
+		return f;
+	}
+
+	/**
+	 * Make a face a degenerate triangle without twins, and keep it for
+	 * reuse.
+	 */
+	private void removeFace(int f)
+	{
+		for(int i=0; i<3; i++)
+		{
+			mesh.wedge[3*f+i] = mesh.wedge[3*f];
+			mesh.twin[3*f+i] = -1;
+		}
+		freeFaces.add(f);
+		changedFaces.add(f);
+	}
+
+	/**
+	 * Make two half-edges twins, or a half-edge a border if the other one
+	 * is -1.
+	 */
+	private void setTwin(int h, int t)
+	{
+		if(h != -1)
+			mesh.twin[h] = t;
+		if(t != -1)
+			mesh.twin[t] = h;
+	}
+
+	/**
+	 * Pick the outgoing half-edge of a vertex after a collapse: the first
+	 * candidate that is not in a removed face, turned to the border if the
+	 * vertex is on one.
+	 */
+	private int outgoing(int f, int g, int h0, int h1, int h2, int h3)
+	{
+		int[] candidates = {h0, h1, h2, h3};
+		for(int h : candidates)
+		{
+			if(h == -1 || HalfEdgeMesh.face(h) == f || HalfEdgeMesh.face(h) == g)
+				continue;
+			// Turn clockwise until the border, or around the vertex
+			int g0 = h;
+			do {
+				int t = mesh.twin[h];
+				if(t == -1)
+					return h;
+				h = HalfEdgeMesh.next(t);
+			} while(h != g0);
+			return h;
+		}
+		return -1;
+	}
+
+	/**
+	 * Add the neighbours of a vertex to a list.
+	 */
+	private void addNeighbours(int v, IntArrayList list)
+	{
+		HalfEdgeMesh m = mesh;
+		int h = m.vertexHalfEdge[v];
+		if(h == -1)
+			return;
+		int g = h;
+		do {
+			list.add(m.target(g));
+			int t = m.twin[HalfEdgeMesh.prev(g)];
+			if(t == -1)
+				list.add(m.vertex(HalfEdgeMesh.prev(g)));
+			g = t;
+		} while(g != -1 && g != h);
+	}
+
+	/**
+	 * Add the wedges of the corners at a vertex to a list, each once.
+	 */
+	private void addWedges(int v, IntArrayList list)
+	{
+		HalfEdgeMesh m = mesh;
+		int h = m.vertexHalfEdge[v];
+		if(h == -1)
+			return;
+		int start = list.size();
+		int g = h;
+		do {
+			int w = m.wedge[g];
+			boolean found = false;
+			for(int i=start; i<list.size() && !found; i++)
+				found = list.get(i) == w;
+			if(!found)
+				list.add(w);
+			g = m.rotate(g);
+		} while(g != -1 && g != h);
+	}
+
+	private boolean isNeighbour(int v, int u)
+	{
+		scratch.clear();
+		addNeighbours(v, scratch);
+		return contains(scratch, u);
+	}
+
+	/**
+	 * Whether a vertex would keep too few neighbours when it loses one:
+	 * fewer than three inside the mesh, or two on a border.
+	 */
+	private boolean tooFewNeighbours(int v)
+	{
+		return mesh.valence(v) - 1 < (mesh.isBorderVertex(v) ? 2 : 3);
+	}
+
+	private static boolean contains(IntArrayList list, int x)
+	{
+		for(int i=0; i<list.size(); i++)
+		{
+			if(list.get(i) == x)
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,407 @@
+package jrtr;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reorders the triangles and vertices of indexed vertex data so the GPU
+ * transforms fewer vertices and fetches vertex data more linearly:
+ * <ol>
+ * <li>The triangles are reordered for the post-transform vertex cache with
+ * the Tipsify algorithm of Sander, Nehab and Barczak ("Fast Triangle
+ * Reordering for Vertex Locality and Reduced Overdraw", 2007). It runs in
+ * linear time, and it does not assume a particular cache size.
+ * <li>Optionally, the clusters of triangles that Tipsify produces are sorted
+ * so that triangles facing outwards from the center of the mesh are drawn
+ * first, which reduces overdraw.
+ * <li>The vertices are renumbered in the order of their first use, so the
+ * vertex fetch reads the vertex buffers front to back.
+ * </ol>
+ * The rendered image does not change. The quality is measured as the
+ * average cache miss ratio (ACMR, transformed vertices per triangle) and
+ * the average transform to vertex ratio (ATVR, transformed vertices per
+ * vertex, 1 is ideal), see {@link Statistics}.
+ */
+public class MeshOptimizer {
+
+	/**
+	 * The cache size Tipsify optimizes for, and the size of the FIFO cache
+	 * used to measure ACMR and ATVR. Recent GPUs have caches of this size or
+	 * larger.
+	 */
+	public static final int CACHE_SIZE = 16;
+
+	/**
+	 * Optimize vertex data for the vertex cache and the vertex fetch,
+	 * without the overdraw pass.
+	 *
+	 * @return the ACMR and ATVR before and after
+	 */
+	public static Statistics optimize(VertexData vertexData)
+	{
+		return optimize(vertexData, false);
+	}
+
+	/**
+	 * Optimize vertex data in place. Elements in any format and off-heap data
+	 * are reordered as well. The vertex data is marked as changed, so
+	 * vertex data that was already drawn is uploaded again. Meshlets of the
+	 * vertex data are dropped, since they no longer match the indices.
+	 *
+	 * @param overdraw
+	 * 		whether to sort the triangle clusters to reduce overdraw. This needs
+	 * 		float positions, and costs a bit of vertex cache efficiency.
+	 * @return the ACMR and ATVR before and after
+	 */
+	public static Statistics optimize(VertexData vertexData, boolean overdraw)
+	{
+		int[] indices = vertexData.toIndexArray();
+		int n = vertexData.getNumberOfVertices();
+		if(indices == null)
+			throw new IllegalArgumentException("Vertex data needs indices to be optimized");
+
+		Statistics statistics = new Statistics();
+		statistics.triangles = indices.length/3;
+		statistics.vertices = n;
+		statistics.missesBefore = countCacheMisses(indices, n, CACHE_SIZE);
+
+		IntArrayList clusters = new IntArrayList();
+		int[] optimized = tipsify(indices, n, CACHE_SIZE, clusters);
+		if(overdraw)
+		{
+			VertexData.VertexElement position = vertexData.getElement(VertexData.Semantic.POSITION);
+			float[] positions = position != null ? position.toFloatArray() : null;
+			if(positions != null)
+				optimized = sortClusters(optimized, clusters, positions, position.getNumberOfComponents());
+		}
+
+		// Renumber the vertices in the order of their first use. Unused
+		// vertices go to the end.
+		int[] newIndex = new int[n];
+		Arrays.fill(newIndex, -1);
+		int next = 0;
+		for(int i=0; i<optimized.length; i++)
+		{
+			int v = optimized[i];
+			if(newIndex[v] == -1)
+				newIndex[v] = next++;
+			optimized[i] = newIndex[v];
+		}
+		for(int v=0; v<n; v++)
+		{
+			if(newIndex[v] == -1)
+				newIndex[v] = next++;
+		}
+		for(VertexData.VertexElement e : vertexData.getElements())
+		{
+			permute(e, newIndex, n);
+			vertexData.markDirty(e.getSemantic());
+		}
+
+		if(vertexData.getIndices() != null)
+			System.arraycopy(optimized, 0, vertexData.getIndices(), 0, optimized.length);
+		else
+			vertexData.getIndexBuffer().put(optimized);
+		vertexData.markIndicesDirty(0, optimized.length);
+		vertexData.setMeshlets(null);
+
+		statistics.missesAfter = countCacheMisses(optimized, n, CACHE_SIZE);
+		return statistics;
+	}
+
+	/**
+	 * Optimize several meshes in parallel, for example all shapes read from
+	 * one file.
+	 *
+	 * @return the statistics of each mesh
+	 */
+	public static Statistics[] optimize(final List<VertexData> meshes, final boolean overdraw)
+	{
+		final Statistics[] statistics = new Statistics[meshes.size()];
+		Parallel.forRange(meshes.size(), 1, new Parallel.Range() {
+			public void run(int start, int end)
+			{
+				for(int i=start; i<end; i++)
+					statistics[i] = optimize(meshes.get(i), overdraw);
+			}
+		});
+		return statistics;
+	}
+
+	/**
+	 * Reorder triangles for a vertex cache of size <code>k</code>. Starting
+	 * at a vertex, all its remaining triangles are emitted as a fan; the
+	 * next fanning vertex is the adjacent one that will still be in the cache
+	 * after its own fan, preferring the oldest. If there is none, the
+	 * algorithm backtracks to recently used vertices with remaining
+	 * triangles, and finally to the next vertex in input order.
+	 *
+	 * @param clusters
+	 * 		receives the index of the first triangle of each cluster, i.e.,
+	 * 		each time the algorithm had to backtrack
+	 * @return the reordered indices
+	 */
+	static int[] tipsify(int[] indices, int n, int k, IntArrayList clusters)
+	{
+		int nTriangles = indices.length/3;
+
+		// The triangles of each vertex, in compressed row form
+		int[] first = new int[n+1];
+		for(int c=0; c<nTriangles*3; c++)
+			first[indices[c]+1]++;
+		for(int v=0; v<n; v++)
+			first[v+1] += first[v];
+		int[] triangles = new int[nTriangles*3];
+		int[] fill = Arrays.copyOf(first, n);
+		for(int c=0; c<nTriangles*3; c++)
+			triangles[fill[indices[c]]++] = c/3;
+
+		// The number of triangles of each vertex not yet emitted, and the
+		// time each vertex entered the cache
+		int[] live = new int[n];
+		for(int v=0; v<n; v++)
+			live[v] = first[v+1] - first[v];
+		int[] cacheTime = new int[n];
+		boolean[] emitted = new boolean[nTriangles];
+		int[] deadEnd = new int[nTriangles*3];
+		int deadEnds = 0;
+		IntArrayList candidates = new IntArrayList();
+		int[] out = new int[nTriangles*3];
+		int o = 0;
+		int time = k + 1;
+		int cursor = 0;
+		clusters.add(0);
+
+		int f = n > 0 ? 0 : -1;
+		while(f >= 0)
+		{
+			candidates.clear();
+			for(int i=first[f]; i<first[f+1]; i++)
+			{
+				int t = triangles[i];
+				if(emitted[t])
+					continue;
+				for(int j=0; j<3; j++)
+				{
+					int v = indices[t*3+j];
+					out[o++] = v;
+					deadEnd[deadEnds++] = v;
+					candidates.add(v);
+					live[v]--;
+					if(time - cacheTime[v] > k)
+						cacheTime[v] = time++;
+				}
+				emitted[t] = true;
+			}
+
+			// The next fanning vertex: the oldest candidate that stays in
+			// the cache during its own fan
+			int best = -1, bestPriority = -1;
+			for(int i=0; i<candidates.size(); i++)
+			{
+				int v = candidates.get(i);
+				if(live[v] <= 0)
+					continue;
+				int priority = 0;
+				if(time - cacheTime[v] + 2*live[v] <= k)
+					priority = time - cacheTime[v];
+				if(priority > bestPriority)
+				{
+					bestPriority = priority;
+					best = v;
+				}
+			}
+			if(best == -1)
+			{
+				// Dead end
+				while(deadEnds > 0 && best == -1)
+				{
+					int v = deadEnd[--deadEnds];
+					if(live[v] > 0)
+						best = v;
+				}
+				while(best == -1 && cursor < n)
+				{
+					if(live[cursor] > 0)
+						best = cursor;
+					else
+						cursor++;
+				}
+				if(best != -1 && o > 0)
+					clusters.add(o/3);
+			}
+			f = best;
+		}
+		return out;
+	}
+
+	/**
+	 * Sort clusters of triangles so that clusters facing away from the
+	 * center of the mesh come first. These are likely to occlude the other
+	 * clusters, so more fragments fail the depth test early.
+	 *
+	 * @param clusters
+	 * 		the first triangle of each cluster
+	 */
+	static int[] sortClusters(int[] indices, IntArrayList clusters, float[] positions, int stride)
+	{
+		int nTriangles = indices.length/3;
+		int nClusters = clusters.size();
+
+		// The center of the mesh, weighted by triangle area
+		double[] meshCenter = new double[3];
+		double meshArea = 0;
+		double[] centers = new double[nClusters*3];
+		double[] normals = new double[nClusters*3];
+		for(int c=0; c<nClusters; c++)
+		{
+			int end = c+1 < nClusters ? clusters.get(c+1) : nTriangles;
+			double area = 0;
+			for(int t=clusters.get(c); t<end; t++)
+			{
+				int p0 = indices[t*3]*stride, p1 = indices[t*3+1]*stride, p2 = indices[t*3+2]*stride;
+				float ax = positions[p1]-positions[p0], ay = positions[p1+1]-positions[p0+1], az = positions[p1+2]-positions[p0+2];
+				float bx = positions[p2]-positions[p0], by = positions[p2+1]-positions[p0+1], bz = positions[p2+2]-positions[p0+2];
+				double nx = ay*bz - az*by, ny = az*bx - ax*bz, nz = ax*by - ay*bx;
+				double a = Math.sqrt(nx*nx + ny*ny + nz*nz);
+				for(int j=0; j<3; j++)
+					centers[c*3+j] += a*(positions[p0+j] + positions[p1+j] + positions[p2+j])/3;
+				normals[c*3] += nx;
+				normals[c*3+1] += ny;
+				normals[c*3+2] += nz;
+				area += a;
+			}
+			for(int j=0; j<3; j++)
+				meshCenter[j] += centers[c*3+j];
+			meshArea += area;
+			if(area > 0)
+			{
+				for(int j=0; j<3; j++)
+					centers[c*3+j] /= area;
+			}
+		}
+		if(meshArea > 0)
+		{
+			for(int j=0; j<3; j++)
+				meshCenter[j] /= meshArea;
+		}
+
+		final double[] keys = new double[nClusters];
+		Integer[] order = new Integer[nClusters];
+		for(int c=0; c<nClusters; c++)
+		{
+			double length = Math.sqrt(normals[c*3]*normals[c*3] + normals[c*3+1]*normals[c*3+1]
+					+ normals[c*3+2]*normals[c*3+2]);
+			for(int j=0; j<3; j++)
+				keys[c] += (centers[c*3+j] - meshCenter[j])*(length > 0 ? normals[c*3+j]/length : 0);
+			order[c] = c;
+		}
+		Arrays.sort(order, new java.util.Comparator<Integer>() {
+			public int compare(Integer a, Integer b)
+			{
+				return Double.compare(keys[b], keys[a]);
+			}
+		});
+
+		int[] out = new int[indices.length];
+		int o = 0;
+		for(int c : order)
+		{
+			int start = clusters.get(c)*3;
+			int end = c+1 < nClusters ? clusters.get(c+1)*3 : indices.length;
+			System.arraycopy(indices, start, out, o, end - start);
+			o += end - start;
+		}
+		return out;
+	}
+
+	/**
+	 * Simulate a FIFO vertex cache.
+	 *
+	 * @return the number of vertices transformed
+	 */
+	static int countCacheMisses(int[] indices, int n, int cacheSize)
+	{
+		// A vertex is in the cache if fewer than cacheSize misses happened
+		// since it was inserted
+		int[] inserted = new int[n];
+		Arrays.fill(inserted, Integer.MIN_VALUE/2);
+		int misses = 0;
+		for(int v : indices)
+		{
+			if(misses - inserted[v] >= cacheSize)
+			{
+				inserted[v] = misses;
+				misses++;
+			}
+		}
+		return misses;
+	}
+
+	/**
+	 * Move the value of each vertex v of an element to vertex newIndex[v].
+	 */
+	private static void permute(VertexData.VertexElement e, int[] newIndex, int n)
+	{
+		float[] data = e.getData();
+		if(data != null)
+		{
+			int k = e.getNumberOfComponents();
+			float[] copy = data.clone();
+			for(int v=0; v<n; v++)
+				System.arraycopy(copy, v*k, data, newIndex[v]*k, k);
+			return;
+		}
+		ByteBuffer buffer = e.getBuffer();
+		int size = e.getFormat().getSize(e.getNumberOfComponents());
+		byte[] copy = new byte[n*size];
+		buffer.get(copy);
+		byte[] permuted = new byte[n*size];
+		for(int v=0; v<n; v++)
+			System.arraycopy(copy, v*size, permuted, newIndex[v]*size, size);
+		buffer.clear();
+		buffer.put(permuted);
+	}
+
+	/**
+	 * Reports the vertex cache efficiency before and after optimizing.
+	 */
+	public static class Statistics {
+
+		public int triangles;
+		public int vertices;
+
+		/**
+		 * The number of vertices transformed with a FIFO cache of
+		 * {@link MeshOptimizer#CACHE_SIZE} entries.
+		 */
+		public int missesBefore, missesAfter;
+
+		public float getAcmrBefore()
+		{
+			return triangles > 0 ? missesBefore/(float)triangles : 0;
+		}
+
+		public float getAcmrAfter()
+		{
+			return triangles > 0 ? missesAfter/(float)triangles : 0;
+		}
+
+		public float getAtvrBefore()
+		{
+			return vertices > 0 ? missesBefore/(float)vertices : 0;
+		}
+
+		public float getAtvrAfter()
+		{
+			return vertices > 0 ? missesAfter/(float)vertices : 0;
+		}
+
+		public String toString()
+		{
+			return String.format("%d triangles, ACMR %.3f -> %.3f, ATVR %.3f -> %.3f",
+					triangles, getAcmrBefore(), getAcmrAfter(), getAtvrBefore(), getAtvrAfter());
+		}
+	}
+}
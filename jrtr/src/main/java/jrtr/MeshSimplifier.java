@@ -0,0 +1,690 @@
+package jrtr;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Generates levels of detail of indexed triangle meshes by edge collapse
+ * decimation with the quadric error metric of Garland and Heckbert
+ * ("Surface Simplification Using Quadric Error Metrics", 1997).
+ * <p>
+ * Each vertex accumulates the squared distances to the planes of the
+ * triangles around it, weighted by triangle area. Collapsing an edge moves
+ * one of its vertices onto the other, and the cheapest edges are collapsed
+ * first. Vertices at the same position are welded for the topology, so
+ * seams in the texture coordinates or normals do not break the mesh apart.
+ * Collapses keep the attributes intact:
+ * <ul>
+ * <li>a vertex always collapses onto an existing vertex, so no attributes
+ * are interpolated and all elements, in any format, are copied unchanged,
+ * <li>vertices on a seam only move along the seam, and the attributes on
+ * each side of the seam are kept apart,
+ * <li>vertices on an open border only move along the border,
+ * <li>vertices where seams or borders meet, or where the mesh is not
+ * manifold, are never moved.
+ * </ul>
+ * Seams and borders also contribute planes perpendicular to their
+ * triangles, so their shape is kept. Collapses that flip a triangle or
+ * change the topology of the mesh are rejected.
+ * <p>
+ * The collapses are done in passes. Each pass classifies the vertices,
+ * sorts the candidate edges by cost and collapses the cheapest ones that
+ * share no vertex with an earlier collapse of the pass, so each pass is
+ * linear in the size of the mesh apart from the sort.
+ *
+ * @see Shape#setLevelsOfDetail(List)
+ */
+public class MeshSimplifier {
+
+	/**
+	 * The fractions of the triangles kept by the levels of detail that
+	 * {@link #generateLevelsOfDetail(VertexData, RenderContext)} generates.
+	 */
+	public static final float[] DEFAULT_RATIOS = {0.5f, 0.25f, 0.125f};
+
+	/**
+	 * The weight of the planes that keep borders and seams in place,
+	 * relative to the planes of the triangles.
+	 */
+	private static final float BORDER_WEIGHT = 10;
+
+	/**
+	 * A pass collapses edges up to this factor above the cost of the edge
+	 * that would reach the target if all cheaper edges could be collapsed.
+	 */
+	private static final float PASS_ERROR_FACTOR = 1.5f;
+
+	/**
+	 * Kinds of vertices, which restrict the edges along which a vertex may
+	 * collapse.
+	 */
+	private static final byte MANIFOLD = 0, BORDER = 1, SEAM = 2, LOCKED = 3;
+
+	/**
+	 * Generate levels of detail with {@link #DEFAULT_RATIOS}.
+	 *
+	 * @see #generateLevelsOfDetail(VertexData, RenderContext, float...)
+	 */
+	public static List<VertexData> generateLevelsOfDetail(VertexData vertexData, RenderContext renderContext)
+	{
+		return generateLevelsOfDetail(vertexData, renderContext, DEFAULT_RATIOS);
+	}
+
+	/**
+	 * Generate a chain of levels of detail. Each level is simplified
+	 * further from the previous one, so the levels are consistent and the
+	 * whole chain costs about as much as the coarsest level. A level can
+	 * keep more triangles than asked for if the mesh cannot be simplified
+	 * further without moving locked vertices.
+	 *
+	 * @param vertexData
+	 * 		the mesh, it needs float positions and indices
+	 * @param renderContext
+	 * 		used to make the vertex data of the levels
+	 * @param ratios
+	 * 		the fractions of the triangles each level keeps, in decreasing
+	 * 		order
+	 * @return new vertex data for each ratio, containing all elements of
+	 * 		the given vertex data for the vertices that are still used. The
+	 * 		vertex data is stored off-heap if the given vertex data is.
+	 */
+	public static List<VertexData> generateLevelsOfDetail(VertexData vertexData, RenderContext renderContext,
+			float... ratios)
+	{
+		VertexData.VertexElement position = vertexData.getElement(VertexData.Semantic.POSITION);
+		int[] indices = vertexData.toIndexArray();
+		float[] positions = position != null ? position.toFloatArray() : null;
+		if(positions == null || indices == null)
+			throw new IllegalArgumentException("Vertex data needs float positions and indices to be simplified");
+
+		int[] targets = new int[ratios.length];
+		for(int i=0; i<ratios.length; i++)
+			targets[i] = (int)(indices.length/3 * ratios[i]);
+		int[][] levels = simplify(positions, position.getNumberOfComponents(), vertexData.getNumberOfVertices(),
+				indices, targets);
+
+		List<VertexData> result = new ArrayList<VertexData>(levels.length);
+		for(int[] level : levels)
+			result.add(compact(vertexData, level, renderContext));
+		return result;
+	}
+
+	/**
+	 * Simplify a mesh to a fraction of its triangles.
+	 *
+	 * @return new vertex data with the vertices that are still used
+	 * @see #generateLevelsOfDetail(VertexData, RenderContext, float...)
+	 */
+	public static VertexData simplify(VertexData vertexData, float ratio, RenderContext renderContext)
+	{
+		return generateLevelsOfDetail(vertexData, renderContext, ratio).get(0);
+	}
+
+	/**
+	 * Simplify triangles down to each of the target triangle counts in
+	 * turn.
+	 *
+	 * @param stride
+	 * 		the number of floats per position
+	 * @param n
+	 * 		the number of vertices
+	 * @param targets
+	 * 		the triangle counts, in decreasing order
+	 * @return the indices of the triangles left at each target
+	 */
+	static int[][] simplify(float[] positions, int stride, int n, int[] indices, int[] targets)
+	{
+		int[] weld = new int[n];
+		int np = NormalGenerator.weld(positions, stride, n, weld);
+		double[] p = new double[np*3];
+		for(int v=0; v<n; v++)
+		{
+			p[weld[v]*3] = positions[v*stride];
+			p[weld[v]*3+1] = positions[v*stride+1];
+			p[weld[v]*3+2] = positions[v*stride+2];
+		}
+
+		// Drop triangles that are degenerate after welding, they have no
+		// plane and would confuse the adjacency
+		IntArrayList kept = new IntArrayList(indices.length);
+		for(int i=0; i<indices.length; i+=3)
+		{
+			int a = weld[indices[i]], b = weld[indices[i+1]], c = weld[indices[i+2]];
+			if(a != b && b != c && c != a)
+				kept.add(indices[i], indices[i+1], indices[i+2]);
+		}
+		Mesh mesh = new Mesh(kept.toArray(), weld, np, p);
+		mesh.initQuadrics();
+
+		int[][] levels = new int[targets.length][];
+		for(int l=0; l<targets.length; l++)
+		{
+			while(mesh.triangles > targets[l] && mesh.collapsePass(targets[l]) > 0)
+				;
+			levels[l] = Arrays.copyOf(mesh.indices, mesh.triangles*3);
+		}
+		return levels;
+	}
+
+	/**
+	 * Make vertex data for a subset of the vertices of a mesh.
+	 */
+	private static VertexData compact(VertexData vertexData, int[] indices, RenderContext renderContext)
+	{
+		int n = vertexData.getNumberOfVertices();
+		int[] newIndex = new int[n];
+		Arrays.fill(newIndex, -1);
+		IntArrayList used = new IntArrayList();
+		for(int i=0; i<indices.length; i++)
+		{
+			int v = indices[i];
+			if(newIndex[v] == -1)
+			{
+				newIndex[v] = used.size();
+				used.add(v);
+			}
+			indices[i] = newIndex[v];
+		}
+
+		int m = used.size();
+		int[] source = used.array();
+		boolean offHeap = vertexData.isOffHeap();
+		VertexData level = renderContext.makeVertexData(m);
+		for(VertexData.VertexElement e : vertexData.getElements())
+		{
+			int k = e.getNumberOfComponents();
+			float[] data = e.toFloatArray();
+			if(data != null)
+			{
+				float[] copy = new float[m*k];
+				for(int i=0; i<m; i++)
+					System.arraycopy(data, source[i]*k, copy, i*k, k);
+				level.addElement(copy, e.getSemantic(), k, offHeap);
+				continue;
+			}
+			int size = e.getFormat().getSize(k);
+			ByteBuffer buffer = e.getBuffer();
+			byte[] bytes = new byte[n*size];
+			buffer.get(bytes);
+			ByteBuffer copy = offHeap ? level.allocateElement(e.getSemantic(), k, e.getFormat())
+					: ByteBuffer.allocate(m*size).order(buffer.order());
+			for(int i=0; i<m; i++)
+				copy.put(bytes, source[i]*size, size);
+			if(!offHeap)
+			{
+				copy.flip();
+				level.addElement(copy, e.getSemantic(), k, e.getFormat());
+			}
+		}
+		if(offHeap)
+			level.allocateIndices(indices.length).put(indices);
+		else
+			level.addIndices(indices);
+		return level;
+	}
+
+	/**
+	 * The state of a mesh during simplification. Triangles reference the
+	 * original vertices (wedges), which carry the attributes; the topology
+	 * and the quadrics are defined on the welded positions.
+	 */
+	private static class Mesh {
+
+		int[] indices;
+		int triangles;
+		final int[] weld;
+		final int np;
+		final double[] p;
+		/**
+		 * Ten coefficients of the symmetric 4x4 quadric per position.
+		 */
+		final double[] quadrics;
+
+		// Triangles around each position and the triangle across the edge
+		// from each corner to the next, rebuilt in every pass
+		int[] first, adjacent, across;
+		final byte[] kind;
+		// Marks positions that collapsed or were collapsed onto in the
+		// current pass. Their triangle lists are out of date. The triangles
+		// of other positions may have changed, but their lists are still
+		// right, apart from triangles that were removed.
+		final boolean[] touched;
+		// Stamps for neighbour sets, so they need not be cleared
+		final int[] stamp;
+		int stampValue;
+
+		Mesh(int[] indices, int[] weld, int np, double[] p)
+		{
+			this.indices = indices;
+			this.triangles = indices.length/3;
+			this.weld = weld;
+			this.np = np;
+			this.p = p;
+			quadrics = new double[np*10];
+			first = new int[np+1];
+			kind = new byte[np];
+			touched = new boolean[np];
+			stamp = new int[np];
+		}
+
+		/**
+		 * Sum the planes of the triangles around each position, and the
+		 * planes perpendicular to the triangles along borders and seams.
+		 */
+		void initQuadrics()
+		{
+			buildAdjacency();
+			for(int t=0; t<triangles; t++)
+			{
+				double[] nrm = normal(t, -1, -1);
+				double area2 = Math.sqrt(nrm[0]*nrm[0] + nrm[1]*nrm[1] + nrm[2]*nrm[2]);
+				if(area2 == 0)
+					continue;
+				double nx = nrm[0]/area2, ny = nrm[1]/area2, nz = nrm[2]/area2;
+				for(int c=0; c<3; c++)
+				{
+					int a = pos(t, c), b = pos(t, (c+1)%3);
+					addPlane(a, nx, ny, nz, p[a*3], p[a*3+1], p[a*3+2], area2/2);
+
+					int u = across[t*3+c];
+					if(u != -1 && !(u >= 0 && isSeam(t, u, a, b)))
+						continue;
+					// Plane through the edge, perpendicular to the triangle
+					double ex = p[b*3]-p[a*3], ey = p[b*3+1]-p[a*3+1], ez = p[b*3+2]-p[a*3+2];
+					double mx = ey*nz - ez*ny, my = ez*nx - ex*nz, mz = ex*ny - ey*nx;
+					double length = Math.sqrt(mx*mx + my*my + mz*mz);
+					if(length == 0)
+						continue;
+					double w = BORDER_WEIGHT * (ex*ex + ey*ey + ez*ez);
+					addPlane(a, mx/length, my/length, mz/length, p[a*3], p[a*3+1], p[a*3+2], w);
+					addPlane(b, mx/length, my/length, mz/length, p[a*3], p[a*3+1], p[a*3+2], w);
+				}
+			}
+		}
+
+		/**
+		 * Collapse the cheapest edges that share no vertex with each other.
+		 *
+		 * @return the number of collapses
+		 */
+		int collapsePass(int target)
+		{
+			buildAdjacency();
+			for(int v=0; v<np; v++)
+			{
+				kind[v] = classify(v);
+				touched[v] = false;
+			}
+
+			// Each edge once, with the cheaper of its allowed directions
+			IntArrayList from = new IntArrayList(), to = new IntArrayList();
+			FloatArrayList costs = new FloatArrayList();
+			for(int t=0; t<triangles; t++)
+			{
+				for(int c=0; c<3; c++)
+				{
+					int a = pos(t, c), b = pos(t, (c+1)%3);
+					int u = across[t*3+c];
+					if(u == -2 || (u != -1 && a > b))
+						continue;
+					boolean border = u == -1;
+					boolean seam = u >= 0 && isSeam(t, u, a, b);
+					double ab = allowed(a, border, seam) ? cost(a, b) : Double.MAX_VALUE;
+					double ba = allowed(b, border, seam) ? cost(b, a) : Double.MAX_VALUE;
+					if(ab == Double.MAX_VALUE && ba == Double.MAX_VALUE)
+						continue;
+					from.add(ab <= ba ? a : b);
+					to.add(ab <= ba ? b : a);
+					costs.add((float)Math.min(ab, ba));
+				}
+			}
+			int candidates = costs.size();
+			if(candidates == 0)
+				return 0;
+
+			// Costs are not negative, so their bits sort like the values
+			long[] order = new long[candidates];
+			for(int i=0; i<candidates; i++)
+				order[i] = (long)Float.floatToIntBits(costs.get(i)) << 32 | i;
+			Arrays.sort(order);
+			int needed = Math.min(candidates, Math.max(1, (triangles - target)/2));
+			float limit = Float.intBitsToFloat((int)(order[needed-1] >>> 32)) * PASS_ERROR_FACTOR;
+
+			int collapses = 0;
+			int remaining = triangles;
+			int[] map = new int[4];
+			for(int i=0; i<candidates && remaining > target; i++)
+			{
+				int k = (int)order[i];
+				if(costs.get(k) > limit && collapses > 0)
+					break;
+				int a = from.get(k), b = to.get(k);
+				if(touched[a] || touched[b])
+					continue;
+				if(!linkCondition(a, b) || flips(a, b) || !mapWedges(a, b, map))
+					continue;
+				// If the cheaper edges could not be collapsed, the limit
+				// follows the first edge that could
+				if(collapses == 0)
+					limit = Math.max(limit, costs.get(k) * PASS_ERROR_FACTOR);
+				remaining -= collapse(a, b, map);
+				collapses++;
+			}
+
+			// Remove the collapsed triangles
+			int m = 0;
+			for(int t=0; t<triangles; t++)
+			{
+				if(indices[t*3] == -1)
+					continue;
+				System.arraycopy(indices, t*3, indices, m*3, 3);
+				m++;
+			}
+			triangles = m;
+			return collapses;
+		}
+
+		/**
+		 * Collapse position a onto position b.
+		 *
+		 * @return the number of triangles removed
+		 */
+		private int collapse(int a, int b, int[] map)
+		{
+			int removed = 0;
+			for(int i=first[a]; i<first[a+1]; i++)
+			{
+				int t = adjacent[i];
+				if(indices[t*3] == -1)
+					continue;
+				if(contains(t, b))
+				{
+					indices[t*3] = -1;
+					removed++;
+					continue;
+				}
+				int c = corner(t, a);
+				int w = indices[t*3+c];
+				indices[t*3+c] = w == map[0] ? map[1] : map[3];
+			}
+			for(int j=0; j<10; j++)
+				quadrics[b*10+j] += quadrics[a*10+j];
+			touched[a] = true;
+			touched[b] = true;
+			return removed;
+		}
+
+		/**
+		 * Whether position v may collapse along an edge.
+		 */
+		private boolean allowed(int v, boolean border, boolean seam)
+		{
+			switch(kind[v]) {
+			case MANIFOLD:
+				return true;
+			case BORDER:
+				return border;
+			case SEAM:
+				return seam;
+			default:
+				return false;
+			}
+		}
+
+		/**
+		 * Classify a position by the borders and seams around it.
+		 */
+		private byte classify(int v)
+		{
+			int open = 0, seams = 0;
+			int w1 = -1, w2 = -1;
+			for(int i=first[v]; i<first[v+1]; i++)
+			{
+				int t = adjacent[i];
+				int c = corner(t, v);
+				int w = indices[t*3+c];
+				if(w1 == -1 || w1 == w)
+					w1 = w;
+				else if(w2 == -1 || w2 == w)
+					w2 = w;
+				else
+					return LOCKED;
+
+				int next = pos(t, (c+1)%3);
+				int u = across[t*3+c];
+				if(u == -2)
+					return LOCKED;
+				if(u == -1)
+					open++;
+				else if(isSeam(t, u, v, next))
+					seams++;
+				int incoming = across[t*3+(c+2)%3];
+				if(incoming == -2)
+					return LOCKED;
+				if(incoming == -1)
+					open++;
+			}
+			if(open == 0 && seams == 0 && w2 == -1)
+				return MANIFOLD;
+			if(open == 2 && seams == 0 && w2 == -1)
+				return BORDER;
+			if(open == 0 && seams == 2 && w2 != -1)
+				return SEAM;
+			return LOCKED;
+		}
+
+		/**
+		 * Collapsing an edge must not merge vertices other than its own
+		 * endpoints: the two positions may share no neighbours except the
+		 * opposite vertices of the triangles on the edge.
+		 */
+		private boolean linkCondition(int a, int b)
+		{
+			// Neighbours of b get the stamp, common neighbours found from a
+			// the next value so they are counted once
+			int neighbour = stampValue + 1, common = neighbour + 1;
+			stampValue += 2;
+			for(int i=first[b]; i<first[b+1]; i++)
+			{
+				int t = adjacent[i];
+				if(indices[t*3] == -1)
+					continue;
+				for(int c=0; c<3; c++)
+					stamp[pos(t, c)] = neighbour;
+			}
+			int shared = 0, nCommon = 0;
+			for(int i=first[a]; i<first[a+1]; i++)
+			{
+				int t = adjacent[i];
+				if(indices[t*3] == -1)
+					continue;
+				if(contains(t, b))
+					shared++;
+				for(int c=0; c<3; c++)
+				{
+					int v = pos(t, c);
+					if(v != a && v != b && stamp[v] == neighbour)
+					{
+						stamp[v] = common;
+						nCommon++;
+					}
+				}
+			}
+			return nCommon == shared;
+		}
+
+		/**
+		 * Whether moving position a onto b turns a triangle around a over.
+		 */
+		private boolean flips(int a, int b)
+		{
+			for(int i=first[a]; i<first[a+1]; i++)
+			{
+				int t = adjacent[i];
+				if(indices[t*3] == -1 || contains(t, b))
+					continue;
+				double[] before = normal(t, -1, -1);
+				double[] after = normal(t, a, b);
+				double dot = before[0]*after[0] + before[1]*after[1] + before[2]*after[2];
+				double lengths = Math.sqrt((before[0]*before[0] + before[1]*before[1] + before[2]*before[2])
+						* (after[0]*after[0] + after[1]*after[1] + after[2]*after[2]));
+				if(dot <= 0.25*lengths)
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Find the vertex of b that each vertex of a becomes, from the
+		 * triangles on the edge. Stores up to two pairs in map.
+		 *
+		 * @return false if some vertex of a has no unique counterpart
+		 */
+		private boolean mapWedges(int a, int b, int[] map)
+		{
+			map[0] = map[1] = map[2] = map[3] = -1;
+			for(int i=first[a]; i<first[a+1]; i++)
+			{
+				int t = adjacent[i];
+				if(indices[t*3] == -1 || !contains(t, b))
+					continue;
+				int wa = indices[t*3+corner(t, a)], wb = indices[t*3+corner(t, b)];
+				if(map[0] == -1 || map[0] == wa)
+				{
+					if(map[0] == wa && map[1] != wb)
+						return false;
+					map[0] = wa;
+					map[1] = wb;
+				}
+				else if(map[2] == -1 || map[2] == wa)
+				{
+					if(map[2] == wa && map[3] != wb)
+						return false;
+					map[2] = wa;
+					map[3] = wb;
+				}
+				else
+					return false;
+			}
+			// A seam vertex has two vertices, both must be on the edge
+			return map[0] != -1 && (kind[a] != SEAM || map[2] != -1);
+		}
+
+		private double cost(int a, int b)
+		{
+			double x = p[b*3], y = p[b*3+1], z = p[b*3+2];
+			return Math.max(0, evaluate(a, x, y, z) + evaluate(b, x, y, z));
+		}
+
+		private double evaluate(int v, double x, double y, double z)
+		{
+			double[] q = quadrics;
+			int o = v*10;
+			return q[o]*x*x + 2*q[o+1]*x*y + 2*q[o+2]*x*z + 2*q[o+3]*x
+					+ q[o+4]*y*y + 2*q[o+5]*y*z + 2*q[o+6]*y
+					+ q[o+7]*z*z + 2*q[o+8]*z
+					+ q[o+9];
+		}
+
+		private void addPlane(int v, double nx, double ny, double nz, double px, double py, double pz, double w)
+		{
+			double d = -(nx*px + ny*py + nz*pz);
+			double[] q = quadrics;
+			int o = v*10;
+			q[o] += w*nx*nx; q[o+1] += w*nx*ny; q[o+2] += w*nx*nz; q[o+3] += w*nx*d;
+			q[o+4] += w*ny*ny; q[o+5] += w*ny*nz; q[o+6] += w*ny*d;
+			q[o+7] += w*nz*nz; q[o+8] += w*nz*d;
+			q[o+9] += w*d*d;
+		}
+
+		/**
+		 * The unnormalized normal of a triangle, with position from moved to
+		 * position to if from is not -1.
+		 */
+		private double[] normal(int t, int from, int to)
+		{
+			int a = pos(t, 0), b = pos(t, 1), c = pos(t, 2);
+			if(a == from) a = to;
+			if(b == from) b = to;
+			if(c == from) c = to;
+			double ux = p[b*3]-p[a*3], uy = p[b*3+1]-p[a*3+1], uz = p[b*3+2]-p[a*3+2];
+			double vx = p[c*3]-p[a*3], vy = p[c*3+1]-p[a*3+1], vz = p[c*3+2]-p[a*3+2];
+			return new double[] {uy*vz - uz*vy, uz*vx - ux*vz, ux*vy - uy*vx};
+		}
+
+		/**
+		 * Find the triangle with the edge from b to a, the reverse of the edge
+		 * from a to b in triangle t.
+		 *
+		 * @return the triangle, -1 if there is none, or -2 if there are
+		 * 		several
+		 */
+		private int opposite(int t, int a, int b)
+		{
+			int found = -1;
+			for(int i=first[b]; i<first[b+1]; i++)
+			{
+				int u = adjacent[i];
+				if(u == t)
+					continue;
+				int c = corner(u, b);
+				if(pos(u, (c+1)%3) == a)
+				{
+					if(found != -1)
+						return -2;
+					found = u;
+				}
+			}
+			return found;
+		}
+
+		/**
+		 * Whether the vertices of the edge between a and b differ in the two
+		 * triangles on the edge.
+		 */
+		private boolean isSeam(int t, int u, int a, int b)
+		{
+			return indices[t*3+corner(t, a)] != indices[u*3+corner(u, a)]
+					|| indices[t*3+corner(t, b)] != indices[u*3+corner(u, b)];
+		}
+
+		private void buildAdjacency()
+		{
+			Arrays.fill(first, 0);
+			for(int i=0; i<triangles*3; i++)
+				first[weld[indices[i]]+1]++;
+			for(int v=0; v<np; v++)
+				first[v+1] += first[v];
+			if(adjacent == null || adjacent.length < triangles*3)
+				adjacent = new int[triangles*3];
+			int[] fill = Arrays.copyOf(first, np);
+			for(int i=0; i<triangles*3; i++)
+				adjacent[fill[weld[indices[i]]]++] = i/3;
+
+			if(across == null || across.length < triangles*3)
+				across = new int[triangles*3];
+			for(int t=0; t<triangles; t++)
+			{
+				for(int c=0; c<3; c++)
+					across[t*3+c] = opposite(t, pos(t, c), pos(t, (c+1)%3));
+			}
+		}
+
+		private int pos(int t, int c)
+		{
+			return weld[indices[t*3+c]];
+		}
+
+		private int corner(int t, int v)
+		{
+			return pos(t, 0) == v ? 0 : (pos(t, 1) == v ? 1 : 2);
+		}
+
+		private boolean contains(int t, int v)
+		{
+			return pos(t, 0) == v || pos(t, 1) == v || pos(t, 2) == v;
+		}
+	}
+}
@@ -0,0 +1,548 @@
+package jrtr;
+
+import java.util.Arrays;
+
+import javax.vecmath.Matrix4f;
+
+/**
+ * Splits the triangles of indexed vertex data into small clusters
+ * ("meshlets") that can be culled individually. Each meshlet has a bounding
+ * sphere for frustum culling and a normal cone for backface culling, so a
+ * renderer skips the parts of a dense mesh that are off-screen or facing
+ * away from the camera before issuing any work for them.
+ * <p>
+ * Building the meshlets reorders the indices of the vertex data so that the
+ * triangles of each meshlet are stored contiguously, i.e., a meshlet is
+ * drawn as a range of the index buffer. The meshlets are stored with the
+ * vertex data, see {@link VertexData#getMeshlets()}. Run
+ * {@link MeshOptimizer} first if you use it, the meshlets keep the triangle
+ * order within each meshlet.
+ * <p>
+ * The cone test follows the conservative test of meshoptimizer: a meshlet is
+ * back-facing if <code>dot(center - eye, axis) &gt;= cutoff * |center - eye|
+ * + radius</code>, where cutoff is the sine of the half angle of the cone.
+ */
+public class Meshlets {
+
+	/**
+	 * The default limits, which fit the task and mesh shader limits of
+	 * current GPUs.
+	 */
+	public static final int DEFAULT_MAX_VERTICES = 64;
+	public static final int DEFAULT_MAX_TRIANGLES = 124;
+
+	private int count;
+
+	/**
+	 * The first index and the number of indices of each meshlet in the
+	 * index buffer of the vertex data.
+	 */
+	private int[] firstIndex, indexCount;
+
+	/**
+	 * Bounding sphere (x, y, z, radius) and normal cone (axis x, y, z,
+	 * cutoff) of each meshlet, in object space.
+	 */
+	private float[] spheres, cones;
+
+	private Meshlets(int count)
+	{
+		this.count = count;
+		firstIndex = new int[count];
+		indexCount = new int[count];
+		spheres = new float[count*4];
+		cones = new float[count*4];
+	}
+
+	/**
+	 * Build meshlets with the default limits and store them with the vertex
+	 * data.
+	 */
+	public static Meshlets build(VertexData vertexData)
+	{
+		return build(vertexData, DEFAULT_MAX_VERTICES, DEFAULT_MAX_TRIANGLES);
+	}
+
+	/**
+	 * Build meshlets and store them with the vertex data. The indices of the
+	 * vertex data are reordered and marked as changed.
+	 * <p>
+	 * Meshlets are grown greedily from a seed triangle: among the triangles
+	 * sharing a vertex with the meshlet, the one adding the fewest new
+	 * vertices is added next, preferring triangles facing like the meshlet
+	 * so the normal cones stay narrow. A meshlet is complete when no
+	 * neighboring triangle fits the limits.
+	 *
+	 * @param maxVertices
+	 * 		the maximum number of distinct vertices per meshlet
+	 * @param maxTriangles
+	 * 		the maximum number of triangles per meshlet
+	 */
+	public static Meshlets build(VertexData vertexData, int maxVertices, int maxTriangles)
+	{
+		VertexData.VertexElement position = vertexData.getElement(VertexData.Semantic.POSITION);
+		float[] positions = position != null ? position.toFloatArray() : null;
+		int[] indices = vertexData.toIndexArray();
+		if(positions == null || indices == null)
+			throw new IllegalArgumentException("Vertex data needs float positions and indices to build meshlets");
+		if(maxVertices < 3 || maxTriangles < 1)
+			throw new IllegalArgumentException("Meshlets need at least 3 vertices and 1 triangle");
+		int stride = position.getNumberOfComponents();
+		int n = vertexData.getNumberOfVertices();
+		int nTriangles = indices.length/3;
+
+		// Unit normal of each triangle
+		float[] normals = new float[nTriangles*3];
+		for(int t=0; t<nTriangles; t++)
+		{
+			int p0 = indices[t*3]*stride, p1 = indices[t*3+1]*stride, p2 = indices[t*3+2]*stride;
+			float ax = positions[p1]-positions[p0], ay = positions[p1+1]-positions[p0+1], az = positions[p1+2]-positions[p0+2];
+			float bx = positions[p2]-positions[p0], by = positions[p2+1]-positions[p0+1], bz = positions[p2+2]-positions[p0+2];
+			float nx = ay*bz - az*by, ny = az*bx - ax*bz, nz = ax*by - ay*bx;
+			float length = (float)Math.sqrt(nx*nx + ny*ny + nz*nz);
+			if(length > 0)
+			{
+				normals[t*3] = nx/length;
+				normals[t*3+1] = ny/length;
+				normals[t*3+2] = nz/length;
+			}
+		}
+
+		// The triangles at each position, in compressed row form. Vertices
+		// split at seams share a position, so meshlets grow across seams.
+		int[] weld = new int[n];
+		int nPositions = NormalGenerator.weld(positions, stride, n, weld);
+		int[] first = new int[nPositions+1];
+		for(int c=0; c<nTriangles*3; c++)
+			first[weld[indices[c]]+1]++;
+		for(int v=0; v<nPositions; v++)
+			first[v+1] += first[v];
+		int[] triangles = new int[nTriangles*3];
+		int[] fill = Arrays.copyOf(first, nPositions);
+		for(int c=0; c<nTriangles*3; c++)
+			triangles[fill[weld[indices[c]]]++] = c/3;
+
+		TriangleGrid grid = new TriangleGrid(positions, stride, indices);
+		boolean[] emitted = new boolean[nTriangles];
+		// The meshlet a vertex was last added to, to count new vertices
+		int[] vertexMeshlet = new int[n];
+		Arrays.fill(vertexMeshlet, -1);
+		// The meshlet a triangle was last made a candidate of
+		int[] candidateMeshlet = new int[nTriangles];
+		Arrays.fill(candidateMeshlet, -1);
+
+		int[] reordered = new int[nTriangles*3];
+		int o = 0;
+		IntArrayList starts = new IntArrayList();
+		IntArrayList candidates = new IntArrayList();
+		// The number of emitted triangles of each vertex
+		int[] used = new int[n];
+		int cursor = 0;
+		int m = 0;
+		while(true)
+		{
+			// Seed the next meshlet with the triangle left over by the last
+			// one that is most enclosed by emitted triangles, so no small
+			// islands of triangles are left behind
+			int seed = -1, seedUsed = -1;
+			for(int i=0; i<candidates.size(); i++)
+			{
+				int t = candidates.get(i);
+				int u = used[indices[t*3]] + used[indices[t*3+1]] + used[indices[t*3+2]];
+				if(u > seedUsed)
+				{
+					seed = t;
+					seedUsed = u;
+				}
+			}
+			if(seed == -1)
+			{
+				while(cursor < nTriangles && emitted[cursor])
+					cursor++;
+				if(cursor == nTriangles)
+					break;
+				seed = cursor;
+			}
+
+			starts.add(o);
+			candidates.clear();
+			candidates.add(seed);
+			candidateMeshlet[seed] = m;
+			int nVertices = 0, nTris = 0;
+			float ax = 0, ay = 0, az = 0, cx = 0, cy = 0, cz = 0;
+			while(nTris < maxTriangles)
+			{
+				// Pick the candidate adding the fewest vertices, then the
+				// one best aligned with the meshlet
+				int best = -1, bestNew = 4, bestSlot = -1;
+				float bestDot = -2;
+				float axisLength = (float)Math.sqrt(ax*ax + ay*ay + az*az);
+				for(int i=0; i<candidates.size(); i++)
+				{
+					int t = candidates.get(i);
+					int newVertices = 0;
+					for(int j=0; j<3; j++)
+					{
+						if(vertexMeshlet[indices[t*3+j]] != m)
+							newVertices++;
+					}
+					if(nVertices + newVertices > maxVertices)
+						continue;
+					float dot = axisLength > 0 ? (normals[t*3]*ax + normals[t*3+1]*ay + normals[t*3+2]*az)/axisLength : 1;
+					if(newVertices < bestNew || (newVertices == bestNew && dot > bestDot))
+					{
+						best = t;
+						bestNew = newVertices;
+						bestDot = dot;
+						bestSlot = i;
+					}
+				}
+				if(best == -1 && candidates.size() == 0 && nVertices + 3 <= maxVertices)
+				{
+					// The meshlet has no neighbors left, e.g., at the end of
+					// a small part or in a hole left by other meshlets.
+					// Continue with the nearest triangle instead of leaving
+					// the meshlet small.
+					best = grid.nearest(cx/nTris, cy/nTris, cz/nTris, emitted);
+					bestSlot = 0;
+					if(best != -1)
+						candidates.add(best);
+				}
+				if(best == -1)
+					break;
+
+				// Remove the candidate by moving the last one into its slot
+				candidates.set(bestSlot, candidates.get(candidates.size()-1));
+				candidates.removeLast();
+
+				emitted[best] = true;
+				nTris++;
+				cx += grid.centroids[best*3];
+				cy += grid.centroids[best*3+1];
+				cz += grid.centroids[best*3+2];
+				ax += normals[best*3];
+				ay += normals[best*3+1];
+				az += normals[best*3+2];
+				for(int j=0; j<3; j++)
+				{
+					int v = indices[best*3+j];
+					reordered[o++] = v;
+					used[v]++;
+					if(vertexMeshlet[v] == m)
+						continue;
+					vertexMeshlet[v] = m;
+					nVertices++;
+					for(int i=first[weld[v]]; i<first[weld[v]+1]; i++)
+					{
+						int t = triangles[i];
+						if(!emitted[t] && candidateMeshlet[t] != m)
+						{
+							candidateMeshlet[t] = m;
+							candidates.add(t);
+						}
+					}
+				}
+			}
+			m++;
+		}
+
+		Meshlets meshlets = new Meshlets(m);
+		for(int i=0; i<m; i++)
+		{
+			meshlets.firstIndex[i] = starts.get(i);
+			meshlets.indexCount[i] = (i+1 < m ? starts.get(i+1) : o) - starts.get(i);
+			meshlets.computeBounds(i, reordered, positions, stride);
+		}
+
+		if(vertexData.getIndices() != null)
+			System.arraycopy(reordered, 0, vertexData.getIndices(), 0, reordered.length);
+		else
+			vertexData.getIndexBuffer().put(reordered);
+		vertexData.markIndicesDirty(0, reordered.length);
+		vertexData.setMeshlets(meshlets);
+		return meshlets;
+	}
+
+	/**
+	 * A uniform grid of triangle centroids, hashed into buckets, to find the
+	 * nearest triangle not yet in a meshlet.
+	 */
+	private static class TriangleGrid {
+
+		/**
+		 * The search gives up beyond this many cells from the query point.
+		 */
+		static final int MAX_RINGS = 8;
+
+		final float[] centroids;
+		final float xMin, yMin, zMin, cellSize;
+		final int mask;
+		final int[] first, triangles;
+
+		TriangleGrid(float[] positions, int stride, int[] indices)
+		{
+			int nTriangles = indices.length/3;
+			centroids = new float[nTriangles*3];
+			float xMin = Float.MAX_VALUE, yMin = Float.MAX_VALUE, zMin = Float.MAX_VALUE;
+			float extent = 0;
+			for(int t=0; t<nTriangles; t++)
+			{
+				for(int j=0; j<3; j++)
+				{
+					float c = (positions[indices[t*3]*stride+j] + positions[indices[t*3+1]*stride+j]
+							+ positions[indices[t*3+2]*stride+j])/3;
+					centroids[t*3+j] = c;
+				}
+				xMin = Math.min(xMin, centroids[t*3]);
+				yMin = Math.min(yMin, centroids[t*3+1]);
+				zMin = Math.min(zMin, centroids[t*3+2]);
+			}
+			for(int t=0; t<nTriangles; t++)
+			{
+				extent = Math.max(extent, centroids[t*3]-xMin);
+				extent = Math.max(extent, centroids[t*3+1]-yMin);
+				extent = Math.max(extent, centroids[t*3+2]-zMin);
+			}
+			this.xMin = xMin;
+			this.yMin = yMin;
+			this.zMin = zMin;
+			float cells = (float)Math.ceil(Math.cbrt(Math.max(1, nTriangles/2)));
+			cellSize = extent > 0 ? extent/cells : 1;
+
+			int buckets = Integer.highestOneBit(Math.max(1, nTriangles)) << 1;
+			mask = buckets-1;
+			first = new int[buckets+1];
+			for(int t=0; t<nTriangles; t++)
+				first[bucket(t)+1]++;
+			for(int b=0; b<buckets; b++)
+				first[b+1] += first[b];
+			triangles = new int[nTriangles];
+			int[] fill = Arrays.copyOf(first, buckets);
+			for(int t=0; t<nTriangles; t++)
+				triangles[fill[bucket(t)]++] = t;
+		}
+
+		private int bucket(int t)
+		{
+			return bucket(cell(centroids[t*3], xMin), cell(centroids[t*3+1], yMin), cell(centroids[t*3+2], zMin));
+		}
+
+		private int cell(float x, float min)
+		{
+			return (int)((x - min)/cellSize);
+		}
+
+		private int bucket(int i, int j, int k)
+		{
+			return (i*73856093 ^ j*19349663 ^ k*83492791) & mask;
+		}
+
+		/**
+		 * @return the triangle not yet emitted with the centroid nearest to a
+		 * 		point, or -1 if there is none close by
+		 */
+		int nearest(float x, float y, float z, boolean[] emitted)
+		{
+			int ci = cell(x, xMin), cj = cell(y, yMin), ck = cell(z, zMin);
+			int best = -1;
+			float bestDistance = Float.MAX_VALUE;
+			for(int r=0; r<=MAX_RINGS; r++)
+			{
+				// Triangles in ring r are at least (r-1) cells away
+				float ring = (r-1)*cellSize;
+				if(best != -1 && ring > 0 && ring*ring > bestDistance)
+					break;
+				for(int i=ci-r; i<=ci+r; i++)
+				{
+					for(int j=cj-r; j<=cj+r; j++)
+					{
+						for(int k=ck-r; k<=ck+r; k++)
+						{
+							// Only the cells on the shell of the ring
+							if(Math.abs(i-ci) != r && Math.abs(j-cj) != r && Math.abs(k-ck) != r)
+								continue;
+							int b = bucket(i, j, k);
+							for(int n=first[b]; n<first[b+1]; n++)
+							{
+								int t = triangles[n];
+								if(emitted[t])
+									continue;
+								float dx = centroids[t*3]-x, dy = centroids[t*3+1]-y, dz = centroids[t*3+2]-z;
+								float d = dx*dx + dy*dy + dz*dz;
+								if(d < bestDistance)
+								{
+									bestDistance = d;
+									best = t;
+								}
+							}
+						}
+					}
+				}
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * Compute the bounding sphere and the normal cone of a meshlet.
+	 */
+	private void computeBounds(int i, int[] reordered, float[] positions, int stride)
+	{
+		int start = firstIndex[i], end = start + indexCount[i];
+
+		// Sphere around the center of the bounding box
+		float xMin = Float.MAX_VALUE, yMin = Float.MAX_VALUE, zMin = Float.MAX_VALUE;
+		float xMax = -Float.MAX_VALUE, yMax = -Float.MAX_VALUE, zMax = -Float.MAX_VALUE;
+		for(int c=start; c<end; c++)
+		{
+			int p = reordered[c]*stride;
+			xMin = Math.min(xMin, positions[p]); xMax = Math.max(xMax, positions[p]);
+			yMin = Math.min(yMin, positions[p+1]); yMax = Math.max(yMax, positions[p+1]);
+			zMin = Math.min(zMin, positions[p+2]); zMax = Math.max(zMax, positions[p+2]);
+		}
+		float cx = (xMin+xMax)/2, cy = (yMin+yMax)/2, cz = (zMin+zMax)/2;
+		float r2 = 0;
+		for(int c=start; c<end; c++)
+		{
+			int p = reordered[c]*stride;
+			float dx = positions[p]-cx, dy = positions[p+1]-cy, dz = positions[p+2]-cz;
+			r2 = Math.max(r2, dx*dx + dy*dy + dz*dz);
+		}
+		spheres[i*4] = cx;
+		spheres[i*4+1] = cy;
+		spheres[i*4+2] = cz;
+		spheres[i*4+3] = (float)Math.sqrt(r2);
+
+		// Cone around the average normal
+		float ax = 0, ay = 0, az = 0;
+		float[] triangleNormals = new float[end - start];
+		for(int c=start; c<end; c+=3)
+		{
+			int p0 = reordered[c]*stride, p1 = reordered[c+1]*stride, p2 = reordered[c+2]*stride;
+			float ex = positions[p1]-positions[p0], ey = positions[p1+1]-positions[p0+1], ez = positions[p1+2]-positions[p0+2];
+			float fx = positions[p2]-positions[p0], fy = positions[p2+1]-positions[p0+1], fz = positions[p2+2]-positions[p0+2];
+			float nx = ey*fz - ez*fy, ny = ez*fx - ex*fz, nz = ex*fy - ey*fx;
+			float length = (float)Math.sqrt(nx*nx + ny*ny + nz*nz);
+			if(length > 0)
+			{
+				nx /= length; ny /= length; nz /= length;
+			}
+			triangleNormals[c-start] = nx;
+			triangleNormals[c-start+1] = ny;
+			triangleNormals[c-start+2] = nz;
+			ax += nx; ay += ny; az += nz;
+		}
+		float length = (float)Math.sqrt(ax*ax + ay*ay + az*az);
+		float minDot = 1;
+		if(length > 0)
+		{
+			ax /= length; ay /= length; az /= length;
+			for(int c=0; c<end-start; c+=3)
+			{
+				float nx = triangleNormals[c], ny = triangleNormals[c+1], nz = triangleNormals[c+2];
+				if(nx == 0 && ny == 0 && nz == 0)
+					continue;	// Degenerate triangles are never visible
+				minDot = Math.min(minDot, nx*ax + ny*ay + nz*az);
+			}
+		}
+		cones[i*4] = ax;
+		cones[i*4+1] = ay;
+		cones[i*4+2] = az;
+		// A cone of 90 degrees or more, or no usable normals, is never
+		// back-facing as a whole
+		cones[i*4+3] = length > 0 && minDot > 0 ? (float)Math.sqrt(1 - minDot*minDot) : 2;
+	}
+
+	/**
+	 * Find the meshlets that may be visible.
+	 *
+	 * @param modelview
+	 * 		the transformation from object to camera space
+	 * @param projection
+	 * 		the projection matrix
+	 * @param visible
+	 * 		receives the numbers of the visible meshlets in increasing order,
+	 * 		needs at least {@link #size()} entries
+	 * @return the number of visible meshlets
+	 */
+	public int cull(Matrix4f modelview, Matrix4f projection, int[] visible)
+	{
+		float[] planes = Frustum.planes(projection, modelview);
+
+		// The eye in object space
+		boolean backfaceCulling = true;
+		float ex = 0, ey = 0, ez = 0;
+		try {
+			Matrix4f inverse = new Matrix4f(modelview);
+			inverse.invert();
+			ex = inverse.m03;
+			ey = inverse.m13;
+			ez = inverse.m23;
+		} catch(RuntimeException e) {
+			backfaceCulling = false;	// Singular modelview matrix
+		}
+
+		int nVisible = 0;
+		for(int i=0; i<count; i++)
+		{
+			float cx = spheres[i*4], cy = spheres[i*4+1], cz = spheres[i*4+2], r = spheres[i*4+3];
+			boolean outside = false;
+			for(int p=0; p<6 && !outside; p++)
+				outside = planes[p*4]*cx + planes[p*4+1]*cy + planes[p*4+2]*cz + planes[p*4+3] < -r;
+			if(outside)
+				continue;
+			if(backfaceCulling && cones[i*4+3] <= 1)
+			{
+				float dx = cx-ex, dy = cy-ey, dz = cz-ez;
+				float d = dx*cones[i*4] + dy*cones[i*4+1] + dz*cones[i*4+2];
+				if(d >= cones[i*4+3]*(float)Math.sqrt(dx*dx + dy*dy + dz*dz) + r)
+					continue;
+			}
+			visible[nVisible++] = i;
+		}
+		return nVisible;
+	}
+
+	/**
+	 * @return the number of meshlets
+	 */
+	public int size()
+	{
+		return count;
+	}
+
+	/**
+	 * @return the position of the first index of a meshlet in the index
+	 * 		buffer
+	 */
+	public int getFirstIndex(int i)
+	{
+		return firstIndex[i];
+	}
+
+	/**
+	 * @return the number of indices of a meshlet, three per triangle
+	 */
+	public int getIndexCount(int i)
+	{
+		return indexCount[i];
+	}
+
+	/**
+	 * @return the bounding sphere of a meshlet as {x, y, z, radius}
+	 */
+	public float[] getBoundingSphere(int i)
+	{
+		return Arrays.copyOfRange(spheres, i*4, i*4+4);
+	}
+
+	/**
+	 * @return the normal cone of a meshlet as {axis x, y, z, cutoff}, where
+	 * 		the cutoff is the sine of the half angle of the cone, or 2 if the
+	 * 		meshlet cannot be back-facing as a whole
+	 */
+	public float[] getNormalCone(int i)
+	{
+		return Arrays.copyOfRange(cones, i*4, i*4+4);
+	}
+}
@@ -0,0 +1,139 @@
+package jrtr;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.vecmath.Vector3f;
+
+/**
+ * Reads .mtl material libraries as referenced by .obj files. Each
+ * <code>newmtl</code> statement makes a {@link Material}. Colors
+ * (<code>Ka</code>, <code>Kd</code>, <code>Ks</code>), the shininess
+ * (<code>Ns</code>) and texture maps are supported. Textures are loaded
+ * through a {@link TextureCache}, so images shared by several materials
+ * are only loaded once.
+ */
+public class MtlReader {
+
+	/**
+	 * Read a material library.
+	 *
+	 * @param fileName
+	 * 			the .mtl file to read
+	 * @param textures
+	 * 			the cache used to load texture maps, or null to ignore them
+	 * @return the materials of the library by name
+	 * @throws IOException
+	 */
+	public static Map<String, Material> read(String fileName, TextureCache textures)
+			throws IOException
+	{
+		Map<String, Material> materials = new LinkedHashMap<String, Material>();
+		File directory = new File(fileName).getAbsoluteFile().getParentFile();
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+		try {
+			Material material = null;
+			String line;
+			while((line = reader.readLine()) != null)
+			{
+				line = line.trim();
+				if(line.length() == 0 || line.charAt(0) == '#')
+					continue;
+
+				String[] s = line.split("\\s+", 2);
+				String keyword = s[0];
+				String argument = s.length > 1 ? s[1].trim() : "";
+
+				if(keyword.equals("newmtl"))
+				{
+					material = new Material();
+					materials.put(argument, material);
+				}
+				else if(material == null)
+				{
+					continue;
+				}
+				else if(keyword.equals("Kd"))
+					material.diffuse = parseColor(argument);
+				else if(keyword.equals("Ks"))
+					material.specular = parseColor(argument);
+				else if(keyword.equals("Ka"))
+					material.ambient = parseColor(argument);
+				else if(keyword.equals("Ns"))
+					material.shininess = Float.parseFloat(argument);
+				else if(keyword.equals("map_Kd"))
+					material.diffuseMap = loadTexture(textures, directory, argument);
+				else if(keyword.equals("map_Ks"))
+					material.specularMap = loadTexture(textures, directory, argument);
+				else if(keyword.equals("map_Ka"))
+					material.ambientMap = loadTexture(textures, directory, argument);
+				else if(keyword.equals("map_d"))
+					material.alphaMap = loadTexture(textures, directory, argument);
+				else if(keyword.equals("map_Bump") || keyword.equals("map_bump") || keyword.equals("bump"))
+					material.normalMap = loadTexture(textures, directory, argument);
+			}
+		} finally {
+			reader.close();
+		}
+		return materials;
+	}
+
+	private static Vector3f parseColor(String argument)
+	{
+		String[] s = argument.split("\\s+");
+		float r = Float.parseFloat(s[0]);
+		float g = s.length > 2 ? Float.parseFloat(s[1]) : r;
+		float b = s.length > 2 ? Float.parseFloat(s[2]) : r;
+		return new Vector3f(r, g, b);
+	}
+
+	/**
+	 * Load a texture map. Options of the map statement (like
+	 * <code>-bm 1.0</code>) are skipped. Exporters often write absolute
+	 * paths of the machine the asset was made on, so if the path does not
+	 * exist we look for the file name next to the .mtl file and in a
+	 * sibling <code>textures</code> directory.
+	 *
+	 * @return the texture, or null if it cannot be found or loaded
+	 */
+	private static Texture loadTexture(TextureCache textures, File directory, String argument)
+	{
+		if(textures == null)
+			return null;
+
+		// Skip options, the file name is the last argument
+		String path = argument;
+		while(path.startsWith("-"))
+		{
+			String[] s = path.split("\\s+", 3);
+			path = s.length > 2 ? s[2] : "";
+		}
+		path = path.replace('\\', '/');
+		String name = path.substring(path.lastIndexOf('/') + 1);
+
+		File[] candidates = {
+			new File(path),
+			new File(directory, path),
+			new File(directory, name),
+			new File(new File(directory.getParentFile(), "textures"), name)
+		};
+		for(File f : candidates)
+		{
+			if(f.isFile())
+			{
+				try {
+					return textures.get(f.getPath());
+				} catch(IOException e) {
+					System.out.print("Could not load texture '" + f + "'.\n");
+					return null;
+				}
+			}
+		}
+		System.out.print("Texture '" + argument + "' not found.\n");
+		return null;
+	}
+}
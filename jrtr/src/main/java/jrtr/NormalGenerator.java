@@ -0,0 +1,371 @@
+package jrtr;
+
+import java.util.Arrays;
+
+/**
+ * Computes smooth vertex normals for indexed triangle meshes.
+ * <p>
+ * The normal of a vertex is the weighted sum of the normals of the
+ * triangles around it, weighted either by triangle area or by the angle of
+ * the triangle at the vertex. Vertices at the same position are welded for
+ * the computation, so seams in the texture coordinates do not show up as
+ * seams in the shading. Triangles whose normals differ by more than a
+ * crease angle do not contribute to each other's normals; vertices on such
+ * creases are split so each side gets its own normal.
+ * <p>
+ * All passes are linear in the size of the mesh and work on primitive
+ * arrays. The per-triangle and per-vertex passes run in parallel.
+ */
+public class NormalGenerator {
+
+	/**
+	 * How triangle normals are weighted when they are summed at a vertex.
+	 */
+	public enum Weighting {
+		/**
+		 * Weight by triangle area. Large triangles dominate.
+		 */
+		AREA,
+		/**
+		 * Weight by the angle of the triangle at the vertex. The result does
+		 * not depend on how a surface is triangulated.
+		 */
+		ANGLE
+	}
+
+	/**
+	 * The crease angle in degrees used when normals are generated while
+	 * loading meshes.
+	 */
+	public static final float DEFAULT_CREASE_ANGLE = 60;
+
+	/**
+	 * Generate normals with angle weighting and the default crease angle.
+	 *
+	 * @see #generate(VertexData, float, Weighting, RenderContext)
+	 */
+	public static VertexData generate(VertexData vertexData, RenderContext renderContext)
+	{
+		return generate(vertexData, DEFAULT_CREASE_ANGLE, Weighting.ANGLE, renderContext);
+	}
+
+	/**
+	 * Generate normals for vertex data, replacing any existing normals.
+	 *
+	 * @param vertexData
+	 * 		the mesh, it needs positions and indices
+	 * @param creaseAngle
+	 * 		the angle in degrees between triangle normals above which an edge
+	 * 		is rendered sharp, or 180 for fully smooth normals
+	 * @param weighting
+	 * 		how triangle normals are weighted
+	 * @param renderContext
+	 * 		used to make new vertex data if vertices need to be split
+	 * @return the given vertex data with a new NORMAL element if no vertices
+	 * 		had to be split, or new vertex data containing all elements of the
+	 * 		given vertex data and the normals otherwise
+	 */
+	public static VertexData generate(VertexData vertexData, float creaseAngle, Weighting weighting,
+			RenderContext renderContext)
+	{
+		VertexData.VertexElement position = vertexData.getElement(VertexData.Semantic.POSITION);
+		int[] indices = vertexData.toIndexArray();
+		float[] positions = position != null ? position.toFloatArray() : null;
+		if(positions == null || indices == null)
+			throw new IllegalArgumentException("Vertex data needs float positions and indices to generate normals");
+
+		int n = vertexData.getNumberOfVertices();
+		float cosCrease = creaseAngle >= 180 ? -2 : (float)Math.cos(Math.toRadians(creaseAngle));
+		float[] cornerNormals = cornerNormals(positions, position.getNumberOfComponents(), n,
+				indices, cosCrease, weighting);
+
+		// Assign an output vertex to each corner. The first corner that
+		// references a vertex keeps it; corners with a different normal
+		// split off new vertices, which are chained per original vertex.
+		int nCorners = indices.length;
+		float[] normals = new float[n*3];
+		IntArrayList source = new IntArrayList();
+		IntArrayList nextSplit = new IntArrayList();
+		int[] firstSplit = new int[n];
+		boolean[] claimed = new boolean[n];
+		Arrays.fill(firstSplit, -1);
+		int[] newIndices = new int[nCorners];
+		FloatArrayList splitNormals = new FloatArrayList();
+		for(int c=0; c<nCorners; c++)
+		{
+			int v = indices[c];
+			float x = cornerNormals[c*3], y = cornerNormals[c*3+1], z = cornerNormals[c*3+2];
+			if(!claimed[v])
+			{
+				claimed[v] = true;
+				normals[v*3] = x;
+				normals[v*3+1] = y;
+				normals[v*3+2] = z;
+				newIndices[c] = v;
+				continue;
+			}
+			if(normals[v*3] == x && normals[v*3+1] == y && normals[v*3+2] == z)
+			{
+				newIndices[c] = v;
+				continue;
+			}
+			int s = firstSplit[v];
+			while(s != -1 && !(splitNormals.get(s*3) == x && splitNormals.get(s*3+1) == y
+					&& splitNormals.get(s*3+2) == z))
+				s = nextSplit.get(s);
+			if(s == -1)
+			{
+				s = source.size();
+				source.add(v);
+				splitNormals.add(x, y, z);
+				nextSplit.add(firstSplit[v]);
+				firstSplit[v] = s;
+			}
+			newIndices[c] = n + s;
+		}
+
+		if(source.size() == 0)
+		{
+			vertexData.addElement(normals, VertexData.Semantic.NORMAL, 3, vertexData.isOffHeap());
+			return vertexData;
+		}
+
+		int nSplit = source.size();
+		VertexData split = split(vertexData, source, newIndices, VertexData.Semantic.NORMAL, renderContext);
+		float[] allNormals = new float[(n + nSplit)*3];
+		System.arraycopy(normals, 0, allNormals, 0, n*3);
+		System.arraycopy(splitNormals.array(), 0, allNormals, n*3, nSplit*3);
+		split.addElement(allNormals, VertexData.Semantic.NORMAL, 3, vertexData.isOffHeap());
+		return split;
+	}
+
+	/**
+	 * Copy all elements but one to new vertex data with split vertices
+	 * appended, which copy the values of the vertices they were split from.
+	 *
+	 * @param source
+	 * 		the vertex each appended vertex was split from
+	 * @param indices
+	 * 		the indices of the new vertex data
+	 * @param skip
+	 * 		the semantic that is not copied, the caller adds it with the
+	 * 		values of the split vertices
+	 */
+	static VertexData split(VertexData vertexData, IntArrayList source, int[] indices,
+			VertexData.Semantic skip, RenderContext renderContext)
+	{
+		int n = vertexData.getNumberOfVertices();
+		int nSplit = source.size();
+		int[] s = source.array();
+		VertexData split = renderContext.makeVertexData(n + nSplit);
+		for(VertexData.VertexElement e : vertexData.getElements())
+		{
+			if(e.getSemantic() == skip)
+				continue;
+			int k = e.getNumberOfComponents();
+			float[] data = e.toFloatArray();
+			if(data == null)
+				throw new IllegalArgumentException("Cannot split vertices of compact vertex elements, generate "
+						+ skip.name().toLowerCase() + "s before quantizing");
+			float[] copy = new float[(n + nSplit)*k];
+			System.arraycopy(data, 0, copy, 0, n*k);
+			for(int i=0; i<nSplit; i++)
+				System.arraycopy(data, s[i]*k, copy, (n+i)*k, k);
+			split.addElement(copy, e.getSemantic(), k, vertexData.isOffHeap());
+		}
+		if(vertexData.isOffHeap())
+			split.allocateIndices(indices.length).put(indices);
+		else
+			split.addIndices(indices);
+		return split;
+	}
+
+	/**
+	 * Compute a unit normal for each triangle corner.
+	 *
+	 * @param positions
+	 * 		the vertex positions
+	 * @param stride
+	 * 		the number of components per position
+	 * @param cosCrease
+	 * 		the cosine of the crease angle, or less than -1 for no creases
+	 */
+	static float[] cornerNormals(final float[] positions, final int stride, int n, final int[] indices,
+			final float cosCrease, final Weighting weighting)
+	{
+		final int nTriangles = indices.length/3;
+		final int nCorners = nTriangles*3;
+
+		// Weld vertices at identical positions
+		final int[] weld = new int[n];
+		int nPositions = weld(positions, stride, n, weld);
+
+		// Unit triangle normals and the weight of each corner
+		final float[] faceNormals = new float[nTriangles*3];
+		final float[] weights = new float[nCorners];
+		Parallel.forRange(nTriangles, new Parallel.Range() {
+			public void run(int start, int end)
+			{
+				for(int f=start; f<end; f++)
+				{
+					int i0 = indices[f*3]*stride, i1 = indices[f*3+1]*stride, i2 = indices[f*3+2]*stride;
+					float ax = positions[i1]-positions[i0], ay = positions[i1+1]-positions[i0+1], az = positions[i1+2]-positions[i0+2];
+					float bx = positions[i2]-positions[i0], by = positions[i2+1]-positions[i0+1], bz = positions[i2+2]-positions[i0+2];
+					float cx = positions[i2]-positions[i1], cy = positions[i2+1]-positions[i1+1], cz = positions[i2+2]-positions[i1+2];
+					float nx = ay*bz - az*by;
+					float ny = az*bx - ax*bz;
+					float nz = ax*by - ay*bx;
+					float length = (float)Math.sqrt(nx*nx + ny*ny + nz*nz);
+					if(length == 0)
+						continue;
+					faceNormals[f*3] = nx/length;
+					faceNormals[f*3+1] = ny/length;
+					faceNormals[f*3+2] = nz/length;
+					if(weighting == Weighting.AREA)
+					{
+						weights[f*3] = weights[f*3+1] = weights[f*3+2] = length/2;
+					}
+					else
+					{
+						weights[f*3] = angle(ax, ay, az, bx, by, bz);
+						weights[f*3+1] = angle(-ax, -ay, -az, cx, cy, cz);
+						weights[f*3+2] = (float)Math.PI - weights[f*3] - weights[f*3+1];
+					}
+				}
+			}
+		});
+
+		// The corners around each welded position, in compressed row form
+		final int[] start = new int[nPositions+1];
+		for(int c=0; c<nCorners; c++)
+			start[weld[indices[c]]+1]++;
+		for(int p=0; p<nPositions; p++)
+			start[p+1] += start[p];
+		final int[] corners = new int[nCorners];
+		int[] fill = start.clone();
+		for(int c=0; c<nCorners; c++)
+			corners[fill[weld[indices[c]]]++] = c;
+
+		// Sum the weighted normals of the triangles around each position.
+		// Each corner only sums the triangles within the crease angle of
+		// its own triangle.
+		final float[] normals = new float[nCorners*3];
+		Parallel.forRange(nPositions, new Parallel.Range() {
+			public void run(int s, int e)
+			{
+				for(int p=s; p<e; p++)
+				{
+					if(cosCrease < -1)
+					{
+						float x = 0, y = 0, z = 0;
+						for(int i=start[p]; i<start[p+1]; i++)
+						{
+							int c = corners[i], f = c/3;
+							x += weights[c]*faceNormals[f*3];
+							y += weights[c]*faceNormals[f*3+1];
+							z += weights[c]*faceNormals[f*3+2];
+						}
+						float length = (float)Math.sqrt(x*x + y*y + z*z);
+						if(length > 0)
+						{
+							x /= length; y /= length; z /= length;
+						}
+						for(int i=start[p]; i<start[p+1]; i++)
+						{
+							int c = corners[i];
+							normals[c*3] = x;
+							normals[c*3+1] = y;
+							normals[c*3+2] = z;
+						}
+						continue;
+					}
+
+					for(int i=start[p]; i<start[p+1]; i++)
+					{
+						int c = corners[i], f = c/3;
+						float fx = faceNormals[f*3], fy = faceNormals[f*3+1], fz = faceNormals[f*3+2];
+						float x = 0, y = 0, z = 0;
+						for(int j=start[p]; j<start[p+1]; j++)
+						{
+							int c2 = corners[j], f2 = c2/3;
+							float gx = faceNormals[f2*3], gy = faceNormals[f2*3+1], gz = faceNormals[f2*3+2];
+							if(f2 == f || fx*gx + fy*gy + fz*gz >= cosCrease)
+							{
+								x += weights[c2]*gx;
+								y += weights[c2]*gy;
+								z += weights[c2]*gz;
+							}
+						}
+						float length = (float)Math.sqrt(x*x + y*y + z*z);
+						if(length > 0)
+						{
+							x /= length; y /= length; z /= length;
+						}
+						normals[c*3] = x;
+						normals[c*3+1] = y;
+						normals[c*3+2] = z;
+					}
+				}
+			}
+		});
+		return normals;
+	}
+
+	/**
+	 * Map each vertex to a position number, such that vertices with the same
+	 * coordinates get the same number.
+	 *
+	 * @return the number of distinct positions
+	 */
+	static int weld(float[] positions, int stride, int n, int[] weld)
+	{
+		int capacity = Integer.highestOneBit(Math.max(2, n*2-1)) << 1;
+		int[] table = new int[capacity];
+		Arrays.fill(table, -1);
+		int mask = capacity-1;
+		int nPositions = 0;
+		int[] representative = new int[n];
+		for(int v=0; v<n; v++)
+		{
+			// Adding 0 turns -0 into +0, so both hash alike
+			float x = positions[v*stride]+0f, y = positions[v*stride+1]+0f, z = positions[v*stride+2]+0f;
+			int h = Float.floatToIntBits(x);
+			h = h*31 + Float.floatToIntBits(y);
+			h = h*31 + Float.floatToIntBits(z);
+			h ^= h >>> 16;
+			h *= 0x85EBCA6B;
+			h ^= h >>> 13;
+			int slot = h & mask;
+			while(true)
+			{
+				int p = table[slot];
+				if(p == -1)
+				{
+					table[slot] = nPositions;
+					representative[nPositions] = v;
+					weld[v] = nPositions++;
+					break;
+				}
+				int r = representative[p]*stride;
+				if(positions[r] == x && positions[r+1] == y && positions[r+2] == z)
+				{
+					weld[v] = p;
+					break;
+				}
+				slot = (slot+1) & mask;
+			}
+		}
+		return nPositions;
+	}
+
+	/**
+	 * The angle between two vectors.
+	 */
+	static float angle(float ax, float ay, float az, float bx, float by, float bz)
+	{
+		float cx = ay*bz - az*by;
+		float cy = az*bx - ax*bz;
+		float cz = ax*by - ay*bx;
+		return (float)Math.atan2(Math.sqrt(cx*cx + cy*cy + cz*cz), ax*bx + ay*by + az*bz);
+	}
+}
@@ -0,0 +1,880 @@
+package jrtr;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A streaming parser for .obj files. The file is memory-mapped and tokenized
+ * directly on the bytes, numbers are parsed without creating intermediate
+ * strings, and all records are appended to growable primitive arrays. This
+ * avoids the per-line and per-vertex garbage of a line based reader.
+ * <p>
+ * The parser only collects the raw records of the file, i.e., positions,
+ * texture coordinates, normals, and the three corners of each triangle. Use
+ * {@link ObjReader} to turn them into {@link VertexData}. Faces with more
+ * than three corners are triangulated while parsing, using a fan for convex
+ * polygons and ear clipping for concave ones.
+ * <p>
+ * Large files are split into newline-aligned byte ranges that are parsed
+ * in parallel on the common {@link ForkJoinPool}, see {@link Parallel}, so
+ * loading does not start threads of its own. The per-range arrays are then
+ * concatenated, and negative (relative) face indices are fixed up with the
+ * number of records in the preceding ranges.
+ */
+public class ObjParser {
+
+	/**
+	 * Files smaller than this are always parsed on the calling thread.
+	 */
+	private static final int PARALLEL_THRESHOLD = 4 << 20;
+
+	/**
+	 * The smallest byte range handed to a worker thread.
+	 */
+	private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private FloatArrayList positions;
+	private FloatArrayList texCoords;
+	private FloatArrayList normals;
+
+	/**
+	 * Three ints per triangle corner: the 0-based indices of the position,
+	 * the texture coordinate and the normal, or -1 if the corner does not
+	 * reference a texture coordinate or normal.
+	 */
+	private IntArrayList corners;
+
+	/**
+	 * Positions in {@link #corners} that hold a negative .obj index. They
+	 * are resolved relative to the records of this parser only and need to
+	 * be offset when the results of several byte ranges are merged.
+	 */
+	private IntArrayList relativeCorners;
+
+	/**
+	 * Two ints per face with more than three corners: the position of its
+	 * first triangle in {@link #corners} and the number of corners.
+	 */
+	private IntArrayList polygons;
+	private int concavePolygons;
+
+	/**
+	 * The positions in {@link #corners} where a <code>usemtl</code>
+	 * statement switches the material, and the names of the materials.
+	 */
+	private IntArrayList materialStarts;
+	private List<String> materialNames;
+
+	/**
+	 * The files referenced by <code>mtllib</code> statements.
+	 */
+	private List<String> materialLibraries;
+
+	// Scratch space for the triangulation, reused for all polygons
+	private int[] polygonCorners = new int[0];
+	private float[] polygonPoints;
+	private int[] polygonNext, polygonPrev;
+
+	private boolean hasTexCoordIndices, hasNormalIndices;
+
+	// Extents of the positions, used for normalization
+	private float xMin, xMax, yMin, yMax, zMin, zMax;
+
+	// Parser state
+	private ByteBuffer buf;
+	private int pos, end;
+
+	private ObjParser()
+	{
+		positions = new FloatArrayList(3*1024);
+		texCoords = new FloatArrayList(2*1024);
+		normals = new FloatArrayList(3*1024);
+		corners = new IntArrayList(9*1024);
+		relativeCorners = new IntArrayList();
+		polygons = new IntArrayList();
+		materialStarts = new IntArrayList();
+		materialNames = new ArrayList<String>();
+		materialLibraries = new ArrayList<String>();
+
+		hasTexCoordIndices = true;
+		hasNormalIndices = true;
+
+		xMin = Float.MAX_VALUE;
+		xMax = -Float.MAX_VALUE;
+		yMin = Float.MAX_VALUE;
+		yMax = -Float.MAX_VALUE;
+		zMin = Float.MAX_VALUE;
+		zMax = -Float.MAX_VALUE;
+	}
+
+	/**
+	 * Memory-map and parse an .obj file. Files larger than a few megabytes
+	 * are parsed in parallel on the common pool.
+	 *
+	 * @param fileName
+	 * 			the file to read
+	 * @return the parser holding the records of the file
+	 * @throws IOException
+	 */
+	public static ObjParser parse(String fileName) throws IOException
+	{
+		return parse(fileName, ForkJoinPool.getCommonPoolParallelism());
+	}
+
+	/**
+	 * Memory-map and parse an .obj file, splitting it into ranges for the
+	 * given number of threads. The ranges are parsed on the common pool, so
+	 * at most its parallelism is used.
+	 *
+	 * @param fileName
+	 * 			the file to read
+	 * @param parallelism
+	 * 			the number of threads to split the file for, 1 parses on the
+	 * 			calling thread
+	 * @return the parser holding the records of the file
+	 * @throws IOException
+	 */
+	public static ObjParser parse(String fileName, int parallelism) throws IOException
+	{
+		final ByteBuffer buffer = map(fileName);
+		int size = buffer.limit();
+		if(parallelism <= 1 || size < PARALLEL_THRESHOLD)
+		{
+			ObjParser parser = new ObjParser();
+			parser.parse(buffer, 0, size);
+			parser.triangulatePolygons();
+			return parser;
+		}
+
+		// Split into newline-aligned ranges. We use a few more ranges than
+		// threads, since face records take longer to parse than vertices.
+		int nChunks = Math.max(1, Math.min(parallelism*4, size/MIN_CHUNK_SIZE));
+		final int[] bounds = new int[nChunks+1];
+		for(int i=1; i<nChunks; i++)
+		{
+			int b = Math.max(bounds[i-1], (int)((long)size*i/nChunks));
+			while(b < size && buffer.get(b-1) != '\n')
+				b++;
+			bounds[i] = b;
+		}
+		bounds[nChunks] = size;
+
+		final ObjParser[] parsers = new ObjParser[nChunks];
+		final IOException[] errors = new IOException[nChunks];
+		Parallel.forRange(nChunks, 1, new Parallel.Range() {
+			public void run(int start, int end)
+			{
+				for(int i=start; i<end; i++)
+				{
+					try {
+						parsers[i] = new ObjParser();
+						parsers[i].parse(buffer.duplicate(), bounds[i], bounds[i+1]);
+					} catch(IOException e) {
+						errors[i] = e;
+					}
+				}
+			}
+		});
+		for(IOException e : errors)
+		{
+			if(e != null)
+				throw e;
+		}
+
+		ObjParser merged = merge(Arrays.asList(parsers));
+		merged.triangulatePolygons();
+		return merged;
+	}
+
+	/**
+	 * Concatenate the records of parsers that parsed consecutive byte ranges
+	 * of the same file.
+	 */
+	private static ObjParser merge(List<ObjParser> parsers)
+	{
+		int nPositions = 0, nTexCoords = 0, nNormals = 0, nCorners = 0;
+		for(ObjParser p : parsers)
+		{
+			nPositions += p.positions.size();
+			nTexCoords += p.texCoords.size();
+			nNormals += p.normals.size();
+			nCorners += p.corners.size();
+		}
+
+		ObjParser merged = new ObjParser();
+		merged.positions = new FloatArrayList(nPositions);
+		merged.texCoords = new FloatArrayList(nTexCoords);
+		merged.normals = new FloatArrayList(nNormals);
+		merged.corners = new IntArrayList(nCorners);
+		merged.polygons = new IntArrayList();
+
+		for(ObjParser p : parsers)
+		{
+			// Offsets of the records of this range, i.e., the prefix sums
+			// of the record counts of all preceding ranges
+			int[] offsets = {
+				merged.positions.size()/3,
+				merged.texCoords.size()/2,
+				merged.normals.size()/3
+			};
+			int cornerOffset = merged.corners.size();
+
+			merged.positions.addAll(p.positions);
+			merged.texCoords.addAll(p.texCoords);
+			merged.normals.addAll(p.normals);
+			merged.corners.addAll(p.corners);
+
+			// Positive indices are absolute, only relative ones need fixing
+			int[] c = merged.corners.array();
+			int[] r = p.relativeCorners.array();
+			for(int i=0; i<p.relativeCorners.size(); i++)
+				c[cornerOffset + r[i]] += offsets[r[i]%3];
+
+			int[] poly = p.polygons.array();
+			for(int i=0; i<p.polygons.size(); i+=2)
+				merged.polygons.add(poly[i] + cornerOffset, poly[i+1]);
+
+			// Faces at the start of a range that precede its first usemtl
+			// simply continue the material of the previous range
+			int[] m = p.materialStarts.array();
+			for(int i=0; i<p.materialStarts.size(); i++)
+				merged.materialStarts.add(m[i] + cornerOffset);
+			merged.materialNames.addAll(p.materialNames);
+			merged.materialLibraries.addAll(p.materialLibraries);
+
+			merged.hasTexCoordIndices &= p.hasTexCoordIndices;
+			merged.hasNormalIndices &= p.hasNormalIndices;
+			if(p.xMin < merged.xMin) merged.xMin = p.xMin;
+			if(p.xMax > merged.xMax) merged.xMax = p.xMax;
+			if(p.yMin < merged.yMin) merged.yMin = p.yMin;
+			if(p.yMax > merged.yMax) merged.yMax = p.yMax;
+			if(p.zMin < merged.zMin) merged.zMin = p.zMin;
+			if(p.zMax > merged.zMax) merged.zMax = p.zMax;
+		}
+		return merged;
+	}
+
+	/**
+	 * Map a file read-only into memory.
+	 */
+	static MappedByteBuffer map(String fileName) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if(channel.size() > Integer.MAX_VALUE)
+				throw new IOException("File '" + fileName + "' is too large to be mapped (" + channel.size() + " bytes).");
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			// The mapping stays valid after the channel is closed
+			file.close();
+		}
+	}
+
+	/**
+	 * Parse the bytes in the range [start, end) of a buffer. The range needs
+	 * to start at the beginning of a line.
+	 */
+	private void parse(ByteBuffer buffer, int start, int end) throws IOException
+	{
+		this.buf = buffer;
+		this.pos = start;
+		this.end = end;
+
+		while(pos < end)
+		{
+			skipBlanks();
+			if(pos >= end)
+				break;
+
+			int lineStart = pos;
+			byte c0 = buf.get(pos);
+			byte c1 = pos+1 < end ? buf.get(pos+1) : (byte)'\n';
+			if(c0 == 'v' && isBlank(c1))
+			{
+				// Position
+				pos++;
+				float x = parseFloat();
+				float y = parseFloat();
+				float z = parseFloat();
+				positions.add(x, y, z);
+
+				// Update extent
+				if(x < xMin) xMin = x;
+				if(x > xMax) xMax = x;
+				if(y < yMin) yMin = y;
+				if(y > yMax) yMax = y;
+				if(z < zMin) zMin = z;
+				if(z > zMax) zMax = z;
+			}
+			else if(c0 == 'v' && c1 == 'n' && pos+2 < end && isBlank(buf.get(pos+2)))
+			{
+				// Normal
+				pos += 2;
+				float x = parseFloat();
+				float y = parseFloat();
+				float z = parseFloat();
+				normals.add(x, y, z);
+			}
+			else if(c0 == 'v' && c1 == 't' && pos+2 < end && isBlank(buf.get(pos+2)))
+			{
+				// Texture
+				pos += 2;
+				float u = parseFloat();
+				float v = parseFloat();
+				texCoords.add(u, v);
+			}
+			else if(c0 == 'f' && isBlank(c1))
+			{
+				pos++;
+				parseFace(lineStart);
+			}
+			else if(startsWithKeyword(lineStart, "usemtl"))
+			{
+				materialStarts.add(corners.size());
+				materialNames.add(argument(lineStart + 6));
+			}
+			else if(startsWithKeyword(lineStart, "mtllib"))
+			{
+				materialLibraries.add(argument(lineStart + 6));
+			}
+			else if(c0 != '#' && !isNewline(c0))
+			{
+				System.out.print("Unknown token '".concat(lineString(lineStart)).concat("'\n"));
+			}
+			skipLine();
+		}
+		this.buf = null;
+	}
+
+	/**
+	 * Parse the corners of a face. Each corner is of the form v, v/vt, v//vn
+	 * or v/vt/vn. Faces with more than three corners are written as a
+	 * triangle fan right away and remembered in {@link #polygons}, so that
+	 * {@link #triangulatePolygons()} can fix up concave ones once all
+	 * positions are known.
+	 */
+	private void parseFace(int lineStart) throws IOException
+	{
+		int faceStart = corners.size();
+		int nCorners = 0;
+		int v0 = 0, t0 = 0, n0 = 0, r0 = 0;		// First corner
+		int vp = 0, tp = 0, np = 0, rp = 0;		// Previous corner
+		skipBlanks();
+		while(pos < end && !isNewline(buf.get(pos)))
+		{
+			// Bit mask of the relative indices of this corner
+			int relative = 0;
+
+			int index = parseInt();
+			if(index < 0) relative |= 1;
+			int v = resolve(index, positions.size()/3, lineStart);
+			int t = -1;
+			int n = -1;
+			if(pos < end && buf.get(pos) == '/')
+			{
+				pos++;
+				if(pos < end && isDigitOrSign(buf.get(pos)))
+				{
+					index = parseInt();
+					if(index < 0) relative |= 2;
+					t = resolve(index, texCoords.size()/2, lineStart);
+				}
+				if(pos < end && buf.get(pos) == '/')
+				{
+					pos++;
+					if(pos < end && isDigitOrSign(buf.get(pos)))
+					{
+						index = parseInt();
+						if(index < 0) relative |= 4;
+						n = resolve(index, normals.size()/3, lineStart);
+					}
+				}
+			}
+			// Ignore any further components of the corner
+			while(pos < end && !isBlank(buf.get(pos)) && !isNewline(buf.get(pos)))
+				pos++;
+
+			if(t == -1) hasTexCoordIndices = false;
+			if(n == -1) hasNormalIndices = false;
+
+			// Fan triangulation: each corner after the third makes a new
+			// triangle with the first and the previous corner
+			if(nCorners >= 3)
+			{
+				addCorner(v0, t0, n0, r0);
+				addCorner(vp, tp, np, rp);
+			}
+			addCorner(v, t, n, relative);
+
+			if(nCorners == 0)
+			{
+				v0 = v; t0 = t; n0 = n; r0 = relative;
+			}
+			vp = v; tp = t; np = n; rp = relative;
+			nCorners++;
+			skipBlanks();
+		}
+		if(nCorners < 3)
+			throw new IOException("Face with less than three vertices: '" + lineString(lineStart) + "'");
+		if(nCorners > 3)
+			polygons.add(faceStart, nCorners);
+	}
+
+	/**
+	 * Append a corner and remember its relative indices, see
+	 * {@link #relativeCorners}.
+	 */
+	private void addCorner(int v, int t, int n, int relative)
+	{
+		int slot = corners.size();
+		if((relative & 1) != 0) relativeCorners.add(slot);
+		if((relative & 2) != 0) relativeCorners.add(slot+1);
+		if((relative & 4) != 0) relativeCorners.add(slot+2);
+		corners.add(v, t, n);
+	}
+
+	/**
+	 * Convert a 1-based or negative (relative) .obj index into a 0-based
+	 * index. Relative indices are resolved against the records parsed so
+	 * far.
+	 *
+	 * @param count
+	 * 			the number of records of the referenced kind parsed so far
+	 */
+	private int resolve(int index, int count, int lineStart) throws IOException
+	{
+		if(index > 0)
+			return index - 1;
+		if(index < 0)
+			return count + index;
+		throw new IOException("Invalid index 0 in '" + lineString(lineStart) + "'");
+	}
+
+	/**
+	 * Re-triangulate the concave polygons among the fan-triangulated faces
+	 * with more than three corners. Convex polygons keep their fan. Concave
+	 * polygons are triangulated by ear clipping in the plane of the polygon,
+	 * which produces the same number of triangles, so they are written back
+	 * in place.
+	 */
+	private void triangulatePolygons()
+	{
+		int[] c = corners.array();
+		float[] p = positions.array();
+		int[] poly = polygons.array();
+		for(int i=0; i<polygons.size(); i+=2)
+		{
+			int start = poly[i];
+			int n = poly[i+1];
+
+			// Recover the polygon corners from the fan: triangle j consists
+			// of corners 0, j+1 and j+2
+			if(polygonCorners.length < n*3)
+			{
+				polygonCorners = new int[n*3*2];
+				polygonPoints = new float[n*2*2];
+				polygonNext = new int[n*2];
+				polygonPrev = new int[n*2];
+			}
+			for(int k=0; k<n; k++)
+			{
+				int slot = start + (k < 2 ? k*3 : (k-2)*9 + 6);
+				polygonCorners[k*3] = c[slot];
+				polygonCorners[k*3+1] = c[slot+1];
+				polygonCorners[k*3+2] = c[slot+2];
+			}
+
+			// Polygon normal (Newell's method)
+			float nx = 0, ny = 0, nz = 0;
+			for(int k=0; k<n; k++)
+			{
+				int a = polygonCorners[k*3]*3;
+				int b = polygonCorners[((k+1)%n)*3]*3;
+				nx += (p[a+1] - p[b+1])*(p[a+2] + p[b+2]);
+				ny += (p[a+2] - p[b+2])*(p[a] + p[b]);
+				nz += (p[a] - p[b])*(p[a+1] + p[b+1]);
+			}
+
+			// Project onto the coordinate plane most parallel to the
+			// polygon, oriented such that the polygon is counterclockwise
+			int ax = 0, ay = 1;
+			float sign = nz;
+			if(Math.abs(nx) >= Math.abs(ny) && Math.abs(nx) >= Math.abs(nz)) {
+				ax = 1; ay = 2; sign = nx;
+			} else if(Math.abs(ny) >= Math.abs(nz)) {
+				ax = 2; ay = 0; sign = ny;
+			}
+			for(int k=0; k<n; k++)
+			{
+				int a = polygonCorners[k*3]*3;
+				polygonPoints[k*2] = p[a+ax];
+				polygonPoints[k*2+1] = sign < 0 ? -p[a+ay] : p[a+ay];
+			}
+
+			boolean convex = true;
+			for(int k=0; k<n && convex; k++)
+				convex = cross(polygonPoints, (k+n-1)%n, k, (k+1)%n) >= 0;
+			if(convex)
+				continue;
+
+			// Ear clipping
+			concavePolygons++;
+			for(int k=0; k<n; k++)
+			{
+				polygonNext[k] = (k+1)%n;
+				polygonPrev[k] = (k+n-1)%n;
+			}
+			int slot = start;
+			int k = 0;
+			int remaining = n;
+			int tried = 0;
+			while(remaining > 3)
+			{
+				int a = polygonPrev[k], b = polygonNext[k];
+				if(isEar(a, k, b) || tried >= remaining)
+				{
+					// Clip the ear (or give up on finding one, which only
+					// happens for degenerate polygons)
+					slot = writeCorner(c, slot, a);
+					slot = writeCorner(c, slot, k);
+					slot = writeCorner(c, slot, b);
+					polygonNext[a] = b;
+					polygonPrev[b] = a;
+					remaining--;
+					tried = 0;
+					k = a;
+				}
+				else
+				{
+					tried++;
+					k = b;
+				}
+			}
+			slot = writeCorner(c, slot, polygonPrev[k]);
+			slot = writeCorner(c, slot, k);
+			writeCorner(c, slot, polygonNext[k]);
+		}
+	}
+
+	/**
+	 * Check whether the corner b of the remaining polygon forms an ear
+	 * together with its neighbors a and c, i.e., whether it is convex and
+	 * no other remaining corner lies inside the triangle (a, b, c).
+	 */
+	private boolean isEar(int a, int b, int c)
+	{
+		if(cross(polygonPoints, a, b, c) <= 0)
+			return false;
+		for(int k=polygonNext[c]; k!=a; k=polygonNext[k])
+		{
+			if(cross(polygonPoints, a, b, k) >= 0 && cross(polygonPoints, b, c, k) >= 0
+					&& cross(polygonPoints, c, a, k) >= 0)
+				return false;
+		}
+		return true;
+	}
+
+	private int writeCorner(int[] c, int slot, int k)
+	{
+		c[slot] = polygonCorners[k*3];
+		c[slot+1] = polygonCorners[k*3+1];
+		c[slot+2] = polygonCorners[k*3+2];
+		return slot+3;
+	}
+
+	/**
+	 * The z-component of the cross product (p[b]-p[a]) x (p[c]-p[b]) of
+	 * three 2D points.
+	 */
+	private static float cross(float[] p, int a, int b, int c)
+	{
+		float ux = p[b*2] - p[a*2], uy = p[b*2+1] - p[a*2+1];
+		float vx = p[c*2] - p[b*2], vy = p[c*2+1] - p[b*2+1];
+		return ux*vy - uy*vx;
+	}
+
+	private int parseInt() throws IOException
+	{
+		skipBlanks();
+		boolean negative = false;
+		if(pos < end && (buf.get(pos) == '-' || buf.get(pos) == '+'))
+		{
+			negative = buf.get(pos) == '-';
+			pos++;
+		}
+		int start = pos;
+		int value = 0;
+		while(pos < end)
+		{
+			int d = buf.get(pos) - '0';
+			if(d < 0 || d > 9)
+				break;
+			value = value*10 + d;
+			pos++;
+		}
+		if(pos == start)
+			throw new NumberFormatException("Expected an integer at byte " + start);
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parse a decimal floating point number (with optional exponent) at the
+	 * current position. Numbers with up to 18 significant digits and small
+	 * exponents are computed directly, everything else falls back to
+	 * {@link Float#parseFloat(String)}.
+	 */
+	private float parseFloat()
+	{
+		skipBlanks();
+		int start = pos;
+		boolean negative = false;
+		if(pos < end && (buf.get(pos) == '-' || buf.get(pos) == '+'))
+		{
+			negative = buf.get(pos) == '-';
+			pos++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean any = false;
+		byte c;
+		while(pos < end && (c = buf.get(pos)) >= '0' && c <= '9')
+		{
+			if(digits < 18) {
+				mantissa = mantissa*10 + (c - '0');
+				if(mantissa != 0) digits++;
+			} else {
+				exponent++;
+			}
+			any = true;
+			pos++;
+		}
+		if(pos < end && buf.get(pos) == '.')
+		{
+			pos++;
+			while(pos < end && (c = buf.get(pos)) >= '0' && c <= '9')
+			{
+				if(digits < 18) {
+					mantissa = mantissa*10 + (c - '0');
+					if(mantissa != 0) digits++;
+					exponent--;
+				}
+				any = true;
+				pos++;
+			}
+		}
+		if(any && pos < end && (buf.get(pos) == 'e' || buf.get(pos) == 'E'))
+		{
+			pos++;
+			boolean negativeExponent = false;
+			if(pos < end && (buf.get(pos) == '-' || buf.get(pos) == '+'))
+			{
+				negativeExponent = buf.get(pos) == '-';
+				pos++;
+			}
+			int e = 0;
+			while(pos < end && (c = buf.get(pos)) >= '0' && c <= '9')
+			{
+				if(e < 10000)
+					e = e*10 + (c - '0');
+				pos++;
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+
+		if(!any || (pos < end && !isBlank(buf.get(pos)) && !isNewline(buf.get(pos))))
+		{
+			// Something unusual like "nan", "inf" or a malformed number
+			while(pos < end && !isBlank(buf.get(pos)) && !isNewline(buf.get(pos)))
+				pos++;
+			return Float.parseFloat(string(start, pos));
+		}
+
+		double value;
+		if(mantissa == 0)
+			value = 0;
+		else if(exponent >= 0 && exponent < POWERS_OF_TEN.length)
+			value = mantissa * POWERS_OF_TEN[exponent];
+		else if(exponent < 0 && -exponent < POWERS_OF_TEN.length)
+			value = mantissa / POWERS_OF_TEN[-exponent];
+		else
+			return Float.parseFloat(string(start, pos));
+		return (float)(negative ? -value : value);
+	}
+
+	private void skipBlanks()
+	{
+		while(pos < end && isBlank(buf.get(pos)))
+			pos++;
+	}
+
+	private void skipLine()
+	{
+		while(pos < end && buf.get(pos) != '\n')
+			pos++;
+		pos++;
+	}
+
+	private String lineString(int lineStart)
+	{
+		int lineEnd = lineStart;
+		while(lineEnd < end && !isNewline(buf.get(lineEnd)))
+			lineEnd++;
+		return string(lineStart, lineEnd);
+	}
+
+	private String string(int from, int to)
+	{
+		byte[] bytes = new byte[to - from];
+		for(int i=0; i<bytes.length; i++)
+			bytes[i] = buf.get(from + i);
+		return new String(bytes, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Check whether the line at the given position starts with a keyword
+	 * followed by a blank.
+	 */
+	private boolean startsWithKeyword(int lineStart, String keyword)
+	{
+		int n = keyword.length();
+		if(lineStart + n >= end || !isBlank(buf.get(lineStart + n)))
+			return false;
+		for(int i=0; i<n; i++)
+			if(buf.get(lineStart + i) != keyword.charAt(i))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return the rest of the line starting at the given position, without
+	 * 		leading and trailing blanks. Names of materials and material
+	 * 		libraries may contain spaces.
+	 */
+	private String argument(int from)
+	{
+		return lineString(from).trim();
+	}
+
+	private static boolean isBlank(byte c)
+	{
+		return c == ' ' || c == '\t';
+	}
+
+	private static boolean isNewline(byte c)
+	{
+		return c == '\n' || c == '\r';
+	}
+
+	private static boolean isDigitOrSign(byte c)
+	{
+		return (c >= '0' && c <= '9') || c == '-' || c == '+';
+	}
+
+	public FloatArrayList getPositions()
+	{
+		return positions;
+	}
+
+	public FloatArrayList getTexCoords()
+	{
+		return texCoords;
+	}
+
+	public FloatArrayList getNormals()
+	{
+		return normals;
+	}
+
+	/**
+	 * @return three ints (position, texture coordinate and normal index) per
+	 * 		triangle corner
+	 */
+	public IntArrayList getCorners()
+	{
+		return corners;
+	}
+
+	/**
+	 * @return the number of faces with more than three corners that were
+	 * 		split into triangles
+	 */
+	public int getTriangulatedPolygons()
+	{
+		return polygons.size()/2;
+	}
+
+	/**
+	 * @return the number of those faces that were concave and needed ear
+	 * 		clipping
+	 */
+	public int getConcavePolygons()
+	{
+		return concavePolygons;
+	}
+
+	/**
+	 * @return the positions in {@link #getCorners()} where the material
+	 * 		switches, see {@link #getMaterialNames()}
+	 */
+	public IntArrayList getMaterialStarts()
+	{
+		return materialStarts;
+	}
+
+	/**
+	 * @return the material names of the <code>usemtl</code> statements, in
+	 * 		the order of {@link #getMaterialStarts()}
+	 */
+	public List<String> getMaterialNames()
+	{
+		return materialNames;
+	}
+
+	/**
+	 * @return the file names of the <code>mtllib</code> statements
+	 */
+	public List<String> getMaterialLibraries()
+	{
+		return materialLibraries;
+	}
+
+	/**
+	 * @return true if all face corners reference a texture coordinate
+	 */
+	public boolean hasTexCoordIndices()
+	{
+		return hasTexCoordIndices;
+	}
+
+	/**
+	 * @return true if all face corners reference a normal
+	 */
+	public boolean hasNormalIndices()
+	{
+		return hasNormalIndices;
+	}
+
+	/**
+	 * @return the extents of the positions as {xMin, xMax, yMin, yMax, zMin, zMax}
+	 */
+	public float[] getExtents()
+	{
+		return new float[] {xMin, xMax, yMin, yMax, zMin, zMax};
+	}
+}
@@ -1,129 +1,482 @@
 package jrtr;
 
 import java.io.*;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Reads on .obj file including normals and texture coordinates.
+ * Reads on .obj file including normals and texture coordinates. The file
+ * is parsed by the allocation-light {@link ObjParser}.
  */
 public class ObjReader {
 
 	/**
-	 * Read an .obj file and return vertex data.
-	 * 
-	 * @param fileName 
+	 * Whether indexed meshes are reordered for the vertex cache after
+	 * reading, see {@link #setOptimizeMeshes(boolean)}.
+	 */
+	private static volatile boolean optimizeMeshes;
+
+	/**
+	 * Reorder the triangles and vertices of meshes read with
+	 * {@link #readIndexed(String, float, RenderContext)},
+	 * {@link #readIndexedOffHeap(String, float, RenderContext)} and
+	 * {@link #readShapes(String, float, RenderContext, TextureCache)} for the
+	 * vertex cache with {@link MeshOptimizer}. The shapes of a file are
+	 * optimized in parallel. Off by default. {@link MeshCache} rebuilds
+	 * cache files written with the other setting.
+	 */
+	public static void setOptimizeMeshes(boolean optimize)
+	{
+		optimizeMeshes = optimize;
+	}
+
+	public static boolean getOptimizeMeshes()
+	{
+		return optimizeMeshes;
+	}
+
+	/**
+	 * Read an .obj file and return vertex data. Every face corner becomes
+	 * its own vertex, i.e., the returned index array is simply 0, 1, 2, ...
+	 * Use {@link #readIndexed(String, float, RenderContext)} to share
+	 * vertices between faces.
+	 *
+	 * @param fileName
 	 * 			the file to read.
-	 * @param scale 
+	 * @param scale
 	 * 			scales the object to fit into a cube of the given size
 	 * @return vertex data containing the loaded mesh
-	 * 			
+	 *
 	 * @throws IOException
 	 */
-	public static VertexData read(String fileName, float scale, RenderContext renderContext) 
+	public static VertexData read(String fileName, float scale, RenderContext renderContext)
 			throws IOException
 	{
-		BufferedReader reader;
-		ArrayList<float[]> vertices = new ArrayList<float[]>();
-		ArrayList<float[]> texCoords = new ArrayList<float[]>();
-		ArrayList<float[]> normals = new ArrayList<float[]>();
-		ArrayList<int[][]> faces = new ArrayList<int[][]>();
-		
-		boolean hasNormalIndices, hasTexCoordIndices;
-		hasNormalIndices = true;
-		hasTexCoordIndices = true;
-		
-		// Extents for normalization
-		float xMin, xMax, yMin, yMax, zMin, zMax;
-		xMin = Float.MAX_VALUE;
-		xMax = Float.MIN_VALUE;
-		yMin = Float.MAX_VALUE;
-		yMax = Float.MIN_VALUE;
-		zMin = Float.MAX_VALUE;
-		zMax = Float.MIN_VALUE;
-		
-		reader = new BufferedReader(new FileReader(fileName));
-
-		String line = null;
-		while((line = reader.readLine()) != null)
-		{	
-			// Read line
-			String[] s = line.split("\\s+");
-			
-			// Parse
-			if(s[0].compareTo("v")==0)
+		ObjParser parser = ObjParser.parse(fileName);
+		FloatArrayList vertices = parser.getPositions();
+		FloatArrayList texCoords = parser.getTexCoords();
+		FloatArrayList normals = parser.getNormals();
+		IntArrayList corners = parser.getCorners();
+
+		boolean hasNormalIndices = parser.hasNormalIndices();
+		boolean hasTexCoordIndices = parser.hasTexCoordIndices();
+
+		// Normalization
+		float[] normalization = normalization(parser, scale);
+		float xTrans = normalization[0];
+		float yTrans = normalization[1];
+		float zTrans = normalization[2];
+		scale = normalization[3];
+
+		// Brute force approach to generate single index per vertex
+		// Expand arrays
+		int nFaces = corners.size()/9;
+		float[] verticesFinal = new float[nFaces*9];
+		float[] normalsFinal = new float[nFaces*9];
+		float[] texCoordsFinal = new float[nFaces*6];
+		int[] indices = new int[nFaces*3];
+
+		float[] v = vertices.array();
+		float[] t = texCoords.array();
+		float[] n = normals.array();
+		int[] c = corners.array();
+		boolean hasNormals = normals.size()>0;
+		boolean hasTexCoords = texCoords.size()>0;
+
+		// For all face corners
+		for(int vertexNr=0; vertexNr<nFaces*3; vertexNr++)
+		{
+			// Copy positions, tex. coords., and normals to expanded arrays.
+			// Note: the parser already converted the 1-based indices of the
+			// obj file to 0-based indices
+			int vi = c[vertexNr*3];
+			int ti = c[vertexNr*3+1];
+			int ni = c[vertexNr*3+2];
+
+			verticesFinal[vertexNr*3] = scale*(v[vi*3]+xTrans);
+			verticesFinal[vertexNr*3+1] = scale*(v[vi*3+1]+yTrans);
+			verticesFinal[vertexNr*3+2] = scale*(v[vi*3+2]+zTrans);
+
+			if(hasNormals)
+			{
+				int k = hasNormalIndices ? ni : vi;
+				normalsFinal[vertexNr*3] = n[k*3];
+				normalsFinal[vertexNr*3+1] = n[k*3+1];
+				normalsFinal[vertexNr*3+2] = n[k*3+2];
+			}
+
+			if(hasTexCoords)
+			{
+				int k = hasTexCoordIndices ? ti : vi;
+				texCoordsFinal[vertexNr*2] = t[k*2];
+				texCoordsFinal[vertexNr*2+1] = t[k*2+1];
+			}
+
+			indices[vertexNr] = vertexNr;
+		}
+
+		// Make vertex data with loaded vertex attributes
+		VertexData vertexData = renderContext.makeVertexData(nFaces*3);
+		vertexData.addElement(verticesFinal, VertexData.Semantic.POSITION, 3);
+		if(hasNormals)
+			vertexData.addElement(normalsFinal, VertexData.Semantic.NORMAL, 3);
+		if(hasTexCoords)
+			vertexData.addElement(texCoordsFinal, VertexData.Semantic.TEXCOORD, 2);
+		vertexData.addIndices(indices);
+
+		// Generate smooth normals if the file has none
+		if(!hasNormals)
+			vertexData = NormalGenerator.generate(vertexData, renderContext);
+
+		seedBoundingBox(vertexData, parser, normalization);
+		return vertexData;
+	}
+
+	/**
+	 * Read an .obj file and return indexed vertex data. Face corners that
+	 * reference the same position, texture coordinate and normal are merged
+	 * into a single vertex, so the vertex arrays are much smaller than with
+	 * {@link #read(String, float, RenderContext)} and the GPU can reuse
+	 * transformed vertices.
+	 *
+	 * @param fileName
+	 * 			the file to read.
+	 * @param scale
+	 * 			scales the object to fit into a cube of the given size
+	 * @return vertex data containing the loaded mesh
+	 *
+	 * @throws IOException
+	 */
+	public static VertexData readIndexed(String fileName, float scale, RenderContext renderContext)
+			throws IOException
+	{
+		return readIndexed(fileName, scale, renderContext, null);
+	}
+
+	/**
+	 * Read an .obj file and return indexed vertex data, see
+	 * {@link #readIndexed(String, float, RenderContext)}.
+	 *
+	 * @param statistics
+	 * 			if not null, receives the number of corners and vertices and
+	 * 			the memory saved by the deduplication
+	 */
+	public static VertexData readIndexed(String fileName, float scale, RenderContext renderContext,
+			Statistics statistics) throws IOException
+	{
+		ObjParser parser = ObjParser.parse(fileName);
+		IntArrayList ranges = new IntArrayList(2);
+		ranges.add(0, parser.getCorners().size()/3);
+		VertexData vertexData = makeIndexedVertexData(parser, ranges, scale, renderContext, statistics, false);
+		if(optimizeMeshes)
+			MeshOptimizer.optimize(vertexData);
+		seedBoundingBox(vertexData, parser, normalization(parser, scale));
+		return vertexData;
+	}
+
+	/**
+	 * Read an .obj file and return indexed vertex data stored off-heap, see
+	 * {@link #readIndexed(String, float, RenderContext)}. The vertex
+	 * attributes and indices are written into a {@link VertexArena} of the
+	 * vertex data, so they do not occupy the Java heap and are uploaded to
+	 * the GPU without copying. Release the memory with
+	 * {@link VertexData#free()} when the mesh is no longer needed.
+	 */
+	public static VertexData readIndexedOffHeap(String fileName, float scale, RenderContext renderContext)
+			throws IOException
+	{
+		ObjParser parser = ObjParser.parse(fileName);
+		IntArrayList ranges = new IntArrayList(2);
+		ranges.add(0, parser.getCorners().size()/3);
+		VertexData vertexData = makeIndexedVertexData(parser, ranges, scale, renderContext, null, true);
+		if(optimizeMeshes)
+			MeshOptimizer.optimize(vertexData);
+		seedBoundingBox(vertexData, parser, normalization(parser, scale));
+		return vertexData;
+	}
+
+	/**
+	 * Read an .obj file together with its material libraries. The faces are
+	 * grouped by the material selected with <code>usemtl</code>, and each
+	 * group becomes a separate {@link Shape} with indexed vertex data and
+	 * the corresponding {@link Material}. This lets the renderer draw all
+	 * faces of a material in one batch. Faces without a material, or with
+	 * a material that is not defined in any library, get a default material.
+	 * <p>
+	 * All groups are normalized together, i.e., the shapes keep their
+	 * relative placement.
+	 *
+	 * @param fileName
+	 * 			the file to read.
+	 * @param scale
+	 * 			scales the object to fit into a cube of the given size
+	 * @param textures
+	 * 			the cache used to load texture maps, or null to ignore them
+	 * @return one shape per material
+	 *
+	 * @throws IOException
+	 */
+	public static List<Shape> readShapes(String fileName, float scale, RenderContext renderContext,
+			TextureCache textures) throws IOException
+	{
+		ObjParser parser = ObjParser.parse(fileName);
+
+		// Load the material libraries, relative to the .obj file
+		File directory = new File(fileName).getAbsoluteFile().getParentFile();
+		Map<String, Material> materials = new HashMap<String, Material>();
+		for(String library : parser.getMaterialLibraries())
+		{
+			File f = new File(directory, library);
+			if(f.isFile())
+				materials.putAll(MtlReader.read(f.getPath(), textures));
+			else
+				System.out.print("Material library '" + f + "' not found.\n");
+		}
+
+		// Collect the corner ranges of each material. Materials used in
+		// several places of the file are merged into one group.
+		Map<String, IntArrayList> groups = new LinkedHashMap<String, IntArrayList>();
+		int[] starts = parser.getMaterialStarts().array();
+		int nStarts = parser.getMaterialStarts().size();
+		int nCorners = parser.getCorners().size()/3;
+		int from = 0;
+		String name = null;
+		for(int i=0; i<=nStarts; i++)
+		{
+			int to = i < nStarts ? starts[i]/3 : nCorners;
+			if(to > from)
 			{
-				// Position
-				float[] v = new float[3];
-				v[0] = Float.valueOf(s[1]).floatValue();
-				v[1] = Float.valueOf(s[2]).floatValue();
-				v[2] = Float.valueOf(s[3]).floatValue();
-				vertices.add(v);
-				
-				// Update extent
-				if(v[0] < xMin) xMin = v[0];
-				if(v[0] > xMax) xMax = v[0];
-				if(v[1] < yMin) yMin = v[1];
-				if(v[1] > yMax) yMax = v[1];
-				if(v[2] < zMin) zMin = v[2];
-				if(v[2] > zMax) zMax = v[2];
-			} 
-			else if(s[0].compareTo("vn")==0)
+				IntArrayList ranges = groups.get(name);
+				if(ranges == null)
+				{
+					ranges = new IntArrayList(2);
+					groups.put(name, ranges);
+				}
+				ranges.add(from, to);
+			}
+			if(i < nStarts)
 			{
-				// Normal
-				float[] n = new float[3];
-				n[0] = Float.valueOf(s[1]).floatValue();
-				n[1] = Float.valueOf(s[2]).floatValue();
-				n[2] = Float.valueOf(s[3]).floatValue();
-				normals.add(n);
+				from = to;
+				name = parser.getMaterialNames().get(i);
 			}
-			else if(s[0].compareTo("vt")==0)
+		}
+
+		List<Shape> shapes = new ArrayList<Shape>(groups.size());
+		for(Map.Entry<String, IntArrayList> group : groups.entrySet())
+		{
+			Shape shape = new Shape(makeIndexedVertexData(parser, group.getValue(), scale, renderContext, null, false));
+			Material material = materials.get(group.getKey());
+			if(material == null)
 			{
-				// Texture
-				float[] t = new float[2];
-				t[0] = Float.valueOf(s[1]).floatValue();
-				t[1] = Float.valueOf(s[2]).floatValue();
-				texCoords.add(t);
+				if(group.getKey() != null)
+					System.out.print("Unknown material '" + group.getKey() + "'.\n");
+				material = new Material();
+				materials.put(group.getKey(), material);
 			}
-			else if(s[0].compareTo("f")==0)
+			shape.setMaterial(material);
+
+			// Normal maps need a tangent frame per vertex
+			if(material.normalMap != null)
 			{
-				// Indices
-				int[][] indices = new int[3][3];
-				
-				// For all vertices
-				int i=1;
-				while(i < s.length)
-				{	
-					// Get indices for vertex position, tex. coords., and normals
-					String[] ss = s[i].split("/");
-					int k=0;
-					while(k < ss.length)
-					{
-						if(ss[k].length()>0)
-							indices[i-1][k] = Integer.valueOf(ss[k]).intValue();
-						else
-						{
-							indices[i-1][k] = -1;
-							if(k == 1) hasTexCoordIndices = false;
-							if(k == 2) hasNormalIndices = false;
-						}
-						k++;
-					}
-					if(ss.length == 1)
-					{
-						hasTexCoordIndices = false;
-						hasNormalIndices = false;
-					}
-					i++;
+				try {
+					shape.setVertexData(TangentGenerator.generate(shape.getVertexData(), renderContext));
+				} catch(IllegalArgumentException e) {
+					System.out.print("Material '" + group.getKey() + "' has a normal map, but the mesh has no texture coordinates.\n");
 				}
-				faces.add(indices);
 			}
-			else if(s[0].length()>0 && s[0].charAt(0)!='#')
+			shapes.add(shape);
+		}
+
+		if(optimizeMeshes)
+		{
+			List<VertexData> meshes = new ArrayList<VertexData>(shapes.size());
+			for(Shape shape : shapes)
+				meshes.add(shape.getVertexData());
+			MeshOptimizer.optimize(meshes, false);
+		}
+		return shapes;
+	}
+
+	/**
+	 * Build indexed vertex data from the records of a parser. Each distinct
+	 * (position, texture coordinate, normal) index triple is looked up in
+	 * a {@link CornerMap} and becomes one output vertex.
+	 *
+	 * @param ranges
+	 * 			pairs of (first, end) corner numbers to include
+	 * @param offHeap
+	 * 			whether to write the vertex data into native memory
+	 */
+	static VertexData makeIndexedVertexData(ObjParser parser, IntArrayList ranges, float scale,
+			RenderContext renderContext, Statistics statistics, boolean offHeap)
+	{
+		float[] v = parser.getPositions().array();
+		float[] t = parser.getTexCoords().array();
+		float[] n = parser.getNormals().array();
+		int[] c = parser.getCorners().array();
+		int[] r = ranges.array();
+		int nCorners = 0;
+		for(int i=0; i<ranges.size(); i+=2)
+			nCorners += r[i+1] - r[i];
+		boolean hasNormals = parser.getNormals().size()>0;
+		boolean hasTexCoords = parser.getTexCoords().size()>0;
+		boolean hasNormalIndices = parser.hasNormalIndices();
+		boolean hasTexCoordIndices = parser.hasTexCoordIndices();
+
+		float[] normalization = normalization(parser, scale);
+		float xTrans = normalization[0];
+		float yTrans = normalization[1];
+		float zTrans = normalization[2];
+		scale = normalization[3];
+
+		// Assign a vertex number to each distinct index triple. Attributes
+		// that are not used do not take part in the key, so corners only
+		// differing in an ignored index are merged as well.
+		CornerMap map = new CornerMap(Math.min(nCorners, parser.getPositions().size()/3));
+		int[] indices = new int[nCorners];
+		IntArrayList unique = new IntArrayList(Math.min(nCorners, parser.getPositions().size()/3)*3);
+		int k = 0;
+		for(int j=0; j<ranges.size(); j+=2)
+		{
+			for(int i=r[j]; i<r[j+1]; i++)
 			{
-				System.out.print("Unknown token '".concat(line).concat("'\n"));
+				int vi = c[i*3];
+				int ti = hasTexCoords ? (hasTexCoordIndices ? c[i*3+1] : vi) : -1;
+				int ni = hasNormals ? (hasNormalIndices ? c[i*3+2] : vi) : -1;
+				int index = map.getOrAdd(vi, ti, ni);
+				if(index == unique.size()/3)
+					unique.add(vi, ti, ni);
+				indices[k++] = index;
 			}
 		}
 
-		// Normalization
+		// Copy the attributes of the distinct vertices, either into arrays
+		// or directly into native memory
+		int nVertices = map.size();
+		int[] u = unique.array();
+		VertexData vertexData = renderContext.makeVertexData(nVertices);
+		FloatBuffer verticesFinal, normalsFinal = null, texCoordsFinal = null;
+		float[] verticesArray = null, normalsArray = null, texCoordsArray = null;
+		if(offHeap)
+		{
+			verticesFinal = vertexData.allocateElement(VertexData.Semantic.POSITION, 3);
+			if(hasNormals)
+				normalsFinal = vertexData.allocateElement(VertexData.Semantic.NORMAL, 3);
+			if(hasTexCoords)
+				texCoordsFinal = vertexData.allocateElement(VertexData.Semantic.TEXCOORD, 2);
+			vertexData.allocateIndices(nCorners).put(indices);
+		}
+		else
+		{
+			verticesArray = new float[nVertices*3];
+			verticesFinal = FloatBuffer.wrap(verticesArray);
+			if(hasNormals)
+			{
+				normalsArray = new float[nVertices*3];
+				normalsFinal = FloatBuffer.wrap(normalsArray);
+			}
+			if(hasTexCoords)
+			{
+				texCoordsArray = new float[nVertices*2];
+				texCoordsFinal = FloatBuffer.wrap(texCoordsArray);
+			}
+		}
+		for(int i=0; i<nVertices; i++)
+		{
+			int vi = u[i*3];
+			verticesFinal.put(i*3, scale*(v[vi*3]+xTrans));
+			verticesFinal.put(i*3+1, scale*(v[vi*3+1]+yTrans));
+			verticesFinal.put(i*3+2, scale*(v[vi*3+2]+zTrans));
+			if(hasTexCoords)
+			{
+				int ti = u[i*3+1];
+				texCoordsFinal.put(i*2, t[ti*2]);
+				texCoordsFinal.put(i*2+1, t[ti*2+1]);
+			}
+			if(hasNormals)
+			{
+				int ni = u[i*3+2];
+				normalsFinal.put(i*3, n[ni*3]);
+				normalsFinal.put(i*3+1, n[ni*3+1]);
+				normalsFinal.put(i*3+2, n[ni*3+2]);
+			}
+		}
+		if(!offHeap)
+		{
+			vertexData.addElement(verticesArray, VertexData.Semantic.POSITION, 3);
+			if(hasNormals)
+				vertexData.addElement(normalsArray, VertexData.Semantic.NORMAL, 3);
+			if(hasTexCoords)
+				vertexData.addElement(texCoordsArray, VertexData.Semantic.TEXCOORD, 2);
+			vertexData.addIndices(indices);
+		}
+
+		// Generate smooth normals if the file has none. This may split
+		// vertices along creases, in which case the vertex data is copied.
+		if(!hasNormals)
+		{
+			VertexData withNormals = NormalGenerator.generate(vertexData, renderContext);
+			if(withNormals != vertexData)
+				vertexData.free();
+			vertexData = withNormals;
+		}
+
+		if(statistics != null)
+		{
+			statistics.corners = nCorners;
+			statistics.vertices = vertexData.getNumberOfVertices();
+			statistics.bytesPerVertex = 4*(3 + 3 + (hasTexCoords ? 2 : 0));
+			statistics.triangulatedPolygons = parser.getTriangulatedPolygons();
+		}
+		return vertexData;
+	}
+
+	/**
+	 * Give vertex data made from all faces of a file the bounding box of its
+	 * normalized positions, so it need not be computed from the vertices.
+	 * Positions that no face uses may make the box larger than needed.
+	 *
+	 * @param normalization
+	 * 			the translation and scale of the positions, see
+	 * 			{@link #normalization(ObjParser, float)}
+	 */
+	private static void seedBoundingBox(VertexData vertexData, ObjParser parser, float[] normalization)
+	{
+		if(vertexData.getNumberOfVertices() == 0)
+			return;
+		float[] extents = parser.getExtents();
+		float scale = normalization[3];
+		float[] box = new float[6];
+		for(int j=0; j<3; j++)
+		{
+			// The same expressions as for the vertices, so the rounding
+			// cannot move them out of the box
+			float a = scale*(extents[2*j]+normalization[j]);
+			float b = scale*(extents[2*j+1]+normalization[j]);
+			box[j] = Math.min(a, b);
+			box[j+3] = Math.max(a, b);
+		}
+		vertexData.setBoundingBox(box);
+	}
+
+	/**
+	 * Compute the translation and the scale factor that center the mesh at
+	 * the origin and fit it into a cube of the given size.
+	 *
+	 * @return {xTrans, yTrans, zTrans, scale}
+	 */
+	private static float[] normalization(ObjParser parser, float scale)
+	{
+		// Extents for normalization
+		float[] extents = parser.getExtents();
+		float xMin = extents[0], xMax = extents[1];
+		float yMin = extents[2], yMax = extents[3];
+		float zMin = extents[4], zMax = extents[5];
+
 		float xTrans = -(xMax+xMin)/2;
 		float yTrans = -(yMax+yMin)/2;
 		float zTrans = -(zMax+zMin)/2;
@@ -133,72 +486,57 @@ public class ObjReader {
 		float s = yScale;
 		if(xScale < yScale) s = xScale;
 		if(zScale < s) s = zScale;
-		scale = s*scale;
-		
-		// Brute force approach to generate single index per vertex
-		// Expand arrays
-		int nFaces = faces.size();
-		float[] verticesFinal = new float[nFaces*9];
-		float[] normalsFinal = new float[nFaces*9];
-		float[] texCoordsFinal = new float[nFaces*6];
-		int[] indices = new int[nFaces*3];
-		
-		// For all faces
-		int vertexNr = 0;
-		for(int i=0; i<nFaces; i++)
+		return new float[] {xTrans, yTrans, zTrans, s*scale};
+	}
+
+	/**
+	 * Reports how much an indexed import saved compared to expanding every
+	 * face corner into its own vertex.
+	 */
+	public static class Statistics {
+
+		/**
+		 * The number of face corners, i.e., three times the number of triangles.
+		 */
+		public int corners;
+
+		/**
+		 * The number of distinct vertices after deduplication.
+		 */
+		public int vertices;
+
+		/**
+		 * The size of one vertex with all its attributes in bytes.
+		 */
+		public int bytesPerVertex;
+
+		/**
+		 * The number of faces with more than three corners that were split
+		 * into triangles.
+		 */
+		public int triangulatedPolygons;
+
+		/**
+		 * @return the average number of corners sharing one vertex
+		 */
+		public float getDeduplicationRatio()
 		{
-			// For all vertices
-			for(int j=0; j<3; j++)
-			{
-				// Copy positions, tex. coords., and normals to expanded arrays
-				// Note: we subtract one from the index because indexing in the obj
-				// file is 1-based, whereas our arrays are 0-based
-				verticesFinal[vertexNr*3] = vertices.get(faces.get(i)[j][0]-1)[0];
-				verticesFinal[vertexNr*3+1] = vertices.get(faces.get(i)[j][0]-1)[1];
-				verticesFinal[vertexNr*3+2] = vertices.get(faces.get(i)[j][0]-1)[2];
-				
-				verticesFinal[vertexNr*3] = scale*(verticesFinal[vertexNr*3]+xTrans);
-				verticesFinal[vertexNr*3+1] = scale*(verticesFinal[vertexNr*3+1]+yTrans);
-				verticesFinal[vertexNr*3+2] = scale*(verticesFinal[vertexNr*3+2]+zTrans);
-				
-				if(hasNormalIndices)
-				{
-					normalsFinal[vertexNr*3] = normals.get(faces.get(i)[j][2]-1)[0];
-					normalsFinal[vertexNr*3+1] = normals.get(faces.get(i)[j][2]-1)[1];
-					normalsFinal[vertexNr*3+2] = normals.get(faces.get(i)[j][2]-1)[2];
-				} else if(normals.size()>0)
-				{
-					normalsFinal[vertexNr*3] = normals.get(faces.get(i)[j][0]-1)[0];
-					normalsFinal[vertexNr*3+1] = normals.get(faces.get(i)[j][0]-1)[1];
-					normalsFinal[vertexNr*3+2] = normals.get(faces.get(i)[j][0]-1)[2];
-				}
-				
-				if(hasTexCoordIndices)
-				{
-					texCoordsFinal[vertexNr*2] = texCoords.get(faces.get(i)[j][1]-1)[0];
-					texCoordsFinal[vertexNr*2+1] = texCoords.get(faces.get(i)[j][1]-1)[1];
-				} else if(texCoords.size()>0)
-				{
-					texCoordsFinal[vertexNr*2] = texCoords.get(faces.get(i)[j][0]-1)[0];
-					texCoordsFinal[vertexNr*2+1] = texCoords.get(faces.get(i)[j][0]-1)[1];
-				}
-				
-				indices[vertexNr] = vertexNr;
-				vertexNr++;
-			}								
+			return vertices > 0 ? corners/(float)vertices : 0;
+		}
+
+		/**
+		 * @return the number of vertex attribute bytes saved by the
+		 * 		deduplication
+		 */
+		public long getBytesSaved()
+		{
+			return (long)(corners - vertices)*bytesPerVertex;
+		}
+
+		public String toString()
+		{
+			return String.format("%d corners -> %d vertices (ratio %.2f), %d KB of vertex data saved, %d polygons triangulated",
+					corners, vertices, getDeduplicationRatio(), getBytesSaved()/1024, triangulatedPolygons);
 		}
-		
-		// Make vertex data with loaded vertex attributes
-		VertexData vertexData = renderContext.makeVertexData(nFaces*3);
-		vertexData.addElement(verticesFinal, VertexData.Semantic.POSITION, 3);
-		if(normals.size()>0)
-			vertexData.addElement(normalsFinal, VertexData.Semantic.NORMAL, 3);
-		if(texCoords.size()>0)
-			vertexData.addElement(texCoordsFinal, VertexData.Semantic.TEXCOORD, 2);
-		vertexData.addIndices(indices);
-		
-		reader.close();		
-		return vertexData;			
 	}
 }
- 
\ No newline at end of file
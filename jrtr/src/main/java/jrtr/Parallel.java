@@ -0,0 +1,73 @@
+package jrtr;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A minimal parallel for loop on the common {@link ForkJoinPool}, used by
+ * the mesh processing code to split loops over triangles or vertices into
+ * ranges.
+ */
+class Parallel {
+
+	/**
+	 * The body of a parallel loop, called with consecutive ranges
+	 * <code>[start, end)</code> of the iteration space.
+	 */
+	interface Range {
+		void run(int start, int end);
+	}
+
+	/**
+	 * Loops with fewer iterations than this run on the calling thread.
+	 */
+	static final int GRAIN = 1 << 13;
+
+	/**
+	 * Run a loop over <code>[0, n)</code>. The ranges are processed in
+	 * parallel, so the body may only write to disjoint data.
+	 */
+	static void forRange(int n, Range body)
+	{
+		forRange(n, GRAIN, body);
+	}
+
+	/**
+	 * Run a loop over <code>[0, n)</code>, splitting it into ranges of at
+	 * least <code>grain</code> iterations.
+	 */
+	static void forRange(int n, int grain, Range body)
+	{
+		if(n <= grain || ForkJoinPool.getCommonPoolParallelism() <= 1)
+			body.run(0, n);
+		else
+			ForkJoinPool.commonPool().invoke(new Task(body, 0, n, Math.max(1, grain)));
+	}
+
+	private static class Task extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Range body;
+		private final int start, end, grain;
+
+		Task(Range body, int start, int end, int grain)
+		{
+			this.body = body;
+			this.start = start;
+			this.end = end;
+			this.grain = grain;
+		}
+
+		protected void compute()
+		{
+			if(end - start <= grain)
+			{
+				body.run(start, end);
+				return;
+			}
+			int mid = (start + end) >>> 1;
+			invokeAll(new Task(body, start, mid, grain), new Task(body, mid, end, grain));
+		}
+	}
+}
@@ -6,14 +6,22 @@ import javax.vecmath.*;
  * A data structure that contains a reference to a 3D object 
  * of class {@label Shape} and its transformation {@link Matrix4f}.
  * Its purpose is to pass data from the scene manager to the 
- * renderer via the {@link SceneManagerIterator}.
+ * renderer via the {@link SceneManagerIterator}. The render item
+ * also names the vertex data to draw, which is the level of detail
+ * of the shape the scene manager picked.
  */
 public class RenderItem {
 
 	public RenderItem(Shape shape, Matrix4f t)
+	{
+		this(shape, t, shape.getVertexData());
+	}
+	
+	public RenderItem(Shape shape, Matrix4f t, VertexData vertexData)
 	{
 		this.shape = shape;
 		this.t = t;
+		this.vertexData = vertexData;
 	}
 	
 	public Shape getShape()
@@ -26,6 +34,16 @@ public class RenderItem {
 		return t;
 	}
 	
+	/**
+	 * @return the vertex data to draw, the full vertex data of the shape
+	 * 		or one of its levels of detail
+	 */
+	public VertexData getVertexData()
+	{
+		return vertexData;
+	}
+	
 	private Shape shape;
 	private Matrix4f t;
+	private VertexData vertexData;
 }
@@ -1,4 +1,7 @@
 package jrtr;
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.vecmath.*;
 
 /**
@@ -11,6 +14,14 @@ public class Shape {
 	private Material material;
 	private VertexData vertexData;
 	private Matrix4f t;
+	private List<VertexData> levelsOfDetail;
+	
+	// The bounds in world coordinates, and the transformation and object
+	// bounds they were computed from
+	private float[] worldBox;
+	private Vector4f worldSphere;
+	private Matrix4f worldT;
+	private float[] objectBox;
 	
 	/**
 	 * Make a shape from {@link VertexData}. A shape contains the geometry 
@@ -27,6 +38,7 @@ public class Shape {
 		t.setIdentity();
 		
 		material = null;
+		levelsOfDetail = new ArrayList<VertexData>();
 	}
 	
 	public VertexData getVertexData()
@@ -34,6 +46,134 @@ public class Shape {
 		return vertexData;
 	}
 	
+	/**
+	 * Replace the geometry of the shape, for example with the refinement of
+	 * an {@link AdaptiveSubdivision} after the camera moved.
+	 */
+	public void setVertexData(VertexData vertexData)
+	{
+		this.vertexData = vertexData;
+	}
+	
+	/**
+	 * Set simplified versions of the vertex data, which scene managers draw
+	 * instead of the full vertex data when the shape covers only a small
+	 * part of the screen.
+	 * 
+	 * @param levels
+	 * 		the simplified vertex data in order of decreasing detail, for
+	 * 		example made with {@link MeshSimplifier}
+	 */
+	public void setLevelsOfDetail(List<VertexData> levels)
+	{
+		levelsOfDetail = new ArrayList<VertexData>(levels);
+	}
+	
+	/**
+	 * @return the number of levels of detail, including the full vertex
+	 * 		data
+	 */
+	public int getNumberOfLevelsOfDetail()
+	{
+		return 1 + levelsOfDetail.size();
+	}
+	
+	/**
+	 * @param level
+	 * 		the level of detail, 0 for the full vertex data
+	 */
+	public VertexData getLevelOfDetail(int level)
+	{
+		return level == 0 ? vertexData : levelsOfDetail.get(level-1);
+	}
+	
+	/**
+	 * @return the center (x, y, z) and radius (w) of a sphere around the
+	 * 		vertices in object coordinates, or null if the vertex data has
+	 * 		no bounds, see {@link VertexData#getBoundingSphere()}
+	 */
+	public Vector4f getBoundingSphere()
+	{
+		return vertexData.getBoundingSphere();
+	}
+	
+	/**
+	 * The axis-aligned box around the bounding box of the vertex data
+	 * transformed to world coordinates. It is computed again only when the
+	 * transformation or the positions changed since the last call, which
+	 * includes changes made to the matrix in place.
+	 * 
+	 * @return {min x, min y, min z, max x, max y, max z}, or null if the
+	 * 		vertex data has no bounds. The array belongs to the shape and
+	 * 		must not be modified.
+	 */
+	public float[] getWorldBoundingBox()
+	{
+		updateWorldBounds();
+		return worldBox;
+	}
+	
+	/**
+	 * @return a sphere around the vertices in world coordinates, the
+	 * 		transformed bounding sphere of the vertex data with its radius
+	 * 		scaled by the largest scale of the transformation, or null if
+	 * 		the vertex data has no bounds. It is cached like
+	 * 		{@link #getWorldBoundingBox()}.
+	 */
+	public Vector4f getWorldBoundingSphere()
+	{
+		updateWorldBounds();
+		return worldSphere != null ? new Vector4f(worldSphere) : null;
+	}
+	
+	private void updateWorldBounds()
+	{
+		// The vertex data makes a new box whenever it computes its bounds
+		float[] box = vertexData.boundingBox();
+		if(box == objectBox && worldT != null && worldT.equals(t))
+			return;
+		objectBox = box;
+		if(worldT == null)
+			worldT = new Matrix4f();
+		worldT.set(t);
+		if(box == null)
+		{
+			worldBox = null;
+			worldSphere = null;
+			return;
+		}
+		
+		// The center of the box, and its half extents through the absolute
+		// values of the matrix
+		float[] b = new float[6];
+		for(int i=0; i<3; i++)
+		{
+			float c = t.getElement(i, 3), e = 0;
+			for(int j=0; j<3; j++)
+			{
+				float m = t.getElement(i, j);
+				c += m * (box[j]+box[j+3])/2;
+				e += Math.abs(m) * (box[j+3]-box[j])/2;
+			}
+			b[i] = c - e;
+			b[i+3] = c + e;
+		}
+		worldBox = b;
+		
+		Vector4f sphere = vertexData.getBoundingSphere();
+		float r = sphere.w;
+		sphere.w = 1;
+		t.transform(sphere);
+		float scale = 0;
+		for(int j=0; j<3; j++)
+		{
+			float x = t.getElement(0, j), y = t.getElement(1, j), z = t.getElement(2, j);
+			scale = Math.max(scale, x*x + y*y + z*z);
+		}
+		sphere.w = r * (float)Math.sqrt(scale);
+		worldSphere = sphere;
+	}
+	
 	public void setTransformation(Matrix4f t)
 	{
 		this.t = t;
@@ -4,8 +4,14 @@ import java.util.LinkedList;
 import java.util.ListIterator;
 import java.util.Iterator;
 
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Point3f;
+import javax.vecmath.Vector4f;
+
 /**
  * A simple scene manager that stores objects and lights in linked lists.
+ * For shapes with levels of detail, it picks the level from the size of
+ * the shape on the screen.
  */
 public class SimpleSceneManager implements SceneManagerInterface {
 
@@ -13,6 +19,7 @@ public class SimpleSceneManager implements SceneManagerInterface {
 	private LinkedList<Light> lights;
 	private Camera camera;
 	private Frustum frustum;
+	private float lodThreshold;
 	
 	public SimpleSceneManager()
 	{
@@ -20,6 +27,7 @@ public class SimpleSceneManager implements SceneManagerInterface {
 		lights = new LinkedList<Light>();
 		camera = new Camera();
 		frustum = new Frustum();
+		lodThreshold = 0.5f;
 	}
 	
 	public Camera getCamera()
@@ -52,6 +60,66 @@ public class SimpleSceneManager implements SceneManagerInterface {
 		return new SimpleSceneManagerItr(this);
 	}
 	
+	/**
+	 * Set the projected size from which on shapes are drawn with full
+	 * detail. The projected size of a shape is the radius of its bounding
+	 * sphere on the screen, relative to half the height of the viewport.
+	 * Smaller shapes need fewer triangles for the same triangle size on the
+	 * screen, in proportion to their projected area, and are drawn with the
+	 * coarsest level of detail that still has that many triangles.
+	 */
+	public void setLodThreshold(float lodThreshold)
+	{
+		this.lodThreshold = lodThreshold;
+	}
+	
+	public float getLodThreshold()
+	{
+		return lodThreshold;
+	}
+	
+	/**
+	 * Pick the level of detail of a shape from its projected size, see
+	 * {@link #setLodThreshold(float)}. Other scene managers use this too.
+	 */
+	static VertexData selectLevelOfDetail(Shape shape, Matrix4f t, Camera camera, Frustum frustum, float lodThreshold)
+	{
+		if(shape.getNumberOfLevelsOfDetail() == 1)
+			return shape.getVertexData();
+		Vector4f sphere = shape.getBoundingSphere();
+		if(sphere == null)
+			return shape.getVertexData();
+		
+		Matrix4f modelview = new Matrix4f(camera.getCameraMatrix());
+		modelview.mul(t);
+		Point3f center = new Point3f(sphere.x, sphere.y, sphere.z);
+		modelview.transform(center);
+		// The radius grows with the largest scale factor of the transformation
+		float scale = 0;
+		for(int j=0; j<3; j++)
+		{
+			float x = modelview.getElement(0, j), y = modelview.getElement(1, j), z = modelview.getElement(2, j);
+			scale = Math.max(scale, x*x + y*y + z*z);
+		}
+		float radius = sphere.w * (float)Math.sqrt(scale);
+		float distance = -center.z;
+		if(distance <= radius)
+			return shape.getVertexData();
+		
+		float size = radius * frustum.getProjectionMatrix().m11 / distance;
+		float fraction = (size / lodThreshold) * (size / lodThreshold);
+		float needed = fraction * shape.getVertexData().getNumberOfIndices();
+		VertexData level = shape.getVertexData();
+		for(int i=1; i<shape.getNumberOfLevelsOfDetail(); i++)
+		{
+			VertexData coarser = shape.getLevelOfDetail(i);
+			if(coarser.getNumberOfIndices() < needed)
+				break;
+			level = coarser;
+		}
+		return level;
+	}
+	
 	private class SimpleSceneManagerItr implements SceneManagerIterator {
 		
 		public SimpleSceneManagerItr(SimpleSceneManager sceneManager)
@@ -71,7 +139,8 @@ public class SimpleSceneManager implements SceneManagerInterface {
 			// transformation matrix of the shape. More sophisticated 
 			// scene managers will set the transformation for the 
 			// RenderItem differently.
-			return new RenderItem(shape, shape.getTransformation());
+			Matrix4f t = shape.getTransformation();
+			return new RenderItem(shape, t, selectLevelOfDetail(shape, t, camera, frustum, lodThreshold));
 		}
 		
 		ListIterator<Shape> itr;
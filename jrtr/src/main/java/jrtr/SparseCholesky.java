@@ -0,0 +1,1407 @@
+package jrtr;
+
+import java.util.Arrays;
+
+/**
+ * The Cholesky factorization A = L L^T of a sparse symmetric positive
+ * definite matrix, for solving linear systems with A many times, like the
+ * Laplace and heat equations on meshes in {@link HeatGeodesics}.
+ * <p>
+ * The rows and columns are first reordered to keep L sparse. Two orderings
+ * are computed and the one with fewer nonzeros in L is used: approximate
+ * minimum degree ("An Approximate Minimum Degree Ordering Algorithm",
+ * Amestoy, Davis and Duff 1996), which usually wins on small and irregular
+ * meshes, and nested dissection, where a breadth-first search through the
+ * graph of the matrix picks a level of it as separator between the levels
+ * before and after it, which are ordered first, recursively, so their
+ * columns of L do not fill in across the separator.
+ * <p>
+ * Columns of L with the same nonzero pattern below the diagonal are grouped
+ * into supernodes, whose columns are stored as one dense block with the row
+ * indices stored once. Small supernodes are merged with their parents even
+ * if that stores some zeros. The factorization computes one supernode at a
+ * time from the supernodes below it in the elimination tree, and the
+ * triangular solves run through the blocks four columns at a time, so the
+ * inner loops of both run over consecutive memory ("Direct Methods for Sparse
+ * Linear Systems", Davis 2006, and CHOLMOD, Chen et al. 2008).
+ * <p>
+ * The ordering and the nonzero pattern of L only depend on the nonzero
+ * pattern of A, so factorizations of matrices with the same pattern, like
+ * the same mesh operator with other weights, share them (see
+ * {@link #SparseCholesky(SparseCholesky, double[])}). Solving takes time
+ * linear in the nonzeros of L and may run on several threads at once.
+ */
+public class SparseCholesky {
+
+	/**
+	 * Subsets of the graph with at most this many vertices are not
+	 * dissected further.
+	 */
+	private static final int LEAF = 32;
+
+	/**
+	 * Supernodes of at most RELAX[i] columns are merged with their parent
+	 * if at most the fraction ZEROS[i] of the entries of the merged
+	 * supernode are zeros, the defaults of CHOLMOD.
+	 */
+	private static final int[] RELAX = {4, 16, 48, Integer.MAX_VALUE};
+	private static final double[] ZEROS = {1, 0.8, 0.1, 0.05};
+
+	private final int n;
+
+	// The permutation: perm[k] is the row of A that is row k of L
+	private final int[] perm;
+
+	// The lower triangle of the permuted matrix by columns, and for each
+	// entry of A its entry there, or -1 for the upper triangle
+	private final int[] ap;
+	private final int[] ai;
+	private final int[] map;
+
+	// The supernodes: the first column of each, the supernode of each
+	// column, and the rows of each, sorted, starting with its own columns
+	private final int nSuper;
+	private final int[] superStart;
+	private final int[] columnSuper;
+	private final int[] rowStart;
+	private final int[] rowIndices;
+	private final int maxRows;
+
+	// The columns of each supernode as a dense block, column by column
+	private final int[] valueStart;
+	private final double[] lx;
+
+	/**
+	 * Factor a matrix.
+	 *
+	 * @param n
+	 * 		the number of rows and columns
+	 * @param columnStarts
+	 * 		the start of each column in rows and values, and the number of
+	 * 		entries at index n
+	 * @param rows
+	 * 		the row of each entry. Both triangles of the matrix are given,
+	 * 		entries with the same row and column are summed.
+	 * @param values
+	 * 		the value of each entry
+	 * @throws IllegalArgumentException
+	 * 		if the matrix is not positive definite
+	 */
+	public SparseCholesky(int n, int[] columnStarts, int[] rows, double[] values)
+	{
+		this.n = n;
+
+		// Keep the ordering with less fill
+		int[] order = null, parent = null, counts = null;
+		long fill = Long.MAX_VALUE;
+		for(int[] o : new int[][] {minimumDegree(n, columnStarts, rows), nestedDissection(n, columnStarts, rows)})
+		{
+			int[] pinv = inverse(o);
+			int[] cp = new int[n+1];
+			int[] ci = upperTriangle(n, columnStarts, rows, pinv, cp);
+			int[] t = eliminationTree(n, cp, ci);
+			int[] c = columnCounts(n, cp, ci, t);
+			long f = 0;
+			for(int k=0; k<n; k++)
+				f += c[k];
+			if(f < fill)
+			{
+				order = o;
+				parent = t;
+				counts = c;
+				fill = f;
+			}
+		}
+
+		// Postorder the elimination tree, so the columns of each subtree,
+		// and those of each supernode, are consecutive
+		int[] post = postorder(n, parent);
+		int[] postInv = inverse(post);
+		perm = new int[n];
+		int[] postParent = new int[n], postCounts = new int[n];
+		for(int k=0; k<n; k++)
+		{
+			perm[k] = order[post[k]];
+			int p = parent[post[k]];
+			postParent[k] = p != -1 ? postInv[p] : -1;
+			postCounts[k] = counts[post[k]];
+		}
+		parent = postParent;
+		counts = postCounts;
+		int[] pinv = inverse(perm);
+
+		// The lower triangle of the permuted matrix
+		int nnz = columnStarts[n];
+		ap = new int[n+1];
+		map = new int[nnz];
+		for(int j=0; j<n; j++)
+		{
+			for(int p=columnStarts[j]; p<columnStarts[j+1]; p++)
+			{
+				if(pinv[rows[p]] >= pinv[j])
+					ap[pinv[j]+1]++;
+			}
+		}
+		for(int k=0; k<n; k++)
+			ap[k+1] += ap[k];
+		ai = new int[ap[n]];
+		int[] next = Arrays.copyOf(ap, n);
+		for(int j=0; j<n; j++)
+		{
+			for(int p=columnStarts[j]; p<columnStarts[j+1]; p++)
+			{
+				int i = pinv[rows[p]], k = pinv[j];
+				if(i >= k)
+				{
+					map[p] = next[k]++;
+					ai[map[p]] = i;
+				}
+				else
+					map[p] = -1;
+			}
+		}
+
+		// Fundamental supernodes: chains of columns where each column is the
+		// only child of the next one and has one more nonzero
+		int[] children = new int[n];
+		for(int j=0; j<n; j++)
+		{
+			if(parent[j] != -1)
+				children[parent[j]]++;
+		}
+		IntArrayList starts = new IntArrayList();
+		for(int j=0; j<n; j++)
+		{
+			if(j == 0 || parent[j-1] != j || counts[j-1] != counts[j]+1 || children[j] != 1)
+				starts.add(j);
+		}
+		starts.add(n);
+		int[] fundamental = starts.toArray();
+		superStart = relax(fundamental, parent, counts);
+		nSuper = superStart.length-1;
+		columnSuper = new int[n];
+		for(int s=0; s<nSuper; s++)
+			Arrays.fill(columnSuper, superStart[s], superStart[s+1], s);
+
+		// The rows of a supernode are its columns, the rows of the matrix
+		// in its columns, and the rows of its children below their columns
+		int[] superParent = new int[nSuper];
+		int[] childStart = new int[nSuper+1];
+		for(int s=0; s<nSuper; s++)
+		{
+			int p = parent[superStart[s+1]-1];
+			superParent[s] = p != -1 ? columnSuper[p] : -1;
+			if(p != -1)
+				childStart[superParent[s]+1]++;
+		}
+		for(int s=0; s<nSuper; s++)
+			childStart[s+1] += childStart[s];
+		int[] childList = new int[childStart[nSuper]];
+		next = Arrays.copyOf(childStart, nSuper);
+		for(int s=0; s<nSuper; s++)
+		{
+			if(superParent[s] != -1)
+				childList[next[superParent[s]]++] = s;
+		}
+		rowStart = new int[nSuper+1];
+		valueStart = new int[nSuper+1];
+		IntArrayList rowList = new IntArrayList();
+		int[] mark = new int[n];
+		Arrays.fill(mark, -1);
+		int largest = 0;
+		long entries = 0;
+		for(int s=0; s<nSuper; s++)
+		{
+			int f = superStart[s], l = superStart[s+1];
+			int start = rowList.size();
+			for(int j=f; j<l; j++)
+			{
+				rowList.add(j);
+				mark[j] = s;
+			}
+			for(int j=f; j<l; j++)
+			{
+				for(int p=ap[j]; p<ap[j+1]; p++)
+					add(ai[p], s, mark, rowList);
+			}
+			for(int c=childStart[s]; c<childStart[s+1]; c++)
+			{
+				int child = childList[c];
+				int ns = superStart[child+1] - superStart[child];
+				for(int p=rowStart[child]+ns; p<rowStart[child+1]; p++)
+					add(rowList.get(p), s, mark, rowList);
+			}
+			int m = rowList.size() - start;
+			Arrays.sort(rowList.array(), start + l-f, start + m);
+			rowStart[s+1] = rowList.size();
+			largest = Math.max(largest, m);
+			entries += (long)m*(l-f);
+			if(entries > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Factor is too large: more than " + Integer.MAX_VALUE + " entries");
+			valueStart[s+1] = (int)entries;
+		}
+		rowIndices = rowList.toArray();
+		maxRows = largest;
+		lx = new double[valueStart[nSuper]];
+		factor(values);
+	}
+
+	/**
+	 * Factor a matrix with the same nonzero pattern as a factored one,
+	 * reusing its ordering and the pattern of L.
+	 *
+	 * @param values
+	 * 		the values of the entries, in the order of the matrix given to
+	 * 		the factored one
+	 * @throws IllegalArgumentException
+	 * 		if the matrix is not positive definite
+	 */
+	public SparseCholesky(SparseCholesky pattern, double[] values)
+	{
+		n = pattern.n;
+		perm = pattern.perm;
+		ap = pattern.ap;
+		ai = pattern.ai;
+		map = pattern.map;
+		nSuper = pattern.nSuper;
+		superStart = pattern.superStart;
+		columnSuper = pattern.columnSuper;
+		rowStart = pattern.rowStart;
+		rowIndices = pattern.rowIndices;
+		maxRows = pattern.maxRows;
+		valueStart = pattern.valueStart;
+		lx = new double[valueStart[nSuper]];
+		factor(values);
+	}
+
+	/**
+	 * @return the number of entries of L that are stored, including the
+	 * 		zeros in merged supernodes
+	 */
+	public int getNumberOfNonzeros()
+	{
+		int nnz = 0;
+		for(int s=0; s<nSuper; s++)
+		{
+			int ns = superStart[s+1] - superStart[s];
+			nnz += (rowStart[s+1] - rowStart[s])*ns - ns*(ns-1)/2;
+		}
+		return nnz;
+	}
+
+	/**
+	 * Solve A x = b.
+	 *
+	 * @param b
+	 * 		the right-hand side, which is not changed
+	 * @param x
+	 * 		receives the solution, it may be b
+	 */
+	public void solve(double[] b, double[] x)
+	{
+		double[] y = new double[n];
+		double[] t = new double[maxRows];
+		for(int k=0; k<n; k++)
+			y[k] = b[perm[k]];
+
+		// L y' = y: copy the rows of each supernode to t, subtract four
+		// columns at a time from the rows below them, and subtract the rows
+		// below the supernode from y
+		for(int s=0; s<nSuper; s++)
+		{
+			int f = superStart[s], ns = superStart[s+1]-f;
+			int r = rowStart[s], m = rowStart[s+1]-r, v = valueStart[s];
+			System.arraycopy(y, f, t, 0, ns);
+			Arrays.fill(t, ns, m, 0);
+			for(int j=0; j<ns; j+=4)
+			{
+				int c = v + j*m, w = Math.min(4, ns-j);
+				for(int k=0; k<w; k++)
+				{
+					int ck = c + k*m;
+					double tk = t[j+k] / lx[ck+j+k];
+					t[j+k] = tk;
+					for(int i=j+k+1; i<j+w; i++)
+						t[i] -= lx[ck+i] * tk;
+				}
+				if(w == 4)
+				{
+					int c1 = c+m, c2 = c1+m, c3 = c2+m;
+					double t0 = t[j], t1 = t[j+1], t2 = t[j+2], t3 = t[j+3];
+					for(int i=j+4; i<m; i++)
+						t[i] -= lx[c+i]*t0 + lx[c1+i]*t1 + lx[c2+i]*t2 + lx[c3+i]*t3;
+				}
+				else
+				{
+					for(int k=0; k<w; k++)
+					{
+						int ck = c + k*m;
+						double tk = t[j+k];
+						for(int i=j+w; i<m; i++)
+							t[i] -= lx[ck+i] * tk;
+					}
+				}
+			}
+			System.arraycopy(t, 0, y, f, ns);
+			for(int i=ns; i<m; i++)
+				y[rowIndices[r+i]] += t[i];
+		}
+
+		// L^T y'' = y': gather the rows of each supernode in t, and solve
+		// from its last four columns, subtracting their products with the
+		// rows below them first
+		for(int s=nSuper-1; s>=0; s--)
+		{
+			int f = superStart[s], ns = superStart[s+1]-f;
+			int r = rowStart[s], m = rowStart[s+1]-r, v = valueStart[s];
+			System.arraycopy(y, f, t, 0, ns);
+			for(int i=ns; i<m; i++)
+				t[i] = y[rowIndices[r+i]];
+			for(int j=(ns-1) & ~3; j>=0; j-=4)
+			{
+				int c = v + j*m, w = Math.min(4, ns-j);
+				if(w == 4)
+				{
+					int c1 = c+m, c2 = c1+m, c3 = c2+m;
+					double t0 = 0, t1 = 0, t2 = 0, t3 = 0;
+					for(int i=j+4; i<m; i++)
+					{
+						double ti = t[i];
+						t0 += lx[c+i] * ti;
+						t1 += lx[c1+i] * ti;
+						t2 += lx[c2+i] * ti;
+						t3 += lx[c3+i] * ti;
+					}
+					t[j] -= t0;
+					t[j+1] -= t1;
+					t[j+2] -= t2;
+					t[j+3] -= t3;
+				}
+				else
+				{
+					for(int k=0; k<w; k++)
+					{
+						int ck = c + k*m;
+						double tk = 0;
+						for(int i=j+w; i<m; i++)
+							tk += lx[ck+i] * t[i];
+						t[j+k] -= tk;
+					}
+				}
+				for(int k=w-1; k>=0; k--)
+				{
+					int ck = c + k*m;
+					double tk = t[j+k];
+					for(int i=j+k+1; i<j+w; i++)
+						tk -= lx[ck+i] * t[i];
+					t[j+k] = tk / lx[ck+j+k];
+				}
+			}
+			System.arraycopy(t, 0, y, f, ns);
+		}
+		for(int k=0; k<n; k++)
+			x[perm[k]] = y[k];
+	}
+
+	/**
+	 * Compute L one supernode at a time. Each supernode gathers the updates
+	 * from the supernodes below it with nonzeros in its rows: these are
+	 * kept in lists by the supernode of their next row that has not been
+	 * updated yet. Then the diagonal block is factored, and the rows below
+	 * it are divided by it.
+	 */
+	private void factor(double[] values)
+	{
+		double[] ax = new double[ai.length];
+		for(int p=0; p<map.length; p++)
+		{
+			if(map[p] != -1)
+				ax[map[p]] += values[p];
+		}
+		int[] relative = new int[n];
+		int[] head = new int[nSuper], next = new int[nSuper], position = new int[nSuper];
+		Arrays.fill(head, -1);
+		double[] update = new double[0];
+		for(int s=0; s<nSuper; s++)
+		{
+			int f = superStart[s], l = superStart[s+1], ns = l-f;
+			int r = rowStart[s], m = rowStart[s+1]-r, v = valueStart[s];
+			for(int a=0; a<m; a++)
+				relative[rowIndices[r+a]] = a;
+			for(int j=f; j<l; j++)
+			{
+				for(int p=ap[j]; p<ap[j+1]; p++)
+					lx[v + (j-f)*m + relative[ai[p]]] += ax[p];
+			}
+
+			for(int d=head[s], nextD; d != -1; d=nextD)
+			{
+				nextD = next[d];
+				int nd = superStart[d+1] - superStart[d];
+				int rd = rowStart[d], md = rowStart[d+1]-rd, vd = valueStart[d];
+				int p0 = position[d], p1 = p0;
+				while(p1 < md && rowIndices[rd+p1] < l)
+					p1++;
+
+				// Minus the rows p0 to md of the descendant times the rows
+				// p0 to p1 transposed, the lower triangle only
+				int q = p1-p0, mr = md-p0;
+				if(update.length < mr*q)
+					update = new double[Math.max(mr*q, 2*update.length)];
+				Arrays.fill(update, 0, mr*q, 0);
+				int b = 0;
+				for(; b+2<=q; b+=2)
+					subtractProducts2(lx, vd + p0, md, nd, b, mr, update, b*mr);
+				if(b < q)
+					subtractProducts(lx, vd + p0, md, nd, b, b, mr, update, b*mr);
+				for(b=0; b<q; b++)
+				{
+					int c = v + (rowIndices[rd+p0+b]-f)*m, u = b*mr;
+					for(int a=b; a<mr; a++)
+						lx[c + relative[rowIndices[rd+p0+a]]] += update[u+a];
+				}
+
+				position[d] = p1;
+				if(p1 < md)
+				{
+					int target = columnSuper[rowIndices[rd+p1]];
+					next[d] = head[target];
+					head[target] = d;
+				}
+			}
+
+			// Dense Cholesky factorization of the block, two columns at a
+			// time: both are updated with the columns before them, then the
+			// first is divided by the root of its diagonal and subtracted
+			// from the second
+			for(int j=0; j<ns; j+=2)
+			{
+				int c = v + j*m;
+				if(j+1 == ns)
+				{
+					subtractProducts(lx, v, m, j, j, j, m, lx, c);
+					divide(lx, c, j, m);
+					break;
+				}
+				subtractProducts2(lx, v, m, j, j, m, lx, c);
+				divide(lx, c, j, m);
+				subtractProducts(lx, c, m, 1, j+1, j+1, m, lx, c+m);
+				divide(lx, c+m, j+1, m);
+			}
+
+			position[s] = ns;
+			if(ns < m)
+			{
+				int target = columnSuper[rowIndices[r+ns]];
+				next[s] = head[target];
+				head[target] = s;
+			}
+		}
+	}
+
+	/**
+	 * Subtract the first columns of a dense block, times their entries in
+	 * row b, from y: y[y0+a] -= sum of L[a][k] L[b][k] over the columns k,
+	 * for the rows a from a0 to a1. Four columns are done at once, so y
+	 * is read and written a quarter as often.
+	 *
+	 * @param block
+	 * 		the index of the first entry of the block in l
+	 * @param m
+	 * 		the number of rows of the block
+	 */
+	private static void subtractProducts(double[] l, int block, int m, int columns, int b, int a0, int a1,
+			double[] y, int y0)
+	{
+		int k = 0;
+		for(; k+4<=columns; k+=4)
+		{
+			int c0 = block + k*m, c1 = c0+m, c2 = c1+m, c3 = c2+m;
+			double x0 = l[c0+b], x1 = l[c1+b], x2 = l[c2+b], x3 = l[c3+b];
+			for(int a=a0; a<a1; a++)
+				y[y0+a] -= l[c0+a]*x0 + l[c1+a]*x1 + l[c2+a]*x2 + l[c3+a]*x3;
+		}
+		for(; k<columns; k++)
+		{
+			int c = block + k*m;
+			double x = l[c+b];
+			if(x == 0)
+				continue;
+			for(int a=a0; a<a1; a++)
+				y[y0+a] -= l[c+a]*x;
+		}
+	}
+
+	/**
+	 * Replace the diagonal entry j of a column by its root and divide the
+	 * entries below it by the root.
+	 */
+	private static void divide(double[] l, int c, int j, int m)
+	{
+		double d = l[c+j];
+		if(!(d > 0))
+			throw new IllegalArgumentException("Matrix is not positive definite");
+		d = Math.sqrt(d);
+		l[c+j] = d;
+		for(int a=j+1; a<m; a++)
+			l[c+a] /= d;
+	}
+
+	/**
+	 * {@link #subtractProducts} for the rows b and b+1 at once, which reads
+	 * the block half as often: the rows b to a1 of y from y0 get the
+	 * products with row b, the rows b+1 to a1 of y from y0+a1 those with
+	 * row b+1.
+	 */
+	private static void subtractProducts2(double[] l, int block, int m, int columns, int b, int a1,
+			double[] y, int y0)
+	{
+		int y1 = y0 + a1;
+		int k = 0;
+		for(; k+4<=columns; k+=4)
+		{
+			int c0 = block + k*m, c1 = c0+m, c2 = c1+m, c3 = c2+m;
+			double x0 = l[c0+b], x1 = l[c1+b], x2 = l[c2+b], x3 = l[c3+b];
+			double z0 = l[c0+b+1], z1 = l[c1+b+1], z2 = l[c2+b+1], z3 = l[c3+b+1];
+			y[y0+b] -= x0*x0 + x1*x1 + x2*x2 + x3*x3;
+			for(int a=b+1; a<a1; a++)
+			{
+				double l0 = l[c0+a], l1 = l[c1+a], l2 = l[c2+a], l3 = l[c3+a];
+				y[y0+a] -= l0*x0 + l1*x1 + l2*x2 + l3*x3;
+				y[y1+a] -= l0*z0 + l1*z1 + l2*z2 + l3*z3;
+			}
+		}
+		for(; k<columns; k++)
+		{
+			int c = block + k*m;
+			double x = l[c+b], z = l[c+b+1];
+			y[y0+b] -= x*x;
+			for(int a=b+1; a<a1; a++)
+			{
+				y[y0+a] -= l[c+a]*x;
+				y[y1+a] -= l[c+a]*z;
+			}
+		}
+	}
+
+	private static void add(int i, int s, int[] mark, IntArrayList rowList)
+	{
+		if(mark[i] != s)
+		{
+			mark[i] = s;
+			rowList.add(i);
+		}
+	}
+
+	/**
+	 * Merge small supernodes into their parent if it starts right after
+	 * them and not too many zeros are stored, see {@link #RELAX}.
+	 *
+	 * @param starts
+	 * 		the first column of each fundamental supernode, and n
+	 * @return the first column of each merged supernode, and n
+	 */
+	private static int[] relax(int[] starts, int[] parent, int[] counts)
+	{
+		int nSuper = starts.length-1;
+		// For the merged supernode starting at each supernode: its number
+		// of columns, rows, and nonzeros
+		int[] columns = new int[nSuper], rows = new int[nSuper];
+		long[] nonzeros = new long[nSuper];
+		boolean[] merged = new boolean[nSuper];
+		for(int s=nSuper-1; s>=0; s--)
+		{
+			int f = starts[s], l = starts[s+1];
+			columns[s] = l-f;
+			rows[s] = counts[f];
+			for(int j=f; j<l; j++)
+				nonzeros[s] += counts[j];
+			if(s == nSuper-1 || parent[l-1] != l)
+				continue;
+
+			int c = columns[s] + columns[s+1];
+			int m = columns[s] + rows[s+1];
+			long total = (long)m*c - (long)c*(c-1)/2;
+			long nnz = nonzeros[s] + nonzeros[s+1];
+			int i = 0;
+			while(c > RELAX[i])
+				i++;
+			if(total - nnz <= ZEROS[i]*total)
+			{
+				merged[s+1] = true;
+				columns[s] = c;
+				rows[s] = m;
+				nonzeros[s] = nnz;
+			}
+		}
+		IntArrayList relaxed = new IntArrayList();
+		for(int s=0; s<nSuper; s++)
+		{
+			if(!merged[s])
+				relaxed.add(starts[s]);
+		}
+		relaxed.add(starts[nSuper]);
+		return relaxed.toArray();
+	}
+
+	private static int[] inverse(int[] p)
+	{
+		int[] inverse = new int[p.length];
+		for(int k=0; k<p.length; k++)
+			inverse[p[k]] = k;
+		return inverse;
+	}
+
+	/**
+	 * The pattern of the upper triangle of the permuted matrix by columns.
+	 *
+	 * @param cp
+	 * 		receives the start of each column
+	 * @return the rows
+	 */
+	private static int[] upperTriangle(int n, int[] ap, int[] ai, int[] pinv, int[] cp)
+	{
+		for(int j=0; j<n; j++)
+		{
+			for(int p=ap[j]; p<ap[j+1]; p++)
+			{
+				if(pinv[ai[p]] <= pinv[j])
+					cp[pinv[j]+1]++;
+			}
+		}
+		for(int k=0; k<n; k++)
+			cp[k+1] += cp[k];
+		int[] ci = new int[cp[n]];
+		int[] next = Arrays.copyOf(cp, n);
+		for(int j=0; j<n; j++)
+		{
+			for(int p=ap[j]; p<ap[j+1]; p++)
+			{
+				int i = pinv[ai[p]], k = pinv[j];
+				if(i <= k)
+					ci[next[k]++] = i;
+			}
+		}
+		return ci;
+	}
+
+	/**
+	 * @return the parent of each column in the elimination tree, or -1
+	 */
+	private static int[] eliminationTree(int n, int[] cp, int[] ci)
+	{
+		int[] parent = new int[n];
+		int[] ancestor = new int[n];
+		for(int k=0; k<n; k++)
+		{
+			parent[k] = -1;
+			ancestor[k] = -1;
+			for(int p=cp[k]; p<cp[k+1]; p++)
+			{
+				for(int i=ci[p]; i != -1 && i < k; )
+				{
+					int up = ancestor[i];
+					ancestor[i] = k;
+					if(up == -1)
+						parent[i] = k;
+					i = up;
+				}
+			}
+		}
+		return parent;
+	}
+
+	/**
+	 * The number of nonzeros of each column of L, with the diagonal, in
+	 * nearly linear time in the nonzeros of A. Row i of L has nonzeros in
+	 * the columns on the paths from the nonzeros of row i of A up the
+	 * elimination tree, so each column adds one for each row whose paths
+	 * start in its subtree, counted at the leaves of those paths and
+	 * subtracted again at their least common ancestors ("Direct Methods for
+	 * Sparse Linear Systems", Davis 2006, section 4.5).
+	 */
+	private static int[] columnCounts(int n, int[] cp, int[] ci, int[] parent)
+	{
+		// The rows of the upper triangle, i.e., the columns of each row
+		int[] rp = new int[n+1];
+		for(int p=0; p<cp[n]; p++)
+			rp[ci[p]+1]++;
+		for(int k=0; k<n; k++)
+			rp[k+1] += rp[k];
+		int[] ri = new int[cp[n]];
+		int[] next = Arrays.copyOf(rp, n);
+		for(int k=0; k<n; k++)
+		{
+			for(int p=cp[k]; p<cp[k+1]; p++)
+				ri[next[ci[p]]++] = k;
+		}
+
+		// The first node of each subtree in postorder, and the leaves
+		int[] post = postorder(n, parent);
+		int[] counts = new int[n], first = new int[n];
+		Arrays.fill(first, -1);
+		for(int k=0; k<n; k++)
+		{
+			int j = post[k];
+			counts[j] = first[j] == -1 ? 1 : 0;
+			for(; j != -1 && first[j] == -1; j=parent[j])
+				first[j] = k;
+		}
+
+		int[] maxFirst = new int[n], previousLeaf = new int[n], ancestor = new int[n];
+		Arrays.fill(maxFirst, -1);
+		Arrays.fill(previousLeaf, -1);
+		for(int j=0; j<n; j++)
+			ancestor[j] = j;
+		for(int k=0; k<n; k++)
+		{
+			int j = post[k];
+			if(parent[j] != -1)
+				counts[parent[j]]--;
+			for(int p=rp[j]; p<rp[j+1]; p++)
+			{
+				// j is a leaf of the paths of row i if no node of its
+				// subtree has a nonzero in row i
+				int i = ri[p];
+				if(i <= j || first[j] <= maxFirst[i])
+					continue;
+				maxFirst[i] = first[j];
+				counts[j]++;
+				int previous = previousLeaf[i];
+				previousLeaf[i] = j;
+				if(previous == -1)
+					continue;
+				// The paths of the previous leaf join at their least common
+				// ancestor, found with path compression
+				int q = previous;
+				while(q != ancestor[q])
+					q = ancestor[q];
+				for(int a=previous, up; a != q; a=up)
+				{
+					up = ancestor[a];
+					ancestor[a] = q;
+				}
+				counts[q]--;
+			}
+			if(parent[j] != -1)
+				ancestor[j] = parent[j];
+		}
+		// Parents come after their children
+		for(int j=0; j<n; j++)
+		{
+			if(parent[j] != -1)
+				counts[parent[j]] += counts[j];
+		}
+		return counts;
+	}
+
+	/**
+	 * @return the nodes of a forest in postorder, i.e., each subtree is
+	 * 		consecutive and ends with its root
+	 */
+	private static int[] postorder(int n, int[] parent)
+	{
+		int[] head = new int[n], next = new int[n], stack = new int[n], post = new int[n];
+		Arrays.fill(head, -1);
+		for(int j=n-1; j>=0; j--)
+		{
+			if(parent[j] != -1)
+			{
+				next[j] = head[parent[j]];
+				head[parent[j]] = j;
+			}
+		}
+		int k = 0;
+		for(int j=0; j<n; j++)
+		{
+			if(parent[j] != -1)
+				continue;
+			int top = 0;
+			stack[0] = j;
+			while(top >= 0)
+			{
+				int p = stack[top], i = head[p];
+				if(i == -1)
+				{
+					top--;
+					post[k++] = p;
+				}
+				else
+				{
+					head[p] = next[i];
+					stack[++top] = i;
+				}
+			}
+		}
+		return post;
+	}
+
+	/**
+	 * Order the vertices of the graph of a matrix by approximate minimum
+	 * degree, following cs_amd of CSparse: the graph of the eliminated
+	 * vertices is kept as a quotient graph of elements, vertices with the
+	 * same neighbours are merged, and the degrees are bounded from above
+	 * instead of computed exactly. Vertices with very many neighbours are
+	 * ordered last.
+	 *
+	 * @return the vertex at each position of the order
+	 */
+	private static int[] minimumDegree(int n, int[] ap, int[] ai)
+	{
+		if(n == 0)
+			return new int[0];
+
+		// The graph without the diagonal and without duplicates, with some
+		// room for the elements
+		int[] len = new int[n+1];
+		int[] w = new int[n+1];
+		Arrays.fill(w, -1);
+		for(int j=0; j<n; j++)
+		{
+			for(int p=ap[j]; p<ap[j+1]; p++)
+			{
+				int i = ai[p];
+				if(i != j)
+				{
+					len[i]++;
+					len[j]++;
+				}
+			}
+		}
+		int[] cp = new int[n+1];
+		for(int j=0; j<n; j++)
+			cp[j+1] = cp[j] + len[j];
+		int[] all = new int[cp[n]];
+		int[] next = Arrays.copyOf(cp, n);
+		for(int j=0; j<n; j++)
+		{
+			for(int p=ap[j]; p<ap[j+1]; p++)
+			{
+				int i = ai[p];
+				if(i != j)
+				{
+					all[next[i]++] = j;
+					all[next[j]++] = i;
+				}
+			}
+		}
+		int cnz = 0;
+		for(int j=0; j<n; j++)
+		{
+			int start = cnz;
+			for(int p=cp[j]; p<cp[j+1]; p++)
+			{
+				int i = all[p];
+				if(w[i] != j)
+				{
+					w[i] = j;
+					all[cnz++] = i;
+				}
+			}
+			cp[j] = start;
+			len[j] = cnz - start;
+		}
+		int nzmax = cnz + cnz/5 + 2*n;
+		int[] ci = Arrays.copyOf(all, nzmax);
+		all = null;
+
+		int dense = (int)Math.max(16, 10*Math.sqrt(n));
+		dense = Math.min(n-2, dense);
+		int[] nv = new int[n+1], last = new int[n+1], head = new int[n+1], elen = new int[n+1];
+		int[] degree = new int[n+1], hhead = new int[n+1];
+		next = new int[n+1];
+		len[n] = 0;
+		for(int i=0; i<=n; i++)
+		{
+			head[i] = -1;
+			last[i] = -1;
+			next[i] = -1;
+			hhead[i] = -1;
+			nv[i] = 1;
+			w[i] = 1;
+			elen[i] = 0;
+			degree[i] = len[i];
+		}
+		int mark = clear(0, 0, w, n);
+		elen[n] = -2;
+		cp[n] = -1;
+		w[n] = 0;
+		int nel = 0;
+		for(int i=0; i<n; i++)
+		{
+			int d = degree[i];
+			if(d == 0)
+			{
+				elen[i] = -2;
+				nel++;
+				cp[i] = -1;
+				w[i] = 0;
+			}
+			else if(d > dense)
+			{
+				// Absorb dense vertices into the element n, ordered last
+				nv[i] = 0;
+				elen[i] = -1;
+				nel++;
+				cp[i] = flip(n);
+				nv[n]++;
+			}
+			else
+			{
+				if(head[d] != -1)
+					last[head[d]] = i;
+				next[i] = head[d];
+				head[d] = i;
+			}
+		}
+
+		int mindeg = 0, lemax = 0;
+		while(nel < n)
+		{
+			// Select a vertex of minimum approximate degree
+			int k = -1;
+			for(; mindeg < n && (k = head[mindeg]) == -1; mindeg++);
+			if(next[k] != -1)
+				last[next[k]] = -1;
+			head[mindeg] = next[k];
+			int elenk = elen[k];
+			int nvk = nv[k];
+			nel += nvk;
+
+			// Garbage collection
+			if(elenk > 0 && cnz + mindeg >= nzmax)
+			{
+				for(int j=0; j<n; j++)
+				{
+					int p = cp[j];
+					if(p >= 0)
+					{
+						cp[j] = ci[p];
+						ci[p] = flip(j);
+					}
+				}
+				int q = 0;
+				for(int p=0; p<cnz; )
+				{
+					int j = flip(ci[p++]);
+					if(j >= 0)
+					{
+						ci[q] = cp[j];
+						cp[j] = q++;
+						for(int k3=0; k3<len[j]-1; k3++)
+							ci[q++] = ci[p++];
+					}
+				}
+				cnz = q;
+			}
+
+			// Construct the new element from k and the elements next to it
+			int dk = 0;
+			nv[k] = -nvk;
+			int p = cp[k];
+			int pk1 = elenk == 0 ? p : cnz;
+			int pk2 = pk1;
+			for(int k1=1; k1<=elenk+1; k1++)
+			{
+				int e, pj, ln;
+				if(k1 > elenk)
+				{
+					e = k;
+					pj = p;
+					ln = len[k] - elenk;
+				}
+				else
+				{
+					e = ci[p++];
+					pj = cp[e];
+					ln = len[e];
+				}
+				for(int k2=1; k2<=ln; k2++)
+				{
+					int i = ci[pj++];
+					int nvi = nv[i];
+					if(nvi <= 0)
+						continue;
+					dk += nvi;
+					nv[i] = -nvi;
+					ci[pk2++] = i;
+					if(next[i] != -1)
+						last[next[i]] = last[i];
+					if(last[i] != -1)
+						next[last[i]] = next[i];
+					else
+						head[degree[i]] = next[i];
+				}
+				if(e != k)
+				{
+					cp[e] = flip(k);
+					w[e] = 0;
+				}
+			}
+			if(elenk != 0)
+				cnz = pk2;
+			degree[k] = dk;
+			cp[k] = pk1;
+			len[k] = pk2 - pk1;
+			elen[k] = -2;
+
+			// Find the set differences |Le \ Lk| of the elements next to
+			// the vertices of the new element
+			mark = clear(mark, lemax, w, n);
+			for(int pk=pk1; pk<pk2; pk++)
+			{
+				int i = ci[pk];
+				int eln = elen[i];
+				if(eln <= 0)
+					continue;
+				int nvi = -nv[i];
+				int wnvi = mark - nvi;
+				for(p=cp[i]; p<=cp[i]+eln-1; p++)
+				{
+					int e = ci[p];
+					if(w[e] >= mark)
+						w[e] -= nvi;
+					else if(w[e] != 0)
+						w[e] = degree[e] + wnvi;
+				}
+			}
+
+			// Update the degrees, absorb elements and hash the vertices
+			for(int pk=pk1; pk<pk2; pk++)
+			{
+				int i = ci[pk];
+				int p1 = cp[i];
+				int p2 = p1 + elen[i] - 1;
+				int pn = p1;
+				long h = 0;
+				int d = 0;
+				for(p=p1; p<=p2; p++)
+				{
+					int e = ci[p];
+					if(w[e] != 0)
+					{
+						int dext = w[e] - mark;
+						if(dext > 0)
+						{
+							d += dext;
+							ci[pn++] = e;
+							h += e;
+						}
+						else
+						{
+							// Aggressive absorption
+							cp[e] = flip(k);
+							w[e] = 0;
+						}
+					}
+				}
+				elen[i] = pn - p1 + 1;
+				int p3 = pn;
+				int p4 = p1 + len[i];
+				for(p=p2+1; p<p4; p++)
+				{
+					int j = ci[p];
+					int nvj = nv[j];
+					if(nvj <= 0)
+						continue;
+					d += nvj;
+					ci[pn++] = j;
+					h += j;
+				}
+				if(d == 0)
+				{
+					// Mass elimination
+					cp[i] = flip(k);
+					int nvi = -nv[i];
+					dk -= nvi;
+					nvk += nvi;
+					nel += nvi;
+					nv[i] = 0;
+					elen[i] = -1;
+				}
+				else
+				{
+					degree[i] = Math.min(degree[i], d);
+					ci[pn] = ci[p3];
+					ci[p3] = ci[p1];
+					ci[p1] = k;
+					len[i] = pn - p1 + 1;
+					int hash = (int)(h % n);
+					next[i] = hhead[hash];
+					hhead[hash] = i;
+					last[i] = hash;
+				}
+			}
+			degree[k] = dk;
+			lemax = Math.max(lemax, dk);
+			mark = clear(mark+lemax, lemax, w, n);
+
+			// Merge vertices with the same elements and neighbours
+			for(int pk=pk1; pk<pk2; pk++)
+			{
+				int i = ci[pk];
+				if(nv[i] >= 0)
+					continue;
+				int hash = last[i];
+				i = hhead[hash];
+				hhead[hash] = -1;
+				for(; i != -1 && next[i] != -1; i=next[i], mark++)
+				{
+					int ln = len[i];
+					int eln = elen[i];
+					for(p=cp[i]+1; p<=cp[i]+ln-1; p++)
+						w[ci[p]] = mark;
+					int jlast = i;
+					for(int j=next[i]; j != -1; )
+					{
+						boolean ok = len[j] == ln && elen[j] == eln;
+						for(p=cp[j]+1; ok && p<=cp[j]+ln-1; p++)
+						{
+							if(w[ci[p]] != mark)
+								ok = false;
+						}
+						if(ok)
+						{
+							cp[j] = flip(i);
+							nv[i] += nv[j];
+							nv[j] = 0;
+							elen[j] = -1;
+							j = next[j];
+							next[jlast] = j;
+						}
+						else
+						{
+							jlast = j;
+							j = next[j];
+						}
+					}
+				}
+			}
+
+			// Finalize the new element and put its vertices back into the
+			// degree lists
+			p = pk1;
+			for(int pk=pk1; pk<pk2; pk++)
+			{
+				int i = ci[pk];
+				int nvi = -nv[i];
+				if(nvi <= 0)
+					continue;
+				nv[i] = nvi;
+				int d = degree[i] + dk - nvi;
+				d = Math.min(d, n - nel - nvi);
+				if(head[d] != -1)
+					last[head[d]] = i;
+				next[i] = head[d];
+				last[i] = -1;
+				head[d] = i;
+				mindeg = Math.min(mindeg, d);
+				degree[i] = d;
+				ci[p++] = i;
+			}
+			nv[k] = nvk;
+			if((len[k] = p-pk1) == 0)
+			{
+				cp[k] = -1;
+				w[k] = 0;
+			}
+			if(elenk != 0)
+				cnz = p;
+		}
+
+		// Postorder the assembly tree. Merged and absorbed vertices come
+		// right before the vertex or element they went into.
+		for(int i=0; i<n; i++)
+			cp[i] = flip(cp[i]);
+		Arrays.fill(head, -1);
+		for(int j=n; j>=0; j--)
+		{
+			if(nv[j] > 0)
+				continue;
+			next[j] = head[cp[j]];
+			head[cp[j]] = j;
+		}
+		for(int e=n; e>=0; e--)
+		{
+			if(nv[e] <= 0)
+				continue;
+			if(cp[e] != -1)
+			{
+				next[e] = head[cp[e]];
+				head[cp[e]] = e;
+			}
+		}
+		int[] order = new int[n+1];
+		int k = 0;
+		for(int i=0; i<=n; i++)
+		{
+			if(cp[i] != -1)
+				continue;
+			int top = 0;
+			w[0] = i;
+			while(top >= 0)
+			{
+				int p = w[top], j = head[p];
+				if(j == -1)
+				{
+					top--;
+					order[k++] = p;
+				}
+				else
+				{
+					head[p] = next[j];
+					w[++top] = j;
+				}
+			}
+		}
+		// The element n of the dense vertices is the last root
+		return Arrays.copyOf(order, n);
+	}
+
+	private static int flip(int i)
+	{
+		return -i-2;
+	}
+
+	/**
+	 * Reset the marks of the live elements when mark would overflow.
+	 */
+	private static int clear(int mark, int lemax, int[] w, int n)
+	{
+		if(mark < 2 || mark + lemax < 0)
+		{
+			for(int k=0; k<n; k++)
+			{
+				if(w[k] != 0)
+					w[k] = 1;
+			}
+			mark = 2;
+		}
+		return mark;
+	}
+
+	/**
+	 * Order the vertices of the graph of a matrix by nested dissection.
+	 *
+	 * @return the vertex at each position of the order
+	 */
+	private static int[] nestedDissection(int n, int[] ap, int[] ai)
+	{
+		// The subsets are ranges of the order, whose vertices have the same
+		// label. Separators are labeled -1 and stay where they are.
+		int[] order = new int[n];
+		int[] label = new int[n];
+		for(int v=0; v<n; v++)
+			order[v] = v;
+		int labels = 1;
+		int[] level = new int[n];
+		int[] queue = new int[n];
+		int[] seen = new int[n];
+		int stamp = 0;
+		IntArrayList stack = new IntArrayList();
+		stack.add(0, n);
+		while(stack.size() > 0)
+		{
+			int hi = stack.removeLast(), lo = stack.removeLast();
+			if(hi - lo <= LEAF)
+			{
+				for(int i=lo; i<hi; i++)
+					label[order[i]] = -1;
+				continue;
+			}
+
+			// Search from a vertex far from the others: search again from
+			// a vertex of least degree in the last level, while the number
+			// of levels grows
+			int lab = label[order[lo]];
+			int reached = search(order[lo], lab, ap, ai, label, level, queue, seen, ++stamp);
+			for(int tries=0; tries<4; tries++)
+			{
+				int depth = level[queue[reached-1]], best = -1;
+				for(int i=reached-1; i>=0 && level[queue[i]] == depth; i--)
+				{
+					int v = queue[i];
+					if(best == -1 || ap[v+1]-ap[v] < ap[best+1]-ap[best])
+						best = v;
+				}
+				reached = search(best, lab, ap, ai, label, level, queue, seen, ++stamp);
+				if(level[queue[reached-1]] <= depth)
+					break;
+			}
+
+			// The separator is the smallest level with at least a third of
+			// the reached vertices on each side, or the middle one
+			int separator = level[queue[reached/2]], size = reached;
+			for(int i=0, j; i<reached; i=j)
+			{
+				for(j=i; j<reached && level[queue[j]] == level[queue[i]]; j++);
+				if(3*i >= reached && 3*(reached-j) >= reached && j-i < size)
+				{
+					separator = level[queue[i]];
+					size = j-i;
+				}
+			}
+			int before = labels++, after = labels++, rest = labels++;
+			for(int i=lo; i<hi; i++)
+			{
+				int v = order[i];
+				if(seen[v] != stamp)
+					label[v] = rest;
+			}
+			for(int i=0; i<reached; i++)
+			{
+				int v = queue[i];
+				label[v] = level[v] < separator ? before : level[v] > separator ? after : -1;
+			}
+
+			// Arrange the range as before, after, rest, separator
+			int i = lo;
+			int[] groups = {before, after, rest, -1};
+			for(int g=0; g<groups.length; g++)
+			{
+				int start = i;
+				for(int j=i; j<hi; j++)
+				{
+					int v = order[j];
+					if(label[v] == groups[g])
+					{
+						order[j] = order[i];
+						order[i++] = v;
+					}
+				}
+				if(g < 3 && i > start)
+					stack.add(start, i);
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Breadth-first search from a root through the vertices with a label.
+	 *
+	 * @return the number of reached vertices, which are in queue in the
+	 * 		order of their levels
+	 */
+	private static int search(int root, int lab, int[] ap, int[] ai, int[] label, int[] level, int[] queue, int[] seen, int stamp)
+	{
+		int head = 0, tail = 0;
+		queue[tail++] = root;
+		seen[root] = stamp;
+		level[root] = 0;
+		while(head < tail)
+		{
+			int v = queue[head++];
+			for(int p=ap[v]; p<ap[v+1]; p++)
+			{
+				int u = ai[p];
+				if(seen[u] != stamp && label[u] == lab)
+				{
+					seen[u] = stamp;
+					level[u] = level[v] + 1;
+					queue[tail++] = u;
+				}
+			}
+		}
+		return tail;
+	}
+}
@@ -0,0 +1,224 @@
+package jrtr;
+
+import java.util.Arrays;
+
+/**
+ * Computes per-vertex tangent frames for normal mapping, following the
+ * conventions of MikkTSpace: the tangent of each triangle is derived from
+ * its texture coordinates, projected into the tangent plane of the vertex
+ * normal, normalized, and summed weighted by the angle of the triangle at
+ * the vertex. The sum is orthogonalized against the normal.
+ * <p>
+ * The result is stored as a {@link VertexData.Semantic#TANGENT} element with
+ * four components. The first three are the unit tangent, the fourth is the
+ * handedness (1 or -1) of the frame, so the shader reconstructs the
+ * bitangent as <code>cross(normal, tangent.xyz) * tangent.w</code>.
+ * <p>
+ * Like MikkTSpace, corners of opposite handedness are not summed: where a
+ * mirrored texture layout meets itself, the two halves share vertices with
+ * the same texture coordinates, and their tangents would cancel out. Such
+ * vertices are split, one vertex per handedness.
+ */
+public class TangentGenerator {
+
+	/**
+	 * Generate tangents for indexed vertex data, replacing any existing
+	 * tangents. The vertex data needs positions, normals and texture
+	 * coordinates; vertices are expected to be split at texture seams,
+	 * as done by {@link ObjReader#readIndexed(String, float, RenderContext)}.
+	 *
+	 * @param renderContext
+	 * 		used to make new vertex data if vertices need to be split
+	 * @return the given vertex data with a new TANGENT element if no
+	 * 		vertices had to be split, or new vertex data containing all
+	 * 		elements of the given vertex data and the tangents otherwise
+	 */
+	public static VertexData generate(VertexData vertexData, RenderContext renderContext)
+	{
+		VertexData.VertexElement position = vertexData.getElement(VertexData.Semantic.POSITION);
+		float[] positions = position != null ? position.toFloatArray() : null;
+		float[] normals = vertexData.toFloatArray(VertexData.Semantic.NORMAL);
+		float[] texCoords = vertexData.toFloatArray(VertexData.Semantic.TEXCOORD);
+		int[] indices = vertexData.toIndexArray();
+		if(positions == null || normals == null || texCoords == null || indices == null)
+			throw new IllegalArgumentException("Vertex data needs positions, normals, texture coordinates and indices to generate tangents");
+
+		int[] newIndices = new int[indices.length];
+		IntArrayList source = new IntArrayList();
+		float[] tangents = generate(positions, position.getNumberOfComponents(), normals, texCoords,
+				vertexData.getNumberOfVertices(), indices, newIndices, source);
+
+		VertexData result = vertexData;
+		if(source.size() > 0)
+			result = NormalGenerator.split(vertexData, source, newIndices, VertexData.Semantic.TANGENT, renderContext);
+		result.addElement(tangents, VertexData.Semantic.TANGENT, 4, vertexData.isOffHeap());
+		return result;
+	}
+
+	/**
+	 * Compute tangents from primitive arrays.
+	 *
+	 * @param newIndices
+	 * 		receives the indices with the corners of split vertices
+	 * 		pointing to the new vertices
+	 * @param source
+	 * 		receives the vertex each new vertex was split from. The new
+	 * 		vertices are numbered from n on.
+	 * @return four components per vertex including the new ones, the unit
+	 * 		tangent and the handedness
+	 */
+	static float[] generate(final float[] positions, final int stride, final float[] normals,
+			final float[] texCoords, final int n, final int[] indices, int[] newIndices, IntArrayList source)
+	{
+		final int nTriangles = indices.length/3;
+		final int nCorners = nTriangles*3;
+
+		// Projected, normalized and angle-weighted tangent and bitangent of
+		// each triangle corner, and the handedness of their frame, or 0 if
+		// the texture coordinates are degenerate
+		final float[] cornerTangents = new float[nCorners*3];
+		final float[] cornerBitangents = new float[nCorners*3];
+		final byte[] handedness = new byte[nCorners];
+		Parallel.forRange(nTriangles, new Parallel.Range() {
+			public void run(int start, int end)
+			{
+				for(int f=start; f<end; f++)
+				{
+					int v0 = indices[f*3], v1 = indices[f*3+1], v2 = indices[f*3+2];
+					int p0 = v0*stride, p1 = v1*stride, p2 = v2*stride;
+					float e1x = positions[p1]-positions[p0], e1y = positions[p1+1]-positions[p0+1], e1z = positions[p1+2]-positions[p0+2];
+					float e2x = positions[p2]-positions[p0], e2y = positions[p2+1]-positions[p0+1], e2z = positions[p2+2]-positions[p0+2];
+					float s1 = texCoords[v1*2]-texCoords[v0*2], t1 = texCoords[v1*2+1]-texCoords[v0*2+1];
+					float s2 = texCoords[v2*2]-texCoords[v0*2], t2 = texCoords[v2*2+1]-texCoords[v0*2+1];
+					float det = s1*t2 - s2*t1;
+					if(det == 0)
+						continue;
+
+					// The sign of the determinant flips the bitangent of
+					// mirrored texture mappings
+					float r = 1/det;
+					float tx = (e1x*t2 - e2x*t1)*r, ty = (e1y*t2 - e2y*t1)*r, tz = (e1z*t2 - e2z*t1)*r;
+					float bx = (e2x*s1 - e1x*s2)*r, by = (e2y*s1 - e1y*s2)*r, bz = (e2z*s1 - e1z*s2)*r;
+
+					for(int k=0; k<3; k++)
+					{
+						int v = indices[f*3+k];
+						int a = indices[f*3+(k+1)%3]*stride, b = indices[f*3+(k+2)%3]*stride, p = v*stride;
+						float ax = positions[a]-positions[p], ay = positions[a+1]-positions[p+1], az = positions[a+2]-positions[p+2];
+						float cx = positions[b]-positions[p], cy = positions[b+1]-positions[p+1], cz = positions[b+2]-positions[p+2];
+						float angle = NormalGenerator.angle(ax, ay, az, cx, cy, cz);
+						float nx = normals[v*3], ny = normals[v*3+1], nz = normals[v*3+2];
+						int c = (f*3+k)*3;
+						project(tx, ty, tz, nx, ny, nz, angle, cornerTangents, c);
+						project(bx, by, bz, nx, ny, nz, angle, cornerBitangents, c);
+						float ptx = cornerTangents[c], pty = cornerTangents[c+1], ptz = cornerTangents[c+2];
+						float h = (ny*ptz - nz*pty)*cornerBitangents[c] + (nz*ptx - nx*ptz)*cornerBitangents[c+1]
+								+ (nx*pty - ny*ptx)*cornerBitangents[c+2];
+						handedness[f*3+k] = (byte)(h < 0 ? -1 : h > 0 ? 1 : 0);
+					}
+				}
+			}
+		});
+
+		// The first corner with usable texture coordinates decides the
+		// handedness of a vertex. Corners of the other handedness move to
+		// a copy of the vertex, one per vertex.
+		byte[] vertexHandedness = new byte[n];
+		int[] mirror = new int[n];
+		Arrays.fill(mirror, -1);
+		for(int c=0; c<nCorners; c++)
+		{
+			int v = indices[c];
+			newIndices[c] = v;
+			if(handedness[c] == 0)
+				continue;
+			if(vertexHandedness[v] == 0)
+				vertexHandedness[v] = handedness[c];
+			else if(handedness[c] != vertexHandedness[v])
+			{
+				if(mirror[v] == -1)
+				{
+					mirror[v] = n + source.size();
+					source.add(v);
+				}
+				newIndices[c] = mirror[v];
+			}
+		}
+		final int m = n + source.size();
+		final int[] original = new int[m];
+		for(int v=0; v<n; v++)
+			original[v] = v;
+		for(int i=0; i<source.size(); i++)
+			original[n+i] = source.get(i);
+
+		// The corners of each vertex, in compressed row form
+		final int[] first = new int[m+1];
+		for(int c=0; c<nCorners; c++)
+			first[newIndices[c]+1]++;
+		for(int v=0; v<m; v++)
+			first[v+1] += first[v];
+		final int[] corners = new int[nCorners];
+		int[] fill = first.clone();
+		for(int c=0; c<nCorners; c++)
+			corners[fill[newIndices[c]]++] = c;
+
+		final float[] tangents = new float[m*4];
+		Parallel.forRange(m, new Parallel.Range() {
+			public void run(int start, int end)
+			{
+				for(int v=start; v<end; v++)
+				{
+					float tx = 0, ty = 0, tz = 0, bx = 0, by = 0, bz = 0;
+					for(int i=first[v]; i<first[v+1]; i++)
+					{
+						int c = corners[i]*3;
+						tx += cornerTangents[c]; ty += cornerTangents[c+1]; tz += cornerTangents[c+2];
+						bx += cornerBitangents[c]; by += cornerBitangents[c+1]; bz += cornerBitangents[c+2];
+					}
+
+					// Gram-Schmidt orthogonalization against the normal
+					int o = original[v];
+					float nx = normals[o*3], ny = normals[o*3+1], nz = normals[o*3+2];
+					float d = nx*tx + ny*ty + nz*tz;
+					tx -= d*nx; ty -= d*ny; tz -= d*nz;
+					float length = (float)Math.sqrt(tx*tx + ty*ty + tz*tz);
+					if(length == 0)
+					{
+						// No usable texture coordinates, pick any tangent
+						// perpendicular to the normal
+						if(Math.abs(nx) < 0.9f) { tx = 0; ty = -nz; tz = ny; }
+						else { tx = nz; ty = 0; tz = -nx; }
+						length = (float)Math.sqrt(tx*tx + ty*ty + tz*tz);
+						if(length == 0) { tx = 1; length = 1; }
+					}
+					tangents[v*4] = tx/length;
+					tangents[v*4+1] = ty/length;
+					tangents[v*4+2] = tz/length;
+
+					// Handedness: does cross(n, t) point along the bitangent?
+					float cx = ny*tz - nz*ty, cy = nz*tx - nx*tz, cz = nx*ty - ny*tx;
+					tangents[v*4+3] = cx*bx + cy*by + cz*bz < 0 ? -1 : 1;
+				}
+			}
+		});
+		return tangents;
+	}
+
+	/**
+	 * Project a vector into the plane perpendicular to a normal, normalize
+	 * it, and store it scaled by a weight.
+	 */
+	private static void project(float x, float y, float z, float nx, float ny, float nz, float weight,
+			float[] out, int offset)
+	{
+		float d = nx*x + ny*y + nz*z;
+		x -= d*nx; y -= d*ny; z -= d*nz;
+		float length = (float)Math.sqrt(x*x + y*y + z*z);
+		if(length == 0)
+			return;
+		float s = weight/length;
+		out[offset] = x*s;
+		out[offset+1] = y*s;
+		out[offset+2] = z*s;
+	}
+}
@@ -0,0 +1,79 @@
+package jrtr;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shares textures between materials. Textures are keyed by the canonical
+ * path of their image file, so an image that is referenced by several
+ * materials (or through different relative paths) is decoded and uploaded
+ * only once.
+ * <p>
+ * New textures are loaded by {@link #load(Texture, String)}, which decodes
+ * and uploads the image right away. Subclasses can override it to decode
+ * the image on the calling thread and upload it later, see
+ * {@link jrtr.glrenderer.GLAssetLoader#loadShapes(String, float)}.
+ */
+public class TextureCache {
+
+	private RenderContext renderContext;
+	private Map<String, Texture> textures;
+
+	/**
+	 * @param renderContext
+	 * 		the render context used to make the textures
+	 */
+	public TextureCache(RenderContext renderContext)
+	{
+		this.renderContext = renderContext;
+		textures = new HashMap<String, Texture>();
+	}
+
+	/**
+	 * Return the texture for an image file, loading it on first use.
+	 *
+	 * @param fileName
+	 * 		the image file
+	 * @return the shared texture
+	 * @throws IOException
+	 * 		if the image cannot be loaded
+	 */
+	public synchronized Texture get(String fileName) throws IOException
+	{
+		String key = new File(fileName).getCanonicalPath();
+		Texture texture = textures.get(key);
+		if(texture == null)
+		{
+			texture = renderContext.makeTexture();
+			load(texture, key);
+			textures.put(key, texture);
+		}
+		return texture;
+	}
+
+	/**
+	 * Load a texture that is not in the cache yet, called by
+	 * {@link #get(String)} with the lock of the cache held.
+	 *
+	 * @param texture
+	 * 		a new texture of the render context
+	 * @param fileName
+	 * 		the canonical path of the image file
+	 * @throws IOException
+	 * 		if the image cannot be loaded
+	 */
+	protected void load(Texture texture, String fileName) throws IOException
+	{
+		texture.load(fileName);
+	}
+
+	/**
+	 * @return the number of distinct textures loaded so far
+	 */
+	public synchronized int size()
+	{
+		return textures.size();
+	}
+}
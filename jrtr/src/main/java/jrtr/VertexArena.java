@@ -0,0 +1,162 @@
+package jrtr;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Native (off-heap) memory for the vertex attributes and indices of a mesh.
+ * Memory is handed out from direct byte buffers by bumping a pointer, and
+ * is released all at once with {@link #free()}, without waiting for the
+ * garbage collector. Large requests get a buffer of their own.
+ * <p>
+ * Since the buffers are direct and in native byte order, OpenGL reads them
+ * without copying them first. Vertex data stored in an arena does not count
+ * towards the Java heap, which keeps garbage collection pauses short with
+ * many large meshes loaded.
+ *
+ * @see VertexData#allocateElement(VertexData.Semantic, int)
+ */
+public class VertexArena {
+
+	/**
+	 * The size of the buffers small requests are packed into.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+	/**
+	 * Allocations start at multiples of this many bytes.
+	 */
+	private static final int ALIGNMENT = 16;
+
+	private final int chunkSize;
+	private final List<ByteBuffer> chunks;
+	private ByteBuffer current;
+	private long allocated, reserved;
+	private boolean freed;
+
+	public VertexArena()
+	{
+		this(DEFAULT_CHUNK_SIZE);
+	}
+
+	public VertexArena(int chunkSize)
+	{
+		this.chunkSize = chunkSize;
+		chunks = new ArrayList<ByteBuffer>();
+	}
+
+	/**
+	 * Allocate memory from the arena. The memory is zeroed.
+	 *
+	 * @return a direct buffer in native byte order with the requested
+	 * 		capacity
+	 */
+	public synchronized ByteBuffer allocate(int bytes)
+	{
+		if(freed)
+			throw new IllegalStateException("Vertex arena has been freed");
+
+		ByteBuffer chunk;
+		if(bytes >= chunkSize/4)
+		{
+			// Large requests get a buffer of their own, so they do not waste
+			// the rest of the current chunk
+			chunk = ByteBuffer.allocateDirect(bytes);
+			chunks.add(chunk);
+			reserved += bytes;
+		}
+		else
+		{
+			int start = current == null ? 0 : (current.position() + ALIGNMENT-1) & ~(ALIGNMENT-1);
+			if(current == null || start + bytes > current.capacity())
+			{
+				current = ByteBuffer.allocateDirect(chunkSize);
+				chunks.add(current);
+				reserved += chunkSize;
+				start = 0;
+			}
+			current.position(start);
+			chunk = current;
+		}
+
+		ByteBuffer b = chunk.duplicate();
+		b.limit(b.position() + bytes);
+		ByteBuffer slice = b.slice().order(ByteOrder.nativeOrder());
+		if(chunk == current)
+			current.position(current.position() + bytes);
+		allocated += bytes;
+		return slice;
+	}
+
+	/**
+	 * @return the number of bytes handed out by {@link #allocate(int)}
+	 */
+	public synchronized long getAllocated()
+	{
+		return allocated;
+	}
+
+	/**
+	 * @return the number of bytes of native memory held by the arena
+	 */
+	public synchronized long getReserved()
+	{
+		return reserved;
+	}
+
+	public synchronized boolean isFreed()
+	{
+		return freed;
+	}
+
+	/**
+	 * Release the native memory of the arena immediately. All buffers handed
+	 * out by the arena become invalid and must not be used afterwards.
+	 */
+	public synchronized void free()
+	{
+		if(freed)
+			return;
+		freed = true;
+		for(ByteBuffer chunk : chunks)
+			release(chunk);
+		chunks.clear();
+		current = null;
+		allocated = 0;
+		reserved = 0;
+	}
+
+	/**
+	 * Release the memory of a direct buffer. There is no public API for this
+	 * before Java 9, so we use the internal cleaner of the buffer; if that
+	 * fails, the memory is released by the garbage collector.
+	 */
+	private static void release(ByteBuffer buffer)
+	{
+		try {
+			// Java 9 and later
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return;
+		} catch(Exception e) {
+			// Fall through
+		}
+		try {
+			// Java 8
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if(cleaner != null)
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+		} catch(Exception e) {
+			// Leave it to the garbage collector
+		}
+	}
+}
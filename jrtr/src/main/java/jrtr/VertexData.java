@@ -1,6 +1,14 @@
 package jrtr;
 
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.vecmath.Vector4f;
 
 import jrtr.glrenderer.GLVertexData;
 import jrtr.swrenderer.SWVertexData;
@@ -8,7 +16,10 @@ import jrtr.swrenderer.SWVertexData;
 
 /**
  * Provides functionality to specify 3D geometry in the form of triangle meshes.
- * {@link VertexData} consists of a list of {@link VertexElement}s.
+ * {@link VertexData} consists of at most one {@link VertexElement} per
+ * {@link Semantic}, stored in a table indexed by the semantic, and a bit mask
+ * of the semantics present. Renderers look up attributes without iterating or
+ * allocating, and compare vertex formats with {@link #getVertexFormat()}.
  * 
  * It is an abstract class, use the implementation {@link GLVertexData} or
  * {@link SWVertexData} which should be instantiated via {@link
@@ -29,9 +40,53 @@ public abstract class VertexData {
 	private int[] indices;
 
 	/**
-	 * A list of the vertex elements to store the vertex attributes.
+	 * The indices if they are stored off-heap, see {@link #allocateIndices(int)}.
+	 */
+	private IntBuffer indexBuffer;
+
+	/**
+	 * The vertex elements indexed by the ordinal of their semantic, null if
+	 * absent.
 	 */
-	private LinkedList<VertexElement> vertexElements;
+	private VertexElement[] attributes;
+
+	/**
+	 * Bit <code>1 &lt;&lt; semantic.ordinal()</code> is set for each semantic
+	 * present.
+	 */
+	private int attributeMask;
+
+	/**
+	 * The elements in semantic order, returned by {@link #getElements()}.
+	 * Rebuilt when elements are added or removed.
+	 */
+	private List<VertexElement> elementList;
+
+	/**
+	 * The ranges of vertices of each semantic, of vertices of any semantic,
+	 * and of indices that changed since the data was last uploaded.
+	 */
+	private DirtyRanges[] dirty;
+	private DirtyRanges dirtyVertices;
+	private DirtyRanges dirtyIndices;
+	private int dirtyMask;
+
+	/**
+	 * The native memory of elements and indices stored off-heap, or null.
+	 */
+	private VertexArena arena;
+
+	/**
+	 * Clusters of triangles for culling, or null.
+	 */
+	private Meshlets meshlets;
+
+	/**
+	 * The box around the positions, {min x, min y, min z, max x, max y,
+	 * max z}, and the sphere around them, {center x, y, z, radius}. They
+	 * are computed when first needed and cleared when the positions change.
+	 */
+	private float[] boundingBox, boundingSphere;
 
 	/**
 	 * Vertex data consists of a list of vertex elements, and an index array.
@@ -46,7 +101,13 @@ public abstract class VertexData {
 	public VertexData(int n) {
 		this.n = n;
 		indices = null;
-		vertexElements = new LinkedList<VertexElement>();
+		attributes = new VertexElement[Semantic.values().length];
+		elementList = Collections.emptyList();
+		dirty = new DirtyRanges[attributes.length];
+		for (int i = 0; i < dirty.length; i++)
+			dirty[i] = new DirtyRanges();
+		dirtyVertices = new DirtyRanges();
+		dirtyIndices = new DirtyRanges();
 	}
 
 	public int getNumberOfVertices() {
@@ -59,16 +120,8 @@ public abstract class VertexData {
 			vertexElement.data = f;
 			vertexElement.semantic = s;
 			vertexElement.nComponents = i;
-
-			// Make sure POSITION is the last element in the list. This
-			// guarantees
-			// that rendering works as expected (i.e., vertex attributes are set
-			// before the vertex is rendered).
-			if (s == Semantic.POSITION) {
-				vertexElements.addLast(vertexElement);
-			} else {
-				vertexElements.addFirst(vertexElement);
-			}
+			vertexElement.format = Format.FLOAT;
+			addElement(vertexElement);
 		} else {
 			System.err
 					.println("Array of '"
@@ -79,18 +132,536 @@ public abstract class VertexData {
 		}
 	}
 
+	/**
+	 * Add an element stored in a compact format, see {@link VertexQuantizer}.
+	 * The buffer holds the encoded values of all vertices in native byte
+	 * order, and is passed to the renderer as is.
+	 * 
+	 * @param b
+	 *            the encoded data, from its position to its limit
+	 * @param s
+	 *            the semantic of the element
+	 * @param i
+	 *            the number of components per vertex
+	 * @param format
+	 *            the format of the components
+	 */
+	public void addElement(ByteBuffer b, Semantic s, int i, Format format) {
+		if (b.remaining() == n * format.getSize(i)) {
+			VertexElement vertexElement = new VertexElement();
+			vertexElement.buffer = b.slice().order(b.order());
+			vertexElement.semantic = s;
+			vertexElement.nComponents = i;
+			vertexElement.format = format;
+			addElement(vertexElement);
+		} else {
+			System.err
+					.println("Buffer of '"
+							+ s.name()
+							+ "' has not the correct size (must be number of vertices times the vertex size).\n"
+							+ "No elements for " + s.name()
+							+ " have been added so far.");
+		}
+	}
+
+	/**
+	 * Store an element in the slot of its semantic, replacing any element
+	 * with the same semantic.
+	 */
+	private void addElement(VertexElement vertexElement) {
+		attributes[vertexElement.semantic.ordinal()] = vertexElement;
+		attributeMask |= 1 << vertexElement.semantic.ordinal();
+		updateElementList();
+		if (vertexElement.semantic == Semantic.POSITION)
+			clearBounds();
+	}
+
+	/**
+	 * Remove the element with the given semantic, if any. Off-heap memory
+	 * of the element is released only by {@link #free()}.
+	 * 
+	 * @return the removed element, or null
+	 */
+	public VertexElement removeElement(Semantic s) {
+		VertexElement e = attributes[s.ordinal()];
+		if (e != null) {
+			attributes[s.ordinal()] = null;
+			attributeMask &= ~(1 << s.ordinal());
+			updateElementList();
+			if (s == Semantic.POSITION)
+				clearBounds();
+		}
+		return e;
+	}
+
+	private void updateElementList() {
+		List<VertexElement> list = new ArrayList<VertexElement>(Integer.bitCount(attributeMask));
+		for (VertexElement e : attributes) {
+			if (e != null)
+				list.add(e);
+		}
+		elementList = Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Add an element stored off-heap in the arena of this vertex data. The
+	 * caller writes the values into the returned buffer, which is passed to
+	 * OpenGL without copying.
+	 * 
+	 * @param s
+	 *            the semantic of the element
+	 * @param i
+	 *            the number of components per vertex
+	 * @return a buffer for the values of all vertices
+	 */
+	public FloatBuffer allocateElement(Semantic s, int i) {
+		return allocateElement(s, i, Format.FLOAT).asFloatBuffer();
+	}
+
+	/**
+	 * Add a float element, copying it off-heap if requested.
+	 */
+	void addElement(float[] data, Semantic s, int i, boolean offHeap) {
+		if (offHeap)
+			allocateElement(s, i).put(data);
+		else
+			addElement(data, s, i);
+	}
+
+	/**
+	 * Add an element in any format stored off-heap in the arena of this
+	 * vertex data.
+	 * 
+	 * @return a buffer in native byte order for the values of all vertices
+	 */
+	public ByteBuffer allocateElement(Semantic s, int i, Format format) {
+		ByteBuffer b = getArena().allocate(n * format.getSize(i));
+		VertexElement vertexElement = new VertexElement();
+		vertexElement.buffer = b;
+		vertexElement.semantic = s;
+		vertexElement.nComponents = i;
+		vertexElement.format = format;
+		addElement(vertexElement);
+		return b.duplicate().order(b.order());
+	}
+
 	public void addIndices(int[] indices) {
 		this.indices = indices;
+		this.indexBuffer = null;
 	}
 
-	public LinkedList<VertexElement> getElements() {
-		return vertexElements;
+	/**
+	 * Store the indices off-heap in the arena of this vertex data.
+	 * 
+	 * @param count
+	 *            the number of indices, i.e., three times the number of
+	 *            triangles
+	 * @return a buffer the caller writes the indices into
+	 */
+	public IntBuffer allocateIndices(int count) {
+		indexBuffer = getArena().allocate(count * 4).asIntBuffer();
+		indices = null;
+		return indexBuffer.duplicate();
 	}
 
+	/**
+	 * Use indices stored in a buffer without copying them, for example in a
+	 * memory-mapped file. The buffer must be in native byte order, and may
+	 * be read-only if the indices are not changed afterwards.
+	 * 
+	 * @param indices
+	 *            the indices, from the position to the limit of the buffer
+	 */
+	public void addIndices(IntBuffer indices) {
+		this.indexBuffer = indices.slice();
+		this.indices = null;
+	}
+
+	/**
+	 * @return the elements in the order of their semantics. The list cannot
+	 *         be modified, use {@link #removeElement(Semantic)} to remove
+	 *         elements.
+	 */
+	public List<VertexElement> getElements() {
+		return elementList;
+	}
+
+	/**
+	 * @return the element with the given semantic, or null if absent
+	 */
+	public VertexElement getElement(Semantic s) {
+		return attributes[s.ordinal()];
+	}
+
+	/**
+	 * @return the values of the float element with the given semantic as an
+	 *         array, see {@link VertexElement#toFloatArray()}, or null if
+	 *         absent
+	 */
+	public float[] toFloatArray(Semantic s) {
+		VertexElement e = attributes[s.ordinal()];
+		return e != null ? e.toFloatArray() : null;
+	}
+
+	public boolean hasElement(Semantic s) {
+		return (attributeMask & 1 << s.ordinal()) != 0;
+	}
+
+	/**
+	 * @return a bit mask with bit <code>1 &lt;&lt; s.ordinal()</code> set for
+	 *         each semantic s present
+	 */
+	public int getAttributeMask() {
+		return attributeMask;
+	}
+
+	/**
+	 * Describe the layout of a vertex: which semantics are present, and the
+	 * format and number of components of each. Vertex data with equal
+	 * vertex formats can share shaders and vertex array state, so renderers
+	 * can batch them.
+	 * 
+	 * @return a key with eight bits per semantic, equal for equal vertex
+	 *         formats
+	 */
+	public long getVertexFormat() {
+		long key = 0;
+		for (int i = 0; i < attributes.length; i++) {
+			VertexElement e = attributes[i];
+			if (e != null)
+				key |= (long) (0x80 | e.format.ordinal() << 3 | e.nComponents) << (i * 8);
+		}
+		return key;
+	}
+
+	/**
+	 * @return the index array, or null if the indices are stored off-heap
+	 *         (see {@link #getIndexBuffer()})
+	 */
 	public int[] getIndices() {
 		return indices;
 	}
 
+	/**
+	 * @return the indices as a buffer, wherever they are stored
+	 */
+	public IntBuffer getIndexBuffer() {
+		if (indexBuffer != null)
+			return indexBuffer.duplicate();
+		return indices != null ? IntBuffer.wrap(indices) : null;
+	}
+
+	/**
+	 * @return the indices as an array. Off-heap indices are copied.
+	 */
+	public int[] toIndexArray() {
+		if (indices != null || indexBuffer == null)
+			return indices;
+		int[] copy = new int[indexBuffer.capacity()];
+		indexBuffer.duplicate().get(copy);
+		return copy;
+	}
+
+	public int getNumberOfIndices() {
+		if (indexBuffer != null)
+			return indexBuffer.capacity();
+		return indices != null ? indices.length : 0;
+	}
+
+	/**
+	 * Tell the renderer that the values of some vertices of an element
+	 * changed. Write the new values into the array returned by
+	 * {@link VertexElement#getData()} or the buffer returned by
+	 * {@link VertexElement#getBuffer()} first. Only the changed vertices are
+	 * uploaded again the next time the data is drawn, see
+	 * {@link jrtr.glrenderer.GLVertexData.Usage}.
+	 * <p>
+	 * Changing the number of vertices or indices, or adding and removing
+	 * elements, needs a new upload instead. Marking positions dirty also
+	 * clears the cached bounds, see {@link #getBoundingBox()}.
+	 * 
+	 * @param s
+	 *            the semantic of the changed element
+	 * @param first
+	 *            the first changed vertex
+	 * @param count
+	 *            the number of changed vertices
+	 */
+	public void markDirty(Semantic s, int first, int count) {
+		if (count <= 0)
+			return;
+		if (s == Semantic.POSITION)
+			clearBounds();
+		dirty[s.ordinal()].add(first, first + count);
+		dirtyVertices.add(first, first + count);
+		dirtyMask |= 1 << s.ordinal();
+	}
+
+	/**
+	 * Tell the renderer that all vertices of an element changed.
+	 */
+	public void markDirty(Semantic s) {
+		markDirty(s, 0, n);
+	}
+
+	/**
+	 * The axis-aligned bounding box of the positions, in object
+	 * coordinates. It is computed once, in parallel for large vertex data,
+	 * and cached until the positions change.
+	 * 
+	 * @return {min x, min y, min z, max x, max y, max z}, or null if there
+	 *         are no vertices or positions, or the positions are stored in
+	 *         a normalized integer format
+	 */
+	public float[] getBoundingBox() {
+		float[] box = boundingBox();
+		return box != null ? box.clone() : null;
+	}
+
+	/**
+	 * A bounding sphere of the positions, in object coordinates: the
+	 * sphere around the center of the bounding box through the farthest
+	 * position. It is cached like the bounding box.
+	 * 
+	 * @return the center in x, y, z and the radius in w, or null if the
+	 *         bounding box is null
+	 */
+	public Vector4f getBoundingSphere() {
+		if (boundingBox() == null)
+			return null;
+		float[] s = boundingSphere;
+		return new Vector4f(s[0], s[1], s[2], s[3]);
+	}
+
+	/**
+	 * @return the cached bounding box itself, computing it if needed. A new
+	 *         array is made each time the bounds are computed again, so
+	 *         callers can tell by its identity whether the bounds changed.
+	 */
+	float[] boundingBox() {
+		if (boundingBox == null)
+			computeBounds();
+		return boundingBox;
+	}
+
+	/**
+	 * Seed the cache with a bounding box known from elsewhere, like the
+	 * extent of a file that was read. The box must contain all positions.
+	 */
+	void setBoundingBox(float[] box) {
+		float[] sphere = new float[4];
+		float r = 0;
+		for (int j = 0; j < 3; j++) {
+			sphere[j] = (box[j] + box[j + 3]) / 2;
+			r += (box[j + 3] - box[j]) * (box[j + 3] - box[j]);
+		}
+		sphere[3] = (float) Math.sqrt(r) / 2;
+		boundingSphere = sphere;
+		boundingBox = box.clone();
+	}
+
+	private void clearBounds() {
+		boundingBox = null;
+		boundingSphere = null;
+	}
+
+	/**
+	 * Compute the bounding box and then the sphere around its center in two
+	 * passes over the positions. Each pass is split into chunks whose
+	 * results are merged, so large vertex data is processed in parallel.
+	 */
+	private void computeBounds() {
+		final VertexElement e = attributes[Semantic.POSITION.ordinal()];
+		if (e == null || n == 0 || e.nComponents < 3
+				|| (e.format != Format.FLOAT && e.format != Format.HALF_FLOAT))
+			return;
+		final int chunks = (n + Parallel.GRAIN - 1) / Parallel.GRAIN;
+		final float[] boxes = new float[6 * chunks];
+		Parallel.forRange(chunks, 1, new Parallel.Range() {
+			public void run(int start, int end) {
+				for (int c = start; c < end; c++) {
+					int first = c * Parallel.GRAIN;
+					int last = Math.min(n, first + Parallel.GRAIN);
+					for (int j = 0; j < 3; j++) {
+						boxes[6 * c + j] = Float.POSITIVE_INFINITY;
+						boxes[6 * c + j + 3] = Float.NEGATIVE_INFINITY;
+					}
+					for (int v = first; v < last; v++) {
+						for (int j = 0; j < 3; j++) {
+							float x = e.component(v, j);
+							boxes[6 * c + j] = Math.min(boxes[6 * c + j], x);
+							boxes[6 * c + j + 3] = Math.max(boxes[6 * c + j + 3], x);
+						}
+					}
+				}
+			}
+		});
+		float[] box = new float[6];
+		System.arraycopy(boxes, 0, box, 0, 6);
+		for (int c = 1; c < chunks; c++) {
+			for (int j = 0; j < 3; j++) {
+				box[j] = Math.min(box[j], boxes[6 * c + j]);
+				box[j + 3] = Math.max(box[j + 3], boxes[6 * c + j + 3]);
+			}
+		}
+
+		final float cx = (box[0] + box[3]) / 2, cy = (box[1] + box[4]) / 2, cz = (box[2] + box[5]) / 2;
+		final float[] radii = new float[chunks];
+		Parallel.forRange(chunks, 1, new Parallel.Range() {
+			public void run(int start, int end) {
+				for (int c = start; c < end; c++) {
+					int last = Math.min(n, (c + 1) * Parallel.GRAIN);
+					float r = 0;
+					for (int v = c * Parallel.GRAIN; v < last; v++) {
+						float dx = e.component(v, 0) - cx, dy = e.component(v, 1) - cy, dz = e.component(v, 2) - cz;
+						r = Math.max(r, dx * dx + dy * dy + dz * dz);
+					}
+					radii[c] = r;
+				}
+			}
+		});
+		float r = 0;
+		for (int c = 0; c < chunks; c++)
+			r = Math.max(r, radii[c]);
+		boundingSphere = new float[] { cx, cy, cz, (float) Math.sqrt(r) };
+		boundingBox = box;
+	}
+
+	/**
+	 * Tell the renderer that some indices changed, see
+	 * {@link #markDirty(Semantic, int, int)}.
+	 */
+	public void markIndicesDirty(int first, int count) {
+		if (count <= 0)
+			return;
+		dirtyIndices.add(first, first + count);
+	}
+
+	public boolean isDirty() {
+		return dirtyMask != 0 || !dirtyIndices.isEmpty();
+	}
+
+	/**
+	 * @return a bit mask with bit <code>1 &lt;&lt; s.ordinal()</code> set for
+	 *         each semantic s with changed vertices
+	 */
+	public int getDirtyMask() {
+		return dirtyMask;
+	}
+
+	/**
+	 * @return the first changed vertex of an element
+	 */
+	public int getDirtyStart(Semantic s) {
+		return dirty[s.ordinal()].min();
+	}
+
+	/**
+	 * @return one past the last changed vertex of an element, or 0 if the
+	 *         element did not change
+	 */
+	public int getDirtyEnd(Semantic s) {
+		return dirty[s.ordinal()].max();
+	}
+
+	/**
+	 * The changed vertices of an element. Changes far apart are kept in
+	 * separate ranges, so renderers upload only the changed parts.
+	 * 
+	 * @return sorted, disjoint ranges as pairs of the first vertex and one
+	 *         past the last vertex
+	 */
+	public int[] getDirtyRanges(Semantic s) {
+		return dirty[s.ordinal()].toArray();
+	}
+
+	/**
+	 * @return the ranges of vertices changed in any element, like
+	 *         {@link #getDirtyRanges(Semantic)}
+	 */
+	public int[] getDirtyVertexRanges() {
+		return dirtyVertices.toArray();
+	}
+
+	public int getIndicesDirtyStart() {
+		return dirtyIndices.min();
+	}
+
+	public int getIndicesDirtyEnd() {
+		return dirtyIndices.max();
+	}
+
+	/**
+	 * @return the ranges of changed indices, like
+	 *         {@link #getDirtyRanges(Semantic)}
+	 */
+	public int[] getIndicesDirtyRanges() {
+		return dirtyIndices.toArray();
+	}
+
+	/**
+	 * Forget all changes, called by the renderer after uploading them.
+	 */
+	public void clearDirty() {
+		if (dirtyMask != 0) {
+			for (DirtyRanges d : dirty)
+				d.clear();
+			dirtyVertices.clear();
+		}
+		dirtyMask = 0;
+		dirtyIndices.clear();
+	}
+
+	/**
+	 * @return the meshlets of this vertex data, or null if none were built
+	 *         (see {@link Meshlets#build(VertexData)})
+	 */
+	public Meshlets getMeshlets() {
+		return meshlets;
+	}
+
+	/**
+	 * Store meshlets with this vertex data. Renderers draw only the
+	 * meshlets that may be visible. The meshlets must match the current
+	 * order of the indices.
+	 */
+	public void setMeshlets(Meshlets meshlets) {
+		this.meshlets = meshlets;
+	}
+
+	/**
+	 * @return the arena that stores the off-heap elements and indices of
+	 *         this vertex data. It is made when first needed.
+	 */
+	public VertexArena getArena() {
+		if (arena == null)
+			arena = new VertexArena();
+		return arena;
+	}
+
+	/**
+	 * @return whether this vertex data stores elements or indices off-heap
+	 */
+	public boolean isOffHeap() {
+		return arena != null;
+	}
+
+	/**
+	 * Release the off-heap memory of this vertex data immediately, and drop
+	 * all elements and indices. The vertex data must not be used afterwards.
+	 * Data already uploaded to the GPU is not affected.
+	 */
+	public void free() {
+		Arrays.fill(attributes, null);
+		clearBounds();
+		attributeMask = 0;
+		elementList = Collections.emptyList();
+		indices = null;
+		indexBuffer = null;
+		if (arena != null)
+			arena.free();
+	}
+
 	/**
 	 * A vertex element is an array of floats that stores vertex attributes,
 	 * like positions, normals, or texture coordinates. The element stores the
@@ -101,13 +672,65 @@ public abstract class VertexData {
 	public class VertexElement {
 
 		private float[] data;
+		private ByteBuffer buffer;
 		private Semantic semantic;
 		private int nComponents;
+		private Format format;
 
+		/**
+		 * @return the data of a {@link Format#FLOAT} element stored on the
+		 *         heap, or null if the element is stored off-heap or in a
+		 *         compact format
+		 */
 		public float[] getData() {
 			return data;
 		}
 
+		/**
+		 * @return the data of an element stored off-heap or in a compact
+		 *         format, or null for an element stored in a float array
+		 */
+		public ByteBuffer getBuffer() {
+			return buffer != null ? buffer.duplicate().order(buffer.order()) : null;
+		}
+
+		/**
+		 * @return the values of a {@link Format#FLOAT} element as an array.
+		 *         Elements stored off-heap are copied. Returns null for
+		 *         compact formats.
+		 */
+		public float[] toFloatArray() {
+			if (data != null || format != Format.FLOAT)
+				return data;
+			float[] copy = new float[n * nComponents];
+			getBuffer().asFloatBuffer().get(copy);
+			return copy;
+		}
+
+		/**
+		 * @return component j of vertex v of a {@link Format#FLOAT} or
+		 *         {@link Format#HALF_FLOAT} element
+		 */
+		private float component(int v, int j) {
+			int i = v * nComponents + j;
+			if (data != null)
+				return data[i];
+			if (format == Format.FLOAT)
+				return buffer.getFloat(4 * i);
+			return VertexQuantizer.fromHalf(buffer.getShort(2 * i));
+		}
+
+		public Format getFormat() {
+			return format;
+		}
+
+		/**
+		 * @return the number of bytes the element takes on the GPU
+		 */
+		public int getSizeInBytes() {
+			return n * format.getSize(nComponents);
+		}
+
 		public Semantic getSemantic() {
 			return semantic;
 		}
@@ -120,9 +743,57 @@ public abstract class VertexData {
 
 	/**
 	 * Vertex data semantic can be position, normal, texture or color
-	 * coordinates.
+	 * coordinates, or tangents for normal mapping (see
+	 * {@link TangentGenerator}).
 	 */
 	public enum Semantic {
-		POSITION, NORMAL, TEXCOORD, COLOR
+		POSITION, NORMAL, TEXCOORD, COLOR, TANGENT
+	}
+
+	/**
+	 * The storage format of the components of a vertex element. Integer
+	 * formats are normalized, i.e., the shader sees values in [0,1] for
+	 * unsigned and [-1,1] for signed formats.
+	 */
+	public enum Format {
+		/**
+		 * 32-bit floats.
+		 */
+		FLOAT(4),
+		/**
+		 * 16-bit floats.
+		 */
+		HALF_FLOAT(2),
+		/**
+		 * Signed normalized 16-bit integers.
+		 */
+		SNORM16(2),
+		/**
+		 * Unsigned normalized 16-bit integers.
+		 */
+		UNORM16(2),
+		/**
+		 * Unsigned normalized 8-bit integers.
+		 */
+		UNORM8(1),
+		/**
+		 * Four signed normalized components with 10, 10, 10 and 2 bits packed
+		 * into one 32-bit integer, x in the lowest bits.
+		 */
+		SNORM_10_10_10_2(0);
+
+		private final int componentSize;
+
+		Format(int componentSize) {
+			this.componentSize = componentSize;
+		}
+
+		/**
+		 * @return the number of bytes of one vertex with the given number of
+		 *         components
+		 */
+		public int getSize(int nComponents) {
+			return this == SNORM_10_10_10_2 ? 4 : componentSize * nComponents;
+		}
 	}
 }
@@ -0,0 +1,291 @@
+package jrtr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encodes the elements of vertex data into compact formats to save GPU
+ * memory and bandwidth. Call it once after importing a mesh, and after
+ * generating normals or tangents, since those need the float data:
+ * <ul>
+ * <li>positions become four half floats (with w = 1),
+ * <li>normals become three signed 10-bit components, or two signed 16-bit
+ * components in octahedral encoding,
+ * <li>tangents become three signed 10-bit components and a 2-bit
+ * handedness,
+ * <li>texture coordinates in [0,1] become unsigned 16-bit components, other
+ * texture coordinates half floats,
+ * <li>colors become four unsigned bytes (RGBA8).
+ * </ul>
+ * Position, normal and texture coordinate take 16 bytes per vertex instead
+ * of 32. Except for octahedral normals, the GPU decodes the values while
+ * fetching them, so shaders work unchanged. Octahedral normals arrive in the
+ * shader as a <code>vec2 normal</code> and are decoded with
+ * <pre>
+ * vec3 decodeNormal(vec2 e) {
+ *     vec3 n = vec3(e, 1.0 - abs(e.x) - abs(e.y));
+ *     float t = max(-n.z, 0.0);
+ *     n.xy += vec2(n.x &gt;= 0.0 ? -t : t, n.y &gt;= 0.0 ? -t : t);
+ *     return normalize(n);
+ * }
+ * </pre>
+ */
+public class VertexQuantizer {
+
+	/**
+	 * Encode all float elements of vertex data, using the packed 10-bit
+	 * normal format that works with unchanged shaders.
+	 */
+	public static void quantize(VertexData vertexData)
+	{
+		quantize(vertexData, false);
+	}
+
+	/**
+	 * Encode all float elements of vertex data. Elements that are already
+	 * encoded are kept.
+	 *
+	 * @param octahedralNormals
+	 * 		whether to encode normals in the octahedral format, which needs
+	 * 		decoding in the vertex shader
+	 */
+	public static void quantize(VertexData vertexData, boolean octahedralNormals)
+	{
+		int n = vertexData.getNumberOfVertices();
+		// Adding an encoded element replaces the float element with the same
+		// semantic, the list we iterate is not affected
+		for(VertexData.VertexElement e : vertexData.getElements())
+		{
+			float[] d = e.toFloatArray();
+			if(d == null)
+				continue;
+			int k = e.getNumberOfComponents();
+			ByteBuffer b;
+			VertexData.Format format;
+			int components;
+			switch(e.getSemantic()) {
+			case POSITION:
+				b = encodeHalf(d, k, 4, n, 1);
+				format = VertexData.Format.HALF_FLOAT;
+				components = 4;
+				break;
+			case NORMAL:
+				if(octahedralNormals)
+				{
+					b = encodeOctahedral(d, k, n);
+					format = VertexData.Format.SNORM16;
+					components = 2;
+				}
+				else
+				{
+					b = encode1010102(d, k, n);
+					format = VertexData.Format.SNORM_10_10_10_2;
+					components = 4;
+				}
+				break;
+			case TANGENT:
+				b = encode1010102(d, k, n);
+				format = VertexData.Format.SNORM_10_10_10_2;
+				components = 4;
+				break;
+			case TEXCOORD:
+				if(inUnitRange(d))
+				{
+					b = encodeUnorm16(d, k, n);
+					format = VertexData.Format.UNORM16;
+					components = k;
+				}
+				else
+				{
+					// Half floats keep the values in the 2-byte alignment
+					// the GPU prefers, so pad odd numbers of components
+					components = k + (k & 1);
+					b = encodeHalf(d, k, components, n, 0);
+					format = VertexData.Format.HALF_FLOAT;
+				}
+				break;
+			case COLOR:
+				b = encodeUnorm8(d, k, n);
+				format = VertexData.Format.UNORM8;
+				components = 4;
+				break;
+			default:
+				continue;
+			}
+			if(vertexData.isOffHeap())
+			{
+				// The float data stays in the arena until the vertex data is
+				// freed
+				vertexData.allocateElement(e.getSemantic(), components, format).put(b);
+			}
+			else
+				vertexData.addElement(b, e.getSemantic(), components, format);
+		}
+	}
+
+	/**
+	 * Encode as half floats, padding each vertex from <code>k</code> to
+	 * <code>m</code> components. The last padded component is set to
+	 * <code>w</code>, the others to 0.
+	 */
+	static ByteBuffer encodeHalf(float[] d, int k, int m, int n, float w)
+	{
+		ByteBuffer b = allocate(n*m*2);
+		for(int i=0; i<n; i++)
+		{
+			for(int j=0; j<m; j++)
+			{
+				float v = j < k ? d[i*k+j] : (j == m-1 ? w : 0);
+				b.putShort(toHalf(v));
+			}
+		}
+		b.flip();
+		return b;
+	}
+
+	static ByteBuffer encodeOctahedral(float[] d, int k, int n)
+	{
+		ByteBuffer b = allocate(n*4);
+		for(int i=0; i<n; i++)
+		{
+			float x = d[i*k], y = d[i*k+1], z = d[i*k+2];
+			float l1 = Math.abs(x) + Math.abs(y) + Math.abs(z);
+			if(l1 == 0)
+			{
+				x = 0; y = 0; z = 1; l1 = 1;
+			}
+			x /= l1;
+			y /= l1;
+			if(z < 0)
+			{
+				// Fold the lower hemisphere over the diagonals
+				float fx = (1 - Math.abs(y)) * (x >= 0 ? 1 : -1);
+				float fy = (1 - Math.abs(x)) * (y >= 0 ? 1 : -1);
+				x = fx;
+				y = fy;
+			}
+			b.putShort((short)Math.round(clamp(x, -1, 1)*32767));
+			b.putShort((short)Math.round(clamp(y, -1, 1)*32767));
+		}
+		b.flip();
+		return b;
+	}
+
+	/**
+	 * Encode three components as signed 10-bit values and a fourth component
+	 * (the handedness of tangents, 1 if absent) as a signed 2-bit value.
+	 */
+	static ByteBuffer encode1010102(float[] d, int k, int n)
+	{
+		ByteBuffer b = allocate(n*4);
+		for(int i=0; i<n; i++)
+		{
+			int x = Math.round(clamp(d[i*k], -1, 1)*511) & 0x3FF;
+			int y = Math.round(clamp(d[i*k+1], -1, 1)*511) & 0x3FF;
+			int z = Math.round(clamp(d[i*k+2], -1, 1)*511) & 0x3FF;
+			int w = (k > 3 && d[i*k+3] < 0 ? -1 : 1) & 0x3;
+			b.putInt(x | y << 10 | z << 20 | w << 30);
+		}
+		b.flip();
+		return b;
+	}
+
+	static ByteBuffer encodeUnorm16(float[] d, int k, int n)
+	{
+		ByteBuffer b = allocate(n*k*2);
+		for(int i=0; i<n*k; i++)
+			b.putShort((short)Math.round(clamp(d[i], 0, 1)*65535));
+		b.flip();
+		return b;
+	}
+
+	/**
+	 * Encode as four unsigned bytes, with alpha 1 if there are only three
+	 * components.
+	 */
+	static ByteBuffer encodeUnorm8(float[] d, int k, int n)
+	{
+		ByteBuffer b = allocate(n*4);
+		for(int i=0; i<n; i++)
+		{
+			for(int j=0; j<4; j++)
+			{
+				float v = j < k ? d[i*k+j] : 1;
+				b.put((byte)Math.round(clamp(v, 0, 1)*255));
+			}
+		}
+		b.flip();
+		return b;
+	}
+
+	/**
+	 * Convert a float to a half float with round to nearest even.
+	 */
+	static short toHalf(float f)
+	{
+		int bits = Float.floatToIntBits(f);
+		int sign = (bits >>> 16) & 0x8000;
+		int exponent = (bits >>> 23) & 0xFF;
+		int mantissa = bits & 0x7FFFFF;
+
+		if(exponent == 0xFF)
+			return (short)(sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));	// NaN or infinity
+		int e = exponent - 127 + 15;
+		if(e >= 0x1F)
+			return (short)(sign | 0x7C00);	// Overflow to infinity
+		if(e <= 0)
+		{
+			// Subnormal half, or zero
+			if(e < -10)
+				return (short)sign;
+			mantissa |= 0x800000;
+			int shift = 14 - e;
+			int half = mantissa >> shift;
+			int rest = mantissa & ((1 << shift) - 1);
+			int halfway = 1 << (shift - 1);
+			if(rest > halfway || (rest == halfway && (half & 1) != 0))
+				half++;
+			return (short)(sign | half);
+		}
+		int half = e << 10 | mantissa >> 13;
+		int rest = mantissa & 0x1FFF;
+		if(rest > 0x1000 || (rest == 0x1000 && (half & 1) != 0))
+			half++;	// May carry into the exponent, which is correct
+		return (short)(sign | half);
+	}
+
+	/**
+	 * Convert a half float to a float.
+	 */
+	static float fromHalf(short h)
+	{
+		int sign = (h & 0x8000) << 16;
+		int exponent = (h >>> 10) & 0x1F;
+		int mantissa = h & 0x3FF;
+		if(exponent == 0)
+			return (sign != 0 ? -1 : 1) * mantissa * (1f / (1 << 24));
+		if(exponent == 0x1F)
+			return Float.intBitsToFloat(sign | 0x7F800000 | mantissa << 13);
+		return Float.intBitsToFloat(sign | (exponent - 15 + 127) << 23 | mantissa << 13);
+	}
+
+	private static boolean inUnitRange(float[] d)
+	{
+		for(float f : d)
+		{
+			if(!(f >= 0 && f <= 1))
+				return false;
+		}
+		return true;
+	}
+
+	private static float clamp(float v, float min, float max)
+	{
+		return v < min ? min : (v > max ? max : v);
+	}
+
+	private static ByteBuffer allocate(int size)
+	{
+		return ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+	}
+}
@@ -20,7 +20,7 @@ import jrtr.*;
  * @author Heinrich Reich
  *
  */
-public class GLDeferredRenderContext implements RenderContext{
+public class GLDeferredRenderContext implements RenderContext, GLUploader{
 	
 	/**
 	 * Global GL context.
@@ -61,6 +61,7 @@ public class GLDeferredRenderContext implements RenderContext{
 	private SecondPassDrawer secondPassDrawer;
 	ArrayList<PostProcessor> postProcessors;
 	private ArrayList<GLVertexArrayObject> vertexArrayObjects = new ArrayList<GLVertexArrayObject>();
+	private GLUploadQueue uploadQueue = new GLUploadQueue();
 	
 	private GLShader prevUsedShader = null;
 	
@@ -112,6 +113,10 @@ public class GLDeferredRenderContext implements RenderContext{
 	 */
 	public void display(GLAutoDrawable drawable){
 
+		// Run the uploads queued by asset loaders and start counting the
+		// uploads of this frame
+		uploadQueue.process();
+
 		// Render to g-buffer
 		this.renderToGBuffer(drawable);
 	
@@ -297,6 +302,25 @@ public class GLDeferredRenderContext implements RenderContext{
 		}
 	}
 	
+	/**
+	 * @return the queue of uploads prepared by a {@link GLAssetLoader},
+	 * 		which also counts the bytes of changed vertex data uploaded per
+	 * 		frame, see {@link GLUploadQueue#getLastFrameUpdateBytes()}
+	 */
+	public GLUploadQueue getUploadQueue(){
+		return uploadQueue;
+	}
+	
+	/**
+	 * Uploads vertex data loaded by a {@link GLAssetLoader} into a vertex
+	 * array object.
+	 */
+	public void upload(GLVertexData vertexData){
+		if (vertexData.getVAO() == null) {
+			initArrayBuffer(vertexData);
+		}
+	}
+	
 	/**
 	 * @return our g-buffer object
 	 */
@@ -380,31 +404,16 @@ public class GLDeferredRenderContext implements RenderContext{
 	 */
 	protected void draw(RenderItem renderItem) {
 		
-		GLVertexData vertexData = ((GLVertexData) renderItem.getShape().getVertexData());
+		GLVertexData vertexData = ((GLVertexData) renderItem.getVertexData());
 		if (vertexData.getVAO() == null) {
 			initArrayBuffer(vertexData);
+		} else if (vertexData.isDirty()) {
+			uploadQueue.addUpdateBytes(vertexData.getVAO().update(vertexData));
 		}
 		setTransformation(renderItem.getT());
 		vertexData.getVAO().bind();
-		ListIterator<VertexData.VertexElement> itr = vertexData.getElements().listIterator(0);
-		vertexData.getVAO().rewindVBO();
-		while (itr.hasNext()) {
-			VertexData.VertexElement e = itr.next();
-			int dim = e.getNumberOfComponents();
-			gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, vertexData.getVAO().getNextVBO());
-			int attribIndex = -1;
-			switch (e.getSemantic()) {
-			case POSITION: attribIndex = gl.glGetAttribLocation(activeShaderID, "position"); break;
-			case NORMAL: attribIndex = gl.glGetAttribLocation(activeShaderID, "normal"); break;
-			case COLOR: attribIndex = gl.glGetAttribLocation(activeShaderID, "color"); break;
-			case TEXCOORD: attribIndex = gl.glGetAttribLocation(activeShaderID, "texcoord"); break;
-			}
-
-			gl.glVertexAttribPointer(attribIndex, dim, GL3.GL_FLOAT, false, 0, 0);
-			gl.glEnableVertexAttribArray(attribIndex);
-		}
-		gl.glDrawElements(GL3.GL_TRIANGLES, renderItem.getShape()
-				.getVertexData().getIndices().length, GL3.GL_UNSIGNED_INT, 0);
+		gl.glDrawElements(GL3.GL_TRIANGLES, vertexData.getNumberOfIndices(), GL3.GL_UNSIGNED_INT, 0);
+		vertexData.getVAO().fence();
 		gl.glBindVertexArray(0);
 	}
 	
@@ -417,25 +426,9 @@ public class GLDeferredRenderContext implements RenderContext{
 	 * 			reference to the vertex data to be loaded into a VAO
 	 */
 	private void initArrayBuffer(GLVertexData data) {
-		GLVertexArrayObject vao = new GLVertexArrayObject(gl, data.getElements().size() + 1);
+		GLVertexArrayObject vao = new GLVertexArrayObject(gl, data);
 		vertexArrayObjects.add(vao);
 		data.setVAO(vao);
-		vao.bind();
-		ListIterator<VertexData.VertexElement> itr = data.getElements().listIterator(0);
-		data.getVAO().rewindVBO();
-		while (itr.hasNext()) {
-			VertexData.VertexElement e = itr.next();
-			gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, data.getVAO().getNextVBO());
-			gl.glBufferData(GL3.GL_ARRAY_BUFFER, e.getData().length * 4,
-					FloatBuffer.wrap(e.getData()), GL3.GL_DYNAMIC_DRAW);
-
-		}
-		gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, 0);
-		gl.glBindBuffer(GL3.GL_ELEMENT_ARRAY_BUFFER, data.getVAO().getNextVBO());
-		gl.glBufferData(GL3.GL_ELEMENT_ARRAY_BUFFER,
-				data.getIndices().length * 4,
-				IntBuffer.wrap(data.getIndices()), GL3.GL_DYNAMIC_DRAW);
-		gl.glBindVertexArray(0);
 	}
 
 	private final Matrix4f mTemp = new Matrix4f();
@@ -0,0 +1,312 @@
+package jrtr.glrenderer;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Function;
+
+import jrtr.Material;
+import jrtr.MeshCache;
+import jrtr.ObjReader;
+import jrtr.RenderContext;
+import jrtr.Shader;
+import jrtr.Shape;
+import jrtr.Texture;
+import jrtr.TextureCache;
+import jrtr.VertexData;
+
+/**
+ * Loads meshes, textures and shaders in the background. File reading,
+ * parsing and image decoding run on worker threads. The OpenGL calls that
+ * make the data resident on the GPU are handed to the {@link GLUploadQueue}
+ * of the render context, which executes them on the rendering thread at the
+ * start of a frame, within a per-frame byte budget.
+ * <p>
+ * All returned futures complete on the rendering thread once the asset is
+ * resident, so dependent actions like adding a shape to the scene can be
+ * chained directly:
+ * <pre>
+ * loader.loadShape("../obj/bunny.obj", 2, null).thenAccept(new Consumer&lt;Shape&gt;() {
+ *     public void accept(Shape s) { sceneManager.addShape(s); }
+ * });
+ * </pre>
+ * Note that the scene managers are not thread-safe, and the chained action
+ * runs on the rendering thread, in between frames.
+ * <p>
+ * Objects with materials are loaded with {@link #loadShapes(String, float)},
+ * whose texture maps go through a {@link TextureCache} of the loader that
+ * decodes them on the worker threads as well.
+ */
+public class GLAssetLoader {
+
+	private RenderContext renderContext;
+	private GLUploadQueue uploadQueue;
+	private GLUploader uploader;
+	private ExecutorService workers;
+	private TextureCache textures;
+
+	/**
+	 * A texture cache that decodes images on the thread that asks for them
+	 * and queues the upload. The queue runs in order, so the textures of a
+	 * file are resident before its shapes, which are queued after reading
+	 * the whole file.
+	 */
+	private class QueuedTextureCache extends TextureCache {
+
+		QueuedTextureCache(RenderContext renderContext)
+		{
+			super(renderContext);
+		}
+
+		protected void load(Texture texture, final String fileName) throws IOException
+		{
+			final GLTexture t = (GLTexture)texture;
+			final IntBuffer data = t.decode(fileName);
+			uploadQueue.enqueue(data.capacity() * 4L, new Runnable() {
+				public void run()
+				{
+					try {
+						t.upload(data);
+					} catch(Throwable e) {
+						System.err.println("Could not upload texture " + fileName + ": " + e);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * @param renderContext
+	 * 		an OpenGL render context, i.e., a {@link GLRenderContext}, a
+	 * 		{@link VRRenderContext} or a
+	 * 		{@link jrtr.gldeferredrenderer.GLDeferredRenderContext}
+	 * @param nThreads
+	 * 		the number of worker threads
+	 */
+	public GLAssetLoader(RenderContext renderContext, int nThreads)
+	{
+		if(!(renderContext instanceof GLUploader))
+			throw new IllegalArgumentException("Render context does not support asynchronous uploads");
+		this.renderContext = renderContext;
+		uploader = (GLUploader)renderContext;
+		uploadQueue = uploader.getUploadQueue();
+		textures = new QueuedTextureCache(renderContext);
+		workers = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "jrtr asset loader");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * @return the queue that limits how much data is uploaded per frame
+	 */
+	public GLUploadQueue getUploadQueue()
+	{
+		return uploadQueue;
+	}
+
+	/**
+	 * @return the cache that shares the textures of the materials loaded by
+	 * 		{@link #loadShapes(String, float)}
+	 */
+	public TextureCache getTextureCache()
+	{
+		return textures;
+	}
+
+	private static long bytes(VertexData vertexData)
+	{
+		long bytes = vertexData.getNumberOfIndices() * 4L;
+		for(VertexData.VertexElement e : vertexData.getElements())
+			bytes += e.getSizeInBytes();
+		return bytes;
+	}
+
+	/**
+	 * Load a mesh from an .obj file through the {@link MeshCache}.
+	 *
+	 * @param scale
+	 * 		scales the object to fit into a cube of the given size
+	 * @return a future that completes when the vertex data is on the GPU
+	 */
+	public CompletableFuture<VertexData> loadVertexData(final String fileName, final float scale)
+	{
+		final CompletableFuture<VertexData> future = new CompletableFuture<VertexData>();
+		workers.execute(new Runnable() {
+			public void run()
+			{
+				try {
+					final GLVertexData vertexData = (GLVertexData)MeshCache.read(fileName, scale, renderContext);
+					uploadQueue.enqueue(bytes(vertexData), new Runnable() {
+						public void run()
+						{
+							try {
+								uploader.upload(vertexData);
+								future.complete(vertexData);
+							} catch(Throwable t) {
+								future.completeExceptionally(t);
+							}
+						}
+					});
+				} catch(Throwable t) {
+					future.completeExceptionally(t);
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Load a mesh and wrap it in a shape.
+	 *
+	 * @param material
+	 * 		the material of the shape, or null
+	 * @return a future that completes when the vertex data is on the GPU
+	 */
+	public CompletableFuture<Shape> loadShape(String fileName, float scale, final Material material)
+	{
+		return loadVertexData(fileName, scale).thenApply(new Function<VertexData, Shape>() {
+			public Shape apply(VertexData vertexData)
+			{
+				Shape shape = new Shape(vertexData);
+				if(material != null)
+					shape.setMaterial(material);
+				return shape;
+			}
+		});
+	}
+
+	/**
+	 * Load an .obj file with its materials, one shape per material, see
+	 * {@link ObjReader#readShapes(String, float, RenderContext, TextureCache)}.
+	 * The texture maps are decoded on the worker thread through
+	 * {@link #getTextureCache()}, and the textures and the vertex data of the
+	 * shapes are uploaded within the budget of the upload queue.
+	 *
+	 * @param scale
+	 * 		scales the object to fit into a cube of the given size
+	 * @return a future that completes when the vertex data of all shapes and
+	 * 		their textures are on the GPU
+	 */
+	public CompletableFuture<List<Shape>> loadShapes(final String fileName, final float scale)
+	{
+		final CompletableFuture<List<Shape>> future = new CompletableFuture<List<Shape>>();
+		workers.execute(new Runnable() {
+			public void run()
+			{
+				try {
+					final List<Shape> shapes = ObjReader.readShapes(fileName, scale, renderContext, textures);
+					for(Shape shape : shapes)
+					{
+						final GLVertexData vertexData = (GLVertexData)shape.getVertexData();
+						uploadQueue.enqueue(bytes(vertexData), new Runnable() {
+							public void run()
+							{
+								if(future.isDone())
+									return;
+								try {
+									uploader.upload(vertexData);
+								} catch(Throwable t) {
+									future.completeExceptionally(t);
+								}
+							}
+						});
+					}
+					uploadQueue.enqueue(0, new Runnable() {
+						public void run()
+						{
+							future.complete(shapes);
+						}
+					});
+				} catch(Throwable t) {
+					future.completeExceptionally(t);
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Load a texture from an image file.
+	 *
+	 * @return a future that completes when the texture is on the GPU
+	 */
+	public CompletableFuture<Texture> loadTexture(final String fileName)
+	{
+		final CompletableFuture<Texture> future = new CompletableFuture<Texture>();
+		workers.execute(new Runnable() {
+			public void run()
+			{
+				try {
+					final GLTexture texture = (GLTexture)renderContext.makeTexture();
+					final IntBuffer data = texture.decode(fileName);
+					uploadQueue.enqueue(data.capacity() * 4L, new Runnable() {
+						public void run()
+						{
+							try {
+								texture.upload(data);
+								future.complete(texture);
+							} catch(Throwable t) {
+								future.completeExceptionally(t);
+							}
+						}
+					});
+				} catch(Throwable t) {
+					future.completeExceptionally(t);
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Load the vertex and fragment shader programs from a file.
+	 *
+	 * @return a future that completes when the shader is compiled and linked
+	 */
+	public CompletableFuture<Shader> loadShader(final String vertexFileName, final String fragmentFileName)
+	{
+		final CompletableFuture<Shader> future = new CompletableFuture<Shader>();
+		workers.execute(new Runnable() {
+			public void run()
+			{
+				try {
+					final String vsrc = GLShader.readSource(vertexFileName);
+					final String fsrc = GLShader.readSource(fragmentFileName);
+					final GLShader shader = (GLShader)renderContext.makeShader();
+					uploadQueue.enqueue(0, new Runnable() {
+						public void run()
+						{
+							try {
+								shader.compile(vsrc, fsrc, vertexFileName, fragmentFileName);
+								future.complete(shader);
+							} catch(Throwable t) {
+								future.completeExceptionally(t);
+							}
+						}
+					});
+				} catch(Throwable t) {
+					future.completeExceptionally(t);
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Stop the worker threads. Loads that have already been started are
+	 * completed.
+	 */
+	public void shutdown()
+	{
+		workers.shutdown();
+	}
+}
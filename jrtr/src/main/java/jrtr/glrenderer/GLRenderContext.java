@@ -1,7 +1,5 @@
 package jrtr.glrenderer;
 
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 import java.util.*;
 
 import javax.media.opengl.GL3;
@@ -10,6 +8,7 @@ import javax.vecmath.*;
 
 import jrtr.Light;
 import jrtr.Material;
+import jrtr.Meshlets;
 import jrtr.RenderContext;
 import jrtr.RenderItem;
 import jrtr.SceneManagerInterface;
@@ -17,18 +16,28 @@ import jrtr.SceneManagerIterator;
 import jrtr.Shader;
 import jrtr.Texture;
 import jrtr.VertexData;
-import jrtr.VertexData.VertexElement;
 
 
 /**
  * Implements a {@link RenderContext} (a renderer) using OpenGL
  * version 3 (or later).
  */
-public class GLRenderContext implements RenderContext {
+public class GLRenderContext implements RenderContext, GLUploader {
 
 	private SceneManagerInterface sceneManager;
 	private GL3 gl;
 
+	/**
+	 * Uploads prepared by a {@link GLAssetLoader}, executed at the start of
+	 * each frame.
+	 */
+	private GLUploadQueue uploadQueue = new GLUploadQueue();
+
+	/**
+	 * The meshlets of the shape being drawn that passed culling.
+	 */
+	private int[] visibleMeshlets = new int[0];
+
 	/**
 	 * The default shader for this render context.
 	 */
@@ -84,6 +93,9 @@ public class GLRenderContext implements RenderContext {
 		// Get reference to the OpenGL rendering context
 		gl = drawable.getGL().getGL3();
 
+		// Execute pending uploads of asynchronously loaded assets
+		uploadQueue.process();
+
 		// Do some processing at the beginning of the frame
 		beginFrame();
 
@@ -133,76 +145,42 @@ public class GLRenderContext implements RenderContext {
 		// Set the material of the shape to be rendered
 		setMaterial(renderItem.getShape().getMaterial());
 		
-		// Get reference to the vertex data of the render item to be rendered
-		GLVertexData vertexData = (GLVertexData) renderItem.getShape()
-				.getVertexData();
+		// Get reference to the vertex data of the render item to be rendered,
+		// which is the level of detail the scene manager picked
+		GLVertexData vertexData = (GLVertexData) renderItem.getVertexData();
 
 		// Check if the vertex data has been uploaded to OpenGL via a
 		// "vertex array object" (VAO). The VAO will store the vertex data
 		// in several "vertex buffer objects" (VBOs) on the GPU. We do this
 		// only once for performance reasons. Once the data is in the VBOs
 		// asscociated with a VAO, it is stored on the GPU and rendered more 
-		// efficiently.
+		// efficiently. Afterwards, only vertices that changed are uploaded.
 		if (vertexData.getVAO() == null) {
 			initArrayBuffer(vertexData);
+		} else if (vertexData.isDirty()) {
+			uploadQueue.addUpdateBytes(vertexData.getVAO().update(vertexData));
 		}
 
 		// Set modelview and projection matrices in shader (has to be done in
 		// every step, since they usually have changed)
-		setTransformation(renderItem.getT());
+		Matrix4f modelview = setTransformation(renderItem.getT());
 
 		// Bind the VAO of this shape. This activates the VBOs that we 
 		// associated with the VAO. We already loaded the vertex data into the
-		// VBOs on the GPU, so we do not have to send them again.
+		// VBOs on the GPU, so we do not have to send them again. The VAO also
+		// stores how the vertex buffers are connected to the variables in the
+		// vertex shader, since all shaders use the same attribute locations.
 		vertexData.getVAO().bind();
-		
-		// Try to connect the vertex buffers to the corresponding variables 
-		// in the current vertex shader.
-		// Note: This is not part of the vertex array object, because the active
-		// shader may have changed since the vertex array object was initialized. 
-		// We need to make sure the vertex buffers are connected to the right
-		// variables in the shader
-		ListIterator<VertexData.VertexElement> itr = vertexData.getElements()
-				.listIterator(0);
-		vertexData.getVAO().rewindVBO();
-		while (itr.hasNext()) {
-			VertexData.VertexElement e = itr.next();
-			int dim = e.getNumberOfComponents();
-
-			// Bind the next vertex buffer object
-			gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, vertexData.getVAO().getNextVBO());
-
-			// Tell OpenGL which "in" variable in the vertex shader corresponds
-			// to the current vertex buffer object.
-			// We use our own convention to name the variables, i.e.,
-			// "position", "normal", "color", "texcoord", or others if
-			// necessary.
-			int attribIndex = -1;
-			switch (e.getSemantic()) {
-			case POSITION:
-				attribIndex = gl
-						.glGetAttribLocation(activeShaderID, "position");
-				break;
-			case NORMAL:
-				attribIndex = gl.glGetAttribLocation(activeShaderID, "normal");
-				break;
-			case COLOR:
-				attribIndex = gl.glGetAttribLocation(activeShaderID, "color");
-				break;
-			case TEXCOORD:
-				attribIndex = gl
-						.glGetAttribLocation(activeShaderID, "texcoord");
-				break;
-			}
 
-			gl.glVertexAttribPointer(attribIndex, dim, GL3.GL_FLOAT, false, 0,
-					0);
-			gl.glEnableVertexAttribArray(attribIndex);
+		// Render the vertex buffer objects. If the vertex data has meshlets,
+		// only the meshlets that may be visible are drawn.
+		Meshlets meshlets = vertexData.getMeshlets();
+		if (meshlets == null) {
+			gl.glDrawElements(GL3.GL_TRIANGLES, vertexData.getNumberOfIndices(), GL3.GL_UNSIGNED_INT, 0);
+		} else {
+			drawMeshlets(meshlets, modelview);
 		}
-
-		// Render the vertex buffer objects
-		gl.glDrawElements(GL3.GL_TRIANGLES, renderItem.getShape()
-				.getVertexData().getIndices().length, GL3.GL_UNSIGNED_INT, 0);
+		vertexData.getVAO().fence();
 
 		// We are done with this shape, bind the default vertex array
 		gl.glBindVertexArray(0);
@@ -210,56 +188,44 @@ public class GLRenderContext implements RenderContext {
 		cleanMaterial(renderItem.getShape().getMaterial());
 	}
 	
+	/**
+	 * Draw the meshlets that are inside the view frustum and not back-facing.
+	 * Meshlets that follow each other in the index buffer are drawn with
+	 * one call.
+	 */
+	private void drawMeshlets(Meshlets meshlets, Matrix4f modelview) {
+		if (visibleMeshlets.length < meshlets.size())
+			visibleMeshlets = new int[meshlets.size()];
+		int n = meshlets.cull(modelview, sceneManager.getFrustum().getProjectionMatrix(), visibleMeshlets);
+		int i = 0;
+		while (i < n) {
+			int first = meshlets.getFirstIndex(visibleMeshlets[i]);
+			int count = meshlets.getIndexCount(visibleMeshlets[i]);
+			while (++i < n && meshlets.getFirstIndex(visibleMeshlets[i]) == first + count)
+				count += meshlets.getIndexCount(visibleMeshlets[i]);
+			gl.glDrawElements(GL3.GL_TRIANGLES, count, GL3.GL_UNSIGNED_INT, first * 4L);
+		}
+	}
+
 	/**
 	 * A utility method to load vertex data into an OpenGL "vertex array object"
-	 * (VAO) for efficient rendering. The VAO stores several "vertex buffer objects"
-	 * (VBOs) that contain the vertex attribute data.
+	 * (VAO) for efficient rendering. The VAO stores one or several "vertex buffer
+	 * objects" (VBOs) that contain the vertex attribute data, depending on the
+	 * layout of the vertex data.
 	 *  
 	 * @param data
 	 * 			reference to the vertex data to be loaded into a VAO
 	 */
 	private void initArrayBuffer(GLVertexData data) {
-		
-		// Make a vertex array object (VAO) for this vertex data
-		// and store a reference to it
-		GLVertexArrayObject vao = new GLVertexArrayObject(gl, data.getElements().size() + 1);
-		data.setVAO(vao);
-		
-		// Bind (activate) the VAO for the vertex data in OpenGL.
-		// The subsequent OpenGL operations on VBOs will be recorded (stored)
-		// in the VAO.
-		vao.bind();
-
-		// Store all vertex attributes in vertex buffer objects (VBOs)
-		ListIterator<VertexData.VertexElement> itr = data.getElements()
-				.listIterator(0);
-		data.getVAO().rewindVBO();
-		while (itr.hasNext()) {
-			VertexData.VertexElement e = itr.next();
-
-			// Bind the vertex buffer object (VBO)
-			gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, data.getVAO().getNextVBO());
-			// Upload vertex data
-			gl.glBufferData(GL3.GL_ARRAY_BUFFER, e.getData().length * 4,
-					FloatBuffer.wrap(e.getData()), GL3.GL_DYNAMIC_DRAW);
-
-		}
-
-		// Bind the default vertex buffer objects
-		gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, 0);
-
-		// Store the vertex data indices into the last vertex buffer
-		gl.glBindBuffer(GL3.GL_ELEMENT_ARRAY_BUFFER, data.getVAO().getNextVBO());
-		gl.glBufferData(GL3.GL_ELEMENT_ARRAY_BUFFER,
-				data.getIndices().length * 4,
-				IntBuffer.wrap(data.getIndices()), GL3.GL_DYNAMIC_DRAW);
-
-		// Bind the default vertex array object. This "deactivates" the VAO
-		// of the vertex data
-		gl.glBindVertexArray(0);		
+		data.setVAO(new GLVertexArrayObject(gl, data));
 	}
 
-	private void setTransformation(Matrix4f transformation) {
+	/**
+	 * Set the modelview and projection matrices in the active shader.
+	 * 
+	 * @return the modelview matrix
+	 */
+	private Matrix4f setTransformation(Matrix4f transformation) {
 		// Compute the modelview matrix by multiplying the camera matrix and
 		// the transformation matrix of the object
 		Matrix4f modelview = new Matrix4f(sceneManager.getCamera()
@@ -273,7 +239,7 @@ public class GLRenderContext implements RenderContext {
 		gl.glUniformMatrix4fv(gl.glGetUniformLocation(activeShaderID,
 				"projection"), 1, false, transformationToFloat16(sceneManager
 				.getFrustum().getProjectionMatrix()), 0);
-
+		return modelview;
 	}
 
 	/**
@@ -393,6 +359,16 @@ public class GLRenderContext implements RenderContext {
 		useShader(defaultShader);
 	}
 
+	public GLUploadQueue getUploadQueue() {
+		return uploadQueue;
+	}
+
+	public void upload(GLVertexData vertexData) {
+		if (vertexData.getVAO() == null) {
+			initArrayBuffer(vertexData);
+		}
+	}
+
 	public Shader makeShader() {
 		return new GLShader(gl);
 	}
@@ -2,6 +2,7 @@ package jrtr.glrenderer;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
@@ -9,6 +10,7 @@ import java.nio.IntBuffer;
 import javax.media.opengl.GL3;
 
 import jrtr.Shader;
+import jrtr.VertexData;
 
 /**
  * Manages OpenGL shaders.
@@ -70,26 +72,38 @@ public class GLShader implements Shader {
 	 */
 	public void load(String vertexFileName, String fragmentFileName) throws Exception	
 	{			
-		String vsrc[] = new String[1];
-		String fsrc[] = new String[1];
-		
-		// Read shader programs from file
-		BufferedReader brv = new BufferedReader(new FileReader(vertexFileName));
-		vsrc[0]= "";
-		String line;
-		while ((line=brv.readLine()) != null) {
-		  vsrc[0] += line + "\n";
-		}
-
-		BufferedReader brf = new BufferedReader(new FileReader(fragmentFileName));
-		fsrc[0] = "";
-		while ((line=brf.readLine()) != null) {
-		  fsrc[0] += line + "\n";
+		compile(readSource(vertexFileName), readSource(fragmentFileName),
+				vertexFileName, fragmentFileName);
+	}
+	
+	/**
+	 * Read a shader program from a file. This does not make any OpenGL calls
+	 * and may be called on any thread.
+	 */
+	static String readSource(String fileName) throws IOException
+	{
+		BufferedReader br = new BufferedReader(new FileReader(fileName));
+		StringBuilder src = new StringBuilder();
+		try {
+			String line;
+			while ((line=br.readLine()) != null) {
+			  src.append(line).append("\n");
+			}
+		} finally {
+			br.close();
 		}
-		
-		// Close file readers
-		brv.close();
-		brf.close();
+		return src.toString();
+	}
+	
+	/**
+	 * Compile and link the vertex and fragment shader programs. Must be called
+	 * on the rendering thread.
+	 */
+	void compile(String vertexSource, String fragmentSource, String vertexFileName,
+			String fragmentFileName) throws Exception
+	{
+		String vsrc[] = { vertexSource };
+		String fsrc[] = { fragmentSource };
 
 		// Make (compile and link) OpenGL shaders
 		vertexHandle = gl.glCreateShader(GL3.GL_VERTEX_SHADER);
@@ -108,6 +122,12 @@ public class GLShader implements Shader {
 		p = gl.glCreateProgram();
 		gl.glAttachShader(p, vertexHandle);
 		gl.glAttachShader(p, fragmentHandle);
+
+		// Bind the vertex attributes to fixed locations, so the attribute
+		// pointers stored in a vertex array object work with any shader
+		for(VertexData.Semantic semantic : VertexData.Semantic.values())
+			gl.glBindAttribLocation(p, GLVertexArrayObject.getAttributeLocation(semantic),
+					GLVertexArrayObject.getAttributeName(semantic));
 		gl.glLinkProgram(p);
 		
 		System.out.println("Linker output:\n" + this.getLinkerOutput(p));
@@ -130,6 +150,7 @@ public class GLShader implements Shader {
 			throw new Exception("Could not link vertex and fragment shader.");
 		}
 	}
+	
 		
 	public int programId()
 	{
@@ -30,20 +30,39 @@ public class GLTexture implements Texture {
 	 * Load the texture from an image file.
 	 */
 	public void load(String fileName) throws IOException
+	{
+		upload(decode(fileName));
+	}
+	
+	/**
+	 * Decode an image file into a buffer that can be passed to
+	 * {@link #upload(IntBuffer)}. This does not make any OpenGL calls and may
+	 * be called on any thread.
+	 */
+	IntBuffer decode(String fileName) throws IOException
 	{
 		BufferedImage i;
 		
 		File f = new File(fileName);
 		i = ImageIO.read(f);
-	
-		gl.glPixelStorei(GL3.GL_UNPACK_ALIGNMENT, 1);
-		gl.glGenTextures(1, id);
-		gl.glBindTexture(GL3.GL_TEXTURE_2D, id.get(0));
+		if(i == null)
+			throw new IOException("Could not decode image " + fileName + ".");
 
 		w = i.getWidth();
 		h = i.getHeight();
 		
-		IntBuffer buf = getData(i);
+		return getData(i);
+	}
+	
+	/**
+	 * Upload decoded image data to OpenGL. Must be called on the rendering
+	 * thread.
+	 */
+	void upload(IntBuffer buf)
+	{
+		gl.glPixelStorei(GL3.GL_UNPACK_ALIGNMENT, 1);
+		gl.glGenTextures(1, id);
+		gl.glBindTexture(GL3.GL_TEXTURE_2D, id.get(0));
 		gl.glTexImage2D(GL3.GL_TEXTURE_2D, 0, GL3.GL_RGBA, w, h, 0, GL3.GL_RGBA, GL3.GL_UNSIGNED_BYTE, buf);			
 	}
 	
@@ -0,0 +1,125 @@
+package jrtr.glrenderer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A queue of OpenGL upload operations (like <code>glBufferData</code> or
+ * <code>glTexImage2D</code>) that were prepared on worker threads and need
+ * to be executed on the rendering thread. The render context processes the
+ * queue once per frame and stops as soon as the upload budget of the frame
+ * is used up, so loading assets never stalls a frame for long.
+ * <p>
+ * The queue also counts the bytes of vertex data changes uploaded by the
+ * render context while drawing (see {@link GLVertexArrayObject#update}).
+ */
+public class GLUploadQueue {
+
+	/**
+	 * A pending upload.
+	 */
+	private static class Upload {
+		final long bytes;
+		final Runnable task;
+
+		Upload(long bytes, Runnable task)
+		{
+			this.bytes = bytes;
+			this.task = task;
+		}
+	}
+
+	private final ConcurrentLinkedQueue<Upload> uploads;
+	private volatile long budget;
+	private long lastFrameBytes;
+	private long updateBytes, lastFrameUpdateBytes;
+
+	public GLUploadQueue()
+	{
+		uploads = new ConcurrentLinkedQueue<Upload>();
+		budget = 8 << 20;
+	}
+
+	/**
+	 * Set the number of bytes that may be uploaded per frame. At least one
+	 * pending upload is executed per frame, even if it is larger.
+	 */
+	public void setBudget(long bytes)
+	{
+		budget = bytes;
+	}
+
+	public long getBudget()
+	{
+		return budget;
+	}
+
+	/**
+	 * @return the number of bytes uploaded during the last processed frame
+	 */
+	public long getLastFrameBytes()
+	{
+		return lastFrameBytes;
+	}
+
+	/**
+	 * Count bytes of changed vertex data uploaded during the current frame.
+	 * Must be called on the rendering thread.
+	 */
+	public void addUpdateBytes(long bytes)
+	{
+		updateBytes += bytes;
+	}
+
+	/**
+	 * @return the number of bytes of changed vertex data uploaded during the
+	 * 		last frame
+	 */
+	public long getLastFrameUpdateBytes()
+	{
+		return lastFrameUpdateBytes;
+	}
+
+	/**
+	 * @return the number of pending uploads
+	 */
+	public int size()
+	{
+		return uploads.size();
+	}
+
+	/**
+	 * Queue an upload. May be called from any thread.
+	 *
+	 * @param bytes
+	 * 		the number of bytes the task will upload
+	 * @param task
+	 * 		the task to run on the rendering thread
+	 */
+	public void enqueue(long bytes, Runnable task)
+	{
+		uploads.add(new Upload(bytes, task));
+	}
+
+	/**
+	 * Execute pending uploads until the budget is used up. Must be called on
+	 * the rendering thread with a current OpenGL context, once at the start
+	 * of each frame.
+	 */
+	public void process()
+	{
+		lastFrameUpdateBytes = updateBytes;
+		updateBytes = 0;
+
+		long bytes = 0;
+		Upload upload;
+		while((upload = uploads.peek()) != null)
+		{
+			if(bytes > 0 && bytes + upload.bytes > budget)
+				break;
+			uploads.poll();
+			upload.task.run();
+			bytes += upload.bytes;
+		}
+		lastFrameBytes = bytes;
+	}
+}
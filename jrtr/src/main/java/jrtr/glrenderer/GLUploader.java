@@ -0,0 +1,19 @@
+package jrtr.glrenderer;
+
+/**
+ * Implemented by the OpenGL render contexts that accept uploads prepared
+ * by a {@link GLAssetLoader}, or other work queued for the rendering thread.
+ */
+public interface GLUploader {
+
+	/**
+	 * @return the queue that is processed at the start of each frame
+	 */
+	GLUploadQueue getUploadQueue();
+
+	/**
+	 * Upload vertex data into a vertex array object. Called on the rendering
+	 * thread.
+	 */
+	void upload(GLVertexData vertexData);
+}
@@ -1,28 +1,81 @@
 package jrtr.glrenderer;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.media.opengl.GL3;
 
+import jrtr.VertexData;
+
 /**
  * A utility class to encapsulate an OpenGL "vertex array object" (VAO).
+ * <p>
+ * Vertex attributes are bound to fixed locations in all shaders (see
+ * {@link #getAttributeLocation(VertexData.Semantic)}), so the attribute
+ * pointers are recorded in the VAO once when the vertex data is uploaded.
+ * Drawing only needs to bind the VAO.
  */
 public class GLVertexArrayObject {
 
+	/**
+	 * The names of the vertex shader variables, indexed by the ordinal of
+	 * the vertex data semantic.
+	 */
+	private static final String[] ATTRIBUTE_NAMES = {"position", "normal", "texcoord", "color", "tangent"};
+
 	private IntBuffer vao;
 	private IntBuffer vbo;
 
 	private GL3 gl;
 
+	/**
+	 * The layout of the vertex buffers, the distance in bytes between two
+	 * vertices in the interleaved buffer, and the byte offset of each
+	 * semantic within a vertex (-1 if absent).
+	 */
+	private GLVertexData.Layout layout;
+	private int stride;
+	private int[] offsets;
+
+	/**
+	 * Number of copies of the vertex attributes kept on the GPU for
+	 * {@link GLVertexData.Usage#STREAM}.
+	 */
+	private static final int STREAM_COPIES = 3;
+
+	/**
+	 * How the vertex data is updated, the VBO of each semantic and of the
+	 * indices, the size in bytes of one copy of the attributes in the VBO
+	 * of each semantic, and the copy the attribute pointers refer to.
+	 */
+	private GLVertexData.Usage usage;
+	private int[] vbos;
+	private int indexVBO;
+	private long[] copySizes;
+	private int copy;
+
+	/**
+	 * For streamed data: a fence per copy, signaled when the GPU finished the
+	 * draws reading the copy (0 if none), and the range of vertices of each
+	 * semantic that changed since each copy was last written.
+	 */
+	private long[] fences;
+	private int[][] pendingStart, pendingEnd;
+
 	/**
 	 * Make an OpenGL "vertex array object" (VAO) with a desired number of
-	 * "vertex buffer objects" (VBOs). Each VBO refers to a buffer 
-	 * with one vertex attribute, like vertex positions, normals, or 
+	 * "vertex buffer objects" (VBOs). Each VBO refers to a buffer
+	 * with one vertex attribute, like vertex positions, normals, or
 	 * texture coordinates.
-	 * 
+	 *
 	 * @param gl
 	 * 		the OpenGL rendering context to store the VAO
-	 * 
+	 *
 	 * @param numberOfVBOs
 	 * 		the number of VBOs to be stored in the VAO
 	 */
@@ -41,6 +94,420 @@ public class GLVertexArrayObject {
 
 	}
 
+	/**
+	 * Make a VAO for vertex data, upload the vertex attributes and indices
+	 * to the GPU, and record the attribute pointers in the VAO. The vertex
+	 * attributes are stored according to the layout and the usage of the
+	 * vertex data.
+	 *
+	 * @param gl
+	 * 		the OpenGL rendering context to store the VAO
+	 * @param data
+	 * 		the vertex data to upload
+	 */
+	public GLVertexArrayObject(GL3 gl, GLVertexData data) {
+		this(gl, data.getLayout() == GLVertexData.Layout.INTERLEAVED ? 2
+				: Integer.bitCount(data.getAttributeMask()) + 1);
+
+		layout = data.getLayout();
+		usage = data.getUsage();
+		int nSemantics = VertexData.Semantic.values().length;
+		offsets = new int[nSemantics];
+		vbos = new int[nSemantics];
+		copySizes = new long[nSemantics];
+		Arrays.fill(offsets, -1);
+		List<VertexData.VertexElement> elements = data.getElements();
+		int n = data.getNumberOfVertices();
+		int copies = usage == GLVertexData.Usage.STREAM ? STREAM_COPIES : 1;
+		int hint = usage == GLVertexData.Usage.STATIC ? GL3.GL_STATIC_DRAW
+				: (usage == GLVertexData.Usage.DYNAMIC ? GL3.GL_DYNAMIC_DRAW : GL3.GL_STREAM_DRAW);
+
+		// Bind (activate) the VAO. The subsequent buffer bindings and
+		// attribute pointers are recorded in the VAO.
+		bind();
+		rewindVBO();
+
+		if (layout == GLVertexData.Layout.INTERLEAVED) {
+			// Pack all attributes of a vertex next to each other. Each
+			// attribute starts at a multiple of 4 bytes.
+			for (VertexData.VertexElement e : elements) {
+				stride = (stride + 3) & ~3;
+				offsets[e.getSemantic().ordinal()] = stride;
+				stride += e.getFormat().getSize(e.getNumberOfComponents());
+			}
+			stride = (stride + 3) & ~3;
+			ByteBuffer b = pack(data, 0, n);
+
+			int id = getNextVBO();
+			gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, id);
+			upload(n * (long) stride, copies, b, hint);
+			for (VertexData.VertexElement e : elements) {
+				vbos[e.getSemantic().ordinal()] = id;
+				copySizes[e.getSemantic().ordinal()] = n * (long) stride;
+				setAttributePointer(e, stride, offsets[e.getSemantic().ordinal()]);
+			}
+		} else {
+			// One buffer per attribute
+			for (VertexData.VertexElement e : elements) {
+				int s = e.getSemantic().ordinal();
+				offsets[s] = 0;
+				vbos[s] = getNextVBO();
+				copySizes[s] = e.getSizeInBytes();
+				gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, vbos[s]);
+				// Off-heap data is read by OpenGL directly without copying
+				upload(e.getSizeInBytes(), copies, getRange(e, 0, n), hint);
+				setAttributePointer(e, 0, 0);
+			}
+		}
+
+		// Bind the default vertex buffer objects
+		gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, 0);
+
+		// Store the vertex data indices into the last vertex buffer. The
+		// element array binding is part of the VAO state.
+		indexVBO = getNextVBO();
+		gl.glBindBuffer(GL3.GL_ELEMENT_ARRAY_BUFFER, indexVBO);
+		gl.glBufferData(GL3.GL_ELEMENT_ARRAY_BUFFER, data.getNumberOfIndices() * 4,
+				data.getIndexBuffer(), usage == GLVertexData.Usage.STATIC ? GL3.GL_STATIC_DRAW
+						: GL3.GL_DYNAMIC_DRAW);
+
+		// Bind the default vertex array object. This "deactivates" the VAO
+		// of the vertex data
+		gl.glBindVertexArray(0);
+
+		if (usage == GLVertexData.Usage.STREAM) {
+			fences = new long[STREAM_COPIES];
+			pendingStart = new int[STREAM_COPIES][nSemantics];
+			pendingEnd = new int[STREAM_COPIES][nSemantics];
+		}
+		data.clearDirty();
+	}
+
+	/**
+	 * Fill the bound array buffer with the given number of copies of the
+	 * data.
+	 */
+	private void upload(long size, int copies, Buffer data, int hint) {
+		if (copies == 1) {
+			gl.glBufferData(GL3.GL_ARRAY_BUFFER, size, data, hint);
+			return;
+		}
+		gl.glBufferData(GL3.GL_ARRAY_BUFFER, size * copies, null, hint);
+		for (int i = 0; i < copies; i++)
+			gl.glBufferSubData(GL3.GL_ARRAY_BUFFER, size * i, size, data);
+	}
+
+	/**
+	 * Upload the vertices and indices marked as changed in the vertex data
+	 * and clear the marks. Each changed range is uploaded by itself, so
+	 * changes at both ends of the data do not upload everything between
+	 * them. Call this before drawing the vertex data; it binds and unbinds
+	 * the VAO.
+	 *
+	 * @return the number of bytes uploaded
+	 */
+	public long update(GLVertexData data) {
+		long bytes = 0;
+		if (data.getDirtyMask() != 0) {
+			if (usage == GLVertexData.Usage.STREAM)
+				bytes += stream(data);
+			else if (layout == GLVertexData.Layout.INTERLEAVED)
+				bytes += updateInterleaved(data);
+			else
+				bytes += updateSeparate(data);
+		}
+
+		int[] ranges = data.getIndicesDirtyRanges();
+		if (ranges.length > 0) {
+			// The element array binding is part of the VAO state
+			IntBuffer indices = data.getIndexBuffer();
+			bind();
+			gl.glBindBuffer(GL3.GL_ELEMENT_ARRAY_BUFFER, indexVBO);
+			for (int r = 0; r < ranges.length; r += 2) {
+				int first = ranges[r], end = ranges[r + 1];
+				indices.limit(end);
+				indices.position(first);
+				gl.glBufferSubData(GL3.GL_ELEMENT_ARRAY_BUFFER, first * 4L, (end - first) * 4L, indices);
+				bytes += (end - first) * 4L;
+			}
+			gl.glBindVertexArray(0);
+		}
+		data.clearDirty();
+		return bytes;
+	}
+
+	/**
+	 * Upload the changed ranges of each element into its own buffer.
+	 */
+	private long updateSeparate(GLVertexData data) {
+		long bytes = 0;
+		for (VertexData.VertexElement e : data.getElements()) {
+			VertexData.Semantic s = e.getSemantic();
+			int[] ranges = data.getDirtyRanges(s);
+			if (ranges.length == 0)
+				continue;
+			int size = e.getFormat().getSize(e.getNumberOfComponents());
+			gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, vbos[s.ordinal()]);
+			for (int r = 0; r < ranges.length; r += 2) {
+				int first = ranges[r], end = ranges[r + 1];
+				gl.glBufferSubData(GL3.GL_ARRAY_BUFFER, first * (long) size, (end - first) * (long) size,
+						getRange(e, first, end));
+				bytes += (end - first) * (long) size;
+			}
+		}
+		gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, 0);
+		return bytes;
+	}
+
+	/**
+	 * Upload all attributes of the ranges of vertices that changed in any
+	 * element.
+	 */
+	private long updateInterleaved(GLVertexData data) {
+		int[] ranges = data.getDirtyVertexRanges();
+		if (ranges.length == 0)
+			return 0;
+		long bytes = 0;
+		gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, vbos[data.getElements().get(0).getSemantic().ordinal()]);
+		for (int r = 0; r < ranges.length; r += 2) {
+			int first = ranges[r], end = ranges[r + 1];
+			gl.glBufferSubData(GL3.GL_ARRAY_BUFFER, first * (long) stride, (end - first) * (long) stride,
+					pack(data, first, end));
+			bytes += (end - first) * (long) stride;
+		}
+		gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, 0);
+		return bytes;
+	}
+
+	/**
+	 * Write the changes into the next copy of the attributes and point the
+	 * VAO to it. A copy may have missed the changes of the two frames since
+	 * it was last written, so each copy collects the changed ranges until
+	 * it is written.
+	 */
+	private long stream(GLVertexData data) {
+		List<VertexData.VertexElement> elements = data.getElements();
+		for (VertexData.VertexElement e : elements) {
+			VertexData.Semantic s = e.getSemantic();
+			int first = data.getDirtyStart(s), end = data.getDirtyEnd(s);
+			if (first >= end)
+				continue;
+			int i = s.ordinal();
+			for (int c = 0; c < STREAM_COPIES; c++) {
+				if (pendingStart[c][i] >= pendingEnd[c][i]) {
+					pendingStart[c][i] = first;
+					pendingEnd[c][i] = end;
+				} else {
+					pendingStart[c][i] = Math.min(pendingStart[c][i], first);
+					pendingEnd[c][i] = Math.max(pendingEnd[c][i], end);
+				}
+			}
+		}
+
+		int next = (copy + 1) % STREAM_COPIES;
+		waitForFence(next);
+		int[] start = pendingStart[next], end = pendingEnd[next];
+		long bytes = 0;
+		int access = GL3.GL_MAP_WRITE_BIT | GL3.GL_MAP_INVALIDATE_RANGE_BIT | GL3.GL_MAP_UNSYNCHRONIZED_BIT;
+		if (layout == GLVertexData.Layout.INTERLEAVED) {
+			int first = Integer.MAX_VALUE, last = 0;
+			for (VertexData.VertexElement e : elements) {
+				int i = e.getSemantic().ordinal();
+				if (start[i] < end[i]) {
+					first = Math.min(first, start[i]);
+					last = Math.max(last, end[i]);
+				}
+			}
+			if (first < last) {
+				int i = elements.get(0).getSemantic().ordinal();
+				long size = (last - first) * (long) stride;
+				gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, vbos[i]);
+				ByteBuffer mapped = gl.glMapBufferRange(GL3.GL_ARRAY_BUFFER,
+						copySizes[i] * next + first * (long) stride, size, access);
+				mapped.put(pack(data, first, last));
+				gl.glUnmapBuffer(GL3.GL_ARRAY_BUFFER);
+				bytes += size;
+			}
+		} else {
+			for (VertexData.VertexElement e : elements) {
+				int i = e.getSemantic().ordinal();
+				if (start[i] >= end[i])
+					continue;
+				int vertexSize = e.getFormat().getSize(e.getNumberOfComponents());
+				long size = (end[i] - start[i]) * (long) vertexSize;
+				gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, vbos[i]);
+				ByteBuffer mapped = gl.glMapBufferRange(GL3.GL_ARRAY_BUFFER,
+						copySizes[i] * next + start[i] * (long) vertexSize, size, access);
+				Buffer range = getRange(e, start[i], end[i]);
+				if (range instanceof FloatBuffer)
+					mapped.order(ByteOrder.nativeOrder()).asFloatBuffer().put((FloatBuffer) range);
+				else
+					mapped.put((ByteBuffer) range);
+				gl.glUnmapBuffer(GL3.GL_ARRAY_BUFFER);
+				bytes += size;
+			}
+		}
+		Arrays.fill(start, 0);
+		Arrays.fill(end, 0);
+
+		// Point the attributes to the new copy
+		copy = next;
+		bind();
+		for (VertexData.VertexElement e : elements) {
+			int i = e.getSemantic().ordinal();
+			gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, vbos[i]);
+			setAttributePointer(e, stride, copySizes[i] * copy + offsets[i]);
+		}
+		gl.glBindVertexArray(0);
+		gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, 0);
+		return bytes;
+	}
+
+	/**
+	 * Call after drawing with this VAO. For streamed data, this places a
+	 * fence that tells when the GPU no longer reads the current copy of the
+	 * attributes. Does nothing otherwise.
+	 */
+	public void fence() {
+		if (usage != GLVertexData.Usage.STREAM)
+			return;
+		if (fences[copy] != 0)
+			gl.glDeleteSync(fences[copy]);
+		fences[copy] = gl.glFenceSync(GL3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+	}
+
+	/**
+	 * Wait until the GPU finished drawing from a copy of the attributes.
+	 * With three copies, the fence is normally signaled already.
+	 */
+	private void waitForFence(int c) {
+		if (fences[c] == 0)
+			return;
+		int status = gl.glClientWaitSync(fences[c], GL3.GL_SYNC_FLUSH_COMMANDS_BIT, 0);
+		while (status == GL3.GL_TIMEOUT_EXPIRED)
+			status = gl.glClientWaitSync(fences[c], GL3.GL_SYNC_FLUSH_COMMANDS_BIT, 1000000L);
+		gl.glDeleteSync(fences[c]);
+		fences[c] = 0;
+	}
+
+	/**
+	 * Tell OpenGL how to read a vertex element from the bound vertex buffer
+	 * and enable it. Compact formats are decoded by the GPU.
+	 */
+	private void setAttributePointer(VertexData.VertexElement e, int stride, long offset) {
+		int location = getAttributeLocation(e.getSemantic());
+		int size = e.getNumberOfComponents();
+		switch (e.getFormat()) {
+		case FLOAT:
+			gl.glVertexAttribPointer(location, size, GL3.GL_FLOAT, false, stride, offset);
+			break;
+		case HALF_FLOAT:
+			gl.glVertexAttribPointer(location, size, GL3.GL_HALF_FLOAT, false, stride, offset);
+			break;
+		case SNORM16:
+			gl.glVertexAttribPointer(location, size, GL3.GL_SHORT, true, stride, offset);
+			break;
+		case UNORM16:
+			gl.glVertexAttribPointer(location, size, GL3.GL_UNSIGNED_SHORT, true, stride, offset);
+			break;
+		case UNORM8:
+			gl.glVertexAttribPointer(location, size, GL3.GL_UNSIGNED_BYTE, true, stride, offset);
+			break;
+		case SNORM_10_10_10_2:
+			gl.glVertexAttribPointer(location, 4, GL3.GL_INT_2_10_10_10_REV, true, stride, offset);
+			break;
+		}
+		gl.glEnableVertexAttribArray(location);
+	}
+
+	/**
+	 * Pack the attributes of a range of vertices into the interleaved layout.
+	 */
+	private ByteBuffer pack(VertexData data, int first, int end) {
+		int count = end - first;
+		byte[] packed = new byte[count * stride];
+		for (VertexData.VertexElement e : data.getElements()) {
+			ByteBuffer d = getBytes(e, first, end);
+			int size = e.getFormat().getSize(e.getNumberOfComponents());
+			int offset = offsets[e.getSemantic().ordinal()];
+			for (int i = 0; i < count; i++)
+				d.get(packed, i * stride + offset, size);
+		}
+		ByteBuffer b = ByteBuffer.allocateDirect(count * stride).order(ByteOrder.nativeOrder());
+		b.put(packed);
+		b.flip();
+		return b;
+	}
+
+	/**
+	 * The data of a range of vertices of a vertex element, without copying.
+	 * Float arrays are returned as a {@link FloatBuffer}, all other elements
+	 * as a {@link ByteBuffer}.
+	 */
+	private static Buffer getRange(VertexData.VertexElement e, int first, int end) {
+		int k = e.getNumberOfComponents();
+		if (e.getData() != null)
+			return FloatBuffer.wrap(e.getData(), first * k, (end - first) * k);
+		int size = e.getFormat().getSize(k);
+		ByteBuffer b = e.getBuffer();
+		b.limit(end * size);
+		b.position(first * size);
+		return b;
+	}
+
+	/**
+	 * The data of a range of vertices of a vertex element as bytes in
+	 * native order.
+	 */
+	private static ByteBuffer getBytes(VertexData.VertexElement e, int first, int end) {
+		if (e.getData() == null)
+			return (ByteBuffer) getRange(e, first, end);
+		int k = e.getNumberOfComponents();
+		ByteBuffer b = ByteBuffer.allocate((end - first) * k * 4).order(ByteOrder.nativeOrder());
+		b.asFloatBuffer().put(e.getData(), first * k, (end - first) * k);
+		return b;
+	}
+
+	/**
+	 * The location of the vertex shader variable of a vertex attribute.
+	 * {@link GLShader} binds the variables "position", "normal", "texcoord",
+	 * "color" and "tangent" to these locations before linking.
+	 */
+	public static int getAttributeLocation(VertexData.Semantic semantic) {
+		return semantic.ordinal();
+	}
+
+	/**
+	 * The name of the vertex shader variable of a vertex attribute.
+	 */
+	public static String getAttributeName(VertexData.Semantic semantic) {
+		return ATTRIBUTE_NAMES[semantic.ordinal()];
+	}
+
+	/**
+	 * @return the layout of the vertex buffers, or null if this VAO was not
+	 * 		made from vertex data
+	 */
+	public GLVertexData.Layout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * @return the number of bytes between two vertices in the interleaved
+	 * 		layout, or 0 for separate buffers
+	 */
+	public int getStride() {
+		return stride;
+	}
+
+	/**
+	 * @return the byte offset of an attribute within a vertex, or -1 if the
+	 * 		vertex data has no such attribute
+	 */
+	public int getOffset(VertexData.Semantic semantic) {
+		return offsets[semantic.ordinal()];
+	}
+
 	/**
 	 * Rewind the {@link IntBuffer} storing the references to the VBOs.
 	 */
@@ -67,9 +534,16 @@ public class GLVertexArrayObject {
 	 * Deletes all vbos and the vertex array;
 	 */
 	public void dispose(){
+		if (fences != null) {
+			for (int i = 0; i < fences.length; i++) {
+				if (fences[i] != 0)
+					gl.glDeleteSync(fences[i]);
+			}
+		}
 		gl.glBindVertexArray(0);
 		gl.glBindBuffer(0, 0);
-		gl.glDeleteBuffers(1, vbo);
+		vbo.rewind();
+		gl.glDeleteBuffers(vbo.capacity(), vbo);
 		gl.glDeleteVertexArrays(1, vao);
 	}
-}
\ No newline at end of file
+}
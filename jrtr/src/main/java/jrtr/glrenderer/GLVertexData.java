@@ -10,14 +10,85 @@ import jrtr.VertexData;
  */
 public class GLVertexData extends VertexData {
 
+	/**
+	 * How the vertex attributes are stored on the GPU.
+	 */
+	public enum Layout {
+		/**
+		 * One vertex buffer per attribute.
+		 */
+		SEPARATE,
+		/**
+		 * All attributes in one vertex buffer, with the attributes of each
+		 * vertex stored next to each other. A vertex fetch then reads one
+		 * contiguous block of memory instead of one per attribute.
+		 */
+		INTERLEAVED
+	}
+
+	/**
+	 * How often the vertex data changes after it was uploaded, see
+	 * {@link VertexData#markDirty(VertexData.Semantic, int, int)}.
+	 */
+	public enum Usage {
+		/**
+		 * The data rarely changes. Changed ranges are uploaded with
+		 * <code>glBufferSubData</code>.
+		 */
+		STATIC,
+		/**
+		 * The data changes now and then, e.g., when the mesh is edited.
+		 * Changed ranges are uploaded with <code>glBufferSubData</code>.
+		 */
+		DYNAMIC,
+		/**
+		 * The data changes every frame, e.g., for animated or deforming
+		 * meshes. The GPU keeps three copies of the vertex attributes, which
+		 * are written in turn through unsynchronized mapped buffers. A fence
+		 * per copy makes sure the GPU has finished drawing from a copy
+		 * before it is written again, so the CPU does not wait for the GPU.
+		 */
+		STREAM
+	}
+
 	/**
 	 * The handle to the OpenGL VAO of this data.
 	 */
 	private GLVertexArrayObject vertexArrayObject;
 
+	private Layout layout;
+	private Usage usage;
+
 	public GLVertexData(int n) {
 		super(n);
 		vertexArrayObject = null;
+		layout = Layout.SEPARATE;
+		usage = Usage.STATIC;
+	}
+
+	public Layout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Set how the vertex attributes are stored on the GPU. This takes effect
+	 * when the data is uploaded, i.e., it has to be set before the vertex
+	 * data is first drawn.
+	 */
+	public void setLayout(Layout layout) {
+		this.layout = layout;
+	}
+
+	public Usage getUsage() {
+		return usage;
+	}
+
+	/**
+	 * Set how often the vertex data changes. Like the layout, this takes
+	 * effect when the data is uploaded.
+	 */
+	public void setUsage(Usage usage) {
+		this.usage = usage;
 	}
 
 	public GLVertexArrayObject getVAO() {
@@ -1,8 +1,5 @@
 package jrtr.glrenderer;
 
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.util.ListIterator;
 import java.util.Iterator;
 
 import javax.media.opengl.GL3;
@@ -21,11 +18,17 @@ import jrtr.gldeferredrenderer.GLDeferredRenderContext;
  * This class implements a {@link RenderContext} (a renderer) using OpenGL
  * version 3 (or later).
  */
-public class VRRenderContext implements RenderContext {
+public class VRRenderContext implements RenderContext, GLUploader {
 
 	private SceneManagerInterface sceneManager;
 	private GL3 gl;
 
+	/**
+	 * Uploads prepared by a {@link GLAssetLoader}, executed at the start of
+	 * each frame.
+	 */
+	private GLUploadQueue uploadQueue = new GLUploadQueue();
+
 	/**
 	 * The buffer containing the data that is passed to the HMD. 
 	 */
@@ -115,6 +118,10 @@ public class VRRenderContext implements RenderContext {
 		
 		if(!renderPanel.posesReady)
 			renderPanel.waitGetPoses();
+
+		// Execute pending uploads of asynchronously loaded assets
+		gl = drawable.getGL().getGL3();
+		uploadQueue.process();
         
         // Save scene camera and projection matrices
         Matrix4f sceneCamera = new Matrix4f(this.sceneManager.getCamera().getCameraMatrix());
@@ -223,13 +230,16 @@ public class VRRenderContext implements RenderContext {
 	private void draw(RenderItem renderItem) {
 		setMaterial(renderItem.getShape().getMaterial());
 
-		GLVertexData vertexData = (GLVertexData) renderItem.getShape().getVertexData();
+		GLVertexData vertexData = (GLVertexData) renderItem.getVertexData();
 
 		// In the first pass the object has to be given to the buffer (on the
 		// GPU) and the renderItem has to store the handle, so we do not have to
-		// send the object to the GPU in each pass.
+		// send the object to the GPU in each pass. Afterwards, only vertices
+		// that changed are uploaded.
 		if (vertexData.getVAO() == null) {
 			initArrayBuffer(vertexData);
+		} else if (vertexData.isDirty()) {
+			uploadQueue.addUpdateBytes(vertexData.getVAO().update(vertexData));
 		}
 
 		// Set modelview and projection matrices in shader (has to be done in
@@ -237,51 +247,13 @@ public class VRRenderContext implements RenderContext {
 		setTransformation(renderItem.getT());
 
 		// Bind the VAO of this shape (all the vertex data are already on the
-		// GPU, we do not have to send them again)
+		// GPU, we do not have to send them again). The VAO also stores how the
+		// vertex buffers are connected to the variables in the vertex shader.
 		vertexData.getVAO().bind();
-							
-		// Try to connect the vertex arrays to the corresponding variables 
-		// in the current vertex shader.
-		// Note: This is not part of the vertex array object, because the active
-		// shader may have changed since the vertex array object was initialized. 
-		// We need to make sure the vertex buffers are connected to the right
-		// variables in the shader
-		ListIterator<VertexData.VertexElement> itr = vertexData.getElements().listIterator(0);
-		vertexData.getVAO().rewindVBO();
-		while (itr.hasNext()) {
-			VertexData.VertexElement e = itr.next();
-			int dim = e.getNumberOfComponents();
-
-			// Bind the next vertex buffer object
-			gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, vertexData.getVAO().getNextVBO());
-
-			// Tell OpenGL which "in" variable in the vertex shader corresponds
-			// to the current vertex buffer object.
-			// We use our own convention to name the variables, i.e.,
-			// "position", "normal", "color", "texcoord", or others if
-			// necessary.
-			int attribIndex = -1;
-			switch (e.getSemantic()) {
-			case POSITION:
-				attribIndex = gl.glGetAttribLocation(activeShaderID, "position");
-				break;
-			case NORMAL:
-				attribIndex = gl.glGetAttribLocation(activeShaderID, "normal");
-				break;
-			case COLOR:
-				attribIndex = gl.glGetAttribLocation(activeShaderID, "color");
-				break;
-			case TEXCOORD:
-				attribIndex = gl.glGetAttribLocation(activeShaderID, "texcoord");
-				break;
-			}
-
-			gl.glVertexAttribPointer(attribIndex, dim, GL3.GL_FLOAT, false, 0, 0);
-			gl.glEnableVertexAttribArray(attribIndex);
-		}
 
 		// Render the vertex buffer objects
-		gl.glDrawElements(GL3.GL_TRIANGLES, renderItem.getShape().getVertexData().getIndices().length, GL3.GL_UNSIGNED_INT, 0);
+		gl.glDrawElements(GL3.GL_TRIANGLES, vertexData.getNumberOfIndices(), GL3.GL_UNSIGNED_INT, 0);
+		vertexData.getVAO().fence();
 
 		// we are done with this shape, bind the default vertex array
 		gl.glBindVertexArray(0);
@@ -297,40 +269,7 @@ public class VRRenderContext implements RenderContext {
 	 * 			reference to the vertex data to be loaded into a VAO
 	 */
 	private void initArrayBuffer(GLVertexData data) {
-		
-		// Make a vertex array object (VAO) for this vertex data
-		GLVertexArrayObject vao = new GLVertexArrayObject(gl, data.getElements().size() + 1);
-	//	vertexArrayObjects.add(vao);
-		data.setVAO(vao);
-		
-		// Bind (activate) the VAO for the vertex data
-		vao.bind();
-		
-		// Store all vertex attributes in the buffers
-		ListIterator<VertexData.VertexElement> itr = data.getElements()
-				.listIterator(0);
-		while (itr.hasNext()) {
-			VertexData.VertexElement e = itr.next();
-
-			// Bind the next vertex buffer object
-			gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, data.getVAO().getNextVBO());
-			// Upload vertex data
-			gl.glBufferData(GL3.GL_ARRAY_BUFFER, e.getData().length * 4,
-					FloatBuffer.wrap(e.getData()), GL3.GL_DYNAMIC_DRAW);
-
-		}
-
-		// bind the default vertex buffer objects
-		gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, 0);
-
-		// store the indices into the last buffer
-		gl.glBindBuffer(GL3.GL_ELEMENT_ARRAY_BUFFER, data.getVAO().getNextVBO());
-		gl.glBufferData(GL3.GL_ELEMENT_ARRAY_BUFFER,
-				data.getIndices().length * 4,
-				IntBuffer.wrap(data.getIndices()), GL3.GL_DYNAMIC_DRAW);
-
-		// bind the default vertex array object
-		gl.glBindVertexArray(0);
+		data.setVAO(new GLVertexArrayObject(gl, data));
 	}
 
 	private void setTransformation(Matrix4f transformation) {
@@ -456,6 +395,16 @@ public class VRRenderContext implements RenderContext {
 		}
 	}
 
+	public GLUploadQueue getUploadQueue() {
+		return uploadQueue;
+	}
+
+	public void upload(GLVertexData vertexData) {
+		if (vertexData.getVAO() == null) {
+			initArrayBuffer(vertexData);
+		}
+	}
+
 	public Shader makeShader() {
 		return new GLShader(gl);
 	}
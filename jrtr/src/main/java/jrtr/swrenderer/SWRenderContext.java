@@ -1,5 +1,6 @@
 package jrtr.swrenderer;
 
+import jrtr.Meshlets;
 import jrtr.RenderContext;
 import jrtr.RenderItem;
 import jrtr.SceneManagerInterface;
@@ -11,6 +12,8 @@ import jrtr.glrenderer.GLRenderPanel;
 
 import java.awt.image.*;
 
+import javax.vecmath.Matrix4f;
+
 
 /**
  * A skeleton for a software renderer. It works in combination with
@@ -24,6 +27,7 @@ public class SWRenderContext implements RenderContext {
 
 	private SceneManagerInterface sceneManager;
 	private BufferedImage colorBuffer;
+	private int[] visibleMeshlets = new int[0];
 		
 	public void setSceneManager(SceneManagerInterface sceneManager)
 	{
@@ -79,10 +83,41 @@ public class SWRenderContext implements RenderContext {
 	}
 	
 	/**
-	 * The main rendering method. You will need to implement this to draw
-	 * 3D objects.
+	 * The main rendering method. If the vertex data has meshlets (see
+	 * {@link Meshlets}), meshlets outside the view frustum or facing away
+	 * from the camera are skipped before any of their triangles are
+	 * processed.
 	 */
 	private void draw(RenderItem renderItem)
+	{
+		VertexData vertexData = renderItem.getVertexData();
+		Meshlets meshlets = vertexData.getMeshlets();
+		if(meshlets == null)
+		{
+			rasterize(renderItem, 0, vertexData.getNumberOfIndices());
+			return;
+		}
+
+		Matrix4f modelview = new Matrix4f(sceneManager.getCamera().getCameraMatrix());
+		modelview.mul(renderItem.getT());
+		if(visibleMeshlets.length < meshlets.size())
+			visibleMeshlets = new int[meshlets.size()];
+		int n = meshlets.cull(modelview, sceneManager.getFrustum().getProjectionMatrix(), visibleMeshlets);
+		for(int i=0; i<n; i++)
+			rasterize(renderItem, meshlets.getFirstIndex(visibleMeshlets[i]),
+					meshlets.getIndexCount(visibleMeshlets[i]));
+	}
+
+	/**
+	 * Rasterize the triangles of a range of the index array of a shape. You
+	 * will need to implement this to draw 3D objects.
+	 *
+	 * @param firstIndex
+	 * 		the position of the first index of the range
+	 * @param count
+	 * 		the number of indices, three per triangle
+	 */
+	private void rasterize(RenderItem renderItem, int firstIndex, int count)
 	{
 	}
 	
@@ -0,0 +1,254 @@
+package jrtr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import jrtr.swrenderer.SWRenderContext;
+
+import org.junit.Test;
+
+public class HalfEdgeMeshTest {
+
+	private static final float[] OCTAHEDRON = {
+		0, 0, 1,  1, 0, 0,  0, 1, 0,  -1, 0, 0,  0, -1, 0,  0, 0, -1};
+
+	/**
+	 * A closed octahedron: vertex 0 at the top, 1 to 4 around the middle
+	 * and 5 at the bottom.
+	 */
+	static VertexData octahedron()
+	{
+		return vertexData(OCTAHEDRON, null, new int[] {
+			0, 1, 2,  0, 2, 3,  0, 3, 4,  0, 4, 1,
+			5, 2, 1,  5, 3, 2,  5, 4, 3,  5, 1, 4});
+	}
+
+	/**
+	 * The octahedron with a seam in the texture coordinates around the
+	 * middle: the lower triangles use the vertices 6 to 9 at the positions
+	 * of 1 to 4.
+	 */
+	static VertexData octahedronWithSeam()
+	{
+		float[] p = Arrays.copyOf(OCTAHEDRON, 30);
+		System.arraycopy(OCTAHEDRON, 3, p, 18, 12);
+		float[] t = new float[20];
+		for(int i=0; i<10; i++)
+		{
+			t[2*i] = i/10f;
+			t[2*i+1] = i < 6 ? 0 : 1;
+		}
+		return vertexData(p, t, new int[] {
+			0, 1, 2,  0, 2, 3,  0, 3, 4,  0, 4, 1,
+			5, 7, 6,  5, 8, 7,  5, 9, 8,  5, 6, 9});
+	}
+
+	/**
+	 * A hexagon of six triangles around vertex 0, which is the only vertex
+	 * not on the border.
+	 */
+	static VertexData fan()
+	{
+		float[] p = new float[21];
+		int[] indices = new int[18];
+		for(int i=0; i<6; i++)
+		{
+			p[3*i+3] = (float)Math.cos(i*Math.PI/3);
+			p[3*i+4] = (float)Math.sin(i*Math.PI/3);
+			indices[3*i] = 0;
+			indices[3*i+1] = i+1;
+			indices[3*i+2] = (i+1)%6 + 1;
+		}
+		return vertexData(p, null, indices);
+	}
+
+	static VertexData vertexData(float[] positions, float[] texCoords, int[] indices)
+	{
+		VertexData vertexData = new SWRenderContext().makeVertexData(positions.length/3);
+		vertexData.addElement(positions, VertexData.Semantic.POSITION, 3);
+		if(texCoords != null)
+			vertexData.addElement(texCoords, VertexData.Semantic.TEXCOORD, 2);
+		vertexData.addIndices(indices);
+		return vertexData;
+	}
+
+	/**
+	 * Check that twins point back and run in the opposite direction, and
+	 * that rotating around each vertex visits all half-edges starting at
+	 * it.
+	 *
+	 * @return the number of edges
+	 */
+	static int checkConnectivity(HalfEdgeMesh mesh)
+	{
+		int border = 0;
+		int[] outgoing = new int[mesh.getNumberOfVertices()];
+		for(int h=0; h<mesh.getNumberOfHalfEdges(); h++)
+		{
+			outgoing[mesh.vertex(h)]++;
+			int t = mesh.twin(h);
+			if(t == -1)
+			{
+				border++;
+				continue;
+			}
+			assertEquals(h, mesh.twin(t));
+			assertEquals(mesh.vertex(h), mesh.target(t));
+			assertEquals(mesh.target(h), mesh.vertex(t));
+		}
+		for(int v=0; v<mesh.getNumberOfVertices(); v++)
+		{
+			int h = mesh.outgoing(v);
+			assertEquals(v, mesh.vertex(h));
+			int n = 0, g = h;
+			do {
+				assertEquals(v, mesh.vertex(g));
+				n++;
+				g = mesh.rotate(g);
+			} while(g != -1 && g != h);
+			assertEquals("half-edges around vertex " + v, outgoing[v], n);
+			assertEquals(mesh.isBorderVertex(v), g == -1);
+			assertEquals(mesh.valence(v), g == -1 ? n+1 : n);
+		}
+		return (mesh.getNumberOfHalfEdges() - border)/2 + border;
+	}
+
+	/**
+	 * Check that the neighbours of a vertex are in counterclockwise order:
+	 * each two consecutive ones form a triangle with the vertex.
+	 */
+	static void checkOneRing(HalfEdgeMesh mesh, int v)
+	{
+		int[] ring = new int[mesh.valence(v)];
+		int n = mesh.oneRing(v, ring);
+		assertEquals(ring.length, n);
+		boolean border = mesh.isBorderVertex(v);
+		for(int i=0; i<(border ? n-1 : n); i++)
+			assertTrue(hasTriangle(mesh, v, ring[i], ring[(i+1)%n]));
+	}
+
+	private static boolean hasTriangle(HalfEdgeMesh mesh, int a, int b, int c)
+	{
+		for(int h=0; h<mesh.getNumberOfHalfEdges(); h++)
+		{
+			if(mesh.vertex(h) == a && mesh.target(h) == b && mesh.target(HalfEdgeMesh.next(h)) == c)
+				return true;
+		}
+		return false;
+	}
+
+	@Test
+	public void closedMesh()
+	{
+		HalfEdgeMesh mesh = new HalfEdgeMesh(octahedron());
+		assertEquals(6, mesh.getNumberOfVertices());
+		assertEquals(8, mesh.getNumberOfFaces());
+		assertEquals(6, mesh.getNumberOfWedges());
+		assertEquals(12, checkConnectivity(mesh));
+		for(int h=0; h<mesh.getNumberOfHalfEdges(); h++)
+		{
+			assertFalse(mesh.isBorder(h));
+			assertFalse(mesh.isSeam(h));
+		}
+		for(int v=0; v<6; v++)
+		{
+			assertEquals(4, mesh.valence(v));
+			checkOneRing(mesh, v);
+		}
+	}
+
+	@Test
+	public void meshWithBorder()
+	{
+		HalfEdgeMesh mesh = new HalfEdgeMesh(fan());
+		assertEquals(7, mesh.getNumberOfVertices());
+		assertEquals(6, mesh.getNumberOfFaces());
+		assertEquals(12, checkConnectivity(mesh));
+		assertFalse(mesh.isBorderVertex(0));
+		assertEquals(6, mesh.valence(0));
+		checkOneRing(mesh, 0);
+		for(int v=1; v<7; v++)
+		{
+			assertTrue(mesh.isBorderVertex(v));
+			assertEquals(3, mesh.valence(v));
+			assertTrue(mesh.isBorder(mesh.outgoing(v)));
+			checkOneRing(mesh, v);
+			// The first and last neighbours are on the border, the middle
+			// one is the center
+			int[] ring = new int[3];
+			mesh.oneRing(v, ring);
+			assertEquals(0, ring[1]);
+			assertTrue(mesh.isBorderVertex(ring[0]) && mesh.isBorderVertex(ring[2]));
+		}
+	}
+
+	@Test
+	public void meshWithSeam()
+	{
+		HalfEdgeMesh mesh = new HalfEdgeMesh(octahedronWithSeam());
+		assertEquals(6, mesh.getNumberOfVertices());
+		assertEquals(10, mesh.getNumberOfWedges());
+		assertEquals(12, checkConnectivity(mesh));
+		int seams = 0;
+		for(int h=0; h<mesh.getNumberOfHalfEdges(); h++)
+		{
+			assertFalse(mesh.isBorder(h));
+			int a = mesh.vertex(h), b = mesh.target(h);
+			boolean middle = a >= 1 && a <= 4 && b >= 1 && b <= 4;
+			assertEquals(middle, mesh.isSeam(h));
+			if(mesh.isSeam(h))
+				seams++;
+		}
+		assertEquals(8, seams);
+		for(int w=6; w<10; w++)
+			assertEquals(mesh.wedgeVertex(w-5), mesh.wedgeVertex(w));
+		for(int v=0; v<6; v++)
+			checkOneRing(mesh, v);
+	}
+
+	@Test
+	public void toVertexDataRoundTrip()
+	{
+		RenderContext renderContext = new SWRenderContext();
+		for(VertexData original : new VertexData[] {octahedron(), fan(), octahedronWithSeam()})
+		{
+			HalfEdgeMesh mesh = new HalfEdgeMesh(original);
+			VertexData vertexData = mesh.toVertexData(renderContext);
+			assertEquals(original.getNumberOfVertices(), vertexData.getNumberOfVertices());
+			assertArrayEquals(original.getIndices(), vertexData.getIndices());
+			for(VertexData.VertexElement e : original.getElements())
+			{
+				float[] copy = vertexData.getElement(e.getSemantic()).toFloatArray();
+				assertArrayEquals(e.toFloatArray(), copy, 0);
+			}
+
+			HalfEdgeMesh again = new HalfEdgeMesh(vertexData);
+			assertEquals(mesh.getNumberOfVertices(), again.getNumberOfVertices());
+			assertEquals(mesh.getNumberOfWedges(), again.getNumberOfWedges());
+			for(int h=0; h<mesh.getNumberOfHalfEdges(); h++)
+			{
+				assertEquals(mesh.twin(h), again.twin(h));
+				assertEquals(mesh.wedge(h), again.wedge(h));
+			}
+		}
+	}
+
+	@Test
+	public void linkFindsTwinsAgain()
+	{
+		HalfEdgeMesh mesh = new HalfEdgeMesh(octahedronWithSeam());
+		int[] twins = new int[mesh.getNumberOfHalfEdges()];
+		for(int h=0; h<twins.length; h++)
+			twins[h] = mesh.twin(h);
+		Arrays.fill(mesh.twin, -1);
+		Arrays.fill(mesh.vertexHalfEdge, -1);
+		mesh.link();
+		for(int h=0; h<twins.length; h++)
+			assertEquals(twins[h], mesh.twin(h));
+		checkConnectivity(mesh);
+	}
+}
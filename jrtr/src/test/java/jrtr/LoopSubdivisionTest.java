@@ -0,0 +1,64 @@
+package jrtr;
+
+import static org.junit.Assert.assertEquals;
+
+import jrtr.swrenderer.SWRenderContext;
+
+import org.junit.Test;
+
+public class LoopSubdivisionTest {
+
+	/**
+	 * Each level adds a vertex per edge and splits each face into four.
+	 */
+	private static void checkCounts(VertexData vertexData, int levels)
+	{
+		HalfEdgeMesh mesh = new HalfEdgeMesh(vertexData);
+		for(int l=0; l<levels; l++)
+		{
+			int v = mesh.getNumberOfVertices(), f = mesh.getNumberOfFaces();
+			int e = HalfEdgeMeshTest.checkConnectivity(mesh);
+			mesh = LoopSubdivision.subdivide(mesh);
+			assertEquals(v + e, mesh.getNumberOfVertices());
+			assertEquals(4*f, mesh.getNumberOfFaces());
+			assertEquals(2*e + 3*f, HalfEdgeMeshTest.checkConnectivity(mesh));
+		}
+	}
+
+	@Test
+	public void closedMesh()
+	{
+		checkCounts(HalfEdgeMeshTest.octahedron(), 3);
+	}
+
+	@Test
+	public void meshWithBorder()
+	{
+		checkCounts(HalfEdgeMeshTest.fan(), 3);
+	}
+
+	@Test
+	public void meshWithSeam()
+	{
+		HalfEdgeMesh mesh = new HalfEdgeMesh(HalfEdgeMeshTest.octahedronWithSeam());
+		HalfEdgeMesh subdivided = LoopSubdivision.subdivide(mesh);
+		assertEquals(6 + 12, subdivided.getNumberOfVertices());
+		assertEquals(32, subdivided.getNumberOfFaces());
+		// The four edges of the seam get two wedges each
+		assertEquals(10 + 12 + 4, subdivided.getNumberOfWedges());
+	}
+
+	@Test
+	public void meshDataLoop()
+	{
+		MeshData meshData = new MeshData(HalfEdgeMeshTest.octahedron(), new SWRenderContext());
+		meshData.loop(2);
+		VertexData vertexData = meshData.getVertexData();
+		// 6 + 12 vertices and 32 faces after the first level, 18 + 48 and
+		// 128 after the second
+		assertEquals(66, vertexData.getNumberOfVertices());
+		assertEquals(3*128, vertexData.getIndices().length);
+		// The tables of the mesh are rebuilt from the new vertex data
+		assertEquals(3*66, meshData.getFaceNormals().length);
+	}
+}
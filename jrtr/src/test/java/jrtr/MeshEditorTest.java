@@ -0,0 +1,198 @@
+package jrtr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import jrtr.swrenderer.SWRenderContext;
+
+import org.junit.Test;
+
+public class MeshEditorTest {
+
+	private static MeshEditor editor(VertexData vertexData)
+	{
+		return new MeshEditor(vertexData, new SWRenderContext());
+	}
+
+	/**
+	 * @return a half-edge from a to b
+	 */
+	private static int halfEdge(HalfEdgeMesh mesh, int a, int b)
+	{
+		for(int h=0; h<mesh.getNumberOfHalfEdges(); h++)
+		{
+			if(mesh.vertex(h) == a && mesh.target(h) == b)
+				return h;
+		}
+		throw new AssertionError("no half-edge from " + a + " to " + b);
+	}
+
+	/**
+	 * Check the twins, valences and borders, and the order of the
+	 * neighbours of each vertex.
+	 *
+	 * @return the number of edges
+	 */
+	private static int check(HalfEdgeMesh mesh)
+	{
+		int edges = HalfEdgeMeshTest.checkConnectivity(mesh);
+		int valences = 0;
+		for(int v=0; v<mesh.getNumberOfVertices(); v++)
+		{
+			HalfEdgeMeshTest.checkOneRing(mesh, v);
+			valences += mesh.valence(v);
+		}
+		assertEquals(2*edges, valences);
+		return edges;
+	}
+
+	@Test
+	public void splitInteriorEdge()
+	{
+		MeshEditor editor = editor(HalfEdgeMeshTest.octahedron());
+		HalfEdgeMesh mesh = editor.getMesh();
+		int v = editor.splitEdge(halfEdge(mesh, 0, 1));
+		assertEquals(7, mesh.getNumberOfVertices());
+		assertEquals(10, mesh.getNumberOfFaces());
+		assertEquals(15, check(mesh));
+		assertFalse(mesh.isBorderVertex(v));
+		assertEquals(4, mesh.valence(v));
+		// The ends keep their valence, the opposite vertices get the new one
+		assertEquals(4, mesh.valence(0));
+		assertEquals(4, mesh.valence(1));
+		assertEquals(5, mesh.valence(2));
+		assertEquals(5, mesh.valence(4));
+	}
+
+	@Test
+	public void splitBorderEdge()
+	{
+		MeshEditor editor = editor(HalfEdgeMeshTest.fan());
+		HalfEdgeMesh mesh = editor.getMesh();
+		int h = halfEdge(mesh, 1, 2);
+		assertTrue(mesh.isBorder(h));
+		int v = editor.splitEdge(h);
+		assertEquals(8, mesh.getNumberOfVertices());
+		assertEquals(7, mesh.getNumberOfFaces());
+		assertEquals(14, check(mesh));
+		assertTrue(mesh.isBorderVertex(v));
+		assertEquals(3, mesh.valence(v));
+		assertEquals(7, mesh.valence(0));
+		assertTrue(mesh.isBorderVertex(1) && mesh.isBorderVertex(2));
+	}
+
+	@Test
+	public void flipEdge()
+	{
+		MeshEditor editor = editor(HalfEdgeMeshTest.octahedron());
+		HalfEdgeMesh mesh = editor.getMesh();
+		assertTrue(editor.flipEdge(halfEdge(mesh, 0, 1)));
+		assertEquals(12, check(mesh));
+		assertEquals(3, mesh.valence(0));
+		assertEquals(3, mesh.valence(1));
+		assertEquals(5, mesh.valence(2));
+		assertEquals(5, mesh.valence(4));
+		halfEdge(mesh, 2, 4);
+	}
+
+	@Test
+	public void borderAndSeamAreNotFlipped()
+	{
+		MeshEditor editor = editor(HalfEdgeMeshTest.fan());
+		assertFalse(editor.flipEdge(halfEdge(editor.getMesh(), 1, 2)));
+		check(editor.getMesh());
+
+		editor = editor(HalfEdgeMeshTest.octahedronWithSeam());
+		HalfEdgeMesh mesh = editor.getMesh();
+		int h = halfEdge(mesh, 1, 2);
+		assertTrue(mesh.isSeam(h));
+		assertFalse(editor.flipEdge(h));
+		assertEquals(12, check(mesh));
+	}
+
+	@Test
+	public void collapseInteriorEdge()
+	{
+		MeshEditor editor = editor(HalfEdgeMeshTest.octahedron());
+		HalfEdgeMesh mesh = editor.getMesh();
+		assertEquals(1, editor.collapseEdge(halfEdge(mesh, 0, 1)));
+		editor.compact();
+		// A closed mesh with two vertices of valence 3
+		assertEquals(5, mesh.getNumberOfVertices());
+		assertEquals(6, mesh.getNumberOfFaces());
+		assertEquals(9, check(mesh));
+		int valence3 = 0;
+		for(int v=0; v<5; v++)
+		{
+			assertFalse(mesh.isBorderVertex(v));
+			if(mesh.valence(v) == 3)
+				valence3++;
+		}
+		assertEquals(2, valence3);
+
+		// Collapsing an edge next to a vertex of valence 3 would leave it
+		// with two neighbours
+		for(int h=0; h<mesh.getNumberOfHalfEdges(); h++)
+		{
+			if(mesh.valence(mesh.vertex(HalfEdgeMesh.prev(h))) == 3)
+			{
+				assertEquals(-1, editor.collapseEdge(h));
+				break;
+			}
+		}
+		editor.compact();
+		assertEquals(6, mesh.getNumberOfFaces());
+		assertEquals(9, check(mesh));
+	}
+
+	@Test
+	public void collapseEdgeToBorder()
+	{
+		MeshEditor editor = editor(HalfEdgeMeshTest.fan());
+		HalfEdgeMesh mesh = editor.getMesh();
+		assertEquals(0, editor.collapseEdge(halfEdge(mesh, 1, 0)));
+		editor.compact();
+		assertEquals(6, mesh.getNumberOfVertices());
+		assertEquals(4, mesh.getNumberOfFaces());
+		assertEquals(9, check(mesh));
+		// All vertices are on the border now
+		for(int v=0; v<6; v++)
+			assertTrue(mesh.isBorderVertex(v));
+	}
+
+	@Test
+	public void randomEdits()
+	{
+		MeshEditor editor = editor(LoopSubdivision.subdivide(
+				new HalfEdgeMesh(HalfEdgeMeshTest.octahedronWithSeam()), 2).toVertexData(new SWRenderContext()));
+		HalfEdgeMesh mesh = editor.getMesh();
+		Random random = new Random(1);
+		for(int i=0; i<300; i++)
+		{
+			int h = random.nextInt(mesh.getNumberOfHalfEdges());
+			if(editor.isDeleted(h/3))
+				continue;
+			switch(i%3)
+			{
+			case 0:
+				editor.splitEdge(h);
+				break;
+			case 1:
+				editor.flipEdge(h);
+				break;
+			default:
+				editor.collapseEdge(h);
+			}
+			if(i%30 == 29)
+			{
+				editor.compact();
+				int edges = check(mesh);
+				// The mesh stays closed and of genus 0
+				assertEquals(2, mesh.getNumberOfVertices() - edges + mesh.getNumberOfFaces());
+			}
+		}
+	}
+}
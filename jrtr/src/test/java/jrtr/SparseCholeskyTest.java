@@ -0,0 +1,165 @@
+package jrtr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SparseCholeskyTest {
+
+	/**
+	 * The triangles of a grid of 5 by 4 vertices, and a third triangle at
+	 * the edge 0-1, which makes that edge non-manifold.
+	 */
+	private static int[] triangles()
+	{
+		IntArrayList t = new IntArrayList();
+		for(int y=0; y<3; y++)
+		{
+			for(int x=0; x<4; x++)
+			{
+				int v = 5*y+x;
+				t.add(v, v+1, v+6);
+				t.add(v, v+6, v+5);
+			}
+		}
+		t.add(0, 1, 20);
+		t.add(20, 1, 0);
+		return t.toArray();
+	}
+
+	/**
+	 * A mass matrix plus a multiple of the graph Laplacian of the
+	 * triangles, in the order of {@link Matrix#rows}. Each triangle adds
+	 * its own entries, so edges and diagonals are given several times.
+	 */
+	private static class Matrix {
+
+		final int n = 21;
+		final int[] columnStarts = new int[n+1];
+		final int[] rows;
+		final int[] columns;
+		final int[] triangle;
+
+		Matrix()
+		{
+			int[] t = triangles();
+			// Per corner of each triangle: the diagonal and one edge in both
+			// directions
+			int nnz = 3*t.length;
+			rows = new int[nnz];
+			columns = new int[nnz];
+			triangle = new int[nnz];
+			int[] r = new int[nnz], c = new int[nnz];
+			for(int i=0; i<t.length; i++)
+			{
+				int a = t[i], b = t[i - i%3 + (i+1)%3];
+				r[3*i] = a; c[3*i] = a;
+				r[3*i+1] = a; c[3*i+1] = b;
+				r[3*i+2] = b; c[3*i+2] = a;
+			}
+			for(int p=0; p<nnz; p++)
+				columnStarts[c[p]+1]++;
+			for(int j=0; j<n; j++)
+				columnStarts[j+1] += columnStarts[j];
+			int[] next = columnStarts.clone();
+			for(int p=0; p<nnz; p++)
+			{
+				int q = next[c[p]]++;
+				rows[q] = r[p];
+				columns[q] = c[p];
+				triangle[q] = p/9;
+			}
+		}
+
+		/**
+		 * @return the values of the mass matrix plus t times the Laplacian,
+		 * 		with edge weights that differ per triangle
+		 */
+		double[] values(double t)
+		{
+			double[] values = new double[rows.length];
+			for(int p=0; p<rows.length; p++)
+			{
+				double w = 1 + 0.1*triangle[p];
+				values[p] = rows[p] == columns[p] ? 1.0/3 + t*2*w : -t*w;
+			}
+			return values;
+		}
+
+		/**
+		 * @return A x, summing the entries given several times
+		 */
+		double[] multiply(double[] values, double[] x)
+		{
+			double[] y = new double[n];
+			for(int p=0; p<rows.length; p++)
+				y[rows[p]] += values[p] * x[columns[p]];
+			return y;
+		}
+	}
+
+	private static double[] random(int n, long seed)
+	{
+		Random random = new Random(seed);
+		double[] b = new double[n];
+		for(int i=0; i<n; i++)
+			b[i] = random.nextDouble() - 0.5;
+		return b;
+	}
+
+	@Test
+	public void solveHasSmallResidual()
+	{
+		Matrix a = new Matrix();
+		double[] values = a.values(2);
+		SparseCholesky cholesky = new SparseCholesky(a.n, a.columnStarts, a.rows, values);
+		double[] b = random(a.n, 1);
+		double[] x = new double[a.n];
+		cholesky.solve(b, x);
+		assertArrayEquals(b, a.multiply(values, x), 1e-12);
+	}
+
+	@Test
+	public void solveInPlace()
+	{
+		Matrix a = new Matrix();
+		double[] values = a.values(2);
+		SparseCholesky cholesky = new SparseCholesky(a.n, a.columnStarts, a.rows, values);
+		double[] b = random(a.n, 2);
+		double[] x = new double[a.n];
+		cholesky.solve(b, x);
+		cholesky.solve(b, b);
+		assertArrayEquals(x, b, 0);
+	}
+
+	@Test
+	public void sharedPatternMatchesNewFactorization()
+	{
+		Matrix a = new Matrix();
+		SparseCholesky pattern = new SparseCholesky(a.n, a.columnStarts, a.rows, a.values(2));
+		double[] values = a.values(0.01);
+		SparseCholesky shared = new SparseCholesky(pattern, values);
+		SparseCholesky factored = new SparseCholesky(a.n, a.columnStarts, a.rows, values);
+		assertEquals(factored.getNumberOfNonzeros(), shared.getNumberOfNonzeros());
+
+		double[] b = random(a.n, 3);
+		double[] x = new double[a.n], y = new double[a.n];
+		shared.solve(b, x);
+		factored.solve(b, y);
+		assertArrayEquals(y, x, 1e-12);
+		assertArrayEquals(b, a.multiply(values, x), 1e-12);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsIndefiniteMatrix()
+	{
+		Matrix a = new Matrix();
+		double[] values = a.values(2);
+		for(int p=0; p<values.length; p++)
+			values[p] = -values[p];
+		new SparseCholesky(a.n, a.columnStarts, a.rows, values);
+	}
+}
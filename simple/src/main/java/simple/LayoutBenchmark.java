@@ -0,0 +1,130 @@
+package simple;
+
+import jrtr.*;
+import jrtr.glrenderer.*;
+
+import javax.media.opengl.GL3;
+import javax.media.opengl.GLAutoDrawable;
+import javax.media.opengl.GLEventListener;
+import javax.swing.*;
+import javax.vecmath.*;
+import java.io.IOException;
+
+/**
+ * Compares the rendering time of the separate and the interleaved vertex
+ * buffer layout of {@link GLVertexData}. The bunny is drawn many times into a
+ * small window, so rendering is bound by vertex processing. The layouts are
+ * switched every few hundred frames and the average GPU time per frame is
+ * printed for each.
+ * <p>
+ * Usage: <code>LayoutBenchmark [obj file] [copies]</code>
+ */
+public class LayoutBenchmark
+{
+	static final int FRAMES = 300;
+
+	static GLRenderPanel renderPanel;
+	static RenderContext renderContext;
+	static SimpleSceneManager[] scenes = new SimpleSceneManager[2];
+	static String fileName = "../obj/bunny.obj";
+	static int copies = 64;
+
+	static int frame, scene;
+	static long start, total;
+
+	public final static class BenchmarkRenderPanel extends GLRenderPanel
+	{
+		public void init(RenderContext r)
+		{
+			renderContext = r;
+
+			GLVertexData.Layout[] layouts = GLVertexData.Layout.values();
+			for(int l=0; l<2; l++)
+			{
+				scenes[l] = new SimpleSceneManager();
+				VertexData vertexData;
+				try {
+					vertexData = MeshCache.read(fileName, 1, r);
+				} catch(IOException e) {
+					System.out.print("Could not load " + fileName + ".\n");
+					return;
+				}
+				((GLVertexData)vertexData).setLayout(layouts[l]);
+
+				// Shapes may share vertex data, it is uploaded only once
+				int side = (int)Math.ceil(Math.sqrt(copies));
+				for(int i=0; i<copies; i++)
+				{
+					Shape shape = new Shape(vertexData);
+					Matrix4f t = new Matrix4f();
+					t.setIdentity();
+					t.setTranslation(new Vector3f(i%side - (side-1)/2.f, i/side - (side-1)/2.f, -side*1.5f));
+					shape.setTransformation(t);
+					scenes[l].addShape(shape);
+				}
+			}
+			renderContext.setSceneManager(scenes[0]);
+		}
+	}
+
+	/**
+	 * Measures the time between the start and the end of the rendering of
+	 * a frame. One instance is registered before the render context, one
+	 * after it.
+	 */
+	static class Timer implements GLEventListener
+	{
+		private boolean end;
+
+		Timer(boolean end)
+		{
+			this.end = end;
+		}
+
+		public void display(GLAutoDrawable drawable)
+		{
+			GL3 gl = drawable.getGL().getGL3();
+			gl.glFinish();
+			if(!end)
+			{
+				start = System.nanoTime();
+				return;
+			}
+
+			total += System.nanoTime() - start;
+			if(++frame == FRAMES)
+			{
+				System.out.printf("%s: %.3f ms per frame\n", GLVertexData.Layout.values()[scene],
+						total / 1e6 / FRAMES);
+				frame = 0;
+				total = 0;
+				scene = 1 - scene;
+				renderContext.setSceneManager(scenes[scene]);
+			}
+			renderPanel.getCanvas().repaint();
+		}
+
+		public void init(GLAutoDrawable drawable) {}
+		public void dispose(GLAutoDrawable drawable) {}
+		public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {}
+	}
+
+	public static void main(String[] args)
+	{
+		if(args.length > 0)
+			fileName = args[0];
+		if(args.length > 1)
+			copies = Integer.parseInt(args[1]);
+
+		renderPanel = new BenchmarkRenderPanel();
+		GLAutoDrawable drawable = (GLAutoDrawable)renderPanel.getCanvas();
+		drawable.addGLEventListener(0, new Timer(false));
+		drawable.addGLEventListener(new Timer(true));
+
+		JFrame jframe = new JFrame("layout benchmark");
+		jframe.setSize(256, 256);
+		jframe.getContentPane().add(renderPanel.getCanvas());
+		jframe.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		jframe.setVisible(true);
+	}
+}
@@ -0,0 +1,192 @@
+package simple;
+
+import jrtr.*;
+import jrtr.swrenderer.SWRenderContext;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Compares the time {@link ObjReader#read(String, float, RenderContext)}
+ * takes to load .obj files with the line-based reader it replaced, which
+ * splits each line into strings. Each file is read a few times to warm up
+ * the JIT, then the median of the timed runs is printed for both readers.
+ * No window is opened, the vertex data is made by a software render
+ * context.
+ * <p>
+ * Usage: <code>ObjReaderBenchmark [runs] [obj files...]</code>
+ */
+public class ObjReaderBenchmark
+{
+	static final int WARMUP = 3;
+
+	static int runs = 10;
+	static String[] fileNames = {"../obj/thanatos.obj", "../obj/bunny.obj"};
+
+	interface Reader
+	{
+		VertexData read(String fileName, RenderContext renderContext) throws IOException;
+	}
+
+	/**
+	 * @return the median time of the timed runs in milliseconds
+	 */
+	static double time(Reader reader, String fileName, RenderContext renderContext) throws IOException
+	{
+		double[] times = new double[runs];
+		for(int i=-WARMUP; i<runs; i++)
+		{
+			long start = System.nanoTime();
+			reader.read(fileName, renderContext);
+			if(i >= 0)
+				times[i] = (System.nanoTime() - start) / 1e6;
+		}
+		Arrays.sort(times);
+		return times[runs/2];
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if(args.length > 0)
+			runs = Integer.parseInt(args[0]);
+		if(args.length > 1)
+			fileNames = Arrays.copyOfRange(args, 1, args.length);
+
+		RenderContext renderContext = new SWRenderContext();
+		Reader lines = new Reader() {
+			public VertexData read(String fileName, RenderContext renderContext) throws IOException
+			{
+				return LineReader.read(fileName, 1, renderContext);
+			}
+		};
+		Reader mapped = new Reader() {
+			public VertexData read(String fileName, RenderContext renderContext) throws IOException
+			{
+				return ObjReader.read(fileName, 1, renderContext);
+			}
+		};
+
+		for(String fileName : fileNames)
+		{
+			double before = time(lines, fileName, renderContext);
+			double after = time(mapped, fileName, renderContext);
+			System.out.printf("%s: line-based %.1f ms, ObjReader %.1f ms (%.1fx)\n", fileName,
+					before, after, before / after);
+		}
+	}
+
+	/**
+	 * The line-based reader, kept as the baseline. It reads the file line
+	 * by line, splits each line into strings and stores every position,
+	 * normal and face in its own array.
+	 */
+	static class LineReader
+	{
+		static VertexData read(String fileName, float scale, RenderContext renderContext)
+				throws IOException
+		{
+			ArrayList<float[]> vertices = new ArrayList<float[]>();
+			ArrayList<float[]> texCoords = new ArrayList<float[]>();
+			ArrayList<float[]> normals = new ArrayList<float[]>();
+			ArrayList<int[][]> faces = new ArrayList<int[][]>();
+			boolean hasNormalIndices = true;
+			boolean hasTexCoordIndices = true;
+
+			// Extents for normalization
+			float xMin = Float.MAX_VALUE, xMax = -Float.MAX_VALUE;
+			float yMin = Float.MAX_VALUE, yMax = -Float.MAX_VALUE;
+			float zMin = Float.MAX_VALUE, zMax = -Float.MAX_VALUE;
+
+			BufferedReader reader = new BufferedReader(new FileReader(fileName));
+			try {
+				String line;
+				while((line = reader.readLine()) != null)
+				{
+					String[] s = line.split("\\s+");
+					if(s[0].equals("v"))
+					{
+						float[] v = {Float.valueOf(s[1]), Float.valueOf(s[2]), Float.valueOf(s[3])};
+						vertices.add(v);
+						if(v[0] < xMin) xMin = v[0];
+						if(v[0] > xMax) xMax = v[0];
+						if(v[1] < yMin) yMin = v[1];
+						if(v[1] > yMax) yMax = v[1];
+						if(v[2] < zMin) zMin = v[2];
+						if(v[2] > zMax) zMax = v[2];
+					}
+					else if(s[0].equals("vn"))
+						normals.add(new float[] {Float.valueOf(s[1]), Float.valueOf(s[2]), Float.valueOf(s[3])});
+					else if(s[0].equals("vt"))
+						texCoords.add(new float[] {Float.valueOf(s[1]), Float.valueOf(s[2])});
+					else if(s[0].equals("f"))
+					{
+						// Indices of the position, texture coordinates and
+						// normal of each corner
+						int[][] indices = new int[3][3];
+						for(int i=1; i<s.length && i<4; i++)
+						{
+							String[] ss = s[i].split("/");
+							for(int k=0; k<ss.length; k++)
+							{
+								if(ss[k].length() > 0)
+									indices[i-1][k] = Integer.valueOf(ss[k]);
+								else
+								{
+									indices[i-1][k] = -1;
+									if(k == 1) hasTexCoordIndices = false;
+									if(k == 2) hasNormalIndices = false;
+								}
+							}
+							if(ss.length < 3)
+								hasNormalIndices = false;
+							if(ss.length < 2)
+								hasTexCoordIndices = false;
+						}
+						faces.add(indices);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+
+			// Normalization
+			float xTrans = -(xMax+xMin)/2;
+			float yTrans = -(yMax+yMin)/2;
+			float zTrans = -(zMax+zMin)/2;
+			scale *= Math.min(2/(xMax-xMin), Math.min(2/(yMax-yMin), 2/(zMax-zMin)));
+
+			// One vertex per face corner
+			int nFaces = faces.size();
+			float[] verticesFinal = new float[nFaces*9];
+			float[] normalsFinal = new float[nFaces*9];
+			float[] texCoordsFinal = new float[nFaces*6];
+			int[] indices = new int[nFaces*3];
+			for(int i=0; i<nFaces*3; i++)
+			{
+				// The indices in the file are 1-based
+				int[] corner = faces.get(i/3)[i%3];
+				float[] v = vertices.get(corner[0]-1);
+				verticesFinal[i*3] = scale*(v[0]+xTrans);
+				verticesFinal[i*3+1] = scale*(v[1]+yTrans);
+				verticesFinal[i*3+2] = scale*(v[2]+zTrans);
+				if(normals.size() > 0)
+					System.arraycopy(normals.get((hasNormalIndices ? corner[2] : corner[0])-1), 0, normalsFinal, i*3, 3);
+				if(texCoords.size() > 0)
+					System.arraycopy(texCoords.get((hasTexCoordIndices ? corner[1] : corner[0])-1), 0, texCoordsFinal, i*2, 2);
+				indices[i] = i;
+			}
+
+			VertexData vertexData = renderContext.makeVertexData(nFaces*3);
+			vertexData.addElement(verticesFinal, VertexData.Semantic.POSITION, 3);
+			if(normals.size() > 0)
+				vertexData.addElement(normalsFinal, VertexData.Semantic.NORMAL, 3);
+			if(texCoords.size() > 0)
+				vertexData.addElement(texCoordsFinal, VertexData.Semantic.TEXCOORD, 2);
+			vertexData.addIndices(indices);
+			return vertexData;
+		}
+	}
+}
@@ -342,7 +342,7 @@ public class simple
 	}
 	
 	public static Shape makeObj(String name, RenderContext r) throws IOException{
-		VertexData vertexData = ObjReader.read(name, 4, r);
+		VertexData vertexData = MeshCache.read(name, 4, r);
 		
 		//Color
 		float[] c = new float[vertexData.getNumberOfVertices()*3];
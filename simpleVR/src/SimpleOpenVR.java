@@ -742,7 +742,7 @@ public class SimpleOpenVR
 	}
 	
 	public static Shape makeObj(String name, float scale, RenderContext r) throws IOException{
-		VertexData vertexData = ObjReader.read(name, scale, r);
+		VertexData vertexData = MeshCache.read(name, scale, r);
 		
 		//Color
 		float[] c = new float[vertexData.getNumberOfVertices()*3];